@@ -0,0 +1,414 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.futures;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanInfo;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.BulkBatcher;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.BulkMBeanServerConnection;
+import com.heliosapm.jmxmp.async.OpPriority;
+import com.heliosapm.jmxmp.async.SuspendableMBeanServerConnection;
+
+/**
+ * <p>Title: AsyncBulkMBeanServerConnection</p>
+ * <p>Description: An MBeanServerConnection whose every method returns a {@link CompletableFuture} completed by the
+ * op's response callback. Ops are batched by a {@link BulkBatcher} exactly as they are for the fiber backed
+ * {@link SuspendableMBeanServerConnection}, but nothing suspends, so no fibers, {@code @Suspendable} annotations or
+ * instrumentation agent are needed.</p>
+ * <p>Futures are completed on the thread which sends the batch, so dependent stages that block should be run with
+ * one of the <code>*Async</code> completion methods.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.futures.AsyncBulkMBeanServerConnection</code></p>
+ */
+
+public class AsyncBulkMBeanServerConnection {
+	/** The batcher ops are sent with */
+	protected final BulkBatcher batcher;
+	/** The connection ops are added through */
+	protected final BulkMBeanServerConnection bmc;
+	
+	/**
+	 * Creates a new AsyncBulkMBeanServerConnection which batches ops with the default limits
+	 * @param invBuilder The invocation builder the first ops are added to
+	 */
+	public AsyncBulkMBeanServerConnection(final BulkInvocationBuilder invBuilder) {
+		this(new BulkBatcher(invBuilder));
+	}
+	
+	/**
+	 * Creates a new AsyncBulkMBeanServerConnection
+	 * @param batcher The batcher ops are sent with
+	 */
+	public AsyncBulkMBeanServerConnection(final BulkBatcher batcher) {
+		this(batcher, new BulkMBeanServerConnection(batcher));
+	}
+	
+	/**
+	 * Creates a new AsyncBulkMBeanServerConnection
+	 * @param batcher The batcher ops are sent with
+	 * @param bmc The connection ops are added through, which must send with the same batcher
+	 */
+	protected AsyncBulkMBeanServerConnection(final BulkBatcher batcher, final BulkMBeanServerConnection bmc) {
+		this.batcher = batcher;
+		this.bmc = bmc;
+	}
+	
+	/**
+	 * Returns a connection adding ops with the passed priority to the same batcher as this one
+	 * @param priority The priority of the ops added through the returned connection
+	 * @return the connection
+	 */
+	public AsyncBulkMBeanServerConnection withPriority(final OpPriority priority) {
+		final BulkMBeanServerConnection conn = bmc.withPriority(priority);
+		return conn==bmc ? this : new AsyncBulkMBeanServerConnection(batcher, conn);
+	}
+	
+	/**
+	 * Returns the batcher ops are sent with
+	 * @return the batcher
+	 */
+	public BulkBatcher getBatcher() {
+		return batcher;
+	}
+	
+	/**
+	 * Sends the ops batched so far without waiting for the batcher's limits
+	 * @return true if a batch was sent, false if there was nothing to send
+	 */
+	public boolean flush() {
+		return batcher.flush();
+	}
+	
+	/**
+	 * Sends the pending ops and closes the batcher
+	 */
+	public void close() {
+		batcher.close();
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	public CompletableFuture<Void> addNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.addNotificationListener(name, listener, filter, handback, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	public CompletableFuture<Void> addNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.addNotificationListener(name, listener, filter, handback, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName)
+	 */
+	public CompletableFuture<ObjectInstance> createMBean(final String className, final ObjectName name) {
+		final FutureHandler<ObjectInstance> f = new FutureHandler<ObjectInstance>();
+		bmc.createMBean(className, name, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	public CompletableFuture<ObjectInstance> createMBean(final String className, final ObjectName name, final ObjectName loaderName) {
+		final FutureHandler<ObjectInstance> f = new FutureHandler<ObjectInstance>();
+		bmc.createMBean(className, name, loaderName, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	public CompletableFuture<ObjectInstance> createMBean(final String className, final ObjectName name, final Object[] params, final String[] signature) {
+		final FutureHandler<ObjectInstance> f = new FutureHandler<ObjectInstance>();
+		bmc.createMBean(className, name, params, signature, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	public CompletableFuture<ObjectInstance> createMBean(final String className, final ObjectName name, final ObjectName loaderName, final Object[] params, final String[] signature) {
+		final FutureHandler<ObjectInstance> f = new FutureHandler<ObjectInstance>();
+		bmc.createMBean(className, name, loaderName, params, signature, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getAttribute(javax.management.ObjectName, java.lang.String)
+	 */
+	public CompletableFuture<Object> getAttribute(final ObjectName name, final String attribute) {
+		final FutureHandler<Object> f = new FutureHandler<Object>();
+		bmc.getAttribute(name, attribute, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getAttributes(javax.management.ObjectName, java.lang.String[])
+	 */
+	public CompletableFuture<AttributeList> getAttributes(final ObjectName name, final String[] attributes) {
+		final FutureHandler<AttributeList> f = new FutureHandler<AttributeList>();
+		bmc.getAttributes(name, attributes, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getDefaultDomain()
+	 */
+	public CompletableFuture<String> getDefaultDomain() {
+		final FutureHandler<String> f = new FutureHandler<String>();
+		bmc.getDefaultDomain(f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getDomains()
+	 */
+	public CompletableFuture<String[]> getDomains() {
+		final FutureHandler<String[]> f = new FutureHandler<String[]>();
+		bmc.getDomains(f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getMBeanCount()
+	 */
+	public CompletableFuture<Integer> getMBeanCount() {
+		final FutureHandler<Integer> f = new FutureHandler<Integer>();
+		bmc.getMBeanCount(f);
+		return f;
+	}
+
+	/**
+	 * Returns the MBeanInfo of the passed MBean, completed at once if it is in the connection's MBeanInfo cache
+	 * @see javax.management.MBeanServerConnection#getMBeanInfo(javax.management.ObjectName)
+	 */
+	public CompletableFuture<MBeanInfo> getMBeanInfo(final ObjectName name) {
+		final FutureHandler<MBeanInfo> f = new FutureHandler<MBeanInfo>();
+		bmc.getMBeanInfo(name, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#getObjectInstance(javax.management.ObjectName)
+	 */
+	public CompletableFuture<ObjectInstance> getObjectInstance(final ObjectName name) {
+		final FutureHandler<ObjectInstance> f = new FutureHandler<ObjectInstance>();
+		bmc.getObjectInstance(name, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#invoke(javax.management.ObjectName, java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	public CompletableFuture<Object> invoke(final ObjectName name, final String operationName, final Object[] params, final String[] signature) {
+		final FutureHandler<Object> f = new FutureHandler<Object>();
+		bmc.invoke(name, operationName, params, signature, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#isInstanceOf(javax.management.ObjectName, java.lang.String)
+	 */
+	public CompletableFuture<Boolean> isInstanceOf(final ObjectName name, final String className) {
+		final FutureHandler<Boolean> f = new FutureHandler<Boolean>();
+		bmc.isInstanceOf(name, className, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#isRegistered(javax.management.ObjectName)
+	 */
+	public CompletableFuture<Boolean> isRegistered(final ObjectName name) {
+		final FutureHandler<Boolean> f = new FutureHandler<Boolean>();
+		bmc.isRegistered(name, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	public CompletableFuture<Set<ObjectInstance>> queryMBeans(final ObjectName name, final QueryExp query) {
+		final FutureHandler<Set<ObjectInstance>> f = new FutureHandler<Set<ObjectInstance>>();
+		bmc.queryMBeans(name, query, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	public CompletableFuture<Set<ObjectName>> queryNames(final ObjectName name, final QueryExp query) {
+		final FutureHandler<Set<ObjectName>> f = new FutureHandler<Set<ObjectName>>();
+		bmc.queryNames(name, query, f);
+		return f;
+	}
+
+	/**
+	 * Queries the names matching the passed pattern and query and reads the passed attributes from each in a single op
+	 * @param name The ObjectName pattern
+	 * @param query The optional query, may be null
+	 * @param attributes The names of the attributes to read
+	 * @return a future of the attribute table
+	 */
+	public CompletableFuture<AttributeTable> queryAttributes(final ObjectName name, final QueryExp query, final String[] attributes) {
+		final FutureHandler<AttributeTable> f = new FutureHandler<AttributeTable>();
+		bmc.queryAttributes(name, query, attributes, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	public CompletableFuture<Void> removeNotificationListener(final ObjectName name, final ObjectName listener) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.removeNotificationListener(name, listener, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener)
+	 */
+	public CompletableFuture<Void> removeNotificationListener(final ObjectName name, final NotificationListener listener) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.removeNotificationListener(name, listener, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	public CompletableFuture<Void> removeNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.removeNotificationListener(name, listener, filter, handback, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	public CompletableFuture<Void> removeNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.removeNotificationListener(name, listener, filter, handback, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#setAttribute(javax.management.ObjectName, javax.management.Attribute)
+	 */
+	public CompletableFuture<Void> setAttribute(final ObjectName name, final Attribute attribute) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.setAttribute(name, attribute, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#setAttributes(javax.management.ObjectName, javax.management.AttributeList)
+	 */
+	public CompletableFuture<AttributeList> setAttributes(final ObjectName name, final AttributeList attributes) {
+		final FutureHandler<AttributeList> f = new FutureHandler<AttributeList>();
+		bmc.setAttributes(name, attributes, f);
+		return f;
+	}
+
+	/**
+	 * @see javax.management.MBeanServerConnection#unregisterMBean(javax.management.ObjectName)
+	 */
+	public CompletableFuture<Void> unregisterMBean(final ObjectName name) {
+		final FutureHandler<Void> f = new FutureHandler<Void>();
+		bmc.unregisterMBean(name, f);
+		return f;
+	}
+	
+	/**
+	 * <p>Title: FutureHandler</p>
+	 * <p>Description: A future completed by whichever response callback its op's result arrives on</p> 
+	 * @param <T> The type of the op result
+	 */
+	@SuppressWarnings("unchecked")
+	protected static class FutureHandler<T> extends CompletableFuture<T> implements AsyncJMXResponseHandler {
+		@Override
+		public void onObjectInstance(final ObjectInstance result) {
+			complete((T)result);
+		}
+		@Override
+		public void onBoolean(final boolean result) {
+			complete((T)Boolean.valueOf(result));
+		}
+		@Override
+		public void onAttributeList(final AttributeList result) {
+			complete((T)result);
+		}
+		@Override
+		public void onMBeanInfo(final MBeanInfo result) {
+			complete((T)result);
+		}
+		@Override
+		public void onInteger(final Integer result) {
+			complete((T)result);
+		}
+		@Override
+		public void onObject(final Object result) {
+			complete((T)result);
+		}
+		@Override
+		public void onObjectInstances(final Set<ObjectInstance> result) {
+			complete((T)result);
+		}
+		@Override
+		public void onObjectNames(final Set<ObjectName> result) {
+			complete((T)result);
+		}
+		@Override
+		public void onString(final String result) {
+			complete((T)result);
+		}
+		@Override
+		public void onStrings(final String[] result) {
+			complete((T)result);
+		}
+		@Override
+		public void onComplete() {
+			complete(null);
+		}
+		@Override
+		public void onFail(final Throwable t) {
+			completeExceptionally(t);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async.futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkBatcher;
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.futures.AsyncBulkMBeanServerConnection;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: AsyncConnectionTest</p>
+ * <p>Description: Tests for the future returning bulk MBeanServerConnection</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.futures.AsyncConnectionTest</code></p>
+ */
+
+public class AsyncConnectionTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Tests that futures of ops batched together are completed from the one invocation, failures exceptionally
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFutures() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final ObjectName gauge = new ObjectName("test.async:id=gauge");
+		server.registerMBean(new Gauge(5), gauge);
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkBatcher batcher = new BulkBatcher(session.newBuilder(false, 1024), 256, 64 * 1024, 1, TimeUnit.MINUTES, null);
+		final AsyncBulkMBeanServerConnection conn = new AsyncBulkMBeanServerConnection(batcher);
+		final CompletableFuture<Object> value = conn.getAttribute(gauge, "Value");
+		final CompletableFuture<Boolean> registered = conn.isRegistered(gauge);
+		final CompletableFuture<Integer> count = conn.getMBeanCount();
+		final CompletableFuture<Void> set = conn.setAttribute(gauge, new Attribute("Value", 7));
+		final CompletableFuture<Object> updated = conn.getAttribute(gauge, "Value");
+		final CompletableFuture<Object> missing = conn.getAttribute(new ObjectName("test.async:id=missing"), "Value");
+		Assert.assertFalse(value.isDone());
+		Assert.assertTrue(conn.flush());
+		Assert.assertEquals(5, value.get(5, TimeUnit.SECONDS));
+		Assert.assertTrue(registered.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(server.getMBeanCount(), count.get(5, TimeUnit.SECONDS));
+		Assert.assertNull(set.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(7, updated.get(5, TimeUnit.SECONDS));
+		try {
+			missing.get(5, TimeUnit.SECONDS);
+			Assert.fail("Expected InstanceNotFoundException");
+		} catch (ExecutionException ex) {
+			Assert.assertEquals(InstanceNotFoundException.class, ex.getCause().getClass());
+		}
+		Assert.assertEquals(1, batcher.getManualFlushes());
+		Assert.assertEquals(6, batcher.getFlushedOps());
+		conn.close();
+		session.close();
+	}
+
+	/** Gauge MBean interface */
+	public static interface GaugeMBean {
+		/**
+		 * Returns the gauge value
+		 * @return the value
+		 */
+		public int getValue();
+		/**
+		 * Sets the gauge value
+		 * @param value the value
+		 */
+		public void setValue(int value);
+	}
+
+	/** Gauge MBean */
+	public static class Gauge implements GaugeMBean {
+		/** The gauge value */
+		int value;
+
+		/**
+		 * Creates a new Gauge
+		 * @param value The initial value
+		 */
+		public Gauge(final int value) {
+			this.value = value;
+		}
+		@Override
+		public int getValue() {
+			return value;
+		}
+		@Override
+		public void setValue(final int value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.vthreads;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.BulkBatcher;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.futures.AsyncBulkMBeanServerConnection;
+import com.heliosapm.utils.unsafe.UnsafeAdapter;
+
+/**
+ * <p>Title: VirtualThreadMBeanServerConnection</p>
+ * <p>Description: A blocking MBeanServerConnection for code running on virtual threads. Each call queues its op on a
+ * shared {@link BulkBatcher} and parks the calling virtual thread until the op's response arrives, so many collector
+ * threads written as ordinary blocking code have their ops batched into bulk invocations, with none of the fibers,
+ * {@code @Suspendable} annotations or instrumentation agent the {@code SuspendableMBeanServerConnection} needs.
+ * Exceptions the called method declares, and unchecked exceptions, are rethrown as the MBeanServer threw them, and
+ * any other exception is wrapped in an {@link IOException}.</p>
+ * <p>Calls park on a {@link CompletableFuture} outside of any monitor, so they do not pin the carrier thread.
+ * Platform threads may call the connection too, but each one then blocks a whole thread for the batch linger.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.vthreads.VirtualThreadMBeanServerConnection</code></p>
+ */
+
+public class VirtualThreadMBeanServerConnection implements MBeanServerConnection {
+	/** The future returning connection the ops are queued with */
+	protected final AsyncBulkMBeanServerConnection conn;
+	
+	/**
+	 * Creates a new VirtualThreadMBeanServerConnection which batches ops with the default limits
+	 * @param invBuilder The invocation builder the first ops are added to
+	 */
+	public VirtualThreadMBeanServerConnection(final BulkInvocationBuilder invBuilder) {
+		this(new BulkBatcher(invBuilder));
+	}
+	
+	/**
+	 * Creates a new VirtualThreadMBeanServerConnection
+	 * @param batcher The batcher ops are sent with
+	 */
+	public VirtualThreadMBeanServerConnection(final BulkBatcher batcher) {
+		this(new AsyncBulkMBeanServerConnection(batcher));
+	}
+	
+	/**
+	 * Creates a new VirtualThreadMBeanServerConnection
+	 * @param conn The future returning connection the ops are queued with
+	 */
+	public VirtualThreadMBeanServerConnection(final AsyncBulkMBeanServerConnection conn) {
+		if(conn==null) throw new IllegalArgumentException("The passed connection was null");
+		this.conn = conn;
+	}
+	
+	/**
+	 * Creates an executor which runs each task on a new named virtual thread, for collector tasks calling this connection
+	 * @param name The prefix of the virtual thread names
+	 * @return the executor
+	 */
+	public static ExecutorService newExecutor(final String name) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 0).factory());
+	}
+	
+	/**
+	 * Parks the calling thread until the passed op future completes
+	 * @param future The op future
+	 * @param declared The checked exceptions the calling MBeanServerConnection method declares, besides {@link IOException}
+	 * @return the op result
+	 * @throws IOException thrown if the caller is interrupted, or wrapping an op exception the calling method does not declare.
+	 * Unchecked and declared op exceptions are rethrown as is.
+	 */
+	protected static <T> T await(final CompletableFuture<T> future, final Class<?>...declared) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for op response");
+		} catch (ExecutionException eex) {
+			final Throwable cause = eex.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			if(cause instanceof IOException) throw (IOException)cause;
+			for(final Class<?> type: declared) {
+				if(type.isInstance(cause)) {
+					// declared by the calling method, so the caller's signature covers it
+					UnsafeAdapter.throwException(cause);
+				}
+			}
+			throw new IOException("Op failed with an undeclared exception", cause);
+		}
+	}
+	
+	/**
+	 * Returns the future returning connection the ops are queued with
+	 * @return the async connection
+	 */
+	public AsyncBulkMBeanServerConnection getAsyncConnection() {
+		return conn;
+	}
+	
+	/**
+	 * Sends the pending ops and closes the batcher
+	 */
+	public void close() {
+		conn.close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		await(conn.addNotificationListener(name, listener, filter, handback), InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		await(conn.addNotificationListener(name, listener, filter, handback), InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		return await(conn.createMBean(className, name), ReflectionException.class, InstanceAlreadyExistsException.class, MBeanRegistrationException.class, MBeanException.class, NotCompliantMBeanException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		return await(conn.createMBean(className, name, loaderName), ReflectionException.class, InstanceAlreadyExistsException.class, MBeanRegistrationException.class, MBeanException.class, NotCompliantMBeanException.class, InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		return await(conn.createMBean(className, name, params, signature), ReflectionException.class, InstanceAlreadyExistsException.class, MBeanRegistrationException.class, MBeanException.class, NotCompliantMBeanException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		return await(conn.createMBean(className, name, loaderName, params, signature), ReflectionException.class, InstanceAlreadyExistsException.class, MBeanRegistrationException.class, MBeanException.class, NotCompliantMBeanException.class, InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttribute(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(final ObjectName name, final String attribute) throws MBeanException, AttributeNotFoundException, InstanceNotFoundException, ReflectionException, IOException {
+		return await(conn.getAttribute(name, attribute), MBeanException.class, AttributeNotFoundException.class, InstanceNotFoundException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttributes(javax.management.ObjectName, java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(final ObjectName name, final String[] attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return await(conn.getAttributes(name, attributes), InstanceNotFoundException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getDefaultDomain()
+	 */
+	@Override
+	public String getDefaultDomain() throws IOException {
+		return await(conn.getDefaultDomain());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getDomains()
+	 */
+	@Override
+	public String[] getDomains() throws IOException {
+		return await(conn.getDomains());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getMBeanCount()
+	 */
+	@Override
+	public Integer getMBeanCount() throws IOException {
+		return await(conn.getMBeanCount());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getMBeanInfo(javax.management.ObjectName)
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo(final ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+		return await(conn.getMBeanInfo(name), InstanceNotFoundException.class, IntrospectionException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getObjectInstance(javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance getObjectInstance(final ObjectName name) throws InstanceNotFoundException, IOException {
+		return await(conn.getObjectInstance(name), InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#invoke(javax.management.ObjectName, java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(final ObjectName name, final String operationName, final Object[] params, final String[] signature) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+		return await(conn.invoke(name, operationName, params, signature), InstanceNotFoundException.class, MBeanException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isInstanceOf(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public boolean isInstanceOf(final ObjectName name, final String className) throws InstanceNotFoundException, IOException {
+		return await(conn.isInstanceOf(name, className), InstanceNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isRegistered(javax.management.ObjectName)
+	 */
+	@Override
+	public boolean isRegistered(final ObjectName name) throws IOException {
+		return await(conn.isRegistered(name));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@Override
+	public Set<ObjectInstance> queryMBeans(final ObjectName name, final QueryExp query) throws IOException {
+		return await(conn.queryMBeans(name, query));
+	}
+
+	/**
+	 * Queries the names matching the passed pattern and query and reads the passed attributes from each in a single op
+	 * @param name The ObjectName pattern
+	 * @param query The optional query, may be null
+	 * @param attributes The names of the attributes to read
+	 * @return the attribute table
+	 * @throws IOException thrown if the op fails or the caller is interrupted
+	 */
+	public AttributeTable queryAttributes(final ObjectName name, final QueryExp query, final String[] attributes) throws IOException {
+		return await(conn.queryAttributes(name, query, attributes));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@Override
+	public Set<ObjectName> queryNames(final ObjectName name, final QueryExp query) throws IOException {
+		return await(conn.queryNames(name, query));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		await(conn.removeNotificationListener(name, listener), InstanceNotFoundException.class, ListenerNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		await(conn.removeNotificationListener(name, listener), InstanceNotFoundException.class, ListenerNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		await(conn.removeNotificationListener(name, listener, filter, handback), InstanceNotFoundException.class, ListenerNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		await(conn.removeNotificationListener(name, listener, filter, handback), InstanceNotFoundException.class, ListenerNotFoundException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttribute(javax.management.ObjectName, javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(final ObjectName name, final Attribute attribute) throws InstanceNotFoundException, AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+		await(conn.setAttribute(name, attribute), InstanceNotFoundException.class, AttributeNotFoundException.class, InvalidAttributeValueException.class, MBeanException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttributes(javax.management.ObjectName, javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(final ObjectName name, final AttributeList attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return await(conn.setAttributes(name, attributes), InstanceNotFoundException.class, ReflectionException.class);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#unregisterMBean(javax.management.ObjectName)
+	 */
+	@Override
+	public void unregisterMBean(final ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+		await(conn.unregisterMBean(name), InstanceNotFoundException.class, MBeanRegistrationException.class);
+	}
+}
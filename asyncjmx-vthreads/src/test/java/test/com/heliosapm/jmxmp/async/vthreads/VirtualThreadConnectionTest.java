@@ -0,0 +1,135 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async.vthreads;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkBatcher;
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.futures.AsyncBulkMBeanServerConnection;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+import com.heliosapm.jmxmp.async.vthreads.VirtualThreadMBeanServerConnection;
+
+/**
+ * <p>Title: VirtualThreadConnectionTest</p>
+ * <p>Description: Tests for the blocking virtual thread MBeanServerConnection</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.vthreads.VirtualThreadConnectionTest</code></p>
+ */
+
+public class VirtualThreadConnectionTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+	/** The number of collector threads */
+	static final int THREADS = 64;
+
+	/**
+	 * Tests that blocking calls from many virtual threads are batched into a few invocations
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBatchedBlockingCalls() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final String id = (String)server.getAttribute(MBeanServerDelegate.DELEGATE_NAME, "MBeanServerId");
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkBatcher batcher = new BulkBatcher(session.newBuilder(false, 1024), 1024, 64 * 1024, 50, TimeUnit.MILLISECONDS, null);
+		final VirtualThreadMBeanServerConnection conn = new VirtualThreadMBeanServerConnection(batcher);
+		final ExecutorService executor = VirtualThreadMBeanServerConnection.newExecutor("collector-");
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<String>> results = new ArrayList<Future<String>>();
+		for(int i = 0; i < THREADS; i++) {
+			results.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					start.await();
+					Assert.assertTrue(conn.isRegistered(MBeanServerDelegate.DELEGATE_NAME));
+					return (String)conn.getAttribute(MBeanServerDelegate.DELEGATE_NAME, "MBeanServerId");
+				}
+			}));
+		}
+		start.countDown();
+		for(final Future<String> f: results) {
+			Assert.assertEquals(id, f.get(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(THREADS * 2, batcher.getFlushedOps());
+		final long flushes = batcher.getOpFlushes() + batcher.getByteFlushes() + batcher.getLingerFlushes() + batcher.getManualFlushes();
+		Assert.assertTrue("Expected batched ops but got " + flushes + " flushes", flushes < THREADS);
+		
+		try {
+			conn.getAttribute(new ObjectName("test.vthreads:id=missing"), "Value");
+			Assert.fail("Expected InstanceNotFoundException");
+		} catch (InstanceNotFoundException ex) {
+			/* expected */
+		}
+		executor.shutdown();
+		conn.close();
+		session.close();
+	}
+
+	/**
+	 * Tests that a checked exception the called method does not declare is wrapped in an IOException
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testUndeclaredExceptionWrapped() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession session = new BulkClientSession(server);
+		final InstanceNotFoundException undeclared = new InstanceNotFoundException("test.vthreads:id=missing");
+		final VirtualThreadMBeanServerConnection conn = new VirtualThreadMBeanServerConnection(new AsyncBulkMBeanServerConnection(session.newBuilder(false, 1024)) {
+			@Override
+			public CompletableFuture<Boolean> isRegistered(final ObjectName name) {
+				final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+				future.completeExceptionally(undeclared);
+				return future;
+			}
+		});
+		try {
+			conn.isRegistered(new ObjectName("test.vthreads:id=missing"));
+			Assert.fail("Expected IOException");
+		} catch (IOException ex) {
+			Assert.assertSame(undeclared, ex.getCause());
+		}
+		try {
+			conn.getObjectInstance(new ObjectName("test.vthreads:id=missing"));
+			Assert.fail("Expected InstanceNotFoundException");
+		} catch (InstanceNotFoundException ex) {
+			/* expected */
+		}
+		conn.close();
+		session.close();
+	}
+}
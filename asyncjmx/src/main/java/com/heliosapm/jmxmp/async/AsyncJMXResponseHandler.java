@@ -52,6 +52,9 @@ import com.heliosapm.utils.unsafe.UnsafeAdapter;
  *     <li><b><code>{@link java.lang.String}[]</code></b></li>
  *     <li><b><code>void</code></b></li>
  * </ul>
+ * {@link NumericResponseHandler}s take long and double {@link java.lang.Object} results unboxed.
+ * {@link MBeanOp#QUERYATTRIBUTES} results are {@link AttributeTable}s, handed to {@link AttributeTableResponseHandler}s
+ * and to {@link #onObject(Object)} of other handlers.
  * </p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
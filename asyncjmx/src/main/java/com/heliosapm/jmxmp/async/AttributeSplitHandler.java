@@ -0,0 +1,228 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanInfo;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: AttributeSplitHandler</p>
+ * <p>Description: Handler for a getAttributes op which several getAttribute ops on the same MBean were merged into.
+ * The returned list is split back apart, calling back the handlers of each attribute as their getAttribute op would have.
+ * Since getAttributes drops the attributes it fails to read, the handlers of a missing attribute are failed with an
+ * {@link AttributeNotFoundException}. When the list arrives as a row of a columnar run, long and double
+ * values are handed on without boxing.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.AttributeSplitHandler</code></p>
+ */
+
+public class AttributeSplitHandler implements ColumnarResponseHandler {
+	/** The ObjectName of the MBean the attributes are read from */
+	protected final ObjectName name;
+	/** The handlers of each attribute, in request order */
+	protected final LinkedHashMap<String, ? extends AsyncJMXResponseHandler> targets;
+	
+	/**
+	 * Creates a new AttributeSplitHandler
+	 * @param name The ObjectName of the MBean the attributes are read from
+	 * @param targets The handlers of each attribute, in request order. An attribute's handler may be null.
+	 */
+	public AttributeSplitHandler(final ObjectName name, final LinkedHashMap<String, ? extends AsyncJMXResponseHandler> targets) {
+		this.name = name;
+		this.targets = targets;
+	}
+	
+	/**
+	 * Returns the names of the attributes to request
+	 * @return the attribute names
+	 */
+	public String[] getAttributeNames() {
+		return targets.keySet().toArray(new String[targets.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onAttributeList(javax.management.AttributeList)
+	 */
+	@Override
+	public void onAttributeList(final AttributeList result) {
+		final Map<String, Object> values = new HashMap<String, Object>(result.size());
+		for(final Object o: result) {
+			final Attribute attr = (Attribute)o;
+			values.put(attr.getName(), attr.getValue());
+		}
+		for(final Map.Entry<String, ? extends AsyncJMXResponseHandler> target: targets.entrySet()) {
+			if(target.getValue()==null) continue;
+			final String attrName = target.getKey();
+			if(values.containsKey(attrName)) {
+				MBeanOp.GETATTRIBUTE.handleResponse(values.get(attrName), target.getValue());
+			} else {
+				target.getValue().onFail(new AttributeNotFoundException("Attribute [" + attrName + "] was not returned for [" + name + "]"));
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.ColumnarResponseHandler#onAttributeRow(com.heliosapm.jmxmp.async.AttributeTable.Row)
+	 */
+	@Override
+	public void onAttributeRow(final AttributeTable.Row row) {
+		final AttributeTable table = row.getTable();
+		final int index = row.getIndex();
+		for(final Map.Entry<String, ? extends AsyncJMXResponseHandler> target: targets.entrySet()) {
+			if(target.getValue()==null) continue;
+			final String attrName = target.getKey();
+			final int column = table.getColumnIndex(attrName);
+			if(column==-1 || !table.isPresent(index, column)) {
+				target.getValue().onFail(new AttributeNotFoundException("Attribute [" + attrName + "] was not returned for [" + name + "]"));
+				continue;
+			}
+			switch(table.getColumnType(column)) {
+				case AttributeTable.TYPE_LONG:
+					MBeanOp.GETATTRIBUTE.handleLong(table.getLong(index, column), target.getValue());
+					break;
+				case AttributeTable.TYPE_DOUBLE:
+					MBeanOp.GETATTRIBUTE.handleDouble(table.getDouble(index, column), target.getValue());
+					break;
+				default:
+					MBeanOp.GETATTRIBUTE.handleResponse(table.getValue(index, column), target.getValue());
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onFail(java.lang.Throwable)
+	 */
+	@Override
+	public void onFail(final Throwable t) {
+		for(final AsyncJMXResponseHandler target: targets.values()) {
+			if(target!=null) target.onFail(t);
+		}
+	}
+	
+	/**
+	 * Fails all the handlers on a callback a getAttributes op does not make
+	 * @param callback The name of the callback
+	 */
+	protected void unexpected(final String callback) {
+		onFail(new IllegalStateException("Unexpected callback [" + callback + "] for merged getAttributes on [" + name + "]"));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectInstance(javax.management.ObjectInstance)
+	 */
+	@Override
+	public void onObjectInstance(final ObjectInstance result) {
+		unexpected("onObjectInstance");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onBoolean(boolean)
+	 */
+	@Override
+	public void onBoolean(final boolean result) {
+		unexpected("onBoolean");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onMBeanInfo(javax.management.MBeanInfo)
+	 */
+	@Override
+	public void onMBeanInfo(final MBeanInfo result) {
+		unexpected("onMBeanInfo");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onInteger(java.lang.Integer)
+	 */
+	@Override
+	public void onInteger(final Integer result) {
+		unexpected("onInteger");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObject(java.lang.Object)
+	 */
+	@Override
+	public void onObject(final Object result) {
+		unexpected("onObject");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectInstances(java.util.Set)
+	 */
+	@Override
+	public void onObjectInstances(final Set<ObjectInstance> result) {
+		unexpected("onObjectInstances");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectNames(java.util.Set)
+	 */
+	@Override
+	public void onObjectNames(final Set<ObjectName> result) {
+		unexpected("onObjectNames");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onString(java.lang.String)
+	 */
+	@Override
+	public void onString(final String result) {
+		unexpected("onString");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onStrings(java.lang.String[])
+	 */
+	@Override
+	public void onStrings(final String[] result) {
+		unexpected("onStrings");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onComplete()
+	 */
+	@Override
+	public void onComplete() {
+		unexpected("onComplete");
+	}
+}
@@ -0,0 +1,560 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: AttributeTable</p>
+ * <p>Description: Columnar attribute values for a set of MBeans, as returned by {@link MBeanOp#QUERYATTRIBUTES}.
+ * There is one row per MBean, an ObjectName column, and one value column per requested attribute.
+ * Each value column is typed by the values it holds: a column of only longs, ints, doubles or booleans is held
+ * as a primitive array, anything else as an <code>Object[]</code>. Values an MBean did not return are absent.
+ * Tables built from a columnar run of {@link MBeanOp#GETATTRIBUTES} responses have no ObjectName column, so their names are null.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.AttributeTable</code></p>
+ */
+
+public class AttributeTable implements Serializable {
+	/**  */
+	private static final long serialVersionUID = -3467286934712650416L;
+	
+	/** Column type of a <code>long[]</code> column */
+	public static final byte TYPE_LONG = 0;
+	/** Column type of an <code>int[]</code> column */
+	public static final byte TYPE_INT = 1;
+	/** Column type of a <code>double[]</code> column */
+	public static final byte TYPE_DOUBLE = 2;
+	/** Column type of a <code>boolean[]</code> column */
+	public static final byte TYPE_BOOLEAN = 3;
+	/** Column type of an <code>Object[]</code> column */
+	public static final byte TYPE_OBJECT = 4;
+	
+	/** The ObjectName column */
+	protected final ObjectName[] objectNames;
+	/** The attribute names, one per value column */
+	protected final String[] attributeNames;
+	/** The value column types */
+	protected final byte[] columnTypes;
+	/** The value columns */
+	protected final Object[] columns;
+	/** The rows, by column, the MBean did not return a value for */
+	protected final BitSet[] absent;
+	
+	/**
+	 * Creates a new AttributeTable
+	 * @param objectNames The ObjectName column
+	 * @param attributeNames The attribute names, one per value column
+	 * @param columnTypes The value column types
+	 * @param columns The value columns
+	 * @param absent The rows, by column, the MBean did not return a value for
+	 */
+	public AttributeTable(final ObjectName[] objectNames, final String[] attributeNames, final byte[] columnTypes, final Object[] columns, final BitSet[] absent) {
+		if(attributeNames.length!=columnTypes.length || attributeNames.length!=columns.length || attributeNames.length!=absent.length) {
+			throw new IllegalArgumentException("Column counts differ");
+		}
+		this.objectNames = objectNames;
+		this.attributeNames = attributeNames;
+		this.columnTypes = columnTypes;
+		this.columns = columns;
+		this.absent = absent;
+	}
+	
+	/**
+	 * Returns the number of rows
+	 * @return the row count
+	 */
+	public int getRowCount() {
+		return objectNames.length;
+	}
+	
+	/**
+	 * Returns the number of value columns
+	 * @return the column count
+	 */
+	public int getColumnCount() {
+		return attributeNames.length;
+	}
+	
+	/**
+	 * Returns the ObjectName of the passed row
+	 * @param row The row
+	 * @return the ObjectName
+	 */
+	public ObjectName getObjectName(final int row) {
+		return objectNames[row];
+	}
+	
+	/**
+	 * Returns the ObjectName column
+	 * @return the ObjectName column
+	 */
+	public ObjectName[] getObjectNames() {
+		return objectNames;
+	}
+	
+	/**
+	 * Returns the attribute name of the passed column
+	 * @param column The column
+	 * @return the attribute name
+	 */
+	public String getAttributeName(final int column) {
+		return attributeNames[column];
+	}
+	
+	/**
+	 * Returns the attribute names, one per value column
+	 * @return the attribute names
+	 */
+	public String[] getAttributeNames() {
+		return attributeNames;
+	}
+	
+	/**
+	 * Returns the index of the value column for the passed attribute name
+	 * @param attributeName The attribute name
+	 * @return the column index or -1 if the attribute was not requested
+	 */
+	public int getColumnIndex(final String attributeName) {
+		for(int i = 0; i < attributeNames.length; i++) {
+			if(attributeNames[i].equals(attributeName)) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the type of the passed column
+	 * @param column The column
+	 * @return the column type, one of the <code>TYPE_</code> constants
+	 */
+	public byte getColumnType(final int column) {
+		return columnTypes[column];
+	}
+	
+	/**
+	 * Returns the passed value column. The array type is given by {@link #getColumnType(int)}.
+	 * @param column The column
+	 * @return the value column
+	 */
+	public Object getColumn(final int column) {
+		return columns[column];
+	}
+	
+	/**
+	 * Returns the rows of the passed column the MBean did not return a value for
+	 * @param column The column
+	 * @return the absent rows
+	 */
+	public BitSet getAbsent(final int column) {
+		return absent[column];
+	}
+	
+	/**
+	 * Indicates if the MBean of the passed row returned a value for the passed column
+	 * @param row The row
+	 * @param column The column
+	 * @return true if a value is present, false otherwise
+	 */
+	public boolean isPresent(final int row, final int column) {
+		return !absent[column].get(row);
+	}
+	
+	/**
+	 * Returns a numeric value as a long without boxing
+	 * @param row The row
+	 * @param column The column, which must be a long, int or double column
+	 * @return the value, or zero if absent
+	 */
+	public long getLong(final int row, final int column) {
+		switch(columnTypes[column]) {
+			case TYPE_LONG:
+				return ((long[])columns[column])[row];
+			case TYPE_INT:
+				return ((int[])columns[column])[row];
+			case TYPE_DOUBLE:
+				return (long)((double[])columns[column])[row];
+			default:
+				throw new IllegalStateException("Column [" + attributeNames[column] + "] is not numeric");
+		}
+	}
+	
+	/**
+	 * Returns a numeric value as a double without boxing
+	 * @param row The row
+	 * @param column The column, which must be a long, int or double column
+	 * @return the value, or zero if absent
+	 */
+	public double getDouble(final int row, final int column) {
+		switch(columnTypes[column]) {
+			case TYPE_LONG:
+				return ((long[])columns[column])[row];
+			case TYPE_INT:
+				return ((int[])columns[column])[row];
+			case TYPE_DOUBLE:
+				return ((double[])columns[column])[row];
+			default:
+				throw new IllegalStateException("Column [" + attributeNames[column] + "] is not numeric");
+		}
+	}
+	
+	/**
+	 * Returns a boolean value without boxing
+	 * @param row The row
+	 * @param column The column, which must be a boolean column
+	 * @return the value, or false if absent
+	 */
+	public boolean getBoolean(final int row, final int column) {
+		if(columnTypes[column]!=TYPE_BOOLEAN) throw new IllegalStateException("Column [" + attributeNames[column] + "] is not boolean");
+		return ((boolean[])columns[column])[row];
+	}
+	
+	/**
+	 * Returns a value, boxing primitive column values
+	 * @param row The row
+	 * @param column The column
+	 * @return the value, or null if absent
+	 */
+	public Object getValue(final int row, final int column) {
+		if(absent[column].get(row)) return null;
+		switch(columnTypes[column]) {
+			case TYPE_LONG:
+				return ((long[])columns[column])[row];
+			case TYPE_INT:
+				return ((int[])columns[column])[row];
+			case TYPE_DOUBLE:
+				return ((double[])columns[column])[row];
+			case TYPE_BOOLEAN:
+				return ((boolean[])columns[column])[row];
+			default:
+				return ((Object[])columns[column])[row];
+		}
+	}
+	
+	/**
+	 * Returns an accessor for the passed row
+	 * @param row The row
+	 * @return the row accessor
+	 */
+	public Row row(final int row) {
+		if(row < 0 || row >= objectNames.length) throw new IndexOutOfBoundsException("Invalid row [" + row + "]");
+		return new Row(this, row);
+	}
+	
+	/**
+	 * Returns the present values of the passed row as an attribute list
+	 * @param row The row
+	 * @return the attribute list
+	 */
+	public AttributeList getRow(final int row) {
+		final AttributeList list = new AttributeList(attributeNames.length);
+		for(int c = 0; c < attributeNames.length; c++) {
+			if(!absent[c].get(row)) list.add(new Attribute(attributeNames[c], getValue(row, c)));
+		}
+		return list;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AttributeTable [rows=" + objectNames.length + ", columns=" + attributeNames.length + "]";
+	}
+	
+	/**
+	 * <p>Title: Row</p>
+	 * <p>Description: Accessor for one row of a table, reading primitive column values without boxing</p> 
+	 */
+	public static class Row {
+		/** The table */
+		protected final AttributeTable table;
+		/** The row index */
+		protected final int index;
+		
+		/**
+		 * Creates a new Row
+		 * @param table The table
+		 * @param index The row index
+		 */
+		Row(final AttributeTable table, final int index) {
+			this.table = table;
+			this.index = index;
+		}
+		
+		/**
+		 * Returns the table
+		 * @return the table
+		 */
+		public AttributeTable getTable() {
+			return table;
+		}
+		
+		/**
+		 * Returns the row index
+		 * @return the row index
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * Returns the ObjectName of the row
+		 * @return the ObjectName, null if the table has no ObjectName column
+		 */
+		public ObjectName getObjectName() {
+			return table.getObjectName(index);
+		}
+		
+		/**
+		 * Indicates if the MBean returned a value for the passed attribute
+		 * @param attributeName The attribute name
+		 * @return true if a value is present, false otherwise
+		 */
+		public boolean isPresent(final String attributeName) {
+			final int c = table.getColumnIndex(attributeName);
+			return c!=-1 && table.isPresent(index, c);
+		}
+		
+		/**
+		 * Returns a numeric value as a long without boxing
+		 * @param column The column
+		 * @return the value
+		 */
+		public long getLong(final int column) {
+			return table.getLong(index, column);
+		}
+		
+		/**
+		 * Returns a numeric value as a long without boxing
+		 * @param attributeName The attribute name
+		 * @return the value
+		 */
+		public long getLong(final String attributeName) {
+			return table.getLong(index, column(attributeName));
+		}
+		
+		/**
+		 * Returns a numeric value as a double without boxing
+		 * @param column The column
+		 * @return the value
+		 */
+		public double getDouble(final int column) {
+			return table.getDouble(index, column);
+		}
+		
+		/**
+		 * Returns a numeric value as a double without boxing
+		 * @param attributeName The attribute name
+		 * @return the value
+		 */
+		public double getDouble(final String attributeName) {
+			return table.getDouble(index, column(attributeName));
+		}
+		
+		/**
+		 * Returns a boolean value without boxing
+		 * @param attributeName The attribute name
+		 * @return the value
+		 */
+		public boolean getBoolean(final String attributeName) {
+			return table.getBoolean(index, column(attributeName));
+		}
+		
+		/**
+		 * Returns a value, boxing primitive column values
+		 * @param attributeName The attribute name
+		 * @return the value, or null if absent
+		 */
+		public Object getValue(final String attributeName) {
+			return table.getValue(index, column(attributeName));
+		}
+		
+		/**
+		 * Returns the present values of the row as an attribute list
+		 * @return the attribute list
+		 */
+		public AttributeList toAttributeList() {
+			return table.getRow(index);
+		}
+		
+		/**
+		 * Returns the column index of the passed attribute
+		 * @param attributeName The attribute name
+		 * @return the column index
+		 */
+		protected int column(final String attributeName) {
+			final int c = table.getColumnIndex(attributeName);
+			if(c==-1) throw new IllegalArgumentException("No column for attribute [" + attributeName + "]");
+			return c;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "AttributeTable.Row [" + index + "]:" + toAttributeList();
+		}
+	}
+	
+	/**
+	 * Creates a new table builder
+	 * @param attributeNames The attribute names, one per value column
+	 * @return the builder
+	 */
+	public static Builder builder(final String...attributeNames) {
+		return new Builder(attributeNames);
+	}
+	
+	/**
+	 * <p>Title: Builder</p>
+	 * <p>Description: Collects rows and types the value columns when built</p> 
+	 */
+	public static class Builder {
+		/** The attribute names */
+		protected final String[] attributeNames;
+		/** The collected ObjectNames */
+		protected final List<ObjectName> objectNames = new ArrayList<ObjectName>();
+		/** The collected values by row */
+		protected final List<Object[]> rows = new ArrayList<Object[]>();
+		/** The collected absent values by row */
+		protected final List<boolean[]> rowsAbsent = new ArrayList<boolean[]>();
+		
+		/**
+		 * Creates a new Builder
+		 * @param attributeNames The attribute names, one per value column
+		 */
+		Builder(final String[] attributeNames) {
+			this.attributeNames = attributeNames;
+		}
+		
+		/**
+		 * Returns the number of rows added
+		 * @return the row count
+		 */
+		public int getRowCount() {
+			return rows.size();
+		}
+		
+		/**
+		 * Adds a row
+		 * @param on The MBean ObjectName, or null if the table has no ObjectName column
+		 * @param values The attribute values the MBean returned
+		 * @return this builder
+		 */
+		public Builder row(final ObjectName on, final AttributeList values) {
+			final Object[] row = new Object[attributeNames.length];
+			final boolean[] missing = new boolean[attributeNames.length];
+			Arrays.fill(missing, true);
+			for(final Attribute attr: values.asList()) {
+				for(int c = 0; c < attributeNames.length; c++) {
+					if(missing[c] && attributeNames[c].equals(attr.getName())) {
+						row[c] = attr.getValue();
+						missing[c] = false;
+						break;
+					}
+				}
+			}
+			objectNames.add(on);
+			rows.add(row);
+			rowsAbsent.add(missing);
+			return this;
+		}
+		
+		/**
+		 * Builds the table
+		 * @return the table
+		 */
+		public AttributeTable build() {
+			final int rowCount = rows.size();
+			final int columnCount = attributeNames.length;
+			final byte[] types = new byte[columnCount];
+			final Object[] columns = new Object[columnCount];
+			final BitSet[] absent = new BitSet[columnCount];
+			for(int c = 0; c < columnCount; c++) {
+				absent[c] = new BitSet(rowCount);
+				Class<?> type = null;
+				boolean mixed = false;
+				for(int r = 0; r < rowCount; r++) {
+					if(rowsAbsent.get(r)[c]) {
+						absent[c].set(r);
+						continue;
+					}
+					final Object v = rows.get(r)[c];
+					final Class<?> vtype = v==null ? null : v.getClass();
+					if(vtype==null || (type!=null && type!=vtype)) mixed = true;
+					type = vtype;
+				}
+				types[c] = mixed ? TYPE_OBJECT : typeOf(type);
+				switch(types[c]) {
+					case TYPE_LONG:
+						final long[] longs = new long[rowCount];
+						for(int r = 0; r < rowCount; r++) if(!absent[c].get(r)) longs[r] = (Long)rows.get(r)[c];
+						columns[c] = longs;
+						break;
+					case TYPE_INT:
+						final int[] ints = new int[rowCount];
+						for(int r = 0; r < rowCount; r++) if(!absent[c].get(r)) ints[r] = (Integer)rows.get(r)[c];
+						columns[c] = ints;
+						break;
+					case TYPE_DOUBLE:
+						final double[] doubles = new double[rowCount];
+						for(int r = 0; r < rowCount; r++) if(!absent[c].get(r)) doubles[r] = (Double)rows.get(r)[c];
+						columns[c] = doubles;
+						break;
+					case TYPE_BOOLEAN:
+						final boolean[] booleans = new boolean[rowCount];
+						for(int r = 0; r < rowCount; r++) if(!absent[c].get(r)) booleans[r] = (Boolean)rows.get(r)[c];
+						columns[c] = booleans;
+						break;
+					default:
+						final Object[] objects = new Object[rowCount];
+						for(int r = 0; r < rowCount; r++) objects[r] = rows.get(r)[c];
+						columns[c] = objects;
+				}
+			}
+			return new AttributeTable(objectNames.toArray(new ObjectName[rowCount]), attributeNames, types, columns, absent);
+		}
+		
+		/**
+		 * Returns the column type for values of the passed class
+		 * @param type The class of every present value, null if there are none
+		 * @return the column type
+		 */
+		protected static byte typeOf(final Class<?> type) {
+			if(type==Long.class) return TYPE_LONG;
+			if(type==Integer.class) return TYPE_INT;
+			if(type==Double.class) return TYPE_DOUBLE;
+			if(type==Boolean.class) return TYPE_BOOLEAN;
+			return TYPE_OBJECT;
+		}
+	}
+
+}
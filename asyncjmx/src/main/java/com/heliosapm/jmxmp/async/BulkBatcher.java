@@ -0,0 +1,363 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
+
+import co.paralleluniverse.fibers.Suspendable;
+
+/**
+ * <p>Title: BulkBatcher</p>
+ * <p>Description: Accumulates ops into a {@link BulkInvocationBuilder} and sends the invocation automatically
+ * when the first of three limits is reached: the number of ops, the number of encoded bytes, or the time the
+ * first op has lingered in the batch. On a flush the current builder is swapped for a fresh one with a single
+ * compare and set, so callers adding ops never wait on an invocation being sent. Built invocations are handed to a
+ * {@link PipelinedDispatcher}, which only holds back the flushing caller when its pipeline is full.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.BulkBatcher</code></p>
+ */
+
+public class BulkBatcher {
+	/** The session invocations are built in */
+	protected final BulkClientSession session;
+	/** The compression policy applied to each invocation */
+	protected final CompressionPolicy compression;
+	/** The estimated size of each invocation */
+	protected final int estimatedSize;
+	/** The number of ops which triggers a flush */
+	protected final int maxOps;
+	/** The number of encoded bytes which triggers a flush */
+	protected final int maxBytes;
+	/** The longest time in nanos an op waits in the batch before it is flushed */
+	protected final long lingerNanos;
+	/** The builder ops are currently added to */
+	protected final AtomicReference<BulkInvocationBuilder> current;
+	/** The dispatcher invocations are sent with */
+	protected final PipelinedDispatcher dispatcher;
+	/** Indicates if the dispatcher was created by this batcher */
+	protected final boolean ownedDispatcher;
+	/** Indicates if the batcher is closed */
+	protected volatile boolean closed = false;
+	
+	/** Flushes triggered by the op count */
+	protected final AtomicLong opFlushes = new AtomicLong();
+	/** Flushes triggered by the encoded size */
+	protected final AtomicLong byteFlushes = new AtomicLong();
+	/** Flushes triggered by the linger time */
+	protected final AtomicLong lingerFlushes = new AtomicLong();
+	/** Flushes requested by callers */
+	protected final AtomicLong manualFlushes = new AtomicLong();
+	/** The number of ops flushed */
+	protected final AtomicLong flushedOps = new AtomicLong();
+	/** The number of flushed ops which were coalesced into other ops */
+	protected final AtomicLong coalescedOps = new AtomicLong();
+	
+	/** The default maximum number of ops per invocation */
+	public static final int DEFAULT_MAX_OPS = 256;
+	/** The default maximum number of encoded bytes per invocation */
+	public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+	/** The default linger time in ms */
+	public static final long DEFAULT_LINGER_MS = 2;
+	
+	/** The shared timer linger flushes are scheduled on. It only hands them to the {@link #FLUSHER}, so it never blocks. */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "BulkBatcherTimer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** The shared pool linger flushes run on, so a batcher held back by a full pipeline does not stall the linger flushes of other batchers */
+	private static final ExecutorService FLUSHER = Executors.newCachedThreadPool(new ThreadFactory(){
+		private final AtomicLong serial = new AtomicLong();
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "BulkBatcherFlusher#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * Creates a new BulkBatcher with the default limits
+	 * @param builder The builder to add the first ops to
+	 */
+	public BulkBatcher(final BulkInvocationBuilder builder) {
+		this(builder, DEFAULT_MAX_OPS, DEFAULT_MAX_BYTES, DEFAULT_LINGER_MS, TimeUnit.MILLISECONDS, null);
+	}
+	
+	/**
+	 * Creates a new BulkBatcher
+	 * @param builder The builder to add the first ops to. Subsequent builders are created in the same session with the same compression and estimated size.
+	 * @param maxOps The number of ops which triggers a flush
+	 * @param maxBytes The number of encoded bytes which triggers a flush
+	 * @param linger The longest time an op waits in the batch before it is flushed
+	 * @param unit The unit of the linger time
+	 * @param dispatcher The dispatcher invocations are sent with. If null, one with the default depth is created and closed on {@link #close()}.
+	 */
+	public BulkBatcher(final BulkInvocationBuilder builder, final int maxOps, final int maxBytes, final long linger, final TimeUnit unit, final PipelinedDispatcher dispatcher) {
+		if(builder==null) throw new IllegalArgumentException("The passed builder was null");
+		if(maxOps < 1) throw new IllegalArgumentException("Invalid max ops: " + maxOps);
+		if(maxBytes < 1) throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+		if(linger < 0 || unit==null) throw new IllegalArgumentException("Invalid linger: " + linger + " " + unit);
+		session = builder.getSession();
+		compression = builder.getCompression();
+		estimatedSize = builder.getEstimatedSize();
+		this.maxOps = maxOps;
+		this.maxBytes = maxBytes;
+		lingerNanos = unit.toNanos(linger);
+		current = new AtomicReference<BulkInvocationBuilder>(builder);
+		ownedDispatcher = dispatcher==null;
+		this.dispatcher = ownedDispatcher ? new PipelinedDispatcher() : dispatcher;
+	}
+	
+	/**
+	 * Adds an op to the current batch, flushing the batch if this op takes it to a limit
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return this batcher
+	 */
+	@Suspendable
+	public BulkBatcher op(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		return op(OpPriority.NORMAL, op, handler, args);
+	}
+	
+	/**
+	 * Adds an op with a priority to the current batch, flushing the batch if this op takes it to a limit
+	 * @param priority The priority of the op
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return this batcher
+	 */
+	@Suspendable
+	public BulkBatcher op(final OpPriority priority, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		if(closed) throw new IllegalStateException("The batcher is closed");
+		for(;;) {
+			final BulkInvocationBuilder builder = current.get();
+			final int count;
+			try {
+				count = builder.tryOp(priority, op, handler, args);
+			} catch (RuntimeException ex) {
+				// the builder invalidates itself when an op cannot be written, so the ops already in it are lost
+				discard(builder, ex);
+				throw ex;
+			}
+			if(count < 0) continue;  // lost a race with a flush, the next builder is already in place
+			if(count==maxOps) {
+				flush(builder, opFlushes);
+			} else if(builder.getEncodedSize() >= maxBytes) {
+				flush(builder, byteFlushes);
+			} else if(count==1) {
+				if(lingerNanos==0) {
+					flush(builder, lingerFlushes);
+				} else {
+					final Runnable lingerFlush = new Runnable(){
+						@Override
+						public void run() {
+							flush(builder, lingerFlushes);
+						}
+					};
+					TIMER.schedule(new Runnable(){
+						@Override
+						public void run() {
+							// the batch may already have been flushed by a limit
+							if(current.get()==builder) FLUSHER.execute(lingerFlush);
+						}
+					}, lingerNanos, TimeUnit.NANOSECONDS);
+				}
+			}
+			return this;
+		}
+	}
+	
+	/**
+	 * Sends the ops batched so far without waiting for a limit to be reached
+	 * @return true if a batch was sent, false if there was nothing to send
+	 */
+	public boolean flush() {
+		final BulkInvocationBuilder builder = current.get();
+		if(builder.getOpCount()==0) return false;
+		return flush(builder, manualFlushes);
+	}
+	
+	/**
+	 * Swaps the passed builder for a fresh one and sends its invocation, unless it was already swapped out
+	 * @param builder The builder to flush
+	 * @param reason The counter of the flush trigger
+	 * @return true if this call flushed the builder
+	 */
+	protected boolean flush(final BulkInvocationBuilder builder, final AtomicLong reason) {
+		if(current.get()!=builder) return false;
+		final BulkInvocationBuilder next = newBuilder();
+		if(!current.compareAndSet(builder, next)) {
+			next.invalidate();
+			return false;
+		}
+		// waits for ops being recorded by other callers and encodes any not yet encoded
+		final HomeBulkInvocation hbi = builder.build();
+		reason.incrementAndGet();
+		flushedOps.addAndGet(hbi.getOpCount() + hbi.getCoalescedOps());
+		coalescedOps.addAndGet(hbi.getCoalescedOps());
+		// blocks while the pipeline is full, which holds back the caller that filled the batch
+		dispatcher.dispatch(hbi);
+		return true;
+	}
+	
+	/**
+	 * Swaps out a builder which failed to write an op and fails the handlers of the ops it held
+	 * @param builder The failed builder
+	 * @param cause The cause of the failure
+	 */
+	protected void discard(final BulkInvocationBuilder builder, final Throwable cause) {
+		final BulkInvocationBuilder next = newBuilder();
+		if(!current.compareAndSet(builder, next)) {
+			next.invalidate();
+			return;
+		}
+		builder.fail(cause);
+	}
+	
+	/**
+	 * Creates the next builder
+	 * @return a new builder
+	 */
+	protected BulkInvocationBuilder newBuilder() {
+		return new BulkInvocationBuilder(compression, estimatedSize, session);
+	}
+	
+	/**
+	 * Flushes the pending ops and closes the batcher. The dispatcher is closed if it was created by this batcher,
+	 * after the invocations already handed to it are sent.
+	 */
+	public void close() {
+		if(closed) return;
+		closed = true;
+		flush();
+		if(ownedDispatcher) dispatcher.close();
+	}
+	
+	/**
+	 * Returns the dispatcher invocations are sent with
+	 * @return the dispatcher
+	 */
+	public PipelinedDispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * Returns the session invocations are built in
+	 * @return the bulk client session
+	 */
+	public BulkClientSession getSession() {
+		return session;
+	}
+	
+	/**
+	 * Returns the number of ops in the current batch
+	 * @return the pending op count
+	 */
+	public int getPendingOps() {
+		return current.get().getOpCount();
+	}
+	
+	/**
+	 * Returns the number of ops which triggers a flush
+	 * @return the max op count
+	 */
+	public int getMaxOps() {
+		return maxOps;
+	}
+
+	/**
+	 * Returns the number of encoded bytes which triggers a flush
+	 * @return the max encoded size
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the longest time an op waits in the batch before it is flushed
+	 * @param unit The unit to return the time in
+	 * @return the linger time
+	 */
+	public long getLinger(final TimeUnit unit) {
+		return unit.convert(lingerNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Returns the number of flushes triggered by the op count
+	 * @return the op count flush count
+	 */
+	public long getOpFlushes() {
+		return opFlushes.get();
+	}
+
+	/**
+	 * Returns the number of flushes triggered by the encoded size
+	 * @return the encoded size flush count
+	 */
+	public long getByteFlushes() {
+		return byteFlushes.get();
+	}
+
+	/**
+	 * Returns the number of flushes triggered by the linger time
+	 * @return the linger flush count
+	 */
+	public long getLingerFlushes() {
+		return lingerFlushes.get();
+	}
+
+	/**
+	 * Returns the number of flushes requested by callers
+	 * @return the manual flush count
+	 */
+	public long getManualFlushes() {
+		return manualFlushes.get();
+	}
+
+	/**
+	 * Returns the total number of ops flushed
+	 * @return the flushed op count
+	 */
+	public long getFlushedOps() {
+		return flushedOps.get();
+	}
+
+	/**
+	 * Returns the number of flushed ops which were coalesced into other ops
+	 * @return the coalesced op count
+	 */
+	public long getCoalescedOps() {
+		return coalescedOps.get();
+	}
+}
@@ -0,0 +1,349 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerInvocationHandler;
+import javax.management.NotificationFilterSupport;
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.JavaSerializationCodec;
+import com.heliosapm.jmxmp.async.codec.ObjectNameHandles;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
+import com.heliosapm.jmxmp.async.compress.Compressors;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: BulkClientSession</p>
+ * <p>Description: The client side of a bulk service session. Holds the negotiated codec and the session's
+ * ObjectName handles so ObjectNames the bulk service has already seen are sent as 4 byte handles.
+ * Handles are learnt from, and evicted by, the updates carried back in each {@link BulkResponse}.
+ * A session outlives the {@link BulkInvocationBuilder}s created from it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.BulkClientSession</code></p>
+ */
+
+public class BulkClientSession implements ObjectNameHandles {
+	/** The connection to the MBeanServer hosting the bulk service */
+	protected final MBeanServerConnection conn;
+	/** The bulk service proxy */
+	protected final JMXBulkServiceMBean bulkService;
+	/** The negotiated payload codec */
+	protected final BulkCodec codec;
+	/** The compression policy for invocation payloads, its compressor is also requested for responses */
+	protected final CompressionPolicy compression;
+	/** The bulk service session id, zero if the bulk service does not support sessions */
+	protected final long sessionId;
+	/** The flags of the invocation header features both this client and the bulk service support */
+	protected final int features;
+	/** The known handles keyed by ObjectName */
+	protected final ConcurrentHashMap<ObjectName, Integer> handlesByName = new ConcurrentHashMap<ObjectName, Integer>();
+	/** The known ObjectNames keyed by handle */
+	protected final ConcurrentHashMap<Integer, ObjectName> namesByHandle = new ConcurrentHashMap<Integer, ObjectName>();
+	/** Evicted handles whose assignment has not been applied yet, since pipelined responses can be applied out of order */
+	protected final Set<Integer> tombstones = new HashSet<Integer>();
+	/** The mirror of the bulk service's remembered values, null unless deltas are enabled */
+	protected volatile DeltaMirror deltaMirror = null;
+	/** The listener for streamed results, null unless streaming is enabled */
+	protected volatile ResultStreams streams = null;
+	
+	/**
+	 * Creates a new BulkClientSession, negotiating the payload codec with the remote bulk service
+	 * @param conn The connection to the MBeanServer hosting the bulk service
+	 */
+	public BulkClientSession(final MBeanServerConnection conn) {
+		this(conn, null);
+	}
+	
+	/**
+	 * Creates a new BulkClientSession
+	 * @param conn The connection to the MBeanServer hosting the bulk service
+	 * @param codec The payload codec. If null, the codec is negotiated with the remote bulk service
+	 */
+	public BulkClientSession(final MBeanServerConnection conn, final BulkCodec codec) {
+		this(conn, codec, null);
+	}
+	
+	/**
+	 * Creates a new BulkClientSession
+	 * @param conn The connection to the MBeanServer hosting the bulk service
+	 * @param codec The payload codec. If null, the codec is negotiated with the remote bulk service
+	 * @param compressor The payload compressor. If null, the compressor is negotiated with the remote bulk service
+	 */
+	public BulkClientSession(final MBeanServerConnection conn, final BulkCodec codec, final BulkCompressor compressor) {
+		this.conn = conn;
+		bulkService = MBeanServerInvocationHandler.newProxyInstance(conn, BulkInvocationBuilder.BULK, JMXBulkServiceMBean.class, false);
+		this.codec = codec!=null ? codec : BulkCodecs.negotiate(bulkService);
+		compression = new CompressionPolicy(compressor!=null ? compressor : Compressors.negotiate(bulkService));
+		// the java codec cannot carry handles, and services that predate sessions cannot open one
+		sessionId = this.codec.getId()==JavaSerializationCodec.ID ? 0L : openSession(bulkService);
+		features = negotiateFeatures(bulkService);
+	}
+	
+	/**
+	 * Negotiates the invocation header features supported by both this client and the passed bulk service.
+	 * Services that predate the versioned header support none.
+	 * @param bulkService The bulk service proxy
+	 * @return the negotiated feature flags
+	 */
+	protected static int negotiateFeatures(final JMXBulkServiceMBean bulkService) {
+		try {
+			return bulkService.getSupportedFeatures() & BulkInvocation.SUPPORTED_FEATURES;
+		} catch (Exception ex) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Opens a session on the passed bulk service
+	 * @param bulkService The bulk service proxy
+	 * @return the session id or zero if the service does not support sessions
+	 */
+	protected static long openSession(final JMXBulkServiceMBean bulkService) {
+		try {
+			return bulkService.openSession();
+		} catch (Exception ex) {
+			return 0L;
+		}
+	}
+	
+	/**
+	 * Creates a new invocation builder in this session
+	 * @param gzip true to enable gzip, false otherwise
+	 * @param estimatedSize The estimated size of the final content
+	 * @return the new builder
+	 */
+	public BulkInvocationBuilder newBuilder(final boolean gzip, final int estimatedSize) {
+		return new BulkInvocationBuilder(gzip, estimatedSize, this);
+	}
+	
+	/**
+	 * Enables delta responses for this session. The bulk service then sends attribute values which are unchanged since
+	 * the session last polled them as a compact marker, which is resolved against a local mirror so handlers see full results.
+	 * The session's invocations are sent one at a time once deltas are enabled.
+	 * @return true if deltas are enabled, false if there is no session or the bulk service does not support deltas
+	 */
+	public boolean enableDeltas() {
+		if(deltaMirror!=null) return true;
+		if(sessionId==0L) return false;
+		try {
+			bulkService.getDeltaCapacity();
+		} catch (Exception ex) {
+			return false;
+		}
+		synchronized(this) {
+			if(deltaMirror==null) deltaMirror = new DeltaMirror();
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the mirror of the bulk service's remembered values
+	 * @return the delta mirror, or null if deltas are not enabled
+	 */
+	public DeltaMirror getDeltaMirror() {
+		return deltaMirror;
+	}
+	
+	/**
+	 * Enables streamed invocations for this session by subscribing to the bulk service's result notifications for the session
+	 * @return true if streaming is enabled, false if there is no session or the bulk service does not emit results
+	 */
+	public boolean enableStreaming() {
+		if(streams!=null) return true;
+		if(sessionId==0L) return false;
+		synchronized(this) {
+			if(streams!=null) return true;
+			final ResultStreams rs = new ResultStreams();
+			final NotificationFilterSupport filter = new NotificationFilterSupport();
+			filter.enableType(JMXBulkService.streamType(sessionId));
+			try {
+				conn.addNotificationListener(BulkInvocationBuilder.BULK, rs, filter, null);
+			} catch (Exception ex) {
+				return false;
+			}
+			streams = rs;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the listener for streamed results
+	 * @return the result streams, or null if streaming is not enabled
+	 */
+	public ResultStreams getStreams() {
+		return streams;
+	}
+	
+	/**
+	 * Applies the handle assignments and evictions carried in the passed response.
+	 * Responses to pipelined invocations can be applied in any order, so an eviction may arrive before the assignment
+	 * of its handle. Since the bulk service never reuses a handle, the eviction is remembered and the late assignment dropped.
+	 * @param response The response returned by the bulk service
+	 */
+	public synchronized void apply(final BulkResponse response) {
+		final int[] assigned = response.getAssignedHandles();
+		final String[] names = response.getAssignedNames();
+		for(int i = 0; i < assigned.length; i++) {
+			final Integer handle = assigned[i];
+			// each handle is assigned once, so the tombstone is no longer needed
+			if(tombstones.remove(handle)) continue;
+			final ObjectName on = JMXHelper.objectName(names[i]);
+			namesByHandle.put(handle, on);
+			handlesByName.put(on, handle);
+		}
+		// evictions are applied last since a handle can be assigned and evicted between two responses
+		for(final int evicted: response.getEvictedHandles()) {
+			final ObjectName on = namesByHandle.remove(evicted);
+			if(on!=null) {
+				handlesByName.remove(on, evicted);
+			} else {
+				tombstones.add(evicted);
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#handleOf(javax.management.ObjectName)
+	 */
+	@Override
+	public int handleOf(final ObjectName on) {
+		final Integer handle = handlesByName.get(on);
+		return handle==null ? -1 : handle;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>The bulk service never sends handles so the client side cannot resolve them.</p>
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#resolve(int)
+	 */
+	@Override
+	public ObjectName resolve(final int handle) throws IOException {
+		throw new StreamCorruptedException("Unexpected ObjectName handle [" + handle + "] in bulk response");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>No Op on the client side. Handles are only assigned by the bulk service.</p>
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#register(javax.management.ObjectName)
+	 */
+	@Override
+	public void register(final ObjectName on) {
+		/* No Op */
+	}
+	
+	/**
+	 * Closes this session, releasing the bulk service's handle table
+	 */
+	public void close() {
+		handlesByName.clear();
+		namesByHandle.clear();
+		synchronized(this) {
+			tombstones.clear();
+		}
+		deltaMirror = null;
+		final ResultStreams rs = streams;
+		if(rs!=null) {
+			streams = null;
+			try { conn.removeNotificationListener(BulkInvocationBuilder.BULK, rs); } catch (Exception x) {/* No Op */}
+			rs.close(new IllegalStateException("The session was closed"));
+		}
+		if(sessionId!=0L) try { bulkService.closeSession(sessionId); } catch (Exception x) {/* No Op */}
+	}
+	
+	/**
+	 * Returns the bulk service session id
+	 * @return the session id, zero if the bulk service does not support sessions
+	 */
+	public long getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * Indicates if the bulk service supports an invocation header feature
+	 * @param feature The feature flag, one of the <code>FEATURE_</code> constants of {@link BulkInvocation}
+	 * @return true if the feature was negotiated, false otherwise
+	 */
+	public boolean supports(final int feature) {
+		return (features & feature)==feature;
+	}
+	
+	/**
+	 * Returns the negotiated payload codec
+	 * @return the payload codec
+	 */
+	public BulkCodec getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Returns the compression policy for invocation payloads
+	 * @return the compression policy
+	 */
+	public CompressionPolicy getCompression() {
+		return compression;
+	}
+	
+	/**
+	 * Returns the bulk service proxy
+	 * @return the bulk service proxy
+	 */
+	public JMXBulkServiceMBean getBulkService() {
+		return bulkService;
+	}
+	
+	/**
+	 * Returns the connection to the MBeanServer hosting the bulk service
+	 * @return the MBeanServer connection
+	 */
+	public MBeanServerConnection getConnection() {
+		return conn;
+	}
+	
+	/**
+	 * Returns the number of ObjectName handles currently held
+	 * @return the number of handles
+	 */
+	public int getHandleCount() {
+		return namesByHandle.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkClientSession [id=" + sessionId + ", codec=" + codec.getName() + ", compressor=" + compression.getCompressor().getName() + ", handles=" + namesByHandle.size() + "]";
+	}
+
+}
@@ -22,16 +22,23 @@ import java.io.ByteArrayInputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-
-import org.jboss.netty.handler.codec.serialization.ClassResolvers;
-import org.jboss.netty.handler.codec.serialization.CompactObjectInputStream;
 
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkDecoder;
+import com.heliosapm.jmxmp.async.codec.JavaSerializationCodec;
+import com.heliosapm.jmxmp.async.codec.ObjectNameHandles;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.Compressors;
+import com.heliosapm.jmxmp.async.compress.GzipCompressor;
+import com.heliosapm.jmxmp.async.compress.NoCompressor;
 import com.heliosapm.utils.tuples.NVP;
 
 
@@ -45,24 +52,100 @@ import com.heliosapm.utils.tuples.NVP;
  */
 
 public class BulkInvocation implements Externalizable {
+	/** Leading marker of an externalized invocation carrying an extended header. Legacy invocations lead with the (never negative) op count. */
+	public static final int EXTENDED_HEADER = -1;
+	/** Leading marker of an externalized delta session invocation or response, an extended header followed by the delta serial */
+	public static final int DELTA_HEADER = -2;
+	/** Leading marker of an externalized invocation carrying a versioned header, an extended header followed by the delta serial, the header version and the feature flags, then the fields of each flagged feature */
+	public static final int VERSIONED_HEADER = -3;
+	/** The version of the versioned header written by this client */
+	public static final byte HEADER_VERSION = 1;
+	/** Feature flag of invocations with deadlines, the invocation timeout and the op timeouts follow the flags */
+	public static final int FEATURE_DEADLINES = 0x01;
+	/** Feature flag of invocations with op priorities, the op priorities follow the op timeouts if any */
+	public static final int FEATURE_PRIORITIES = 0x02;
+	/** All the features this build of the versioned header can carry */
+	public static final int SUPPORTED_FEATURES = FEATURE_DEADLINES | FEATURE_PRIORITIES;
+	/** Empty timed op table */
+	private static final int[] NO_TIMED_OPS = {};
+	/** Empty op timeout table */
+	private static final long[] NO_OP_TIMEOUTS = {};
+	/** Empty op priority table */
+	private static final byte[] NO_PRIORITIES = {};
  
 	/** The number of serialized ops */
 	protected int opCount;
 	/** The serialized ops */
 	protected byte[] payload;
-	/** Indicates if the op payload is gzipped */
-	protected boolean gzipped;
+	/** The number of payload bytes. The payload array may be longer when it comes from the {@link BufferPool}. */
+	protected int payloadLength;
+	/** Indicates if the payload array is owned by the {@link BufferPool}, and returned to it on {@link #release()} */
+	protected transient boolean pooled = false;
+	/** The id of the compressor the payload was compressed with */
+	protected byte compressorId = NoCompressor.ID;
+	/** The id of the compressor the client would like the response compressed with */
+	protected byte responseCompressorId = GzipCompressor.ID;
+	/** The id of the codec the payload was written with */
+	protected byte codecId = JavaSerializationCodec.ID;
+	/** The id of the bulk service session the invocation was built in, zero if there is no session */
+	protected long sessionId = 0L;
+	/** The serial of the last delta response the client resolved, -1 if this is not a delta invocation */
+	protected long deltaAck = -1L;
+	/** The time in ms after the service receives the invocation by which it stops waiting for ops, 0 for no deadline */
+	protected long timeout = 0L;
+	/** The ascending request ids of the ops with a timeout */
+	protected int[] timedOps = NO_TIMED_OPS;
+	/** The timeouts in ms of the timed ops, measured from when the service receives the invocation */
+	protected long[] opTimeouts = NO_OP_TIMEOUTS;
+	/** The ascending request ids of the ops with a priority other than {@link OpPriority#NORMAL} */
+	protected int[] prioritizedOps = NO_TIMED_OPS;
+	/** The priority byte ordinals of the prioritized ops */
+	protected byte[] priorities = NO_PRIORITIES;
 	
 	/**
-	 * Creates a new HomeBulkInvocation
+	 * Creates a new BulkInvocation using the legacy java serialization codec
 	 * @param opCount The number of serialized ops
 	 * @param payload The serialized ops
 	 * @param gzipped Indicates if the op payload is gzipped
 	 */	
 	public BulkInvocation(final int opCount, final byte[] payload, final boolean gzipped) {
+		this(opCount, payload, gzipped ? GzipCompressor.ID : NoCompressor.ID, JavaSerializationCodec.ID, 0L, GzipCompressor.ID);
+	}
+
+	/**
+	 * Creates a new BulkInvocation
+	 * @param opCount The number of serialized ops
+	 * @param payload The serialized ops
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
+	 * @param sessionId The id of the bulk service session the invocation was built in, zero if there is no session
+	 * @param responseCompressorId The id of the compressor the client would like the response compressed with
+	 */	
+	public BulkInvocation(final int opCount, final byte[] payload, final byte compressorId, final byte codecId, final long sessionId, final byte responseCompressorId) {
 		this.opCount = opCount;
 		this.payload = payload;
-		this.gzipped = gzipped;
+		payloadLength = payload.length;
+		this.compressorId = compressorId;
+		this.codecId = codecId;
+		this.sessionId = sessionId;
+		this.responseCompressorId = responseCompressorId;
+	}
+	
+	/**
+	 * Creates a new BulkInvocation over a payload array acquired from the {@link BufferPool}.
+	 * Ownership of the array passes to the invocation, which returns it to the pool on {@link #release()}.
+	 * @param opCount The number of serialized ops
+	 * @param payload The serialized ops
+	 * @param payloadLength The number of payload bytes
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
+	 * @param sessionId The id of the bulk service session the invocation was built in, zero if there is no session
+	 * @param responseCompressorId The id of the compressor the client would like the response compressed with
+	 */	
+	public BulkInvocation(final int opCount, final byte[] payload, final int payloadLength, final byte compressorId, final byte codecId, final long sessionId, final byte responseCompressorId) {
+		this(opCount, payload, compressorId, codecId, sessionId, responseCompressorId);
+		this.payloadLength = payloadLength;
+		pooled = true;
 	}
 	
 	/**
@@ -78,42 +161,229 @@ public class BulkInvocation implements Externalizable {
 	 * @return a list of the unmarshalled invocations
 	 */
 	public List<NVP<MBeanOp, Object[]>> getInvocations() {
-//		CompactObjectInputStream ois = null;
-		ObjectInputStream ois = null;
-		GZIPInputStream gis = null;
+		return getInvocations(null);
+	}
+	
+	/**
+	 * Returns a list of the unmarshalled invocations
+	 * @param handles The session ObjectName handles to resolve handles with, or null if there is no session
+	 * @return a list of the unmarshalled invocations
+	 */
+	public List<NVP<MBeanOp, Object[]>> getInvocations(final ObjectNameHandles handles) {
+		final List<NVP<MBeanOp, Object[]>> nvps = new ArrayList<NVP<MBeanOp, Object[]>>(opCount);
+		forEachInvocation(handles, new InvocationCallback() {
+			@Override
+			public void onInvocation(final int reqId, final MBeanOp op, final Object[] args) {
+				nvps.add(new NVP<MBeanOp, Object[]>(op, args));
+			}
+		});
+		return nvps;
+	}
+	
+	/**
+	 * Streams the ops in the payload to the passed callback, decoding each op only after the callback
+	 * for the previous one has returned, so no more than one decoded op is held at a time.
+	 * @param handles The session ObjectName handles to resolve handles with, or null if there is no session
+	 * @param callback The callback to stream the ops to
+	 */
+	public void forEachInvocation(final ObjectNameHandles handles, final InvocationCallback callback) {
+		BulkDecoder decoder = null;
 		ByteArrayInputStream bais = null;		
-		List<NVP<MBeanOp, Object[]>> nvps = null;
+		PooledBuffer decompressed = null;
 		try {
-			bais = new ByteArrayInputStream(payload);
-			nvps = new ArrayList<NVP<MBeanOp, Object[]>>(opCount);
-			if(gzipped) {
-				gis = new GZIPInputStream(bais);
-				ois = new ObjectInputStream(gis);
-						//new CompactObjectInputStream(gis, ClassResolvers.softCachingConcurrentResolver(Thread.currentThread().getContextClassLoader()));
+			if(compressorId==NoCompressor.ID) {
+				bais = new ByteArrayInputStream(payload, 0, payloadLength);
 			} else {
-				gis = null;
-				ois = new ObjectInputStream(bais);
-					//new CompactObjectInputStream(bais, ClassResolvers.softCachingConcurrentResolver(Thread.currentThread().getContextClassLoader()));
+				decompressed = BufferPool.getInstance().buffer(payloadLength << 1);
+				getCompressor().decompress(payload, 0, payloadLength, decompressed);
+				bais = decompressed.toInputStream();
 			}
+			decoder = getCodec().newDecoder(bais, handles);
 			for(int i = 0; i < opCount; i++) {
-				MBeanOp mbeanOp = MBeanOp.decode(ois.readByte());
-				final int argCount = ois.readInt();
-				final Object[] args = new Object[argCount];
-				for(int x = 0; x < argCount; x++) {
-					if(ois.readByte()==0) continue;
-					args[x] = ois.readObject();
+				final MBeanOp mbeanOp;
+				final Object[] args;
+				try {
+					mbeanOp = MBeanOp.decode(decoder.readByte());
+					final int argCount = decoder.readInt();
+					args = new Object[argCount];
+					for(int x = 0; x < argCount; x++) {
+						args[x] = decoder.readValue();
+					}
+				} catch (Exception ex) {
+					throw new RuntimeException("Failed to unmarshall op #" + i, ex);
 				}
-				nvps.add(new NVP<MBeanOp, Object[]>(mbeanOp, args));
+				callback.onInvocation(i, mbeanOp, args);
 			}
-			return nvps;
+		} catch (RuntimeException rex) {
+			throw rex;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to unmarshall payload", ex);
 		} finally {
-			if(ois!=null) try { ois.close(); } catch (Exception x) {/* No Op */}
-			if(gis!=null) try { gis.close(); } catch (Exception x) {/* No Op */}
+			if(decoder!=null) try { decoder.close(); } catch (Exception x) {/* No Op */}
 			if(bais!=null) try { bais.close(); } catch (Exception x) {/* No Op */}
+			if(decompressed!=null) decompressed.release();
 		}
-		
+	}
+	
+	/**
+	 * Returns the number of ops in the payload
+	 * @return the op count
+	 */
+	public int getOpCount() {
+		return opCount;
+	}
+	
+	/**
+	 * Returns the number of payload bytes
+	 * @return the payload length
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+	
+	/**
+	 * Returns a pooled payload array to the {@link BufferPool}. Once released, the invocation can no longer be decoded or written.
+	 * No Op if the payload is not pooled or has already been released.
+	 */
+	public void release() {
+		final byte[] p = payload;
+		payload = null;
+		if(pooled && p!=null) BufferPool.getInstance().release(p);
+	}
+	
+	/**
+	 * Returns the codec the payload was written with
+	 * @return the payload codec
+	 */
+	public BulkCodec getCodec() {
+		return BulkCodecs.get(codecId);
+	}
+	
+	/**
+	 * Returns the compressor the payload was compressed with
+	 * @return the payload compressor
+	 */
+	public BulkCompressor getCompressor() {
+		return Compressors.get(compressorId);
+	}
+	
+	/**
+	 * Returns the id of the compressor the client would like the response compressed with
+	 * @return the response compressor id
+	 */
+	public byte getResponseCompressorId() {
+		return responseCompressorId;
+	}
+	
+	/**
+	 * Indicates if this invocation uses the extended header
+	 * @return true if the extended header is required, false if the legacy layout can carry this invocation
+	 */
+	protected boolean isExtended() {
+		return codecId!=JavaSerializationCodec.ID || sessionId!=0L || compressorId > GzipCompressor.ID || isDelta() || isTimed() || isPrioritized();
+	}
+	
+	/**
+	 * Returns the flags of the features this invocation carries in the versioned header
+	 * @return the feature flags, zero if the invocation needs no versioned header
+	 */
+	public int getFeatures() {
+		return (isTimed() ? FEATURE_DEADLINES : 0) | (isPrioritized() ? FEATURE_PRIORITIES : 0);
+	}
+	
+	/**
+	 * Indicates if any op of this invocation has a priority other than {@link OpPriority#NORMAL}
+	 * @return true if the invocation has prioritized ops
+	 */
+	public boolean isPrioritized() {
+		return prioritizedOps.length > 0;
+	}
+	
+	/**
+	 * Indicates if any op of this invocation has the passed priority
+	 * @param priority The priority, other than {@link OpPriority#NORMAL}
+	 * @return true if an op has the priority
+	 */
+	public boolean hasPriority(final OpPriority priority) {
+		for(byte b: priorities) {
+			if(b==priority.byteOrdinal) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the request id of the last op with the passed priority, read from the header without decoding the ops
+	 * @param priority The priority, other than {@link OpPriority#NORMAL}
+	 * @return the highest request id of an op with the priority, or -1 if there is none
+	 */
+	public int getLastRequestId(final OpPriority priority) {
+		for(int i = priorities.length - 1; i >= 0; i--) {
+			if(priorities[i]==priority.byteOrdinal) return prioritizedOps[i];
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the priority of an op
+	 * @param reqId The request id of the op
+	 * @return the op priority
+	 */
+	public OpPriority getPriority(final int reqId) {
+		final int index = Arrays.binarySearch(prioritizedOps, reqId);
+		return index < 0 ? OpPriority.NORMAL : OpPriority.decode(priorities[index]);
+	}
+	
+	/**
+	 * Indicates if this invocation or any of its ops has a deadline
+	 * @return true if the invocation has deadlines
+	 */
+	public boolean isTimed() {
+		return timeout > 0L || timedOps.length > 0;
+	}
+	
+	/**
+	 * Returns the time after the service receives the invocation by which it stops waiting for ops
+	 * @return the invocation timeout in ms, 0 for no deadline
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Returns the timeout of an op, measured from when the service receives the invocation,
+	 * which is the invocation timeout if the op has none of its own or its own is longer
+	 * @param reqId The request id of the op
+	 * @return the op timeout in ms, 0 for no deadline
+	 */
+	public long getOpTimeout(final int reqId) {
+		final int index = Arrays.binarySearch(timedOps, reqId);
+		if(index < 0) return timeout;
+		final long opTimeout = opTimeouts[index];
+		return timeout > 0L && timeout < opTimeout ? timeout : opTimeout;
+	}
+	
+	/**
+	 * Indicates if this invocation's responses should be sent as deltas
+	 * @return true for a delta invocation, false otherwise
+	 */
+	public boolean isDelta() {
+		return deltaAck >= 0L;
+	}
+	
+	/**
+	 * Returns the serial of the last delta response the client resolved
+	 * @return the acknowledged delta serial, -1 if this is not a delta invocation
+	 */
+	public long getDeltaAck() {
+		return deltaAck;
+	}
+	
+	/**
+	 * Returns the id of the bulk service session the invocation was built in
+	 * @return the session id, zero if there is no session
+	 */
+	public long getSessionId() {
+		return sessionId;
 	}
 
 	
@@ -123,10 +393,57 @@ public class BulkInvocation implements Externalizable {
 	 */
 	@Override
 	public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-		opCount = in.readInt();
-		gzipped = in.readBoolean();
-		payload = new byte[in.readInt()];
-		in.read(payload);
+		final int lead = in.readInt();
+		if(lead==EXTENDED_HEADER || lead==DELTA_HEADER || lead==VERSIONED_HEADER) {
+			codecId = in.readByte();
+			sessionId = in.readLong();
+			deltaAck = lead==EXTENDED_HEADER ? -1L : in.readLong();
+			compressorId = in.readByte();
+			responseCompressorId = in.readByte();
+			opCount = in.readInt();
+			final int features;
+			if(lead==VERSIONED_HEADER) {
+				final byte version = in.readByte();
+				if(version < 1 || version > HEADER_VERSION) throw new StreamCorruptedException("Unsupported header version [" + version + "]");
+				features = in.readUnsignedByte();
+				if((features & ~SUPPORTED_FEATURES)!=0) throw new StreamCorruptedException("Unsupported header features [" + Integer.toHexString(features) + "]");
+			} else {
+				features = 0;
+			}
+			if((features & FEATURE_DEADLINES)!=0) {
+				timeout = in.readLong();
+				final int timedCount = in.readInt();
+				if(timedCount < 0 || timedCount > opCount) throw new StreamCorruptedException("Invalid timed op count [" + timedCount + "]");
+				timedOps = new int[timedCount];
+				opTimeouts = new long[timedCount];
+				for(int i = 0; i < timedCount; i++) {
+					timedOps[i] = in.readInt();
+					opTimeouts[i] = in.readLong();
+				}
+			}
+			if((features & FEATURE_PRIORITIES)!=0) {
+				final int prioritizedCount = in.readInt();
+				if(prioritizedCount < 0 || prioritizedCount > opCount) throw new StreamCorruptedException("Invalid prioritized op count [" + prioritizedCount + "]");
+				prioritizedOps = new int[prioritizedCount];
+				priorities = new byte[prioritizedCount];
+				for(int i = 0; i < prioritizedCount; i++) {
+					prioritizedOps[i] = in.readInt();
+					priorities[i] = in.readByte();
+				}
+			}
+		} else {
+			codecId = JavaSerializationCodec.ID;
+			sessionId = 0L;
+			deltaAck = -1L;
+			opCount = lead;
+			compressorId = in.readBoolean() ? GzipCompressor.ID : NoCompressor.ID;
+			// legacy clients read the response's gzipped flag so gzip or nothing is all they can take
+			responseCompressorId = GzipCompressor.ID;
+		}
+		payloadLength = in.readInt();
+		payload = BufferPool.getInstance().acquire(payloadLength);
+		pooled = true;
+		in.readFully(payload, 0, payloadLength);
 	}
 
 	/**
@@ -135,10 +452,44 @@ public class BulkInvocation implements Externalizable {
 	 */
 	@Override
 	public void writeExternal(final ObjectOutput out) throws IOException {
-		out.writeInt(opCount);
-		out.writeBoolean(gzipped);
-		out.writeInt(payload.length);
-		out.write(payload);		
+		if(isExtended()) {
+			// deadlines and priorities are only recorded for services which negotiated them, everything else keeps the header older services read
+			final int features = getFeatures();
+			final int lead = features!=0 ? VERSIONED_HEADER : isDelta() ? DELTA_HEADER : EXTENDED_HEADER;
+			out.writeInt(lead);
+			out.writeByte(codecId);
+			out.writeLong(sessionId);
+			if(lead!=EXTENDED_HEADER) out.writeLong(deltaAck);
+			out.writeByte(compressorId);
+			out.writeByte(responseCompressorId);
+			out.writeInt(opCount);
+			if(lead==VERSIONED_HEADER) {
+				out.writeByte(HEADER_VERSION);
+				out.writeByte(features);
+			}
+			if((features & FEATURE_DEADLINES)!=0) {
+				out.writeLong(timeout);
+				out.writeInt(timedOps.length);
+				for(int i = 0; i < timedOps.length; i++) {
+					out.writeInt(timedOps[i]);
+					out.writeLong(opTimeouts[i]);
+				}
+			}
+			if((features & FEATURE_PRIORITIES)!=0) {
+				out.writeInt(prioritizedOps.length);
+				for(int i = 0; i < prioritizedOps.length; i++) {
+					out.writeInt(prioritizedOps[i]);
+					out.writeByte(priorities[i]);
+				}
+			}
+		} else {
+			// legacy invocations keep the original layout so services that predate codecs can still read them
+			out.writeInt(opCount);
+			out.writeBoolean(compressorId==GzipCompressor.ID);
+		}
+		if(payload==null) throw new IOException("The payload has been released");
+		out.writeInt(payloadLength);
+		out.write(payload, 0, payloadLength);
 	}
 
 }
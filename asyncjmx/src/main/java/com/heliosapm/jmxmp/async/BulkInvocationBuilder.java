@@ -18,56 +18,140 @@ under the License.
  */
 package com.heliosapm.jmxmp.async;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServerConnection;
-import javax.management.MBeanServerInvocationHandler;
 import javax.management.ObjectName;
 
-import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
 
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
 import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
 import com.heliosapm.utils.jmx.JMXHelper;
+import com.heliosapm.utils.tuples.NVP;
 
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.Suspendable;
 
 /**
  * <p>Title: BulkInvocationBuilder</p>
- * <p>Description: Builder for bulk invocations to be passed to remote MBeanServers for execution</p> 
+ * <p>Description: Builder for bulk invocations to be passed to remote MBeanServers for execution.
+ * Adding an op takes no lock: an adding thread which finds no other thread encoding encodes its op straight into the
+ * payload, and otherwise records it on a lock free queue which the encoding thread drains, so threads adding ops never
+ * wait on each other. Ops are encoded, and take their op ids, in the order they were recorded, which preserves the
+ * order of each thread's own ops.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.jmxmp.bulk.BulkInvocationBuilder</code></p>
  */
 
 public class BulkInvocationBuilder {
-	//protected final CompactObjectOutputStream oos;
-	protected final ObjectOutputStream oos;
-	protected final GZIPOutputStream gos;
-	protected final ByteArrayOutputStream baos;
+	protected final BulkEncoder encoder;
+	protected final BulkCodec codec;
+	protected final CompressionPolicy compression;
+	/** The pooled buffer the ops are encoded into */
+	protected final PooledBuffer buffer;
 	protected int opsWritten = 0;
+	/** The estimated size of the final content */
+	protected final int estimatedSize;
+	/** Indicates if the invocation has been built or invalidated, after which no more ops can be added */
+	protected final AtomicBoolean built = new AtomicBoolean(false);
+	/** Indicates if the encoder and buffer have been released */
+	protected final AtomicBoolean released = new AtomicBoolean(false);
+	/** The ops recorded but not yet encoded */
+	protected final ConcurrentLinkedQueue<OpRecord> recorded = new ConcurrentLinkedQueue<OpRecord>();
+	/** Held by the thread encoding the recorded ops */
+	protected final AtomicBoolean encoding = new AtomicBoolean(false);
+	/** The number of threads in the middle of recording an op */
+	protected final AtomicInteger recording = new AtomicInteger(0);
+	/** The failure which invalidated the builder while encoding ops, null if there was none */
+	protected volatile Throwable failure = null;
+	/** The number of ops added, which is more than the number written when ops are coalesced */
+	protected final AtomicInteger opsAdded = new AtomicInteger(0);
+	/** The number of ops coalesced into other ops */
+	protected volatile int coalescedOps = 0;
+	/** The number of bytes the ops encoded so far were encoded to */
+	protected volatile int encodedSize = 0;
+	/** Indicates if a mutating op has been added */
+	protected boolean mutating = false;
+	/** The index of each read op written since the last mutating op, used to dedupe identical reads */
+	protected final ReadTable reads = new ReadTable();
+	/** The handlers of the getAttribute ops held back since the last mutating op, by ObjectName and attribute name, to be merged into getAttributes ops */
+	protected final LinkedHashMap<ObjectName, LinkedHashMap<String, AsyncJMXResponseHandler>> pendingGets = new LinkedHashMap<ObjectName, LinkedHashMap<String, AsyncJMXResponseHandler>>();
+	/** The time in ms after the service receives the invocation by which it stops waiting for ops, 0 for no deadline */
+	protected volatile long timeout = 0L;
+	/** The timeouts in ms of the timed ops, by op index */
+	protected final TreeMap<Integer, Long> opTimeouts = new TreeMap<Integer, Long>();
+	/** The priorities of the ops with a priority other than {@link OpPriority#NORMAL}, by op index */
+	protected final TreeMap<Integer, OpPriority> opPriorities = new TreeMap<Integer, OpPriority>();
 	
 	protected final MBeanServerConnection conn;
 	protected final JMXBulkServiceMBean bulkService;
+	/** The bulk service session the invocation is built in */
+	protected final BulkClientSession session;
 	
-	final NonBlockingHashMapLong<AsyncJMXResponseHandler> handlers = new NonBlockingHashMapLong<AsyncJMXResponseHandler>();
+	/** The handlers of the written ops, indexed by op index */
+	final HandlerTable handlers = new HandlerTable();
 	
 	public static final ObjectName BULK = JMXHelper.objectName("com.heliosapm.jmx:service=BulkAPI");
 	/**
-	 * Creates a new BulkInvocation
-	 * @param gzip true to enable gzip, false otherwise
+	 * Creates a new BulkInvocation in a new session, negotiating the payload codec with the remote bulk service
+	 * @param gzip true to compress payloads worth compressing with the negotiated compressor, false to never compress
 	 * @param estimatedSize The estimated size of the final content
+	 * @param conn The connection to the MBeanServer hosting the bulk service
 	 */
 	public BulkInvocationBuilder(final boolean gzip, final int estimatedSize, final MBeanServerConnection conn) {
+		this(gzip, estimatedSize, conn, null);
+	}
+	
+	/**
+	 * Creates a new BulkInvocation in a new session
+	 * @param gzip true to compress payloads worth compressing with the negotiated compressor, false to never compress
+	 * @param estimatedSize The estimated size of the final content
+	 * @param conn The connection to the MBeanServer hosting the bulk service
+	 * @param codec The payload codec. If null, the codec is negotiated with the remote bulk service
+	 */
+	public BulkInvocationBuilder(final boolean gzip, final int estimatedSize, final MBeanServerConnection conn, final BulkCodec codec) {
+		this(gzip, estimatedSize, new BulkClientSession(conn, codec));
+	}
+	
+	/**
+	 * Creates a new BulkInvocation in an existing session, sending ObjectNames the session holds handles for as handles
+	 * @param gzip true to compress payloads worth compressing with the session's compressor, false to never compress
+	 * @param estimatedSize The estimated size of the final content
+	 * @param session The bulk service session
+	 */
+	public BulkInvocationBuilder(final boolean gzip, final int estimatedSize, final BulkClientSession session) {
+		this(gzip ? session.getCompression() : CompressionPolicy.NONE, estimatedSize, session);
+	}
+	
+	/**
+	 * Creates a new BulkInvocation in an existing session, sending ObjectNames the session holds handles for as handles
+	 * @param compression The compression policy applied to the payload
+	 * @param estimatedSize The estimated size of the final content
+	 * @param session The bulk service session
+	 */
+	public BulkInvocationBuilder(final CompressionPolicy compression, final int estimatedSize, final BulkClientSession session) {
 		try {
-			baos = new ByteArrayOutputStream(estimatedSize);
-			gos = gzip ? new GZIPOutputStream(baos) : null;
-			oos = new ObjectOutputStream(gzip ? gos : baos);
-					//new CompactObjectOutputStream(gzip ? gos : baos);			
-			this.conn = conn;
-			bulkService = MBeanServerInvocationHandler.newProxyInstance(conn, BULK, JMXBulkServiceMBean.class, false);
+			this.session = session;
+			this.compression = compression;
+			this.estimatedSize = estimatedSize;
+			conn = session.getConnection();
+			bulkService = session.getBulkService();
+			codec = session.getCodec();
+			buffer = BufferPool.getInstance().buffer(estimatedSize);
+			encoder = codec.newEncoder(buffer, session.getSessionId()==0L ? null : session);
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to initialize BulkInvocation", ex);
 		}
@@ -86,80 +170,593 @@ public class BulkInvocationBuilder {
 	
 	
 	/**
-	 * Adds an op to the builder
+	 * Adds an op to the builder.
+	 * Read ops are coalesced until the next mutating op: an op identical to one already added is not written again but
+	 * shares its result, and getAttribute ops on the same MBean are merged into one getAttributes op whose result is
+	 * split back apart for each handler. {@link MBeanOp#isStateful() Stateful} ops are never coalesced.
+	 * If an op cannot be encoded, the builder is invalidated and the exception is thrown to the thread that was encoding,
+	 * which may not be the thread that added the op, and the handlers of that op and of the ops not yet encoded are failed.
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return this builder
+	 */
+	@Suspendable
+	public BulkInvocationBuilder op(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		if(record(OpPriority.NORMAL, 0L, op, handler, args) < 0) throw new IllegalStateException("The invocation has already been built");
+		return this;
+	}
+	
+	/**
+	 * Adds an op with its own deadline to the builder. If the op has not completed within the timeout of the service
+	 * receiving the invocation, the handler is failed with a {@link java.util.concurrent.TimeoutException} and the rest of the
+	 * invocation's results are returned regardless. Timed ops are never coalesced.
+	 * @param timeout The timeout of the op in ms
 	 * @param op The op
 	 * @param handler the async response handler
 	 * @param args The arguments
 	 * @return this builder
+	 * @throws UnsupportedOperationException if the bulk service does not support deadlines
 	 */
 	@Suspendable
-	public synchronized BulkInvocationBuilder op(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
-		try {			
-			log("Storing op [" + op + "]");
-			oos.writeByte(op.byteOrdinal);
-			final int argCount = args==null ? 0 : args.length;
-			oos.writeInt(argCount);
-			if(argCount > 0) {
-				for(int i = 0; i < argCount; i++) {
-					if(args[i]==null) {
-						oos.writeByte(0);
-					} else {						
-						oos.writeByte(1);
-						oos.writeObject(args[i]);
-					}
+	public BulkInvocationBuilder timedOp(final long timeout, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		if(timeout <= 0L) throw new IllegalArgumentException("Invalid op timeout [" + timeout + "]");
+		if(!session.supports(BulkInvocation.FEATURE_DEADLINES)) throw new UnsupportedOperationException("The bulk service does not support deadlines");
+		if(record(OpPriority.NORMAL, timeout, op, handler, args) < 0) throw new IllegalStateException("The invocation has already been built");
+		return this;
+	}
+	
+	/**
+	 * Adds an op with a priority to the builder. Ops with a priority other than {@link OpPriority#NORMAL} are never coalesced.
+	 * Priorities are only a hint, so they are not sent to bulk services which do not support them.
+	 * @param priority The priority of the op
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return this builder
+	 */
+	@Suspendable
+	public BulkInvocationBuilder op(final OpPriority priority, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		if(record(priority, 0L, op, handler, args) < 0) throw new IllegalStateException("The invocation has already been built");
+		return this;
+	}
+	
+	/**
+	 * Adds an op, encoding it straight away if no other thread is encoding, and otherwise recording it for the encoding thread
+	 * @param priority The priority of the op
+	 * @param timeout The timeout of the op in ms, 0 for none
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return the number of ops in the builder including this one, or -1 if the builder has been built
+	 */
+	protected int record(final OpPriority priority, final long timeout, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		final int count;
+		final boolean encoder;
+		recording.incrementAndGet();
+		try {
+			if(built.get()) return -1;
+			count = opsAdded.incrementAndGet();
+			// uncontended, the op is encoded without being recorded on the queue
+			encoder = encoding.compareAndSet(false, true);
+			if(!encoder) recorded.offer(new OpRecord(priority, timeout, op, handler, args));
+		} finally {
+			recording.decrementAndGet();
+		}
+		if(encoder) {
+			try {
+				try {
+					// ops recorded before this one was added go first
+					drain();
+				} finally {
+					// fails the handler instead if draining invalidated the builder
+					encode(priority==null ? OpPriority.NORMAL : priority, timeout, op, handler, args);
 				}
-			}		
-//			MBeanOp mbeanOp = MBeanOp.decode(ois.readByte());
-//			final int argCount = ois.readInt();
-//			final Object[] args = new Object[argCount];
-//			for(int x = 0; x < argCount; x++) {
-//				if(ois.readByte()==0) continue;
-//				args[x] = ois.readObject();
-//			}
-			
-			if(handler!=null) {
-				handlers.put(opsWritten, handler);							
+			} finally {
+				encoding.set(false);
+			}
+		}
+		encodeRecorded();
+		return count;
+	}
+	
+	/**
+	 * Encodes the recorded ops unless another thread is already encoding them. The encoding thread checks for
+	 * ops recorded while it was releasing the encoder, so no op is left behind.
+	 */
+	protected void encodeRecorded() {
+		while(!recorded.isEmpty() && encoding.compareAndSet(false, true)) {
+			try {
+				drain();
+			} finally {
+				encoding.set(false);
 			}
-			opsWritten++;
-			log("Stored op [" + op + "]");
+		}
+	}
+	
+	/**
+	 * Encodes the recorded ops. Must be called by the thread holding {@link #encoding}.
+	 * If an op cannot be encoded, the builder is invalidated and the handlers of that op and of the ops recorded after it are failed.
+	 */
+	protected void drain() {
+		OpRecord rec;
+		while((rec = recorded.poll())!=null) {
+			encode(rec.priority, rec.timeout, rec.op, rec.handler, rec.args);
+		}
+	}
+	
+	/**
+	 * Encodes an op, or fails its handler if the builder has been invalidated. Must be called by the thread holding {@link #encoding}.
+	 * If the op cannot be encoded, the builder is invalidated and the handlers of the op and of the ops recorded after it are failed.
+	 * @param priority The priority of the op
+	 * @param timeout The timeout of the op in ms, 0 for none
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 */
+	protected void encode(final OpPriority priority, final long timeout, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object[] args) {
+		if(failure!=null) {
+			if(handler!=null) handler.onFail(failure);
+			return;
+		}
+		try {
+			if(priority==OpPriority.NORMAL && timeout==0L) {
+				coalesce(op, handler, args);
+			} else {
+				direct(priority, timeout, op, handler, args);
+			}
+			encodedSize = encoder.getBytesWritten();
 		} catch (Exception ex) {
+			final RuntimeException rex = new RuntimeException("Failed to store op [" + op + "]", ex);
+			failure = rex;
 			invalidate();
-			throw new RuntimeException("Failed to store op [" + op + "]", ex);
+			awaitRecording();
+			if(handler!=null) handler.onFail(rex);
+			drain();
+			throw rex;
+		}
+	}
+	
+	/**
+	 * Waits for the threads in the middle of recording an op to finish once the builder is built or invalidated
+	 */
+	protected void awaitRecording() {
+		while(recording.get() > 0) Thread.yield();
+	}
+	
+	/**
+	 * Takes over encoding once the builder is built or invalidated, waiting for any thread encoding to finish.
+	 * No more ops can be recorded by then, so releasing it afterwards lets no other thread encode.
+	 */
+	protected void takeEncoder() {
+		awaitRecording();
+		while(!encoding.compareAndSet(false, true)) Thread.yield();
+	}
+	
+	/**
+	 * Encodes an op with coalescing
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @throws Exception thrown on any error encoding the op
+	 */
+	protected void coalesce(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) throws Exception {
+		if(op.mutating) {
+			// reads must not be moved or shared across a write
+			mutating = true;
+			writeGets();
+			reads.clear();
+			write(op, handler, args);
+		} else if(op.stateful) {
+			// each call of a stateful op returns a different result, so it is never deduped
+			write(op, handler, args);
+		} else if(op==MBeanOp.GETATTRIBUTE && args!=null && args.length==2 && args[0] instanceof ObjectName && args[1] instanceof String) {
+			final ObjectName name = (ObjectName)args[0];
+			LinkedHashMap<String, AsyncJMXResponseHandler> attrs = pendingGets.get(name);
+			if(attrs==null) {
+				attrs = new LinkedHashMap<String, AsyncJMXResponseHandler>();
+				pendingGets.put(name, attrs);
+			} else {
+				coalescedOps++;
+			}
+			final String attrName = (String)args[1];
+			attrs.put(attrName, share(attrs.get(attrName), handler));
+		} else {
+			final int index = reads.putIfAbsent(op, args, opsWritten);
+			if(index==-1) {
+				write(op, handler, args);
+			} else {
+				coalescedOps++;
+				handlers.put(index, share(handlers.get(index), handler));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the handler to call back for an op shared by a coalesced op. A fan out handler is only created
+	 * once a second handler shares the op.
+	 * @param current The handler already called back for the op, null if there is none
+	 * @param handler The handler of the coalesced op, ignored if null
+	 * @return the handler to call back for the op
+	 */
+	protected static AsyncJMXResponseHandler share(final AsyncJMXResponseHandler current, final AsyncJMXResponseHandler handler) {
+		if(current==null) return handler;
+		if(handler==null) return current;
+		if(current instanceof SharedResponseHandler) return ((SharedResponseHandler)current).add(handler);
+		return new SharedResponseHandler(current).add(handler);
+	}
+	
+	/**
+	 * Encodes an op straight away, bypassing coalescing, recording its priority and timeout
+	 * @param priority The priority of the op
+	 * @param timeout The timeout of the op in ms, 0 for none
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @throws Exception thrown on any error encoding the op
+	 */
+	protected void direct(final OpPriority priority, final long timeout, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) throws Exception {
+		if(op.mutating) {
+			mutating = true;
+			writeGets();
+			reads.clear();
 		}
+		if(timeout > 0L) opTimeouts.put(opsWritten, timeout);
+		if(priority!=OpPriority.NORMAL) opPriorities.put(opsWritten, priority);
+		write(op, handler, args);
+	}
+	
+	/**
+	 * Sets the deadline of the whole invocation. Once the timeout has elapsed after the service receives the
+	 * invocation, it stops waiting for ops and fails the handlers of those not complete with a 
+	 * {@link java.util.concurrent.TimeoutException}, returning the results of the rest.
+	 * @param timeout The timeout in ms, 0 for no deadline
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the bulk service does not support deadlines
+	 */
+	public BulkInvocationBuilder setTimeout(final long timeout) {
+		if(built.get()) throw new IllegalStateException("The invocation has already been built");
+		if(timeout < 0L) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]");
+		if(timeout > 0L && !session.supports(BulkInvocation.FEATURE_DEADLINES)) throw new UnsupportedOperationException("The bulk service does not support deadlines");
+		this.timeout = timeout;
 		return this;
 	}
 	
+	/**
+	 * Writes an op
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @throws Exception thrown on any error encoding the op
+	 */
+	protected void write(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) throws Exception {
+		encoder.writeByte(op.byteOrdinal);
+		final int argCount = args==null ? 0 : args.length;
+		encoder.writeInt(argCount);
+		for(int i = 0; i < argCount; i++) {
+			encoder.writeValue(args[i]);
+		}
+		if(handler!=null) {
+			handlers.put(opsWritten, handler);
+		}
+		opsWritten++;
+	}
+	
+	/**
+	 * Writes the held back getAttribute ops, as one getAttributes op for each MBean more than one attribute is read from
+	 * @throws Exception thrown on any error encoding the ops
+	 */
+	protected void writeGets() throws Exception {
+		final Iterator<Map.Entry<ObjectName, LinkedHashMap<String, AsyncJMXResponseHandler>>> iter = pendingGets.entrySet().iterator();
+		while(iter.hasNext()) {
+			final Map.Entry<ObjectName, LinkedHashMap<String, AsyncJMXResponseHandler>> entry = iter.next();
+			final LinkedHashMap<String, AsyncJMXResponseHandler> attrs = entry.getValue();
+			if(attrs.size()==1) {
+				final Map.Entry<String, AsyncJMXResponseHandler> attr = attrs.entrySet().iterator().next();
+				write(MBeanOp.GETATTRIBUTE, attr.getValue(), entry.getKey(), attr.getKey());
+			} else {
+				final AttributeSplitHandler split = new AttributeSplitHandler(entry.getKey(), attrs);
+				write(MBeanOp.GETATTRIBUTES, split, entry.getKey(), split.getAttributeNames());
+			}
+			iter.remove();
+		}
+	}
+	
+	/**
+	 * Fails the handlers of every op added, for when the builder is discarded without being built
+	 * @param cause The cause of the failure
+	 */
+	protected void fail(final Throwable cause) {
+		built.set(true);
+		takeEncoder();
+		try {
+			failure = cause;
+			drain();
+			handlers.failAll(cause);
+			for(final LinkedHashMap<String, AsyncJMXResponseHandler> attrs: pendingGets.values()) {
+				for(final AsyncJMXResponseHandler target: attrs.values()) {
+					if(target!=null) target.onFail(cause);
+				}
+			}
+			pendingGets.clear();
+		} finally {
+			encoding.set(false);
+		}
+	}
+	
+	/**
+	 * Adds an op to the builder unless it has already been built
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return the number of ops in the builder including this one, or -1 if the builder has been built
+	 */
+	@Suspendable
+	public int tryOp(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		return record(OpPriority.NORMAL, 0L, op, handler, args);
+	}
+	
+	/**
+	 * Adds an op with a priority to the builder unless it has already been built
+	 * @param priority The priority of the op
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 * @return the number of ops in the builder including this one, or -1 if the builder has been built
+	 */
+	@Suspendable
+	public int tryOp(final OpPriority priority, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		return record(priority, 0L, op, handler, args);
+	}
+	
 	/**
 	 * Builds the bulk transport.
-	 * The builder will be invalidated and cannot be reused. // FIXME ?
+	 * The builder will be invalidated and cannot be reused. Waits for ops being recorded by other threads, and
+	 * encodes any recorded ops not yet encoded.
 	 * @return the bulk transport.
 	 */
 	public final HomeBulkInvocation build() {
+		if(!built.compareAndSet(false, true)) throw new IllegalStateException("The invocation has already been built");
+		takeEncoder();
 		try {
-			oos.flush();
-			if(gos!=null) {
-				gos.flush();
-				gos.finish();
-			}
-			baos.flush();
-			final byte[] payload = baos.toByteArray();
-			final HomeBulkInvocation hbi = new HomeBulkInvocation(opsWritten, payload, gos!=null, bulkService);
+			drain();
+			if(failure!=null) throw failure;
+			writeGets();
+			encoder.flush();
+			final NVP<BulkCompressor, PooledBuffer> compressed = compression.compress(buffer);
+			final PooledBuffer payload = compressed.getValue();
+			final int payloadLength = payload.size();
+			final HomeBulkInvocation hbi = new HomeBulkInvocation(opsWritten, payload.detach(), payloadLength, compressed.getKey().getId(), codec.getId(), session);
 			hbi.setHandlers(handlers);
+			hbi.setEncodedSizes(encoder.getBytesWritten(), encoder.getDictionarySavings());
+			hbi.setCoalescedOps(coalescedOps);
+			hbi.setMutating(mutating);
+			if(timeout > 0L || !opTimeouts.isEmpty()) {
+				final int[] timedOps = new int[opTimeouts.size()];
+				final long[] timeouts = new long[timedOps.length];
+				int i = 0;
+				for(final Map.Entry<Integer, Long> entry: opTimeouts.entrySet()) {
+					timedOps[i] = entry.getKey();
+					timeouts[i++] = entry.getValue();
+				}
+				hbi.setTimeouts(timeout, timedOps, timeouts);
+			}
+			if(!opPriorities.isEmpty() && session.supports(BulkInvocation.FEATURE_PRIORITIES)) {
+				final int[] prioritizedOps = new int[opPriorities.size()];
+				final byte[] priorities = new byte[prioritizedOps.length];
+				int i = 0;
+				for(final Map.Entry<Integer, OpPriority> entry: opPriorities.entrySet()) {
+					prioritizedOps[i] = entry.getKey();
+					priorities[i++] = entry.getValue().byteOrdinal;
+				}
+				hbi.setPriorities(prioritizedOps, priorities);
+			}
 			return hbi;
-		} catch (Exception ex) {			
+		} catch (Throwable ex) {			
 			throw new RuntimeException("Failed to complete payload", ex);			
 		} finally {
 			invalidate();
+			encoding.set(false);
 		}
 	}
 	
 
 	
+	/**
+	 * Returns the number of ops added to the builder
+	 * @return the op count
+	 */
+	public int getOpCount() {
+		return opsAdded.get();
+	}
+	
+	/**
+	 * Returns the number of ops added to the builder which were coalesced into other ops
+	 * @return the coalesced op count
+	 */
+	public int getCoalescedOps() {
+		return coalescedOps;
+	}
+	
+	/**
+	 * Returns the number of bytes the ops added so far were encoded to, before compression.
+	 * Ops recorded while another thread is encoding are not counted until they are encoded.
+	 * @return the encoded size
+	 */
+	public int getEncodedSize() {
+		return encodedSize;
+	}
+	
+	/**
+	 * Returns the compression policy applied to the payload
+	 * @return the compression policy
+	 */
+	public CompressionPolicy getCompression() {
+		return compression;
+	}
+	
+	/**
+	 * Returns the estimated size of the final content the builder was created with
+	 * @return the estimated size
+	 */
+	public int getEstimatedSize() {
+		return estimatedSize;
+	}
+	
+	/**
+	 * Returns the codec ops are written with
+	 * @return the payload codec
+	 */
+	public BulkCodec getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Returns the bulk service session the invocation is built in.
+	 * Builders cannot be reused, so subsequent invocations should be built from this session.
+	 * @return the session
+	 */
+	public BulkClientSession getSession() {
+		return session;
+	}
+	
 	protected void invalidate() {
-		if(oos!=null) try { oos.close(); } catch (Exception x) {/* No Op */} 
-		if(gos!=null) try { gos.close(); } catch (Exception x) {/* No Op */}
-		if(baos!=null) try { baos.close(); } catch (Exception x) {/* No Op */}
+		built.set(true);
+		if(!released.compareAndSet(false, true)) return;
+		if(encoder!=null) try { encoder.close(); } catch (Exception x) {/* No Op */} 
+		if(buffer!=null) buffer.release();
 	}
 	
 
+	/**
+	 * <p>Title: OpRecord</p>
+	 * <p>Description: An op recorded but not yet encoded</p> 
+	 */
+	protected static class OpRecord {
+		/** The priority of the op */
+		final OpPriority priority;
+		/** The timeout of the op in ms, 0 for none */
+		final long timeout;
+		/** The op */
+		final MBeanOp op;
+		/** The async response handler */
+		final AsyncJMXResponseHandler handler;
+		/** The op arguments */
+		final Object[] args;
+		
+		/**
+		 * Creates a new OpRecord
+		 * @param priority The priority of the op
+		 * @param timeout The timeout of the op in ms, 0 for none
+		 * @param op The op
+		 * @param handler the async response handler
+		 * @param args The op arguments
+		 */
+		OpRecord(final OpPriority priority, final long timeout, final MBeanOp op, final AsyncJMXResponseHandler handler, final Object[] args) {
+			this.priority = priority==null ? OpPriority.NORMAL : priority;
+			this.timeout = timeout;
+			this.op = op;
+			this.handler = handler;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * <p>Title: SharedResponseHandler</p>
+	 * <p>Description: The fan out handler the builder creates for an op shared by coalesced ops, told apart from
+	 * fan out handlers passed in by callers so that those are never added to</p> 
+	 */
+	protected static class SharedResponseHandler extends FanOutResponseHandler {
+		/**
+		 * Creates a new SharedResponseHandler
+		 * @param handler The first handler
+		 */
+		SharedResponseHandler(final AsyncJMXResponseHandler handler) {
+			super(handler);
+		}
+	}
+
+	/**
+	 * <p>Title: ReadTable</p>
+	 * <p>Description: Open addressed table of the index of each read op written, keyed by the op and the deep equality
+	 * of its arguments, so identical reads are found without allocating a key, a map entry or a boxed index per op</p> 
+	 */
+	protected static class ReadTable {
+		/** The ops, null for an empty slot */
+		MBeanOp[] ops = new MBeanOp[16];
+		/** The op arguments */
+		Object[][] args = new Object[16][];
+		/** The hash codes of the ops */
+		int[] hashes = new int[16];
+		/** The op indexes */
+		int[] indexes = new int[16];
+		/** The number of ops in the table */
+		int size = 0;
+		
+		/**
+		 * Returns the index of the op identical to the passed one, adding the passed op with the passed index if there is none
+		 * @param op The op
+		 * @param opArgs The op arguments
+		 * @param index The index of the op
+		 * @return the index of the identical op, or -1 if the op was added
+		 */
+		int putIfAbsent(final MBeanOp op, final Object[] opArgs, final int index) {
+			final int hash = 31 * op.hashCode() + Arrays.deepHashCode(opArgs);
+			final int mask = ops.length - 1;
+			int slot = spread(hash) & mask;
+			while(ops[slot]!=null) {
+				if(ops[slot]==op && hashes[slot]==hash && Arrays.deepEquals(args[slot], opArgs)) return indexes[slot];
+				slot = (slot + 1) & mask;
+			}
+			ops[slot] = op;
+			args[slot] = opArgs;
+			hashes[slot] = hash;
+			indexes[slot] = index;
+			if(++size << 1 > ops.length) grow();
+			return -1;
+		}
+		
+		/**
+		 * Doubles the capacity of the table, keeping its load factor at no more than a half
+		 */
+		void grow() {
+			final MBeanOp[] oldOps = ops;
+			final Object[][] oldArgs = args;
+			final int[] oldHashes = hashes;
+			final int[] oldIndexes = indexes;
+			final int capacity = oldOps.length << 1;
+			ops = new MBeanOp[capacity];
+			args = new Object[capacity][];
+			hashes = new int[capacity];
+			indexes = new int[capacity];
+			for(int i = 0; i < oldOps.length; i++) {
+				if(oldOps[i]==null) continue;
+				int slot = spread(oldHashes[i]) & (capacity - 1);
+				while(ops[slot]!=null) slot = (slot + 1) & (capacity - 1);
+				ops[slot] = oldOps[i];
+				args[slot] = oldArgs[i];
+				hashes[slot] = oldHashes[i];
+				indexes[slot] = oldIndexes[i];
+			}
+		}
+		
+		/**
+		 * Removes all the ops, keeping the capacity
+		 */
+		void clear() {
+			if(size==0) return;
+			Arrays.fill(ops, null);
+			Arrays.fill(args, null);
+			size = 0;
+		}
+		
+		/**
+		 * Spreads the high bits of a hash code into the low bits used to pick a slot
+		 * @param hash The hash code
+		 * @return the spread hash code
+		 */
+		static int spread(final int hash) {
+			return hash ^ (hash >>> 16);
+		}
+	}
 }
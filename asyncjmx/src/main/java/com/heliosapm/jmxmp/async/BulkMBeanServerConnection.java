@@ -18,10 +18,14 @@ under the License.
  */
 package com.heliosapm.jmxmp.async;
 
+import java.util.Set;
+
 import javax.management.Attribute;
 import javax.management.AttributeList;
+import javax.management.MBeanInfo;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import javax.management.QueryExp;
 
@@ -35,13 +39,116 @@ import javax.management.QueryExp;
 
 public class BulkMBeanServerConnection {
 	protected BulkInvocationBuilder invBuilder;
+	/** The batcher ops are sent with, or null if ops are added to a builder the caller sends */
+	protected final BulkBatcher batcher;
+	/** The cache getMBeanInfo is answered from */
+	protected final MBeanInfoCache infoCache;
+	/** The priority of the ops added through this connection */
+	protected final OpPriority priority;
 	
 	/**
 	 * Creates a new BulkMBeanServerConnection
 	 * @param invBuilder The invocation builder
 	 */
 	public BulkMBeanServerConnection(final BulkInvocationBuilder invBuilder) {
+		this(invBuilder, MBeanInfoCache.DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Creates a new BulkMBeanServerConnection
+	 * @param invBuilder The invocation builder
+	 * @param infoCacheSize The maximum number of MBeanInfos cached
+	 */
+	public BulkMBeanServerConnection(final BulkInvocationBuilder invBuilder, final int infoCacheSize) {
 		this.invBuilder = invBuilder;
+		batcher = null;
+		infoCache = new MBeanInfoCache(invBuilder.getSession().getConnection(), infoCacheSize);
+		priority = OpPriority.NORMAL;
+	}
+	
+	/**
+	 * Creates a new BulkMBeanServerConnection which sends its ops through an auto flushing batcher
+	 * @param batcher The batcher
+	 */
+	public BulkMBeanServerConnection(final BulkBatcher batcher) {
+		this(batcher, MBeanInfoCache.DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Creates a new BulkMBeanServerConnection which sends its ops through an auto flushing batcher
+	 * @param batcher The batcher
+	 * @param infoCacheSize The maximum number of MBeanInfos cached
+	 */
+	public BulkMBeanServerConnection(final BulkBatcher batcher, final int infoCacheSize) {
+		this.batcher = batcher;
+		invBuilder = null;
+		infoCache = new MBeanInfoCache(batcher.getSession().getConnection(), infoCacheSize);
+		priority = OpPriority.NORMAL;
+	}
+	
+	/**
+	 * Creates a new BulkMBeanServerConnection sharing the builder or batcher and the MBeanInfo cache of another
+	 * @param conn The connection to share with
+	 * @param priority The priority of the ops added through this connection
+	 */
+	protected BulkMBeanServerConnection(final BulkMBeanServerConnection conn, final OpPriority priority) {
+		invBuilder = conn.invBuilder;
+		batcher = conn.batcher;
+		infoCache = conn.infoCache;
+		this.priority = priority;
+	}
+	
+	/**
+	 * Returns a connection adding ops with the passed priority to the same builder or batcher as this one
+	 * @param priority The priority of the ops added through the returned connection
+	 * @return the connection
+	 */
+	public BulkMBeanServerConnection withPriority(final OpPriority priority) {
+		if(priority==null) throw new IllegalArgumentException("The passed priority was null");
+		return priority==this.priority ? this : new BulkMBeanServerConnection(this, priority);
+	}
+	
+	/**
+	 * Returns the priority of the ops added through this connection
+	 * @return the op priority
+	 */
+	public OpPriority getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Adds an op with this connection's priority to the batcher if there is one, otherwise to the builder
+	 * @param op The op
+	 * @param handler the async response handler
+	 * @param args The arguments
+	 */
+	private void op(final MBeanOp op, final AsyncJMXResponseHandler handler, final Object...args) {
+		if(batcher!=null) batcher.op(priority, op, handler, args);
+		else invBuilder.op(priority, op, handler, args);
+	}
+	
+	/**
+	 * Returns the session of the batcher or builder
+	 * @return the session
+	 */
+	private BulkClientSession getSession() {
+		return batcher!=null ? batcher.getSession() : invBuilder.getSession();
+	}
+	
+	/**
+	 * Returns the batcher ops are sent with
+	 * @return the batcher or null if ops are added to a builder the caller sends
+	 */
+	public BulkBatcher getBatcher() {
+		return batcher;
+	}
+	
+	/**
+	 * Returns the cache getMBeanInfo is answered from
+	 * @return the MBeanInfo cache
+	 */
+	public MBeanInfoCache getMBeanInfoCache() {
+		return infoCache;
 	}
 
 
@@ -50,7 +157,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
 	 */
 	public void addNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.ADDNOTIFICATIONLISTENER, handler, name, listener, filter, handback);
+		op(MBeanOp.ADDNOTIFICATIONLISTENER, handler, name, listener, filter, handback);
 	}
 
 	/**
@@ -58,7 +165,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
 	 */
 	public void addNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.ADDNOTIFICATIONLISTENER1, handler, name, listener, filter, handback);
+		op(MBeanOp.ADDNOTIFICATIONLISTENER1, handler, name, listener, filter, handback);
 	}
 
 	/**
@@ -66,7 +173,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName)
 	 */
 	public void createMBean(final String className, final ObjectName name, final AsyncJMXResponseHandler handler)  {
-		invBuilder.op(MBeanOp.CREATEMBEAN2, handler, className, name);
+		op(MBeanOp.CREATEMBEAN2, handler, className, name);
 	}
 
 	/**
@@ -74,7 +181,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName)
 	 */
 	public void createMBean(final String className, final ObjectName name, final ObjectName loaderName, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.CREATEMBEAN3, handler, className, name, loaderName);		
+		op(MBeanOp.CREATEMBEAN3, handler, className, name, loaderName);		
 	}
 
 	/**
@@ -82,7 +189,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
 	 */
 	public void createMBean(final String className, final ObjectName name, final Object[] params, final String[] signature, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.CREATEMBEAN1, handler, className, name, params, signature);		
+		op(MBeanOp.CREATEMBEAN1, handler, className, name, params, signature);		
 	}
 
 	/**
@@ -90,7 +197,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
 	 */
 	public void createMBean(final String className, final ObjectName name, final ObjectName loaderName, final Object[] params, final String[] signature, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.CREATEMBEAN, handler, className, name, loaderName, params, signature);
+		op(MBeanOp.CREATEMBEAN, handler, className, name, loaderName, params, signature);
 	}
 
 	/**
@@ -98,7 +205,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#getAttribute(javax.management.ObjectName, java.lang.String)
 	 */
 	public void getAttribute(final ObjectName name, final String attribute, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETATTRIBUTE, handler, name, attribute);
+		op(MBeanOp.GETATTRIBUTE, handler, name, attribute);
 		
 	}
 
@@ -107,7 +214,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#getAttributes(javax.management.ObjectName, java.lang.String[])
 	 */
 	public void getAttributes(final ObjectName name, final String[] attributes, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETATTRIBUTES, handler, name, attributes);
+		op(MBeanOp.GETATTRIBUTES, handler, name, attributes);
 	}
 
 	/**
@@ -115,7 +222,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#getDefaultDomain()
 	 */
 	public void getDefaultDomain(final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETDEFAULTDOMAIN, handler);
+		op(MBeanOp.GETDEFAULTDOMAIN, handler);
 		
 	}
 
@@ -126,7 +233,7 @@ public class BulkMBeanServerConnection {
 	
 	
 	public void getDomains(final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETDOMAINS, handler);
+		op(MBeanOp.GETDOMAINS, handler);
 
 	}
 
@@ -135,16 +242,30 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#getMBeanCount()
 	 */
 	public void getMBeanCount(final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETMBEANCOUNT, handler);
+		op(MBeanOp.GETMBEANCOUNT, handler);
 		
 	}
 
 	/**
-	 * 
+	 * Answers from the MBeanInfo cache when it can, calling back the handler before returning, otherwise queues the op
 	 * @see javax.management.MBeanServerConnection#getMBeanInfo(javax.management.ObjectName)
 	 */
 	public void getMBeanInfo(final ObjectName name, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETMBEANINFO, handler, name);
+		final MBeanInfo info = infoCache.get(name);
+		if(info!=null) {
+			if(handler!=null) handler.onMBeanInfo(info);
+			return;
+		}
+		fetchMBeanInfo(name, handler);
+	}
+	
+	/**
+	 * Queues a getMBeanInfo op without consulting the cache, caching the returned MBeanInfo
+	 * @param name The ObjectName of the MBean
+	 * @param handler The response handler
+	 */
+	void fetchMBeanInfo(final ObjectName name, final AsyncJMXResponseHandler handler) {
+		op(MBeanOp.GETMBEANINFO, new InfoCachingHandler(name, infoCache.generation(), handler), name);
 	}
 
 	/**
@@ -152,7 +273,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#getObjectInstance(javax.management.ObjectName)
 	 */
 	public void getObjectInstance(final ObjectName name, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.GETOBJECTINSTANCE, handler, name);
+		op(MBeanOp.GETOBJECTINSTANCE, handler, name);
 	}
 
 	/**
@@ -160,7 +281,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#invoke(javax.management.ObjectName, java.lang.String, java.lang.Object[], java.lang.String[])
 	 */
 	public void invoke(final ObjectName name, final String operationName, final Object[] params, final String[] signature, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.INVOKE, handler, name, operationName, params, signature);
+		op(MBeanOp.INVOKE, handler, name, operationName, params, signature);
 		
 	}
 
@@ -169,7 +290,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#isInstanceOf(javax.management.ObjectName, java.lang.String)
 	 */
 	public void isInstanceOf(final ObjectName name, final String className, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.ISINSTANCEOF, handler, name, className);
+		op(MBeanOp.ISINSTANCEOF, handler, name, className);
 	}
 
 	/**
@@ -177,7 +298,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#isRegistered(javax.management.ObjectName)
 	 */
 	public void isRegistered(final ObjectName name, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.ISREGISTERED, handler, name);
+		op(MBeanOp.ISREGISTERED, handler, name);
 		
 	}
 
@@ -186,7 +307,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)
 	 */
 	public void queryMBeans(final ObjectName name, final QueryExp query, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.QUERYMBEANS, handler, name, query);		
+		op(MBeanOp.QUERYMBEANS, handler, name, query);		
 	}
 
 	/**
@@ -194,7 +315,44 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp)
 	 */
 	public void queryNames(final ObjectName name, final QueryExp query, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.QUERYNAMES, handler, name, query);
+		op(MBeanOp.QUERYNAMES, handler, name, query);
+	}
+
+	/**
+	 * Returns a cursor over the ObjectNames matching the passed pattern and query, fetched in pages on demand.
+	 * Each page is its own invocation in this connection's session, sent when the cursor is read, not with the builder or batcher.
+	 * @param name The ObjectName pattern, null for all names
+	 * @param query The optional query, may be null
+	 * @param pageSize The maximum number of names in a page
+	 * @return the cursor, which should be closed if it is not read to the end
+	 */
+	public QueryCursor<ObjectName> queryNames(final ObjectName name, final QueryExp query, final int pageSize) {
+		return new QueryCursor<ObjectName>(getSession(), name, query, pageSize, false);
+	}
+	
+	/**
+	 * Returns a cursor over the ObjectInstances matching the passed pattern and query, fetched in pages on demand.
+	 * Each page is its own invocation in this connection's session, sent when the cursor is read, not with the builder or batcher.
+	 * @param name The ObjectName pattern, null for all names
+	 * @param query The optional query, may be null
+	 * @param pageSize The maximum number of instances in a page
+	 * @return the cursor, which should be closed if it is not read to the end
+	 */
+	public QueryCursor<ObjectInstance> queryMBeans(final ObjectName name, final QueryExp query, final int pageSize) {
+		return new QueryCursor<ObjectInstance>(getSession(), name, query, pageSize, true);
+	}
+
+	/**
+	 * Queries the names matching the passed pattern and query and reads the passed attributes from each in a single op.
+	 * The handler is called back with an {@link AttributeTable}, on {@link AttributeTableResponseHandler#onAttributeTable(AttributeTable)}
+	 * if it implements {@link AttributeTableResponseHandler}, or on {@link AsyncJMXResponseHandler#onObject(Object)} otherwise.
+	 * @param name The ObjectName pattern
+	 * @param query The optional query, may be null
+	 * @param attributes The names of the attributes to read
+	 * @param handler The response handler
+	 */
+	public void queryAttributes(final ObjectName name, final QueryExp query, final String[] attributes, final AsyncJMXResponseHandler handler) {
+		op(MBeanOp.QUERYATTRIBUTES, handler, name, query, attributes);
 	}
 
 	/**
@@ -202,7 +360,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName)
 	 */
 	public void removeNotificationListener(final ObjectName name, final ObjectName listener, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.REMOVENOTIFICATIONLISTENER3, handler, name, listener);
+		op(MBeanOp.REMOVENOTIFICATIONLISTENER3, handler, name, listener);
 	}
 
 	/**
@@ -210,7 +368,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener)
 	 */
 	public void removeNotificationListener(final ObjectName name, final NotificationListener listener, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.REMOVENOTIFICATIONLISTENER1, handler, name, listener);
+		op(MBeanOp.REMOVENOTIFICATIONLISTENER1, handler, name, listener);
 		
 	}
 
@@ -219,7 +377,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
 	 */
 	public void removeNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.REMOVENOTIFICATIONLISTENER2, handler, name, listener, filter, handback);
+		op(MBeanOp.REMOVENOTIFICATIONLISTENER2, handler, name, listener, filter, handback);
 	}
 
 	/**
@@ -227,7 +385,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
 	 */
 	public void removeNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter,	final Object handback, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.REMOVENOTIFICATIONLISTENER, handler, name, listener, filter, handback);
+		op(MBeanOp.REMOVENOTIFICATIONLISTENER, handler, name, listener, filter, handback);
 		
 	}
 
@@ -236,7 +394,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#setAttribute(javax.management.ObjectName, javax.management.Attribute)
 	 */
 	public void setAttribute(final ObjectName name, final Attribute attribute, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.SETATTRIBUTE, handler, name, attribute);		
+		op(MBeanOp.SETATTRIBUTE, handler, name, attribute);		
 	}
 
 	/**
@@ -244,7 +402,7 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#setAttributes(javax.management.ObjectName, javax.management.AttributeList)
 	 */
 	public void setAttributes(final ObjectName name, final AttributeList attributes, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.SETATTRIBUTES, handler, name, attributes);
+		op(MBeanOp.SETATTRIBUTES, handler, name, attributes);
 	}
 
 	/**
@@ -252,7 +410,83 @@ public class BulkMBeanServerConnection {
 	 * @see javax.management.MBeanServerConnection#unregisterMBean(javax.management.ObjectName)
 	 */
 	public void unregisterMBean(final ObjectName name, final AsyncJMXResponseHandler handler) {
-		invBuilder.op(MBeanOp.UNREGISTERMBEAN, handler, name);		
+		infoCache.invalidate(name);
+		op(MBeanOp.UNREGISTERMBEAN, handler, name);		
+	}
+	
+	/**
+	 * <p>Title: InfoCachingHandler</p>
+	 * <p>Description: Caches the MBeanInfo returned by a getMBeanInfo op before passing it on to the caller's handler</p> 
+	 */
+	protected class InfoCachingHandler implements AsyncJMXResponseHandler {
+		/** The ObjectName of the MBean */
+		final ObjectName name;
+		/** The cache generation when the op was queued */
+		final long generation;
+		/** The caller's handler, may be null */
+		final AsyncJMXResponseHandler handler;
+		
+		/**
+		 * Creates a new InfoCachingHandler
+		 * @param name The ObjectName of the MBean
+		 * @param generation The cache generation when the op was queued
+		 * @param handler The caller's handler, may be null
+		 */
+		InfoCachingHandler(final ObjectName name, final long generation, final AsyncJMXResponseHandler handler) {
+			this.name = name;
+			this.generation = generation;
+			this.handler = handler;
+		}
+		
+		@Override
+		public void onMBeanInfo(final MBeanInfo result) {
+			infoCache.put(name, result, generation);
+			if(handler!=null) handler.onMBeanInfo(result);
+		}
+		@Override
+		public void onObjectInstance(final ObjectInstance result) {
+			if(handler!=null) handler.onObjectInstance(result);
+		}
+		@Override
+		public void onBoolean(final boolean result) {
+			if(handler!=null) handler.onBoolean(result);
+		}
+		@Override
+		public void onAttributeList(final AttributeList result) {
+			if(handler!=null) handler.onAttributeList(result);
+		}
+		@Override
+		public void onInteger(final Integer result) {
+			if(handler!=null) handler.onInteger(result);
+		}
+		@Override
+		public void onObject(final Object result) {
+			if(handler!=null) handler.onObject(result);
+		}
+		@Override
+		public void onObjectInstances(final Set<ObjectInstance> result) {
+			if(handler!=null) handler.onObjectInstances(result);
+		}
+		@Override
+		public void onObjectNames(final Set<ObjectName> result) {
+			if(handler!=null) handler.onObjectNames(result);
+		}
+		@Override
+		public void onString(final String result) {
+			if(handler!=null) handler.onString(result);
+		}
+		@Override
+		public void onStrings(final String[] result) {
+			if(handler!=null) handler.onStrings(result);
+		}
+		@Override
+		public void onComplete() {
+			if(handler!=null) handler.onComplete();
+		}
+		@Override
+		public void onFail(final Throwable t) {
+			if(handler!=null) handler.onFail(t);
+		}
 	}
 	
 
@@ -26,12 +26,20 @@ import java.io.ByteArrayInputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkDecoder;
+import com.heliosapm.jmxmp.async.codec.JavaSerializationCodec;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.Compressors;
+import com.heliosapm.jmxmp.async.compress.GzipCompressor;
+import com.heliosapm.jmxmp.async.compress.NoCompressor;
 import com.heliosapm.utils.tuples.NVP;
 
 import co.paralleluniverse.fibers.Fiber;
@@ -49,19 +57,77 @@ public class BulkResponse implements Externalizable {
 	protected int responseCount;
 	/** The serialized responses */
 	protected byte[] payload;
-	/** Indicates if the response payload is gzipped */
-	protected boolean gzipped;
+	/** The number of payload bytes. The payload array may be longer when it comes from the {@link BufferPool}. */
+	protected int payloadLength;
+	/** Indicates if the payload array is owned by the {@link BufferPool}, and returned to it on {@link #release()} */
+	protected transient boolean pooled = false;
+	/** The response owning a shared payload array, released once this response has been written */
+	protected transient BulkResponse releaseOnWrite = null;
+	/** The id of the compressor the payload was compressed with */
+	protected byte compressorId = NoCompressor.ID;
+	/** The id of the codec the payload was written with */
+	protected byte codecId = JavaSerializationCodec.ID;
+	/** The ObjectName handles newly assigned by the bulk service session */
+	protected int[] assignedHandles = EMPTY_HANDLES;
+	/** The ObjectNames, in canonical form, of the newly assigned handles */
+	protected String[] assignedNames = EMPTY_NAMES;
+	/** The ObjectName handles evicted by the bulk service session */
+	protected int[] evictedHandles = EMPTY_HANDLES;
+	/** The serial of a delta session response, -1 if this is not a delta response */
+	protected long deltaSerial = -1L;
+	/** Indicates if the client must discard its mirrored delta values before resolving this response */
+	protected boolean deltaReset = false;
+	
+	/** Leading marker, in place of an op, of a run of getAttributes responses written as one columnar {@link AttributeTable} */
+	public static final byte COLUMNAR_RUN = -1;
+	/** Leading marker, followed by the op, of a long result written as a raw 8 byte value */
+	public static final byte LONG_RESULT = -2;
+	/** Leading marker, followed by the op, of a double result written as a raw 8 byte value */
+	public static final byte DOUBLE_RESULT = -3;
+	
+	/** Empty handle array constant */
+	private static final int[] EMPTY_HANDLES = {};
+	/** Empty name array constant */
+	private static final String[] EMPTY_NAMES = {};
 	
 	/**
-	 * Creates a new BulkResponse
+	 * Creates a new BulkResponse using the legacy java serialization codec
 	 * @param responseCount The number of serialized responses
 	 * @param payload The serialized responses
 	 * @param gzipped Indicates if the response payload is gzipped
 	 */	
 	public BulkResponse(final int responseCount, final byte[] payload, final boolean gzipped) {
+		this(responseCount, payload, gzipped ? GzipCompressor.ID : NoCompressor.ID, JavaSerializationCodec.ID);
+	}
+
+	/**
+	 * Creates a new BulkResponse
+	 * @param responseCount The number of serialized responses
+	 * @param payload The serialized responses
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
+	 */	
+	public BulkResponse(final int responseCount, final byte[] payload, final byte compressorId, final byte codecId) {
 		this.responseCount = responseCount;
 		this.payload = payload;
-		this.gzipped = gzipped;
+		payloadLength = payload.length;
+		this.compressorId = compressorId;
+		this.codecId = codecId;
+	}
+	
+	/**
+	 * Creates a new BulkResponse over a payload array acquired from the {@link BufferPool}.
+	 * Ownership of the array passes to the response, which returns it to the pool on {@link #release()}.
+	 * @param responseCount The number of serialized responses
+	 * @param payload The serialized responses
+	 * @param payloadLength The number of payload bytes
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
+	 */	
+	public BulkResponse(final int responseCount, final byte[] payload, final int payloadLength, final byte compressorId, final byte codecId) {
+		this(responseCount, payload, compressorId, codecId);
+		this.payloadLength = payloadLength;
+		pooled = true;
 	}
 	
 	/**
@@ -87,40 +153,243 @@ public class BulkResponse implements Externalizable {
 	 * @return a list of the unmarshalled responses
 	 */
 	public List<NVP<MBeanOp, Object>> getResponses() {
-//		CompactObjectInputStream ois = null;
-		ObjectInputStream ois = null;
-		GZIPInputStream gis = null;
+		return getResponses(null);
+	}
+	
+	/**
+	 * Returns a list of the unmarshalled responses
+	 * @param mirror The delta mirror to resolve delta refs against, or null if this is not a delta response
+	 * @return a list of the unmarshalled responses
+	 */
+	public List<NVP<MBeanOp, Object>> getResponses(final DeltaMirror mirror) {
+		final MBeanOp[] ops = new MBeanOp[responseCount];
+		final Object[] results = new Object[responseCount];
+		read(mirror, ops, results);
+		final List<NVP<MBeanOp, Object>> responses = new ArrayList<NVP<MBeanOp, Object>>(responseCount);
+		for(int i = 0; i < responseCount; i++) {
+			responses.add(new NVP<MBeanOp, Object>(ops[i], results[i]));
+		}
+		return responses;
+	}
+	
+	/**
+	 * Unmarshalls the responses into the passed arrays, indexed by request id.
+	 * GetAttributes results are always read back as an {@link javax.management.AttributeList}, even when sent in a columnar run.
+	 * @param mirror The delta mirror to resolve delta refs against, or null if this is not a delta response
+	 * @param ops The array to write the op of each response to, at least as long as the response count
+	 * @param results The array to write the result of each response to, at least as long as the response count
+	 */
+	public void read(final DeltaMirror mirror, final MBeanOp[] ops, final Object[] results) {
+		decode(mirror, null, ops, results);
+	}
+	
+	/**
+	 * Unmarshalls the responses and calls back the handler of each op as its result is decoded,
+	 * without collecting the responses first. Results sent as raw numeric values are handed on without boxing.
+	 * @param handlers The handlers of the invocation's ops, indexed by request id
+	 */
+	public void dispatch(final HandlerTable handlers) {
+		decode(null, handlers, null, null);
+	}
+	
+	/**
+	 * Unmarshalls the responses, either calling back their handlers or writing them to the passed arrays
+	 * @param mirror The delta mirror to resolve delta refs against, or null if this is not a delta response
+	 * @param handlers The handlers to call back, or null to write the responses to the arrays
+	 * @param ops The array to write the op of each response to when there are no handlers
+	 * @param results The array to write the result of each response to when there are no handlers
+	 */
+	protected void decode(final DeltaMirror mirror, final HandlerTable handlers, final MBeanOp[] ops, final Object[] results) {
+		BulkDecoder decoder = null;
 		ByteArrayInputStream bais = null;		
-		List<NVP<MBeanOp, Object>> responses = null;
+		PooledBuffer decompressed = null;
 		try {
-			bais = new ByteArrayInputStream(payload);
-			responses = new ArrayList<NVP<MBeanOp, Object>>(responseCount);
-			if(gzipped) {
-				gis = new GZIPInputStream(bais);
-				ois = new ObjectInputStream(gis);
-						//new CompactObjectInputStream(gis, ClassResolvers.softCachingConcurrentResolver(Thread.currentThread().getContextClassLoader()));
+			if(compressorId==NoCompressor.ID) {
+				bais = new ByteArrayInputStream(payload, 0, payloadLength);
 			} else {
-				ois = new ObjectInputStream(bais);
-					//new CompactObjectInputStream(bais, ClassResolvers.softCachingConcurrentResolver(Thread.currentThread().getContextClassLoader()));
+				decompressed = BufferPool.getInstance().buffer(payloadLength << 1);
+				getCompressor().decompress(payload, 0, payloadLength, decompressed);
+				bais = decompressed.toInputStream();
 			}
-			for(int i = 0; i < responseCount; i++) {
-				Object result = null;
-				MBeanOp mbeanOp = MBeanOp.decode(ois.readByte());
-				if(ois.readByte()!=0) {
-					result = ois.readObject();					
+			decoder = getCodec().newDecoder(bais, null);
+			int reqId = 0;
+			while(reqId < responseCount) {
+				final byte lead = decoder.readByte();
+				if(lead==COLUMNAR_RUN) {
+					final int rows = decoder.readInt();
+					final AttributeTable table = (AttributeTable)decoder.readValue();
+					for(int r = 0; r < rows; r++, reqId++) {
+						// only handlers are handed the row, so a getAttributes result reads back the same whether or not it was in a run
+						emit(reqId, MBeanOp.GETATTRIBUTES, handlers!=null ? table.row(r) : table.getRow(r), handlers, ops, results);
+					}
+					continue;
 				}
-				log("Read Response [op:%s, result:%s]", mbeanOp, result);
-				responses.add(new NVP<MBeanOp, Object>(mbeanOp, result));
+				if(lead==LONG_RESULT) {
+					final MBeanOp mbeanOp = MBeanOp.decode(decoder.readByte());
+					final long value = decoder.readLong();
+					if(handlers!=null) {
+						handlers.dispatchLong(reqId++, mbeanOp, value);
+					} else {
+						emit(reqId++, mbeanOp, value, null, ops, results);
+					}
+					continue;
+				}
+				if(lead==DOUBLE_RESULT) {
+					final MBeanOp mbeanOp = MBeanOp.decode(decoder.readByte());
+					final double value = decoder.readDouble();
+					if(handlers!=null) {
+						handlers.dispatchDouble(reqId++, mbeanOp, value);
+					} else {
+						emit(reqId++, mbeanOp, value, null, ops, results);
+					}
+					continue;
+				}
+				final MBeanOp mbeanOp = MBeanOp.decode(lead);
+				final Object result = mirror==null ? decoder.readValue() : mirror.resolve(decoder.readValue());
+				emit(reqId++, mbeanOp, result, handlers, ops, results);
 			}
-			return responses;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to unmarshall responses", ex);
 		} finally {
-			if(ois!=null) try { ois.close(); } catch (Exception x) {/* No Op */}
-			if(gis!=null) try { gis.close(); } catch (Exception x) {/* No Op */}
+			if(decoder!=null) try { decoder.close(); } catch (Exception x) {/* No Op */}
 			if(bais!=null) try { bais.close(); } catch (Exception x) {/* No Op */}
+			if(decompressed!=null) decompressed.release();
 		}
-		
+	}
+	
+	/**
+	 * Hands on one decoded response
+	 * @param reqId The request id of the response
+	 * @param op The op of the response
+	 * @param result The result of the op
+	 * @param handlers The handlers to call back, or null to write the response to the arrays
+	 * @param ops The array to write the op to
+	 * @param results The array to write the result to
+	 */
+	private static void emit(final int reqId, final MBeanOp op, final Object result, final HandlerTable handlers, final MBeanOp[] ops, final Object[] results) {
+		if(handlers!=null) {
+			handlers.dispatch(reqId, op, result);
+		} else {
+			ops[reqId] = op;
+			results[reqId] = result;
+		}
+	}
+	
+	/**
+	 * Returns the number of payload bytes
+	 * @return the payload length
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+	
+	/**
+	 * Returns a pooled payload array to the {@link BufferPool}. Once released, the response can no longer be decoded or written.
+	 * No Op if the payload is not pooled or has already been released.
+	 */
+	public void release() {
+		final byte[] p = payload;
+		payload = null;
+		if(pooled && p!=null) BufferPool.getInstance().release(p);
+	}
+	
+	/**
+	 * Returns the codec the payload was written with
+	 * @return the payload codec
+	 */
+	public BulkCodec getCodec() {
+		return BulkCodecs.get(codecId);
+	}
+	
+	/**
+	 * Returns the compressor the payload was compressed with
+	 * @return the payload compressor
+	 */
+	public BulkCompressor getCompressor() {
+		return Compressors.get(compressorId);
+	}
+	
+	/**
+	 * Sets the session ObjectName handle updates carried back to the client with this response
+	 * @param assignedHandles The newly assigned handles
+	 * @param assignedNames The canonical ObjectNames of the newly assigned handles
+	 * @param evictedHandles The evicted handles
+	 * @return this response
+	 */
+	public BulkResponse setHandleUpdates(final int[] assignedHandles, final String[] assignedNames, final int[] evictedHandles) {
+		if(assignedHandles.length!=assignedNames.length) throw new IllegalArgumentException("Assigned handle and name counts differ");
+		this.assignedHandles = assignedHandles;
+		this.assignedNames = assignedNames;
+		this.evictedHandles = evictedHandles;
+		return this;
+	}
+	
+	/**
+	 * Returns the ObjectName handles newly assigned by the bulk service session
+	 * @return the newly assigned handles
+	 */
+	public int[] getAssignedHandles() {
+		return assignedHandles;
+	}
+	
+	/**
+	 * Returns the canonical ObjectNames of the newly assigned handles, in the same order as {@link #getAssignedHandles()}
+	 * @return the names of the newly assigned handles
+	 */
+	public String[] getAssignedNames() {
+		return assignedNames;
+	}
+	
+	/**
+	 * Returns the ObjectName handles evicted by the bulk service session
+	 * @return the evicted handles
+	 */
+	public int[] getEvictedHandles() {
+		return evictedHandles;
+	}
+	
+	/**
+	 * Marks this response as a delta session response
+	 * @param deltaSerial The serial of the response
+	 * @param deltaReset true if the client must discard its mirrored delta values before resolving this response
+	 * @return this response
+	 */
+	public BulkResponse setDelta(final long deltaSerial, final boolean deltaReset) {
+		this.deltaSerial = deltaSerial;
+		this.deltaReset = deltaReset;
+		return this;
+	}
+	
+	/**
+	 * Indicates if this is a delta session response
+	 * @return true for a delta response, false otherwise
+	 */
+	public boolean isDelta() {
+		return deltaSerial >= 0L;
+	}
+	
+	/**
+	 * Returns the serial of a delta session response
+	 * @return the delta serial, -1 if this is not a delta response
+	 */
+	public long getDeltaSerial() {
+		return deltaSerial;
+	}
+	
+	/**
+	 * Indicates if the client must discard its mirrored delta values before resolving this response
+	 * @return true if the session's deltas were reset, false otherwise
+	 */
+	public boolean isDeltaReset() {
+		return deltaReset;
+	}
+	
+	/**
+	 * Indicates if this response carries any session ObjectName handle updates
+	 * @return true if there are handle updates, false otherwise
+	 */
+	protected boolean hasHandleUpdates() {
+		return assignedHandles.length > 0 || evictedHandles.length > 0;
 	}
 
 	
@@ -130,10 +399,38 @@ public class BulkResponse implements Externalizable {
 	 */
 	@Override
 	public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-		responseCount = in.readInt();
-		gzipped = in.readBoolean();
-		payload = new byte[in.readInt()];
-		in.read(payload);
+		final int lead = in.readInt();
+		final boolean extended = lead==BulkInvocation.EXTENDED_HEADER || lead==BulkInvocation.DELTA_HEADER;
+		if(extended) {
+			codecId = in.readByte();
+			compressorId = in.readByte();
+			if(lead==BulkInvocation.DELTA_HEADER) {
+				deltaSerial = in.readLong();
+				deltaReset = in.readBoolean();
+			}
+			responseCount = in.readInt();
+		} else {
+			codecId = JavaSerializationCodec.ID;
+			responseCount = lead;
+			compressorId = in.readBoolean() ? GzipCompressor.ID : NoCompressor.ID;
+		}
+		payloadLength = in.readInt();
+		payload = BufferPool.getInstance().acquire(payloadLength);
+		pooled = true;
+		in.readFully(payload, 0, payloadLength);
+		if(extended) {
+			final int assigned = in.readInt();
+			assignedHandles = new int[assigned];
+			assignedNames = new String[assigned];
+			for(int i = 0; i < assigned; i++) {
+				assignedHandles[i] = in.readInt();
+				assignedNames[i] = in.readUTF();
+			}
+			evictedHandles = new int[in.readInt()];
+			for(int i = 0; i < evictedHandles.length; i++) {
+				evictedHandles[i] = in.readInt();
+			}
+		}
 	}
 
 	/**
@@ -142,10 +439,42 @@ public class BulkResponse implements Externalizable {
 	 */
 	@Override
 	public void writeExternal(final ObjectOutput out) throws IOException {
-		out.writeInt(responseCount);
-		out.writeBoolean(gzipped);
-		out.writeInt(payload.length);
-		out.write(payload);		
+		final boolean extended = codecId!=JavaSerializationCodec.ID || compressorId > GzipCompressor.ID || hasHandleUpdates() || isDelta();
+		if(extended) {
+			out.writeInt(isDelta() ? BulkInvocation.DELTA_HEADER : BulkInvocation.EXTENDED_HEADER);
+			out.writeByte(codecId);
+			out.writeByte(compressorId);
+			if(isDelta()) {
+				out.writeLong(deltaSerial);
+				out.writeBoolean(deltaReset);
+			}
+			out.writeInt(responseCount);
+		} else {
+			// responses to legacy invocations keep the original layout so clients that predate codecs can still read them
+			out.writeInt(responseCount);
+			out.writeBoolean(compressorId==GzipCompressor.ID);
+		}
+		if(payload==null) throw new IOException("The payload has been released");
+		try {
+			out.writeInt(payloadLength);
+			out.write(payload, 0, payloadLength);
+		} finally {
+			if(releaseOnWrite!=null) {
+				releaseOnWrite.release();
+				payload = null;
+			}
+		}
+		if(extended) {
+			out.writeInt(assignedHandles.length);
+			for(int i = 0; i < assignedHandles.length; i++) {
+				out.writeInt(assignedHandles[i]);
+				out.writeUTF(assignedNames[i]);
+			}
+			out.writeInt(evictedHandles.length);
+			for(int i = 0; i < evictedHandles.length; i++) {
+				out.writeInt(evictedHandles[i]);
+			}
+		}
 	}
 
 }
@@ -15,48 +15,88 @@
  */
 package com.heliosapm.jmxmp.async;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import javax.management.MBeanServerConnection;
-import javax.management.MBeanServerInvocationHandler;
-import javax.management.ObjectName;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 
-import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
-
-import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
-import com.heliosapm.utils.jmx.JMXHelper;
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+import com.heliosapm.jmxmp.async.codec.TaggedBinaryCodec;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
+import com.heliosapm.jmxmp.async.compress.Compressors;
+import com.heliosapm.utils.tuples.NVP;
 
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.Suspendable;
 
 /**
  * <p>Title: BulkResponseBuilder</p>
- * <p>Description: Builder for bulk responses</p> 
+ * <p>Description: Builder for bulk responses. When the codec supports it, runs of consecutive getAttributes
+ * responses carrying the same attribute names are held back and written as a single columnar {@link AttributeTable},
+ * and long and double results of getAttribute and invoke ops are written as raw 8 byte values.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.jmxmp.async.BulkResponseBuilder</code></p>
  */
 
 public class BulkResponseBuilder {
-	//protected final CompactObjectOutputStream oos;
-	protected final ObjectOutputStream oos;
-	protected final GZIPOutputStream gos;
-	protected final ByteArrayOutputStream baos;
+	protected final BulkEncoder encoder;
+	protected final BulkCodec codec;
+	protected final CompressionPolicy compression;
+	/** The pooled buffer the ops are encoded into */
+	protected final PooledBuffer buffer;
 	protected int opsWritten = 0;
+	/** Indicates if homogeneous getAttributes runs are written as columns, and numeric results as raw values */
+	protected final boolean columnar;
+	/** The held back getAttributes results of the current run */
+	protected final List<AttributeList> run = new ArrayList<AttributeList>();
+	/** The attribute names of the current run */
+	protected String[] runNames = null;
+	/** The number of columnar runs written */
+	protected int columnarRuns = 0;
+	
+	/** The minimum number of homogeneous getAttributes responses written as columns */
+	public static final int MIN_COLUMNAR_RUN = 4;
 	
 	/**
-	 * Creates a new BulkResponse
-	 * @param gzip true to enable gzip, false otherwise
+	 * Creates a new BulkResponse using the legacy java serialization codec
+	 * @param gzip true to always gzip, false to never compress
 	 * @param estimatedSize The estimated size of the final content
 	 */
 	public BulkResponseBuilder(final boolean gzip, final int estimatedSize) {
+		this(gzip, estimatedSize, BulkCodecs.JAVA);
+	}
+	
+	/**
+	 * Creates a new BulkResponse
+	 * @param gzip true to always gzip, false to never compress
+	 * @param estimatedSize The estimated size of the final content
+	 * @param codec The codec to write the responses with
+	 */
+	public BulkResponseBuilder(final boolean gzip, final int estimatedSize, final BulkCodec codec) {
+		this(gzip ? new CompressionPolicy(Compressors.GZIP, 0, Double.MAX_VALUE) : CompressionPolicy.NONE, estimatedSize, codec);
+	}
+	
+	/**
+	 * Creates a new BulkResponse
+	 * @param compression The compression policy applied to the payload
+	 * @param estimatedSize The estimated size of the final content
+	 * @param codec The codec to write the responses with
+	 */
+	public BulkResponseBuilder(final CompressionPolicy compression, final int estimatedSize, final BulkCodec codec) {
 		try {
-			baos = new ByteArrayOutputStream(estimatedSize);
-			gos = gzip ? new GZIPOutputStream(baos) : null;
-			oos = new ObjectOutputStream(gzip ? gos : baos);
-					//new CompactObjectOutputStream(gzip ? gos : baos);			
+			this.codec = codec;
+			this.compression = compression;
+			columnar = codec.getId()==TaggedBinaryCodec.ID;
+			buffer = BufferPool.getInstance().buffer(estimatedSize);
+			encoder = codec.newEncoder(buffer, null);
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to initialize BulkResponse", ex);
 		}
@@ -84,14 +124,36 @@ public class BulkResponseBuilder {
 	@Suspendable
 	public BulkResponseBuilder op(final MBeanOp op, final int reqId, final Object result) {
 		try {			
-			oos.writeByte(op.byteOrdinal);
-//			oos.writeInt(reqId);
-			if(result==null) {
-				oos.writeByte(0);
-			} else {
-				oos.writeByte(1);
-				oos.writeObject(result);
+			if(columnar && op==MBeanOp.GETATTRIBUTES && result!=null && result.getClass()==AttributeList.class) {
+				final AttributeList list = (AttributeList)result;
+				final String[] names = attributeNames(list);
+				if(names!=null) {
+					if(runNames!=null && !Arrays.equals(names, runNames)) flushRun();
+					runNames = names;
+					run.add(list);
+					opsWritten++;
+					return this;
+				}
+			}
+			flushRun();
+			if(columnar && result!=null && op.returnsValue()) {
+				final Class<?> type = result.getClass();
+				if(type==Long.class) {
+					encoder.writeByte(BulkResponse.LONG_RESULT);
+					encoder.writeByte(op.byteOrdinal);
+					encoder.writeLong((Long)result);
+					opsWritten++;
+					return this;
+				} else if(type==Double.class) {
+					encoder.writeByte(BulkResponse.DOUBLE_RESULT);
+					encoder.writeByte(op.byteOrdinal);
+					encoder.writeDouble((Double)result);
+					opsWritten++;
+					return this;
+				}
 			}
+			encoder.writeByte(op.byteOrdinal);
+			encoder.writeValue(result);
 			opsWritten++;
 		} catch (Exception ex) {
 			invalidate();
@@ -100,6 +162,58 @@ public class BulkResponseBuilder {
 		return this;
 	}
 	
+	/**
+	 * Writes the held back getAttributes run, as columns if it is long enough, otherwise response by response
+	 * @throws Exception thrown on any error writing the run
+	 */
+	protected void flushRun() throws Exception {
+		if(run.isEmpty()) return;
+		if(run.size() < MIN_COLUMNAR_RUN) {
+			for(final AttributeList list: run) {
+				encoder.writeByte(MBeanOp.GETATTRIBUTES.byteOrdinal);
+				encoder.writeValue(list);
+			}
+		} else {
+			final AttributeTable.Builder table = AttributeTable.builder(runNames);
+			for(final AttributeList list: run) {
+				table.row(null, list);
+			}
+			encoder.writeByte(BulkResponse.COLUMNAR_RUN);
+			encoder.writeInt(run.size());
+			encoder.writeValue(table.build());
+			columnarRuns++;
+		}
+		run.clear();
+		runNames = null;
+	}
+	
+	/**
+	 * Returns the attribute names of the passed list in order
+	 * @param list The attribute list
+	 * @return the attribute names or null if the list holds anything but plain, uniquely named attributes, or holds delta refs
+	 */
+	protected static String[] attributeNames(final AttributeList list) {
+		final String[] names = new String[list.size()];
+		for(int i = 0; i < names.length; i++) {
+			final Object o = list.get(i);
+			// delta session lists are mostly refs, which would leave nothing but object columns
+			if(o==null || o.getClass()!=Attribute.class || ((Attribute)o).getValue() instanceof DeltaRef) return null;
+			names[i] = ((Attribute)o).getName();
+			for(int x = 0; x < i; x++) {
+				if(names[x].equals(names[i])) return null;
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Returns the number of getAttributes runs written as columns
+	 * @return the columnar run count
+	 */
+	public int getColumnarRuns() {
+		return columnarRuns;
+	}
+	
 	/**
 	 * Builds the bulk response.
 	 * The builder will be invalidated and cannot be reused. 
@@ -107,14 +221,13 @@ public class BulkResponseBuilder {
 	 */
 	public final HomeBulkResponse build() {
 		try {
-			oos.flush();
-			if(gos!=null) {
-				gos.flush();
-				gos.finish();
-			}
-			baos.flush();
-			final byte[] payload = baos.toByteArray();
-			final HomeBulkResponse hbr = new HomeBulkResponse(opsWritten, payload, gos!=null);			
+			flushRun();
+			encoder.flush();
+			final NVP<BulkCompressor, PooledBuffer> compressed = compression.compress(buffer);
+			final PooledBuffer payload = compressed.getValue();
+			final int payloadLength = payload.size();
+			final HomeBulkResponse hbr = new HomeBulkResponse(opsWritten, payload.detach(), payloadLength, compressed.getKey().getId(), codec.getId());
+			hbr.setEncodedSizes(encoder.getBytesWritten(), encoder.getDictionarySavings());
 			return hbr;
 		} catch (Exception ex) {			
 			throw new RuntimeException("Failed to complete response payload", ex);			
@@ -126,9 +239,8 @@ public class BulkResponseBuilder {
 
 	
 	protected void invalidate() {
-		if(oos!=null) try { oos.close(); } catch (Exception x) {/* No Op */} 
-		if(gos!=null) try { gos.close(); } catch (Exception x) {/* No Op */}
-		if(baos!=null) try { baos.close(); } catch (Exception x) {/* No Op */}
+		if(encoder!=null) try { encoder.close(); } catch (Exception x) {/* No Op */} 
+		if(buffer!=null) buffer.release();
 	}
 	
 
@@ -0,0 +1,39 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+/**
+ * <p>Title: ColumnarResponseHandler</p>
+ * <p>Description: Optional extension of {@link AsyncJMXResponseHandler} for handlers that read
+ * {@link MBeanOp#GETATTRIBUTES} results straight from a columnar response. When a run of homogeneous
+ * getAttributes responses is sent as columns, handlers implementing this interface are called back with
+ * the row accessor, which reads primitive values without boxing. Other handlers get the row as a standard
+ * {@link javax.management.AttributeList}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.ColumnarResponseHandler</code></p>
+ */
+
+public interface ColumnarResponseHandler extends AsyncJMXResponseHandler {
+	/**
+	 * Callback for a getAttributes result sent as one row of a columnar run
+	 * @param row The row accessor
+	 */
+	public void onAttributeRow(final AttributeTable.Row row);
+}
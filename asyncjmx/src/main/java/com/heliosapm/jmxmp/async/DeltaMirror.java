@@ -0,0 +1,150 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+
+/**
+ * <p>Title: DeltaMirror</p>
+ * <p>Description: The client side copy of the values a delta session's bulk service remembers, indexed by slot.
+ * Responses are resolved against the mirror in the order the bulk service wrote them, so {@link DeltaRef}s carrying
+ * a value update their slot and unchanged refs read it back. The mirror holds no more slots than the bulk service
+ * assigns, which is bounded by the service's delta capacity.</p>
+ * <p>The mirror is only valid while it has seen every response of the session. The client sends the serial of the last
+ * response it resolved with each invocation and the bulk service resets both sides when it does not match its own,
+ * so a lost or failed response costs one full response rather than wrong values.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.DeltaMirror</code></p>
+ */
+
+public class DeltaMirror {
+	/** The mirrored values indexed by slot */
+	protected Object[] slots = new Object[64];
+	/** The serial of the last response resolved against the mirror, -1 if the mirror is invalid */
+	protected long serial = 0L;
+	/** The number of unchanged values resolved */
+	protected long resolvedCount = 0L;
+	
+	/** The maximum slot accepted, as a guard against corrupt payloads */
+	public static final int MAX_SLOTS = 1 << 20;
+	
+	/**
+	 * Returns the serial of the last response resolved against the mirror
+	 * @return the serial, -1 if the mirror is invalid
+	 */
+	public long getSerial() {
+		return serial;
+	}
+	
+	/**
+	 * Prepares the mirror to resolve a response. Until {@link #commit(long)} is called the mirror is invalid,
+	 * so a response which fails to resolve forces the bulk service to reset the session's deltas.
+	 * @param reset true if the bulk service reset the session's deltas, discarding every mirrored value
+	 */
+	public void begin(final boolean reset) {
+		serial = -1L;
+		if(reset) Arrays.fill(slots, null);
+	}
+	
+	/**
+	 * Marks a response as resolved
+	 * @param serial The serial of the resolved response
+	 */
+	public void commit(final long serial) {
+		this.serial = serial;
+	}
+	
+	/**
+	 * Resolves the delta refs in the passed op result
+	 * @param result The op result as read from a delta session response
+	 * @return the result with every delta ref replaced by its value
+	 * @throws StreamCorruptedException thrown if a ref names an empty or out of range slot
+	 */
+	public Object resolve(final Object result) throws StreamCorruptedException {
+		if(result instanceof DeltaRef) return resolve((DeltaRef)result);
+		if(result!=null && result.getClass()==AttributeList.class) {
+			final AttributeList list = (AttributeList)result;
+			for(int i = 0; i < list.size(); i++) {
+				final Object o = list.get(i);
+				if(o instanceof Attribute && ((Attribute)o).getValue() instanceof DeltaRef) {
+					final Attribute attr = (Attribute)o;
+					list.set(i, new Attribute(attr.getName(), resolve((DeltaRef)attr.getValue())));
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Resolves a single delta ref
+	 * @param ref The ref to resolve
+	 * @return the value of the ref
+	 * @throws StreamCorruptedException thrown if the ref names an empty or out of range slot
+	 */
+	protected Object resolve(final DeltaRef ref) throws StreamCorruptedException {
+		final int slot = ref.getSlot();
+		if(slot < 0 || slot >= MAX_SLOTS) throw new StreamCorruptedException("Invalid delta slot [" + slot + "]");
+		if(ref.isUnchanged()) {
+			final Object value = slot < slots.length ? slots[slot] : null;
+			if(value==null) throw new StreamCorruptedException("Unchanged value in empty delta slot [" + slot + "]");
+			resolvedCount++;
+			return value;
+		}
+		if(slot >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.min(MAX_SLOTS, Math.max(slot + 1, slots.length << 1)));
+		}
+		slots[slot] = ref.getValue();
+		return ref.getValue();
+	}
+	
+	/**
+	 * Returns the number of unchanged values resolved from the mirror
+	 * @return the resolved count
+	 */
+	public long getResolvedCount() {
+		return resolvedCount;
+	}
+	
+	/**
+	 * Returns the number of mirrored values
+	 * @return the mirrored value count
+	 */
+	public int size() {
+		int size = 0;
+		for(final Object o: slots) {
+			if(o!=null) size++;
+		}
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DeltaMirror [serial=" + serial + ", values=" + size() + ", resolved=" + resolvedCount + "]";
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.Serializable;
+
+/**
+ * <p>Title: DeltaRef</p>
+ * <p>Description: Stands in for an attribute value in the responses of a delta session. The bulk service
+ * remembers the last value it sent for each (ObjectName, attribute) in a numbered slot. A changed value is sent
+ * with its slot so the client can mirror it, and an unchanged value is sent as the bare slot number, which the
+ * client resolves from its {@link DeltaMirror}. Callers never see a DeltaRef, they are resolved as the response is read.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.DeltaRef</code></p>
+ */
+
+public class DeltaRef implements Serializable {
+	/**  */
+	private static final long serialVersionUID = -2470319867744135702L;
+	/** The slot the value is remembered in */
+	protected final int slot;
+	/** The changed value, or null if the value is unchanged */
+	protected final Object value;
+	
+	/**
+	 * Creates a new DeltaRef
+	 * @param slot The slot the value is remembered in
+	 * @param value The changed value, or null if the value is unchanged
+	 */
+	public DeltaRef(final int slot, final Object value) {
+		this.slot = slot;
+		this.value = value;
+	}
+	
+	/**
+	 * Returns the slot the value is remembered in
+	 * @return the slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+	
+	/**
+	 * Returns the changed value
+	 * @return the changed value, or null if the value is unchanged
+	 */
+	public Object getValue() {
+		return value;
+	}
+	
+	/**
+	 * Indicates if the value is unchanged since it was last sent
+	 * @return true if unchanged, false if this ref carries a new value
+	 */
+	public boolean isUnchanged() {
+		return value==null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return value==null ? "DeltaRef [slot=" + slot + ", unchanged]" : "DeltaRef [slot=" + slot + ", value=" + value + "]";
+	}
+
+}
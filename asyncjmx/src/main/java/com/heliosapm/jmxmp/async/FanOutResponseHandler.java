@@ -0,0 +1,254 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.AttributeList;
+import javax.management.MBeanInfo;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: FanOutResponseHandler</p>
+ * <p>Description: Handler for an op which several identical ops were coalesced into, calling back every
+ * handler registered for them with the one result. The handlers share the result instance.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.FanOutResponseHandler</code></p>
+ */
+
+public class FanOutResponseHandler implements ColumnarResponseHandler, AttributeTableResponseHandler, NumericResponseHandler {
+	/** The handlers called back */
+	protected final List<AsyncJMXResponseHandler> handlers = new ArrayList<AsyncJMXResponseHandler>(2);
+	
+	/**
+	 * Creates a new FanOutResponseHandler
+	 * @param handler The first handler, ignored if null
+	 */
+	public FanOutResponseHandler(final AsyncJMXResponseHandler handler) {
+		add(handler);
+	}
+	
+	/**
+	 * Adds a handler
+	 * @param handler The handler to add, ignored if null
+	 * @return this fan out handler
+	 */
+	public FanOutResponseHandler add(final AsyncJMXResponseHandler handler) {
+		if(handler!=null) handlers.add(handler);
+		return this;
+	}
+	
+	/**
+	 * Returns the number of handlers called back
+	 * @return the number of handlers
+	 */
+	public int size() {
+		return handlers.size();
+	}
+	
+	/**
+	 * Returns the handler to register for the op, which is the handler itself when there is only one
+	 * @return the handler, or null if there are none
+	 */
+	public AsyncJMXResponseHandler unwrap() {
+		switch(handlers.size()) {
+			case 0: return null;
+			case 1: return handlers.get(0);
+			default: return this;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.ColumnarResponseHandler#onAttributeRow(com.heliosapm.jmxmp.async.AttributeTable.Row)
+	 */
+	@Override
+	public void onAttributeRow(final AttributeTable.Row row) {
+		AttributeList list = null;
+		for(final AsyncJMXResponseHandler handler: handlers) {
+			if(handler instanceof ColumnarResponseHandler) {
+				((ColumnarResponseHandler)handler).onAttributeRow(row);
+			} else {
+				if(list==null) list = row.toAttributeList();
+				handler.onAttributeList(list);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectInstance(javax.management.ObjectInstance)
+	 */
+	@Override
+	public void onObjectInstance(final ObjectInstance result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onObjectInstance(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onBoolean(boolean)
+	 */
+	@Override
+	public void onBoolean(final boolean result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onBoolean(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onAttributeList(javax.management.AttributeList)
+	 */
+	@Override
+	public void onAttributeList(final AttributeList result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onAttributeList(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onMBeanInfo(javax.management.MBeanInfo)
+	 */
+	@Override
+	public void onMBeanInfo(final MBeanInfo result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onMBeanInfo(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onInteger(java.lang.Integer)
+	 */
+	@Override
+	public void onInteger(final Integer result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onInteger(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObject(java.lang.Object)
+	 */
+	@Override
+	public void onObject(final Object result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onObject(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.NumericResponseHandler#onLong(long)
+	 */
+	@Override
+	public void onLong(final long result) {
+		Long boxed = null;
+		for(final AsyncJMXResponseHandler handler: handlers) {
+			if(handler instanceof NumericResponseHandler) {
+				((NumericResponseHandler)handler).onLong(result);
+			} else {
+				if(boxed==null) boxed = Long.valueOf(result);
+				handler.onObject(boxed);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.NumericResponseHandler#onDouble(double)
+	 */
+	@Override
+	public void onDouble(final double result) {
+		Double boxed = null;
+		for(final AsyncJMXResponseHandler handler: handlers) {
+			if(handler instanceof NumericResponseHandler) {
+				((NumericResponseHandler)handler).onDouble(result);
+			} else {
+				if(boxed==null) boxed = Double.valueOf(result);
+				handler.onObject(boxed);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectInstances(java.util.Set)
+	 */
+	@Override
+	public void onObjectInstances(final Set<ObjectInstance> result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onObjectInstances(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onObjectNames(java.util.Set)
+	 */
+	@Override
+	public void onObjectNames(final Set<ObjectName> result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onObjectNames(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onString(java.lang.String)
+	 */
+	@Override
+	public void onString(final String result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onString(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onStrings(java.lang.String[])
+	 */
+	@Override
+	public void onStrings(final String[] result) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onStrings(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AttributeTableResponseHandler#onAttributeTable(com.heliosapm.jmxmp.async.AttributeTable)
+	 */
+	@Override
+	public void onAttributeTable(final AttributeTable result) {
+		for(final AsyncJMXResponseHandler handler: handlers) {
+			if(handler instanceof AttributeTableResponseHandler) {
+				((AttributeTableResponseHandler)handler).onAttributeTable(result);
+			} else {
+				handler.onObject(result);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onComplete()
+	 */
+	@Override
+	public void onComplete() {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onComplete();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.AsyncJMXResponseHandler#onFail(java.lang.Throwable)
+	 */
+	@Override
+	public void onFail(final Throwable t) {
+		for(final AsyncJMXResponseHandler handler: handlers) handler.onFail(t);
+	}
+}
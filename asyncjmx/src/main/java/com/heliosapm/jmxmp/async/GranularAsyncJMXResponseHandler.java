@@ -286,5 +286,19 @@ public interface GranularAsyncJMXResponseHandler {
 	 */ 
 	public void onUnregisterMBeanFail(int rId, Throwable t);
 
+	/**
+	 * Asynch response handler for {@link MBeanOp#QUERYATTRIBUTES} 
+	 * @param rId The serial number of the request
+	 * @param ret The return value of the remote call
+	 */ 
+	public void onQueryAttributes(long rId, AttributeTable ret);
+
+	/**
+	 * Asynch exception handler for {@link MBeanOp#QUERYATTRIBUTES} 
+	 * @param rId The serial number of the request
+	 * @param t The thrown exception from the remote call
+	 */ 
+	public void onQueryAttributesFail(int rId, Throwable t);
+
 
 }
@@ -0,0 +1,177 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: HandlerTable</p>
+ * <p>Description: The response handlers of an invocation's ops, held in a plain array indexed by the op's sequence
+ * number in the payload, so registering, looking up and calling back a handler allocates nothing. Handlers are held
+ * by reference, so one handler instance can be registered for any number of ops. Each handler is taken out of the
+ * table when it is called back, so a handler is never called back twice for the same op.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.HandlerTable</code></p>
+ */
+
+public class HandlerTable {
+	/** The handlers indexed by op sequence number */
+	protected AsyncJMXResponseHandler[] handlers;
+	/** The number of handlers in the table */
+	protected int size = 0;
+	
+	/** The default initial capacity */
+	public static final int DEFAULT_CAPACITY = 32;
+	
+	/**
+	 * Creates a new HandlerTable with the default initial capacity
+	 */
+	public HandlerTable() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a new HandlerTable
+	 * @param capacity The initial capacity, which grows as ops are added
+	 */
+	public HandlerTable(final int capacity) {
+		handlers = new AsyncJMXResponseHandler[Math.max(1, capacity)];
+	}
+	
+	/**
+	 * Registers the handler of an op, replacing any handler already registered for it
+	 * @param seq The sequence number of the op
+	 * @param handler The handler, null to remove the op's handler
+	 */
+	public synchronized void put(final int seq, final AsyncJMXResponseHandler handler) {
+		if(seq >= handlers.length) {
+			if(handler==null) return;
+			handlers = Arrays.copyOf(handlers, Math.max(seq + 1, handlers.length << 1));
+		}
+		if(handlers[seq]==null) {
+			if(handler!=null) size++;
+		} else if(handler==null) {
+			size--;
+		}
+		handlers[seq] = handler;
+	}
+	
+	/**
+	 * Returns the handler of an op, leaving it in the table
+	 * @param seq The sequence number of the op
+	 * @return the handler or null if there is none
+	 */
+	public synchronized AsyncJMXResponseHandler get(final int seq) {
+		return seq < 0 || seq >= handlers.length ? null : handlers[seq];
+	}
+	
+	/**
+	 * Removes and returns the handler of an op
+	 * @param seq The sequence number of the op
+	 * @return the handler or null if there is none, or it was already taken
+	 */
+	public synchronized AsyncJMXResponseHandler take(final int seq) {
+		if(seq < 0 || seq >= handlers.length) return null;
+		final AsyncJMXResponseHandler handler = handlers[seq];
+		if(handler!=null) {
+			handlers[seq] = null;
+			size--;
+		}
+		return handler;
+	}
+	
+	/**
+	 * Returns the sequence number of the first op at or after the passed one which still has a handler
+	 * @param from The sequence number to search from
+	 * @return the sequence number or -1 if there is none
+	 */
+	public synchronized int next(final int from) {
+		for(int i = Math.max(0, from); i < handlers.length; i++) {
+			if(handlers[i]!=null) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Calls back the handler of an op with its result, which is a failure if it is a Throwable
+	 * @param seq The sequence number of the op
+	 * @param op The op
+	 * @param result The result of the op
+	 */
+	public void dispatch(final int seq, final MBeanOp op, final Object result) {
+		final AsyncJMXResponseHandler handler = take(seq);
+		if(handler==null) return;
+		// the service returns the exception an op threw, or the timeout of an op that missed its deadline, as its result
+		if(result instanceof Throwable) {
+			op.handleFail((Throwable)result, handler);
+		} else {
+			op.handleResponse(result, handler);
+		}
+	}
+	
+	/**
+	 * Calls back the handler of an op with a long result, without boxing it
+	 * @param seq The sequence number of the op
+	 * @param op The op
+	 * @param result The result of the op
+	 */
+	public void dispatchLong(final int seq, final MBeanOp op, final long result) {
+		final AsyncJMXResponseHandler handler = take(seq);
+		if(handler!=null) op.handleLong(result, handler);
+	}
+	
+	/**
+	 * Calls back the handler of an op with a double result, without boxing it
+	 * @param seq The sequence number of the op
+	 * @param op The op
+	 * @param result The result of the op
+	 */
+	public void dispatchDouble(final int seq, final MBeanOp op, final double result) {
+		final AsyncJMXResponseHandler handler = take(seq);
+		if(handler!=null) op.handleDouble(result, handler);
+	}
+	
+	/**
+	 * Fails the handler of every op not yet called back
+	 * @param cause The cause of the failure
+	 */
+	public void failAll(final Throwable cause) {
+		for(int seq = next(0); seq >= 0; seq = next(seq + 1)) {
+			final AsyncJMXResponseHandler handler = take(seq);
+			if(handler!=null) handler.onFail(cause);
+		}
+	}
+	
+	/**
+	 * Returns the number of handlers in the table
+	 * @return the handler count
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Indicates if the table holds no handlers
+	 * @return true if the table is empty
+	 */
+	public synchronized boolean isEmpty() {
+		return size==0;
+	}
+}
@@ -18,13 +18,10 @@ under the License.
  */
 package com.heliosapm.jmxmp.async;
 
+import java.io.InvalidObjectException;
 import java.io.ObjectStreamException;
-import java.util.List;
-
-import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
 
 import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
-import com.heliosapm.utils.tuples.NVP;
 
 import co.paralleluniverse.fibers.Fiber;
 
@@ -37,19 +34,35 @@ import co.paralleluniverse.fibers.Fiber;
  */
 
 public class HomeBulkInvocation extends BulkInvocation {
-	/** The registered handlers, one for each op */
-	protected transient NonBlockingHashMapLong<AsyncJMXResponseHandler> handlers = null;
+	/** The registered handlers, indexed by request id */
+	protected transient HandlerTable handlers = null;
 	protected final JMXBulkServiceMBean bulkService;
+	/** The bulk service session the invocation was built in */
+	protected final BulkClientSession session;
+	/** The encoded size of the payload before compression */
+	protected transient int encodedSize = -1;
+	/** The number of bytes saved by dictionary references */
+	protected transient int dictionarySavings = 0;
+	/** The number of ops added to the builder which were coalesced into other ops */
+	protected transient int coalescedOps = 0;
+	/** Indicates if the invocation holds an op which can change MBean or registration state */
+	protected transient boolean mutating = false;
+	/** The id assigned by the dispatcher the invocation was sent with, or -1 if it was sent directly */
+	protected transient long correlationId = -1L;
 	
 	/**
 	 * Creates a new HomeBulkInvocation
 	 * @param opCount The number of serialized ops
-	 * @param payload The serialized ops
-	 * @param gzipped Indicates if the op payload is gzipped
+	 * @param payload The serialized ops, a pooled array whose ownership passes to the invocation
+	 * @param payloadLength The number of payload bytes
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
+	 * @param session The bulk service session the invocation was built in
 	 */
-	HomeBulkInvocation(final int opCount, final byte[] payload, final boolean gzipped, final JMXBulkServiceMBean bulkService) {
-		super(opCount, payload, gzipped);
-		this.bulkService = bulkService;
+	HomeBulkInvocation(final int opCount, final byte[] payload, final int payloadLength, final byte compressorId, final byte codecId, final BulkClientSession session) {
+		super(opCount, payload, payloadLength, compressorId, codecId, session.getSessionId(), session.getCompression().getCompressor().getId());
+		this.session = session;
+		this.bulkService = session.getBulkService();
 	}
 	
 	/**
@@ -59,10 +72,127 @@ public class HomeBulkInvocation extends BulkInvocation {
 	@Override
 	public String toString() {
 		return "HomeBulkInvocation [handlers=" + handlers.size() + ", opCount=" + opCount + ", payload="
-				+ payload.length + ", gzip=" + gzipped + "]";
+				+ payloadLength + ", encoded=" + encodedSize + ", uncompacted=" + getUncompactedSize() + ", compressor=" + compressorId + ", codec=" + codecId + ", session=" + sessionId + ", coalesced=" + coalescedOps + ", correlationId=" + correlationId + "]";
 	}
 
-	HomeBulkInvocation setHandlers(final NonBlockingHashMapLong<AsyncJMXResponseHandler> handlers) {
+	/**
+	 * Sets the encoded payload sizes
+	 * @param encodedSize The encoded size of the payload before compression
+	 * @param dictionarySavings The number of bytes saved by dictionary references
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setEncodedSizes(final int encodedSize, final int dictionarySavings) {
+		this.encodedSize = encodedSize;
+		this.dictionarySavings = dictionarySavings;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of ops added to the builder which were coalesced into other ops
+	 * @param coalescedOps the coalesced op count
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setCoalescedOps(final int coalescedOps) {
+		this.coalescedOps = coalescedOps;
+		return this;
+	}
+	
+	/**
+	 * Returns the number of ops added to the builder which were coalesced into other ops,
+	 * so the number of ops requested is this plus the op count
+	 * @return the coalesced op count
+	 */
+	public int getCoalescedOps() {
+		return coalescedOps;
+	}
+	
+	/**
+	 * Sets the deadlines of the invocation
+	 * @param timeout The time in ms after the service receives the invocation by which it stops waiting for ops, 0 for no deadline
+	 * @param timedOps The ascending request ids of the ops with a timeout
+	 * @param opTimeouts The timeouts in ms of the timed ops
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setTimeouts(final long timeout, final int[] timedOps, final long[] opTimeouts) {
+		this.timeout = timeout;
+		this.timedOps = timedOps;
+		this.opTimeouts = opTimeouts;
+		return this;
+	}
+	
+	/**
+	 * Sets the priorities of the invocation's ops
+	 * @param prioritizedOps The ascending request ids of the ops with a priority other than {@link OpPriority#NORMAL}
+	 * @param priorities The priority byte ordinals of the prioritized ops
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setPriorities(final int[] prioritizedOps, final byte[] priorities) {
+		this.prioritizedOps = prioritizedOps;
+		this.priorities = priorities;
+		return this;
+	}
+	
+	/**
+	 * Marks the invocation as holding an op which can change MBean or registration state
+	 * @param mutating true if the invocation holds a mutating op
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setMutating(final boolean mutating) {
+		this.mutating = mutating;
+		return this;
+	}
+	
+	/**
+	 * Indicates if the invocation holds an op which can change MBean or registration state
+	 * @return true if the invocation holds a mutating op
+	 */
+	public boolean isMutating() {
+		return mutating;
+	}
+	
+	/**
+	 * Sets the id assigned by the dispatcher the invocation is sent with
+	 * @param correlationId the correlation id
+	 * @return this invocation
+	 */
+	HomeBulkInvocation setCorrelationId(final long correlationId) {
+		this.correlationId = correlationId;
+		return this;
+	}
+	
+	/**
+	 * Returns the id assigned by the dispatcher the invocation was sent with
+	 * @return the correlation id or -1 if the invocation was not sent with a dispatcher
+	 */
+	public long getCorrelationId() {
+		return correlationId;
+	}
+	
+	/**
+	 * Returns the encoded size of the payload as it would be without dictionary references, before compression
+	 * @return the encoded size without dictionary references
+	 */
+	public int getUncompactedSize() {
+		return encodedSize + dictionarySavings;
+	}
+	
+	/**
+	 * Returns the encoded size of the payload with dictionary references, before compression
+	 * @return the encoded size
+	 */
+	public int getEncodedSize() {
+		return encodedSize;
+	}
+	
+	/**
+	 * Returns the size of the payload as sent
+	 * @return the payload size
+	 */
+	public int getPayloadSize() {
+		return payloadLength;
+	}
+	
+	HomeBulkInvocation setHandlers(final HandlerTable handlers) {
 		this.handlers = handlers;
 		return this;
 	}
@@ -77,21 +207,104 @@ public class HomeBulkInvocation extends BulkInvocation {
 	}
 	
 	
+	/**
+	 * Sends the invocation and calls back the op handlers with the results.
+	 * The payload is released to the buffer pool once sent, so an invocation can only be sent once.
+	 * Invocations in a delta session are sent one at a time since each is resolved against the state the previous one left.
+	 */
 	public void send() {
-		if(opCount < 1) return;
-		final BulkResponse br = bulkService.invoke(this);
-		int key = 0;
-		final List<NVP<MBeanOp, Object>> results = br.getResponses();
-		for(final NVP<MBeanOp, Object> r: results) {
-			final MBeanOp op = r.getKey();
-			final Object result = r.getValue();
-			final AsyncJMXResponseHandler handler = handlers.remove(key);
-			log("Calling back on response [op:%s, key:%s, handler:%s, value:%s]", op, key, handler, result);
-			if(handler!=null) {
-				op.handleResponse(result, handler);
+		if(opCount < 1) {
+			release();
+			return;
+		}
+		final DeltaMirror mirror = session.getDeltaMirror();
+		if(mirror==null) {
+			// results are decoded straight into their handlers, nothing is collected per op
+			final BulkResponse br = exchange(null);
+			try {
+				br.dispatch(handlers);
+			} finally {
+				br.release();
 			}
-			key++;			
+			return;
+		}
+		// delta results are resolved under the mirror's lock, so they are collected and called back once it is released
+		final MBeanOp[] ops = new MBeanOp[opCount];
+		final Object[] results = new Object[opCount];
+		synchronized(mirror) {
+			final BulkResponse br = exchange(mirror);
+			try {
+				if(br.isDelta()) {
+					mirror.begin(br.isDeltaReset());
+					br.read(mirror, ops, results);
+					mirror.commit(br.getDeltaSerial());
+				} else {
+					br.read(null, ops, results);
+				}
+			} finally {
+				br.release();
+			}
+		}
+		for(int reqId = 0; reqId < opCount; reqId++) {
+			handlers.dispatch(reqId, ops[reqId], results[reqId]);
+		}
+	}
+	
+	/**
+	 * Sends the invocation as a stream, returning as soon as the bulk service has decoded it.
+	 * Each op's handler is called back as soon as its own result arrives, so fast ops are not held back by slow ones.
+	 * Streamed results are not delta encoded, and are called back on the session's notification thread.
+	 * The payload is released to the buffer pool once sent, so an invocation can only be sent once.
+	 * @return the id of the stream, or -1 if the invocation has no ops
+	 */
+	public long stream() {
+		final ResultStreams streams = session.getStreams();
+		if(streams==null) {
+			release();
+			throw new IllegalStateException("Streaming is not enabled in the session");
+		}
+		if(opCount < 1) {
+			release();
+			return -1L;
+		}
+		final long streamId;
+		try {
+			streamId = bulkService.invokeStreaming(this);
+		} finally {
+			release();
+		}
+		streams.attach(streamId, handlers);
+		return streamId;
+	}
+	
+	/**
+	 * Fails the handlers of every op which has not been called back yet, for when the invocation could not be sent or its response read
+	 * @param t The cause of the failure
+	 */
+	public void fail(final Throwable t) {
+		handlers.failAll(t);
+	}
+	
+	/**
+	 * Invokes the bulk service and applies the session updates carried in the response
+	 * @param mirror The session's delta mirror, or null if the session does not use deltas
+	 * @return the response, which the caller must release once read
+	 */
+	protected BulkResponse exchange(final DeltaMirror mirror) {
+		if(mirror!=null) deltaAck = mirror.getSerial();
+		final BulkResponse br;
+		try {
+			br = bulkService.invoke(this);
+		} finally {
+			release();
+		}
+		try {
+			session.apply(br);
+		} catch (RuntimeException ex) {
+			br.release();
+			throw ex;
 		}
+		return br;
 	}
 	
 	
@@ -101,7 +314,17 @@ public class HomeBulkInvocation extends BulkInvocation {
 	 * @throws ObjectStreamException
 	 */
 	Object writeReplace() throws ObjectStreamException {
-		return new BulkInvocation(opCount, payload, gzipped);
+		if(payload==null) throw new InvalidObjectException("The payload has been released");
+		// the replacement shares the payload array, which stays owned by this invocation and is released once sent
+		final BulkInvocation bi = new BulkInvocation(opCount, payload, compressorId, codecId, sessionId, responseCompressorId);
+		bi.payloadLength = payloadLength;
+		bi.deltaAck = deltaAck;
+		bi.timeout = timeout;
+		bi.timedOps = timedOps;
+		bi.opTimeouts = opTimeouts;
+		bi.prioritizedOps = prioritizedOps;
+		bi.priorities = priorities;
+		return bi;
 	}
 
 }
@@ -15,6 +15,7 @@
  */
 package com.heliosapm.jmxmp.async;
 
+import java.io.InvalidObjectException;
 import java.io.ObjectStreamException;
 
 import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
@@ -32,28 +33,82 @@ import co.paralleluniverse.fibers.Fiber;
  */
 
 public class HomeBulkResponse extends BulkResponse {
+	/** The encoded size of the payload before compression */
+	protected transient int encodedSize = -1;
+	/** The number of bytes saved by dictionary references */
+	protected transient int dictionarySavings = 0;
 	
 	/**
 	 * Creates a new HomeBulkResponse
 	 * @param responseCount The number of serialized ops
-	 * @param payload The serialized ops
-	 * @param gzipped Indicates if the response payload is gzipped
+	 * @param payload The serialized ops, a pooled array whose ownership passes to the response
+	 * @param payloadLength The number of payload bytes
+	 * @param compressorId The id of the compressor the payload was compressed with
+	 * @param codecId The id of the codec the payload was written with
 	 */
-	HomeBulkResponse(final int responseCount, final byte[] payload, final boolean gzipped) {
-		super(responseCount, payload, gzipped);
+	HomeBulkResponse(final int responseCount, final byte[] payload, final int payloadLength, final byte compressorId, final byte codecId) {
+		super(responseCount, payload, payloadLength, compressorId, codecId);
 	}
 	
+	/**
+	 * Sets the encoded payload sizes
+	 * @param encodedSize The encoded size of the payload before compression
+	 * @param dictionarySavings The number of bytes saved by dictionary references
+	 * @return this response
+	 */
+	HomeBulkResponse setEncodedSizes(final int encodedSize, final int dictionarySavings) {
+		this.encodedSize = encodedSize;
+		this.dictionarySavings = dictionarySavings;
+		return this;
+	}
+	
+	/**
+	 * Returns the encoded size of the payload as it would be without dictionary references, before compression
+	 * @return the encoded size without dictionary references
+	 */
+	public int getUncompactedSize() {
+		return encodedSize + dictionarySavings;
+	}
 	
+	/**
+	 * Returns the encoded size of the payload with dictionary references, before compression
+	 * @return the encoded size
+	 */
+	public int getEncodedSize() {
+		return encodedSize;
+	}
 	
+	/**
+	 * Returns the size of the payload as sent
+	 * @return the payload size
+	 */
+	public int getPayloadSize() {
+		return payloadLength;
+	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "HomeBulkResponse [responseCount=" + responseCount + ", payload=" + payloadLength + ", encoded=" + encodedSize 
+				+ ", uncompacted=" + getUncompactedSize() + ", compressor=" + compressorId + ", codec=" + codecId 
+				+ ", assigned=" + assignedHandles.length + ", evicted=" + evictedHandles.length + ", delta=" + deltaSerial + "]";
+	}
 	
 	/**
-	 * When this invocation is serialized, it goes out as a simple {@link BulkResponse}
+	 * When this invocation is serialized, it goes out as a simple {@link BulkResponse}.
+	 * The replacement shares the payload array and releases this response once written, so a response can only be serialized once.
 	 * @return a {@link BulkResponse} containing the response count and serialized response of this home
 	 * @throws ObjectStreamException
 	 */
 	Object writeReplace() throws ObjectStreamException {
-		return new BulkResponse(responseCount, payload, gzipped);
+		if(payload==null) throw new InvalidObjectException("The payload has been released");
+		final BulkResponse br = new BulkResponse(responseCount, payload, compressorId, codecId).setHandleUpdates(assignedHandles, assignedNames, evictedHandles).setDelta(deltaSerial, deltaReset);
+		br.payloadLength = payloadLength;
+		br.releaseOnWrite = this;
+		return br;
 	}
 
 }
@@ -0,0 +1,37 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+/**
+ * <p>Title: InvocationCallback</p>
+ * <p>Description: Callback for ops streamed out of a {@link BulkInvocation} payload, one at a time, as they are decoded</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.InvocationCallback</code></p>
+ */
+
+public interface InvocationCallback {
+	/**
+	 * Callback with the next decoded op. The next op is not decoded until this method returns.
+	 * @param reqId The request id of the op, its sequence in the invocation
+	 * @param op The op
+	 * @param args The op arguments
+	 */
+	public void onInvocation(final int reqId, final MBeanOp op, final Object[] args);
+}
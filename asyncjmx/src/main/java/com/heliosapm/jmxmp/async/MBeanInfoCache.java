@@ -0,0 +1,265 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+
+/**
+ * <p>Title: MBeanInfoCache</p>
+ * <p>Description: A bounded, weakly keyed client side cache of MBeanInfos so repeated getMBeanInfo calls are answered
+ * without an op. Entries are held in least recently used order and are dropped when their ObjectName is no longer
+ * referenced elsewhere. On first use the cache subscribes to the remote MBeanServerDelegate's registration notifications
+ * and drops the entry of any MBean registered or unregistered. If the subscription cannot be made, nothing is cached.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.MBeanInfoCache</code></p>
+ */
+
+public class MBeanInfoCache implements NotificationListener {
+	/** The connection to the MBeanServer the cached MBeanInfos come from */
+	protected final MBeanServerConnection conn;
+	/** The maximum number of cached MBeanInfos */
+	protected final int maxSize;
+	/** The cached MBeanInfos in least recently used order */
+	protected final LinkedHashMap<NameRef, MBeanInfo> infos;
+	/** The queue cleared ObjectName references are enqueued to */
+	protected final ReferenceQueue<ObjectName> cleared = new ReferenceQueue<ObjectName>();
+	/** Incremented on every registration notification */
+	protected final AtomicLong generation = new AtomicLong(0);
+	/** The number of MBeanInfos answered from the cache */
+	protected final AtomicLong hitCount = new AtomicLong(0);
+	/** The number of lookups which found no cached MBeanInfo */
+	protected final AtomicLong missCount = new AtomicLong(0);
+	/** The subscription state, 0 before first use, 1 when subscribed, -1 if the subscription failed */
+	protected volatile int subscribed = 0;
+	
+	/** The default maximum number of cached MBeanInfos */
+	public static final int DEFAULT_MAX_SIZE = 1024;
+	
+	/**
+	 * Creates a new MBeanInfoCache
+	 * @param conn The connection to the MBeanServer the cached MBeanInfos come from
+	 * @param maxSize The maximum number of cached MBeanInfos
+	 */
+	public MBeanInfoCache(final MBeanServerConnection conn, final int maxSize) {
+		if(maxSize < 1) throw new IllegalArgumentException("Invalid max size [" + maxSize + "]");
+		this.conn = conn;
+		this.maxSize = maxSize;
+		infos = new LinkedHashMap<NameRef, MBeanInfo>(Math.min(maxSize, 256), 0.75f, true) {
+			/**  */
+			private static final long serialVersionUID = -5064926412006133520L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<NameRef, MBeanInfo> eldest) {
+				return size() > MBeanInfoCache.this.maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the cached MBeanInfo for the passed ObjectName
+	 * @param on The ObjectName of the MBean
+	 * @return the cached MBeanInfo or null if there is none
+	 */
+	public MBeanInfo get(final ObjectName on) {
+		if(!subscribe()) return null;
+		final MBeanInfo info;
+		synchronized(infos) {
+			expunge();
+			info = infos.get(new NameRef(on, null));
+		}
+		if(info!=null) hitCount.incrementAndGet();
+		else missCount.incrementAndGet();
+		return info;
+	}
+	
+	/**
+	 * Returns the current registration generation, to be passed to {@link #put(ObjectName, MBeanInfo, long)}
+	 * with the MBeanInfo requested after it was read
+	 * @return the generation
+	 */
+	public long generation() {
+		return generation.get();
+	}
+	
+	/**
+	 * Caches an MBeanInfo unless a registration notification arrived since it was requested
+	 * @param on The ObjectName of the MBean
+	 * @param info The MBeanInfo
+	 * @param generation The generation read before the MBeanInfo was requested
+	 */
+	public void put(final ObjectName on, final MBeanInfo info, final long generation) {
+		if(info==null || subscribed!=1) return;
+		synchronized(infos) {
+			if(this.generation.get()!=generation) return;
+			expunge();
+			infos.put(new NameRef(on, cleared), info);
+		}
+	}
+	
+	/**
+	 * Drops the cached MBeanInfo of the passed ObjectName
+	 * @param on The ObjectName of the MBean
+	 */
+	public void invalidate(final ObjectName on) {
+		synchronized(infos) {
+			generation.incrementAndGet();
+			infos.remove(new NameRef(on, null));
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Drops the cached MBeanInfo of the registered or unregistered MBean</p>
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		if(notification instanceof MBeanServerNotification) {
+			invalidate(((MBeanServerNotification)notification).getMBeanName());
+		}
+	}
+	
+	/**
+	 * Subscribes to registration notifications on first use
+	 * @return true if subscribed, false if the subscription failed
+	 */
+	protected boolean subscribe() {
+		if(subscribed==0) {
+			synchronized(this) {
+				if(subscribed==0) {
+					try {
+						final MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+						filter.enableAllObjectNames();
+						conn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+						subscribed = 1;
+					} catch (Exception ex) {
+						subscribed = -1;
+					}
+				}
+			}
+		}
+		return subscribed==1;
+	}
+	
+	/**
+	 * Unsubscribes from registration notifications and discards every cached MBeanInfo
+	 */
+	public void close() {
+		synchronized(this) {
+			if(subscribed==1) try { conn.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this); } catch (Exception x) {/* No Op */}
+			subscribed = -1;
+		}
+		synchronized(infos) {
+			infos.clear();
+		}
+	}
+	
+	/**
+	 * Removes the entries whose ObjectNames have been collected. Call holding the infos lock.
+	 */
+	protected void expunge() {
+		Reference<? extends ObjectName> ref = null;
+		while((ref = cleared.poll())!=null) {
+			infos.remove(ref);
+		}
+	}
+	
+	/**
+	 * Returns the number of cached MBeanInfos
+	 * @return the cache size
+	 */
+	public int size() {
+		synchronized(infos) {
+			expunge();
+			return infos.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of MBeanInfos answered from the cache
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	/**
+	 * Returns the number of lookups which found no cached MBeanInfo
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MBeanInfoCache [size=" + size() + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + "]";
+	}
+	
+	/**
+	 * <p>Title: NameRef</p>
+	 * <p>Description: A weak reference to an ObjectName which compares equal to any reference to an equal ObjectName</p> 
+	 */
+	protected static class NameRef extends WeakReference<ObjectName> {
+		/** The hash code of the ObjectName */
+		final int hash;
+		
+		/**
+		 * Creates a new NameRef
+		 * @param on The ObjectName
+		 * @param queue The queue to enqueue the reference to once cleared, null for lookup keys
+		 */
+		NameRef(final ObjectName on, final ReferenceQueue<ObjectName> queue) {
+			super(on, queue);
+			hash = on.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof NameRef)) return false;
+			final ObjectName on = get();
+			return on!=null && on.equals(((NameRef)obj).get());
+		}
+	}
+
+}
@@ -18,10 +18,12 @@ under the License.
  */
 package com.heliosapm.jmxmp.async;
 
+import java.util.Arrays;
 import java.util.Set;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanInfo;
 import javax.management.MBeanServerConnection;
 import javax.management.NotificationFilter;
@@ -52,14 +54,14 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	INVOKE{
+	INVOKE(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.invoke((ObjectName)args[0], (String)args[1], (Object[])args[2], (String[])args[3]);
         }
         @Override
         public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
-            handler.onObject((Object)result);
+            handleValue(result, handler);
         }
         public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
             handler.onFail(t);
@@ -85,7 +87,16 @@ public enum MBeanOp implements OpInvoker {
         }
         @Override
         public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
-            handler.onAttributeList((AttributeList)result);
+            if(result instanceof AttributeTable.Row) {
+                final AttributeTable.Row row = (AttributeTable.Row)result;
+                if(handler instanceof ColumnarResponseHandler) {
+                    ((ColumnarResponseHandler)handler).onAttributeRow(row);
+                } else {
+                    handler.onAttributeList(row.toAttributeList());
+                }
+            } else {
+                handler.onAttributeList((AttributeList)result);
+            }
         }
         public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
             handler.onFail(t);
@@ -98,13 +109,13 @@ public enum MBeanOp implements OpInvoker {
         }
         @Override
         public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
-            handler.onObject((Object)result);
+            handleValue(result, handler);
         }
         public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
             handler.onFail(t);
         }
     },
-	SETATTRIBUTE{
+	SETATTRIBUTE(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.setAttribute((ObjectName)args[0], (Attribute)args[1]);
@@ -118,7 +129,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	SETATTRIBUTES{
+	SETATTRIBUTES(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.setAttributes((ObjectName)args[0], (AttributeList)args[1]);
@@ -131,7 +142,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	ADDNOTIFICATIONLISTENER{
+	ADDNOTIFICATIONLISTENER(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.addNotificationListener((ObjectName)args[0], (NotificationListener)args[1], (NotificationFilter)args[2], (Object)args[3]);
@@ -145,7 +156,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	ADDNOTIFICATIONLISTENER1{
+	ADDNOTIFICATIONLISTENER1(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.addNotificationListener((ObjectName)args[0], (ObjectName)args[1], (NotificationFilter)args[2], (Object)args[3]);
@@ -159,7 +170,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	CREATEMBEAN{
+	CREATEMBEAN(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.createMBean((String)args[0], (ObjectName)args[1], (ObjectName)args[2], (Object[])args[3], (String[])args[4]);
@@ -172,7 +183,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	CREATEMBEAN1{
+	CREATEMBEAN1(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.createMBean((String)args[0], (ObjectName)args[1], (Object[])args[2], (String[])args[3]);
@@ -185,7 +196,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	CREATEMBEAN2{
+	CREATEMBEAN2(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.createMBean((String)args[0], (ObjectName)args[1]);
@@ -198,7 +209,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	CREATEMBEAN3{
+	CREATEMBEAN3(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             return server.createMBean((String)args[0], (ObjectName)args[1], (ObjectName)args[2]);
@@ -304,7 +315,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	REMOVENOTIFICATIONLISTENER{
+	REMOVENOTIFICATIONLISTENER(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.removeNotificationListener((ObjectName)args[0], (NotificationListener)args[1], (NotificationFilter)args[2], (Object)args[3]);
@@ -318,7 +329,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	REMOVENOTIFICATIONLISTENER1{
+	REMOVENOTIFICATIONLISTENER1(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.removeNotificationListener((ObjectName)args[0], (NotificationListener)args[1]);
@@ -332,7 +343,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	REMOVENOTIFICATIONLISTENER2{
+	REMOVENOTIFICATIONLISTENER2(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.removeNotificationListener((ObjectName)args[0], (ObjectName)args[1], (NotificationFilter)args[2], (Object)args[3]);
@@ -346,7 +357,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	REMOVENOTIFICATIONLISTENER3{
+	REMOVENOTIFICATIONLISTENER3(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.removeNotificationListener((ObjectName)args[0], (ObjectName)args[1]);
@@ -360,7 +371,7 @@ public enum MBeanOp implements OpInvoker {
             handler.onFail(t);
         }
     },
-	UNREGISTERMBEAN{
+	UNREGISTERMBEAN(true){
         @Override
         public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
             server.unregisterMBean((ObjectName)args[0]);
@@ -373,15 +384,191 @@ public enum MBeanOp implements OpInvoker {
         public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
             handler.onFail(t);
         }
+    },
+	/** Queries the names matching a pattern and query and reads the same attributes from each, returning an {@link AttributeTable} */
+	QUERYATTRIBUTES{
+        @Override
+        public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
+            final String[] attributeNames = (String[])args[2];
+            final Set<ObjectName> names = server.queryNames((ObjectName)args[0], (QueryExp)args[1]);
+            final ObjectName[] sorted = names.toArray(new ObjectName[names.size()]);
+            Arrays.sort(sorted);
+            final AttributeTable.Builder builder = AttributeTable.builder(attributeNames);
+            for(final ObjectName on: sorted) {
+                try {
+                    builder.row(on, server.getAttributes(on, attributeNames));
+                } catch (InstanceNotFoundException iex) {
+                    /* unregistered since the query, so no row */
+                }
+            }
+            return builder.build();
+        }
+        @Override
+        public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
+            if(handler instanceof AttributeTableResponseHandler) {
+                ((AttributeTableResponseHandler)handler).onAttributeTable((AttributeTable)result);
+            } else {
+                handler.onObject(result);
+            }
+        }
+        public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
+            handler.onFail(t);
+        }
+    },
+	/** Opens a paged query cursor, owned by the bulk service session executing it, over the names matching a pattern and query, returning the first {@link QueryPage} */
+	OPENQUERYCURSOR(false, true){
+        @Override
+        public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
+            throw noSession(this);
+        }
+        @Override
+        public Object invoke(final MBeanServerConnection server, final QueryCursorSession session, final Object[] args) throws Exception {
+            if(session==null) throw noSession(this);
+            return session.openQueryCursor((ObjectName)args[0], (QueryExp)args[1], (Integer)args[2], (Boolean)args[3]).toArray();
+        }
+        @Override
+        public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
+            handler.onObject(QueryPage.fromArray(result));
+        }
+        public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
+            handler.onFail(t);
+        }
+    },
+	/** Fetches the next {@link QueryPage} of a paged query cursor */
+	FETCHQUERYCURSOR(false, true){
+        @Override
+        public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
+            throw noSession(this);
+        }
+        @Override
+        public Object invoke(final MBeanServerConnection server, final QueryCursorSession session, final Object[] args) throws Exception {
+            if(session==null) throw noSession(this);
+            return session.fetchQueryCursor((Long)args[0], (Integer)args[1]).toArray();
+        }
+        @Override
+        public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
+            handler.onObject(QueryPage.fromArray(result));
+        }
+        public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
+            handler.onFail(t);
+        }
+    },
+	/** Closes a paged query cursor before its last page has been fetched */
+	CLOSEQUERYCURSOR(false, true){
+        @Override
+        public Object invoke(final MBeanServerConnection server, final Object...args) throws Exception {
+            throw noSession(this);
+        }
+        @Override
+        public Object invoke(final MBeanServerConnection server, final QueryCursorSession session, final Object[] args) throws Exception {
+            if(session==null) throw noSession(this);
+            return session.closeQueryCursor((Long)args[0]);
+        }
+        @Override
+        public void handleResponse(final Object result, final AsyncJMXResponseHandler handler) {
+            handler.onBoolean((Boolean)result);
+        }
+        public void handleFail(final Throwable t, final AsyncJMXResponseHandler handler) {
+            handler.onFail(t);
+        }
     };
 	
+	/**
+	 * Invokes the op in the bulk service session executing it. {@link #isStateful() Stateful} ops keep their state
+	 * in the session, and every other op ignores it.
+	 * @param server The MBeanServer to invoke against
+	 * @param session The session the op is executed in, null if there is none
+	 * @param args The op arguments
+	 * @return the op result
+	 * @throws Exception thrown on any error invoking the op
+	 */
+	public Object invoke(final MBeanServerConnection server, final QueryCursorSession session, final Object[] args) throws Exception {
+		return invoke(server, args);
+	}
+	
+	/**
+	 * Creates the exception thrown when a stateful op is executed outside of a bulk service session
+	 * @param op The stateful op
+	 * @return the exception
+	 */
+	static IllegalStateException noSession(final MBeanOp op) {
+		return new IllegalStateException("The op [" + op + "] can only be executed in a bulk service session");
+	}
+	
+	/**
+	 * Calls back the handler of an op which returns an arbitrary value, handing longs and doubles to the numeric callbacks
+	 * of a {@link NumericResponseHandler}
+	 * @param result The op result
+	 * @param handler The handler to call back
+	 */
+	static void handleValue(final Object result, final AsyncJMXResponseHandler handler) {
+		if(result!=null && handler instanceof NumericResponseHandler) {
+			final Class<?> type = result.getClass();
+			if(type==Long.class) {
+				((NumericResponseHandler)handler).onLong((Long)result);
+				return;
+			} else if(type==Double.class) {
+				((NumericResponseHandler)handler).onDouble((Double)result);
+				return;
+			}
+		}
+		handler.onObject(result);
+	}
+	
+	/**
+	 * Indicates if the op returns an arbitrary value, whose long and double results can be sent unboxed
+	 * @return true for getAttribute and invoke, false otherwise
+	 */
+	public boolean returnsValue() {
+		return this==GETATTRIBUTE || this==INVOKE;
+	}
+	
+	/**
+	 * Calls back a handler with a long result sent unboxed, boxing it only for handlers which are not a {@link NumericResponseHandler}
+	 * @param result The op result
+	 * @param handler The handler to call back
+	 */
+	public void handleLong(final long result, final AsyncJMXResponseHandler handler) {
+		if(handler instanceof NumericResponseHandler) {
+			((NumericResponseHandler)handler).onLong(result);
+		} else {
+			handler.onObject(Long.valueOf(result));
+		}
+	}
+	
+	/**
+	 * Calls back a handler with a double result sent unboxed, boxing it only for handlers which are not a {@link NumericResponseHandler}
+	 * @param result The op result
+	 * @param handler The handler to call back
+	 */
+	public void handleDouble(final double result, final AsyncJMXResponseHandler handler) {
+		if(handler instanceof NumericResponseHandler) {
+			((NumericResponseHandler)handler).onDouble(result);
+		} else {
+			handler.onObject(Double.valueOf(result));
+		}
+	}
 	
 	private MBeanOp() {
+		this(false);
+	}
+	
+	private MBeanOp(final boolean mutating) {
+		this(mutating, false);
+	}
+	
+	private MBeanOp(final boolean mutating, final boolean stateful) {
 		byteOrdinal = (byte)ordinal();
+		this.mutating = mutating;
+		this.stateful = stateful;
 	}
 	
 	/** The ordinal as a byte */
 	public final byte byteOrdinal;
+	/** Indicates if the op can change MBean or registration state, and so must not be reordered against other ops */
+	public final boolean mutating;
+	/** Indicates if the op uses state the bulk service holds for the caller, and so must not be coalesced or reordered against other stateful ops */
+	public final boolean stateful;
 	
 	private static final MBeanOp[] values = values();
 	private static final int MAX_INDEX = values.length-1;
@@ -415,5 +602,24 @@ public enum MBeanOp implements OpInvoker {
 		return byteOrdinal;
 	}
 	
+	/**
+	 * Indicates if the op can change MBean or registration state.
+	 * Operation invocations are assumed to be mutating since their side effects are unknown.
+	 * @return true if the op is mutating, false if it only reads
+	 */
+	public boolean isMutating() {
+		return mutating;
+	}
+	
+	/**
+	 * Indicates if the op uses state the bulk service holds for the caller, such as a query cursor.
+	 * Identical stateful ops return different results, so they are never coalesced, and they run in request order
+	 * against each other, but unlike mutating ops they are not ordering barriers for reads.
+	 * @return true if the op is stateful, false otherwise
+	 */
+	public boolean isStateful() {
+		return stateful;
+	}
+	
 	
 }
@@ -0,0 +1,44 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+/**
+ * <p>Title: NumericResponseHandler</p>
+ * <p>Description: Optional extension of {@link AsyncJMXResponseHandler} for handlers that take long and double
+ * results of {@link MBeanOp#GETATTRIBUTE} and {@link MBeanOp#INVOKE} unboxed. Bulk responses written with the
+ * tagged codec carry these results as raw values, which handlers implementing this interface are called back with
+ * without boxing. Other handlers get the boxed value through {@link AsyncJMXResponseHandler#onObject(Object)}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.NumericResponseHandler</code></p>
+ */
+
+public interface NumericResponseHandler extends AsyncJMXResponseHandler {
+	/**
+	 * Callback for a long result
+	 * @param result The result
+	 */
+	public void onLong(final long result);
+	
+	/**
+	 * Callback for a double result
+	 * @param result The result
+	 */
+	public void onDouble(final double result);
+}
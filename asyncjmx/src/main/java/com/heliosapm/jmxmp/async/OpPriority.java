@@ -0,0 +1,57 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+/**
+ * <p>Title: OpPriority</p>
+ * <p>Description: The priority class of a bulk op. Critical reads are executed on the bulk service's calling thread,
+ * which is reserved capacity that never queues behind other ops, and background reads are shed when the service
+ * is under load. Mutating ops are never shed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.OpPriority</code></p>
+ */
+
+public enum OpPriority {
+	/** Liveness checks and alerting reads, executed ahead of everything else and never shed */
+	CRITICAL,
+	/** The default priority */
+	NORMAL,
+	/** Bulky reads such as inventory scans, shed first when the service is under load */
+	BACKGROUND;
+	
+	private static final OpPriority[] values = values();
+	
+	/** The byte ordinal written on the wire */
+	public final byte byteOrdinal;
+	
+	private OpPriority() {
+		byteOrdinal = (byte)ordinal();
+	}
+	
+	/**
+	 * Decodes the passed byte ordinal
+	 * @param ordinal The byte ordinal
+	 * @return the priority
+	 */
+	public static OpPriority decode(final byte ordinal) {
+		if(ordinal < 0 || ordinal >= values.length) throw new IllegalArgumentException("Invalid OpPriority ordinal [" + ordinal + "]");
+		return values[ordinal];
+	}
+}
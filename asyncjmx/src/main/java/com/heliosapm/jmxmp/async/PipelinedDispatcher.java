@@ -0,0 +1,234 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: PipelinedDispatcher</p>
+ * <p>Description: Sends bulk invocations without waiting for the responses of the ones sent before, keeping up to
+ * a configured depth of invocations in flight on one connection. Each dispatched invocation is tagged with a
+ * correlation id and its handlers are called back by the dispatcher thread it was sent on as soon as its response arrives,
+ * regardless of the invocations still in flight. Callers dispatching while the pipeline is full wait for a slot to free up.</p>
+ * <p>Invocations holding a mutating op are dispatched as barriers: they wait for every invocation in flight to complete
+ * and none are dispatched until they complete, so writes are never reordered against the ops of other invocations.
+ * The remote connector multiplexes the concurrent calls on the connection.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.PipelinedDispatcher</code></p>
+ */
+
+public class PipelinedDispatcher {
+	/** The maximum number of invocations in flight */
+	protected final int depth;
+	/** One permit for each invocation slot in the pipeline */
+	protected final Semaphore permits;
+	/** The threads invocations are sent and called back on */
+	protected final ExecutorService executor;
+	/** Indicates if the dispatcher is closed */
+	protected volatile boolean closed = false;
+	
+	/** The correlation id factory */
+	protected final AtomicLong correlationIds = new AtomicLong();
+	/** The number of invocations in flight */
+	protected final AtomicInteger inFlight = new AtomicInteger();
+	/** The highest number of invocations in flight at once */
+	protected final AtomicInteger peakInFlight = new AtomicInteger();
+	/** The number of dispatched invocations */
+	protected final AtomicLong dispatched = new AtomicLong();
+	/** The number of completed invocations */
+	protected final AtomicLong completed = new AtomicLong();
+	/** The number of invocations which failed to send */
+	protected final AtomicLong failed = new AtomicLong();
+	/** The number of dispatches which had to wait for a slot */
+	protected final AtomicLong backpressureWaits = new AtomicLong();
+	/** The number of invocations dispatched as barriers */
+	protected final AtomicLong barriers = new AtomicLong();
+	
+	/** The default maximum number of invocations in flight */
+	public static final int DEFAULT_DEPTH = 4;
+	
+	/** Serial number factory for dispatcher thread names */
+	private static final AtomicInteger serial = new AtomicInteger();
+	
+	/**
+	 * Creates a new PipelinedDispatcher with the default depth
+	 */
+	public PipelinedDispatcher() {
+		this(DEFAULT_DEPTH);
+	}
+	
+	/**
+	 * Creates a new PipelinedDispatcher
+	 * @param depth The maximum number of invocations in flight
+	 */
+	public PipelinedDispatcher(final int depth) {
+		if(depth < 1) throw new IllegalArgumentException("Invalid depth: " + depth);
+		this.depth = depth;
+		permits = new Semaphore(depth, true);
+		final int id = serial.incrementAndGet();
+		executor = Executors.newFixedThreadPool(depth, new ThreadFactory(){
+			final AtomicInteger threadSerial = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "BulkDispatcher#" + id + "-" + threadSerial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Dispatches an invocation, waiting for a slot in the pipeline if it is full
+	 * @param hbi The invocation to send
+	 * @return the correlation id assigned to the invocation, or -1 if the dispatcher is closed, in which case the invocation's handlers are failed
+	 */
+	public long dispatch(final HomeBulkInvocation hbi) {
+		if(closed) {
+			hbi.release();
+			hbi.fail(new IllegalStateException("The dispatcher is closed"));
+			return -1L;
+		}
+		final int required = hbi.isMutating() ? depth : 1;
+		if(permits.availablePermits() < required) backpressureWaits.incrementAndGet();
+		permits.acquireUninterruptibly(required);
+		if(required > 1) barriers.incrementAndGet();
+		final long correlationId = correlationIds.incrementAndGet();
+		hbi.setCorrelationId(correlationId);
+		final int current = inFlight.incrementAndGet();
+		int peak;
+		while(current > (peak = peakInFlight.get()) && !peakInFlight.compareAndSet(peak, current)) {/* No Op */}
+		dispatched.incrementAndGet();
+		try {
+			executor.execute(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						hbi.send();
+					} catch (Throwable t) {
+						failed.incrementAndGet();
+						hbi.fail(t);
+					} finally {
+						inFlight.decrementAndGet();
+						completed.incrementAndGet();
+						permits.release(required);
+					}
+				}
+			});
+		} catch (RuntimeException ex) {
+			inFlight.decrementAndGet();
+			failed.incrementAndGet();
+			permits.release(required);
+			hbi.release();
+			hbi.fail(ex);
+		}
+		return correlationId;
+	}
+	
+	/**
+	 * Waits for every invocation in flight to complete
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return true if the pipeline drained, false if the timeout elapsed first
+	 * @throws InterruptedException thrown if the calling thread is interrupted while waiting
+	 */
+	public boolean drain(final long timeout, final TimeUnit unit) throws InterruptedException {
+		if(!permits.tryAcquire(depth, timeout, unit)) return false;
+		permits.release(depth);
+		return true;
+	}
+	
+	/**
+	 * Closes the dispatcher. Invocations already dispatched are still sent.
+	 */
+	public void close() {
+		closed = true;
+		executor.shutdown();
+	}
+	
+	/**
+	 * Returns the maximum number of invocations in flight
+	 * @return the pipeline depth
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * Returns the number of invocations in flight
+	 * @return the in flight count
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	/**
+	 * Returns the highest number of invocations in flight at once
+	 * @return the peak in flight count
+	 */
+	public int getPeakInFlight() {
+		return peakInFlight.get();
+	}
+	
+	/**
+	 * Returns the number of dispatched invocations
+	 * @return the dispatched count
+	 */
+	public long getDispatched() {
+		return dispatched.get();
+	}
+	
+	/**
+	 * Returns the number of completed invocations, including failed ones
+	 * @return the completed count
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+	
+	/**
+	 * Returns the number of invocations which failed to send
+	 * @return the failed count
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * Returns the number of dispatches which had to wait for a slot in the pipeline
+	 * @return the backpressure wait count
+	 */
+	public long getBackpressureWaits() {
+		return backpressureWaits.get();
+	}
+	
+	/**
+	 * Returns the number of invocations dispatched as barriers because they held a mutating op
+	 * @return the barrier count
+	 */
+	public long getBarriers() {
+		return barriers.get();
+	}
+}
@@ -0,0 +1,246 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.management.AttributeList;
+import javax.management.MBeanInfo;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * <p>Title: QueryCursor</p>
+ * <p>Description: Iterates the ObjectNames or ObjectInstances matching a query a page at a time. Each page is fetched
+ * from the bulk service's cursor in its own invocation when the previous one has been consumed, so neither side ever
+ * holds the whole result set in a single response. The service cursor closes itself after the last page, and
+ * {@link #close()} closes it early when the iteration is abandoned.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.QueryCursor</code></p>
+ * @param <T> ObjectName or ObjectInstance
+ */
+
+public class QueryCursor<T> implements Iterator<T>, Closeable {
+	/** The session the pages are fetched in */
+	protected final BulkClientSession session;
+	/** The ObjectName pattern */
+	protected final ObjectName name;
+	/** The query expression */
+	protected final QueryExp query;
+	/** The maximum number of items in a page */
+	protected final int pageSize;
+	/** true to page ObjectInstances, false to page ObjectNames */
+	protected final boolean instances;
+	/** The current page, null until the first is fetched */
+	protected QueryPage page = null;
+	/** The index of the next item in the current page */
+	protected int index = 0;
+	/** The number of pages fetched */
+	protected int pageCount = 0;
+	/** Indicates if the cursor was closed */
+	protected boolean closed = false;
+	
+	/** The default maximum number of items in a page */
+	public static final int DEFAULT_PAGE_SIZE = 256;
+	
+	/**
+	 * Creates a new QueryCursor. The first page is fetched when the cursor is first read.
+	 * @param session The session the pages are fetched in
+	 * @param name The ObjectName pattern, null for all names
+	 * @param query The query expression, null for none
+	 * @param pageSize The maximum number of items in a page
+	 * @param instances true to page ObjectInstances, false to page ObjectNames
+	 */
+	public QueryCursor(final BulkClientSession session, final ObjectName name, final QueryExp query, final int pageSize, final boolean instances) {
+		if(session==null) throw new IllegalArgumentException("The passed session was null");
+		if(pageSize < 1) throw new IllegalArgumentException("Invalid page size [" + pageSize + "]");
+		this.session = session;
+		this.name = name;
+		this.query = query;
+		this.pageSize = pageSize;
+		this.instances = instances;
+	}
+	
+	/**
+	 * Fetches the next page of the cursor, discarding any unread items of the current page
+	 * @return the items of the next page, which are empty once the cursor is exhausted or closed
+	 */
+	public List<T> nextPage() {
+		if(closed || (page!=null && page.isLast())) {
+			index = 0;
+			page = new QueryPage(0L, true, new Object[0]);
+			return page.getItems();
+		}
+		page = page==null ? 
+			(QueryPage)exchange(MBeanOp.OPENQUERYCURSOR, name, query, pageSize, instances) :
+			(QueryPage)exchange(MBeanOp.FETCHQUERYCURSOR, page.getCursorId(), pageSize);
+		index = 0;
+		pageCount++;
+		return page.getItems();
+	}
+	
+	/**
+	 * Sends a single op invocation and returns its result
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the op result
+	 */
+	protected Object exchange(final MBeanOp op, final Object...args) {
+		final ResultHandler handler = new ResultHandler();
+		session.newBuilder(false, 256).op(op, handler, args).build().send();
+		if(handler.failure!=null) throw new RuntimeException("Failed to fetch query page [" + name + "]", handler.failure);
+		return handler.result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		// a page emptied by unregistrations is not the end of the cursor unless it is the last page
+		while(page==null || (index >= page.size() && !page.isLast() && !closed)) {
+			nextPage();
+		}
+		return index < page.size() && !closed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		return (T)page.items[index++];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("QueryCursor is read only");
+	}
+	
+	/**
+	 * Closes the cursor, closing the service cursor if its last page has not been fetched
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+		if(page!=null && !page.isLast()) {
+			try { exchange(MBeanOp.CLOSEQUERYCURSOR, page.getCursorId()); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Returns the number of pages fetched
+	 * @return the page count
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+	
+	/**
+	 * Returns the id of the service cursor
+	 * @return the cursor id, zero if the first page has not been fetched or the cursor is exhausted
+	 */
+	public long getCursorId() {
+		return page==null ? 0L : page.getCursorId();
+	}
+	
+	/**
+	 * Indicates if the cursor was closed
+	 * @return true if the cursor was closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * <p>Title: ResultHandler</p>
+	 * <p>Description: Captures the result or failure of a single cursor op</p> 
+	 */
+	static class ResultHandler implements AsyncJMXResponseHandler {
+		/** The op result */
+		Object result = null;
+		/** The op failure */
+		Throwable failure = null;
+		
+		@Override
+		public void onObject(final Object result) {
+			this.result = result;
+		}
+		@Override
+		public void onBoolean(final boolean result) {
+			this.result = result;
+		}
+		@Override
+		public void onFail(final Throwable t) {
+			failure = t;
+		}
+		@Override
+		public void onMBeanInfo(final MBeanInfo result) {
+			this.result = result;
+		}
+		@Override
+		public void onObjectInstance(final ObjectInstance result) {
+			this.result = result;
+		}
+		@Override
+		public void onAttributeList(final AttributeList result) {
+			this.result = result;
+		}
+		@Override
+		public void onInteger(final Integer result) {
+			this.result = result;
+		}
+		@Override
+		public void onObjectInstances(final Set<ObjectInstance> result) {
+			this.result = result;
+		}
+		@Override
+		public void onObjectNames(final Set<ObjectName> result) {
+			this.result = result;
+		}
+		@Override
+		public void onString(final String result) {
+			this.result = result;
+		}
+		@Override
+		public void onStrings(final String[] result) {
+			this.result = result;
+		}
+		@Override
+		public void onComplete() {
+			/* No Op */
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * <p>Title: QueryCursorSession</p>
+ * <p>Description: The service side session a {@link MBeanOp#isStateful() stateful} op is executed in. The session owns
+ * the query cursors its ops open, so a cursor can only be fetched or closed by ops of the session that opened it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.QueryCursorSession</code></p>
+ */
+
+public interface QueryCursorSession {
+	/**
+	 * Opens a paged cursor over the names matching the passed pattern and query, returning its first page.
+	 * The cursor is closed once its last page is fetched.
+	 * @param name The ObjectName pattern, null for all names
+	 * @param query The query expression, null for none
+	 * @param pageSize The maximum number of items in a page
+	 * @param instances true to page ObjectInstances, false to page ObjectNames
+	 * @return the first page
+	 */
+	public QueryPage openQueryCursor(ObjectName name, QueryExp query, int pageSize, boolean instances);
+	
+	/**
+	 * Fetches the next page of a query cursor opened in this session
+	 * @param cursorId The cursor id
+	 * @param pageSize The maximum number of items in the page
+	 * @return the next page
+	 */
+	public QueryPage fetchQueryCursor(long cursorId, int pageSize);
+	
+	/**
+	 * Closes a query cursor opened in this session before its last page is fetched
+	 * @param cursorId The cursor id
+	 * @return true if the cursor was open
+	 */
+	public boolean closeQueryCursor(long cursorId);
+}
@@ -0,0 +1,118 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Title: QueryPage</p>
+ * <p>Description: A page of the ObjectNames or ObjectInstances of a paged query cursor. On the wire a page is an
+ * <code>Object[]</code> of the cursor id, the last page flag and the items, so the ObjectNames go through the
+ * codec's ObjectName dictionary rather than java serialization.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.QueryPage</code></p>
+ */
+
+public class QueryPage implements Serializable {
+	/**  */
+	private static final long serialVersionUID = 2913057646310593721L;
+	/** The id of the cursor, which is closed once the last page has been fetched */
+	protected final long cursorId;
+	/** Indicates if this is the last page of the cursor */
+	protected final boolean last;
+	/** The ObjectNames or ObjectInstances of the page */
+	protected final Object[] items;
+
+	/**
+	 * Creates a new QueryPage
+	 * @param cursorId The id of the cursor
+	 * @param last true if this is the last page of the cursor
+	 * @param items The ObjectNames or ObjectInstances of the page
+	 */
+	public QueryPage(final long cursorId, final boolean last, final Object[] items) {
+		this.cursorId = cursorId;
+		this.last = last;
+		this.items = items;
+	}
+	
+	/**
+	 * Returns the wire form of this page
+	 * @return the cursor id, the last page flag and the items
+	 */
+	public Object[] toArray() {
+		return new Object[]{cursorId, last, items};
+	}
+	
+	/**
+	 * Reads a page from its wire form
+	 * @param wire The cursor id, the last page flag and the items
+	 * @return the page
+	 */
+	public static QueryPage fromArray(final Object wire) {
+		if(wire instanceof QueryPage) return (QueryPage)wire;
+		final Object[] arr = (Object[])wire;
+		return new QueryPage((Long)arr[0], (Boolean)arr[1], (Object[])arr[2]);
+	}
+
+	/**
+	 * Returns the id of the cursor
+	 * @return the cursor id
+	 */
+	public long getCursorId() {
+		return cursorId;
+	}
+
+	/**
+	 * Indicates if this is the last page of the cursor, after which the cursor is closed
+	 * @return true if this is the last page
+	 */
+	public boolean isLast() {
+		return last;
+	}
+	
+	/**
+	 * Returns the number of items in the page
+	 * @return the page size
+	 */
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * Returns the ObjectNames or ObjectInstances of the page
+	 * @return the page items
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> getItems() {
+		return (List<T>)Collections.unmodifiableList(Arrays.asList(items));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "QueryPage [cursorId=" + cursorId + ", size=" + items.length + ", last=" + last + "]";
+	}
+}
@@ -25,13 +25,16 @@ import java.io.ObjectOutput;
 
 /**
  * <p>Title: Response</p>
- * <p>Description: </p> 
+ * <p>Description: The result of one op of a streamed bulk invocation, sent back as the user data of a notification
+ * as soon as the op completes, tagged with the stream and request ids it answers. A failed op carries the thrown exception as its value.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.jmxmp.async.Response</code></p>
  */
 
 public class Response implements Externalizable {
+	/** The id of the stream the response belongs to */
+	protected long streamId = -1L;
 	/** The op type that generated this response */
 	protected MBeanOp op = null;
 	/** The id of the request */
@@ -39,15 +42,25 @@ public class Response implements Externalizable {
 	/** The response value */
 	protected Object value = null;
 	
-	
+	/**  */
+	private static final long serialVersionUID = -2419012245781806397L;
+
+	/**
+	 * Creates a new Response for externalization
+	 */
+	public Response() {
+		
+	}
 
 	/**
 	 * Creates a new Response
+	 * @param streamId The id of the stream the response belongs to
 	 * @param op The op type that generated this response
 	 * @param reqId The id of the request
 	 * @param value  The response value
 	 */
-	public Response(final MBeanOp op, final int reqId, final Object value) {
+	public Response(final long streamId, final MBeanOp op, final int reqId, final Object value) {
+		this.streamId = streamId;
 		this.op = op;
 		this.reqId = reqId;
 		this.value = value;
@@ -55,16 +68,22 @@ public class Response implements Externalizable {
 	
 	/**
 	 * Creates a new Response
+	 * @param streamId The id of the stream the response belongs to
 	 * @param op The op type that generated this response
 	 * @param reqId The id of the request
 	 */
-	public Response(final MBeanOp op, final int reqId) {
-		this(op, reqId, null);
+	public Response(final long streamId, final MBeanOp op, final int reqId) {
+		this(streamId, op, reqId, null);
 	}
 
 
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+	 */
 	@Override
 	public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+		streamId = in.readLong();
 		op = MBeanOp.decode(in.readByte());
 		reqId = in.readInt();
 		if(in.readByte()!=0) {
@@ -72,40 +91,73 @@ public class Response implements Externalizable {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+	 */
 	@Override
 	public void writeExternal(final ObjectOutput out) throws IOException {
+		out.writeLong(streamId);
 		out.writeByte(op.byteOrdinal);
 		out.writeInt(reqId);
 		if(value==null) {
 			out.writeByte(0);
 		} else {
-			out.writeByte(0);
+			out.writeByte(1);
 			out.writeObject(value);
 		}
 	}
+	
+	/**
+	 * Calls back the passed handler with the value, or fails it if the value is an exception
+	 * @param handler The handler of the request
+	 */
+	public void dispatch(final AsyncJMXResponseHandler handler) {
+		if(value instanceof Throwable) {
+			op.handleFail((Throwable)value, handler);
+		} else {
+			op.handleResponse(value, handler);
+		}
+	}
+
+	/**
+	 * Returns the id of the stream the response belongs to
+	 * @return the stream id
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
 
 	/**
-	 * Returns 
+	 * Returns the op type that generated this response
 	 * @return the op
 	 */
-	private MBeanOp getOp() {
+	public MBeanOp getOp() {
 		return op;
 	}
 
 	/**
-	 * Returns 
+	 * Returns the id of the request
 	 * @return the reqId
 	 */
-	private int getReqId() {
+	public int getReqId() {
 		return reqId;
 	}
 
 	/**
-	 * Returns 
+	 * Returns the response value
 	 * @return the value
 	 */
-	private Object getValue() {
+	public Object getValue() {
 		return value;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Response [stream=" + streamId + ", op=" + op + ", reqId=" + reqId + ", value=" + value + "]";
+	}
 }
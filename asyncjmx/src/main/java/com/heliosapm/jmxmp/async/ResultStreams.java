@@ -0,0 +1,218 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: ResultStreams</p>
+ * <p>Description: Receives the result notifications of a session's streamed invocations and calls back each op's
+ * handler as soon as its result arrives. Results can arrive before the bulk service has returned the stream id,
+ * so they are held until the invocation's handlers are attached. Handlers still waiting when their stream
+ * completes are failed, since their results were lost in delivery.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.ResultStreams</code></p>
+ */
+
+public class ResultStreams implements NotificationListener {
+	/** The streams in progress keyed by stream id */
+	protected final ConcurrentHashMap<Long, Stream> streams = new ConcurrentHashMap<Long, Stream>();
+	/** The number of results received */
+	protected final AtomicLong resultCount = new AtomicLong(0);
+	/** The number of results lost in delivery */
+	protected final AtomicLong lostCount = new AtomicLong(0);
+	
+	/**
+	 * Attaches the handlers of a streamed invocation to its stream, calling back any results which have already arrived
+	 * @param streamId The id of the stream
+	 * @param handlers The handlers indexed by request id
+	 */
+	public void attach(final long streamId, final HandlerTable handlers) {
+		stream(streamId).attach(handlers);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		final Object data = notification.getUserData();
+		if(data instanceof Response) {
+			resultCount.incrementAndGet();
+			final Response response = (Response)data;
+			stream(response.getStreamId()).result(response);
+		} else if(data instanceof long[] && notification.getType().endsWith(JMXBulkService.COMPLETE_SUFFIX)) {
+			final long[] completion = (long[])data;
+			stream(completion[0]).complete((int)completion[1]);
+		}
+	}
+	
+	/**
+	 * Returns the stream for the passed id, creating it if this is the first the listener has heard of it
+	 * @param streamId The id of the stream
+	 * @return the stream
+	 */
+	protected Stream stream(final long streamId) {
+		Stream stream = streams.get(streamId);
+		if(stream==null) {
+			stream = new Stream(streamId);
+			final Stream prior = streams.putIfAbsent(streamId, stream);
+			if(prior!=null) stream = prior;
+		}
+		return stream;
+	}
+	
+	/**
+	 * Fails the handlers of every stream in progress and forgets them
+	 * @param cause The cause of the failure
+	 */
+	public void close(final Throwable cause) {
+		for(final Stream stream: streams.values()) {
+			stream.fail(cause);
+		}
+		streams.clear();
+	}
+	
+	/**
+	 * Returns the number of streams in progress
+	 * @return the stream count
+	 */
+	public int size() {
+		return streams.size();
+	}
+	
+	/**
+	 * Returns the number of results received
+	 * @return the result count
+	 */
+	public long getResultCount() {
+		return resultCount.get();
+	}
+	
+	/**
+	 * Returns the number of results lost in delivery, whose handlers were failed
+	 * @return the lost result count
+	 */
+	public long getLostCount() {
+		return lostCount.get();
+	}
+	
+	/**
+	 * <p>Title: Stream</p>
+	 * <p>Description: The state of one streamed invocation</p> 
+	 */
+	protected class Stream {
+		/** The id of the stream */
+		final long streamId;
+		/** The handlers indexed by request id, null until attached */
+		HandlerTable handlers = null;
+		/** The results received before the handlers were attached */
+		List<Response> early = null;
+		/** The number of results sent, -1 until the stream completes */
+		int expected = -1;
+		
+		/**
+		 * Creates a new Stream
+		 * @param streamId The id of the stream
+		 */
+		Stream(final long streamId) {
+			this.streamId = streamId;
+		}
+		
+		/**
+		 * Attaches the handlers and calls back the results already received
+		 * @param handlers The handlers indexed by request id
+		 */
+		synchronized void attach(final HandlerTable handlers) {
+			this.handlers = handlers;
+			if(early!=null) {
+				for(final Response response: early) {
+					dispatch(response);
+				}
+				early = null;
+			}
+			if(expected >= 0) finish();
+		}
+		
+		/**
+		 * Calls back the handler of a result, or holds the result if the handlers are not yet attached
+		 * @param response The result
+		 */
+		synchronized void result(final Response response) {
+			if(handlers==null) {
+				if(early==null) early = new ArrayList<Response>();
+				early.add(response);
+			} else {
+				dispatch(response);
+			}
+		}
+		
+		/**
+		 * Marks the stream complete
+		 * @param resultCount The number of results sent
+		 */
+		synchronized void complete(final int resultCount) {
+			expected = resultCount;
+			if(handlers!=null) finish();
+		}
+		
+		/**
+		 * Calls back the handler of a result
+		 * @param response The result
+		 */
+		void dispatch(final Response response) {
+			final AsyncJMXResponseHandler handler = handlers.take(response.getReqId());
+			if(handler!=null) response.dispatch(handler);
+		}
+		
+		/**
+		 * Forgets the completed stream and fails the handlers whose results never arrived
+		 */
+		void finish() {
+			streams.remove(streamId, this);
+			for(int reqId = handlers.next(0); reqId >= 0; reqId = handlers.next(reqId + 1)) {
+				final AsyncJMXResponseHandler handler = handlers.take(reqId);
+				if(handler!=null) {
+					lostCount.incrementAndGet();
+					handler.onFail(new IOException("The result of op [" + reqId + "] in stream [" + streamId + "] was lost"));
+				}
+			}
+		}
+		
+		/**
+		 * Fails every handler still waiting
+		 * @param cause The cause of the failure
+		 */
+		synchronized void fail(final Throwable cause) {
+			if(handlers==null) return;
+			handlers.failAll(cause);
+		}
+	}
+}
@@ -52,14 +52,12 @@ import javax.management.QueryExp;
 import javax.management.ReflectionException;
 
 import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler.MBeanServerConnectionAsync;
-import com.heliosapm.utils.time.SystemClock;
 
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.FiberExecutorScheduler;
 import co.paralleluniverse.fibers.FiberScheduler;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.Suspendable;
-import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.SuspendableCallable;
 
 /**
@@ -73,7 +71,7 @@ import co.paralleluniverse.strands.SuspendableCallable;
 public class SuspendableMBeanServerConnection implements MBeanServerConnection {
 	public static final int CORES = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
 	final BulkMBeanServerConnection bmc;
-	final BulkInvocationBuilder invBuilder;
+	final BulkBatcher batcher;
 	final ExecutorService taskExecutor = Executors.newFixedThreadPool(1, new ThreadFactory(){
 		@Override
 		public Thread newThread(final Runnable r) {
@@ -93,12 +91,20 @@ public class SuspendableMBeanServerConnection implements MBeanServerConnection {
 	
 	
 	/**
-	 * Creates a new BulkMBeanServerConnection
-	 * @param invBuilder The invocation builder
+	 * Creates a new SuspendableMBeanServerConnection which batches ops with the default limits
+	 * @param invBuilder The invocation builder the first ops are added to
 	 */
 	public SuspendableMBeanServerConnection(final BulkInvocationBuilder invBuilder) {
-		this.invBuilder = invBuilder;
-		bmc = new BulkMBeanServerConnection(invBuilder);		
+		this(new BulkBatcher(invBuilder));
+	}
+	
+	/**
+	 * Creates a new SuspendableMBeanServerConnection
+	 * @param batcher The batcher ops are sent with
+	 */
+	public SuspendableMBeanServerConnection(final BulkBatcher batcher) {
+		this.batcher = batcher;
+		bmc = new BulkMBeanServerConnection(batcher);		
 	}
 
 	
@@ -282,10 +288,13 @@ public class SuspendableMBeanServerConnection implements MBeanServerConnection {
 	
 	@Override @Suspendable
 	public MBeanInfo getMBeanInfo(final ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+		// cached MBeanInfos are returned without suspending
+		final MBeanInfo cached = bmc.getMBeanInfoCache().get(name);
+		if(cached!=null) return cached;
 		return new MBeanServerConnectionAsync() {
 			@Override
 			protected void requestAsync() {
-				bmc.getMBeanInfo(name, this);
+				bmc.fetchMBeanInfo(name, this);
 				
 			}			
 		}.get(MBeanInfo.class);
@@ -371,29 +380,35 @@ public class SuspendableMBeanServerConnection implements MBeanServerConnection {
 		}.get(Set.class);
 	}
 	
+	/**
+	 * Queries the names matching the passed pattern and query and reads the passed attributes from each in a single op
+	 * @param name The ObjectName pattern
+	 * @param query The optional query, may be null
+	 * @param attributes The names of the attributes to read
+	 * @return the attribute values in a table with one row per matching MBean
+	 * @throws IOException thrown on any IO error
+	 */
+	@Suspendable
+	public AttributeTable queryAttributes(final ObjectName name, final QueryExp query, final String[] attributes) throws IOException {
+		return new MBeanServerConnectionAsync() {
+			@Override
+			protected void requestAsync() {
+				bmc.queryAttributes(name, query, attributes, this);
+				
+			}			
+		}.get(AttributeTable.class);
+	}
+	
 	private final AtomicLong fiberTask = new AtomicLong();
 	private final ConcurrentSkipListMap<Long, Fiber<?>> fibers = new ConcurrentSkipListMap<Long, Fiber<?>>(); 
 	
+	/**
+	 * Sends the ops batched so far. Suspended callers no longer need this to be called since the batcher
+	 * also flushes on its op count, size and linger limits.
+	 */
 	public void reset() {
-		int cnt = 0;
-		log("Waiting on [" + fibers.size() + "] Fibers....");
-		for(Fiber<?> f: fibers.values()) {
-			try { 
-				while(f.getState()==Strand.State.RUNNING) {
-					SystemClock.sleep(100);
-				}
-				log("Testing State: %s : %s", f.getName(), f.getState());
-				
-				cnt++;
-			} catch (Exception ex) { 
-				ex.printStackTrace(System.err);
-			//throw new RuntimeException(ex); 
-			}
-		}
 		fiberTask.set(0);
-		log("Reset Complete. Tasks:" + cnt);
-		invBuilder.build().send();
-		log("BulkRequest Dispatched");
+		if(batcher.flush()) log("BulkRequest Dispatched");
 	}
 	
 	public static void log(final Object fmt, final Object...args) {
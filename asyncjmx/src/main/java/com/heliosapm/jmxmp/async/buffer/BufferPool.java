@@ -0,0 +1,260 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.buffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: BufferPool</p>
+ * <p>Description: Thread safe pool of byte arrays in power of two size classes, from {@link #MIN_CLASS_SIZE} to
+ * {@link #MAX_CLASS_SIZE}. Each class retains at most {@link #MAX_RETAINED_BYTES_PER_CLASS} bytes of idle buffers.
+ * Requests larger than the biggest class are allocated exactly and never retained.
+ * A buffer must not be touched once it has been released.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.buffer.BufferPool</code></p>
+ */
+
+public class BufferPool implements BufferPoolMBean {
+	/** The singleton instance */
+	private static volatile BufferPool instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+
+	/** The BufferPool JMX ObjectName */
+	public static final ObjectName OBJECT_NAME = JMXHelper.objectName("com.heliosapm.jmx:service=BufferPool");
+	/** The shift of the smallest size class */
+	private static final int MIN_CLASS_SHIFT = 10;
+	/** The shift of the largest size class */
+	private static final int MAX_CLASS_SHIFT = 22;
+	/** The smallest size class */
+	public static final int MIN_CLASS_SIZE = 1 << MIN_CLASS_SHIFT;
+	/** The largest size class */
+	public static final int MAX_CLASS_SIZE = 1 << MAX_CLASS_SHIFT;
+	/** The maximum idle bytes retained per size class */
+	public static final int MAX_RETAINED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+	/** The idle buffers per size class */
+	private final ConcurrentLinkedQueue<byte[]>[] idle;
+	/** The number of idle buffers per size class */
+	private final AtomicInteger[] idleCounts;
+	/** The maximum number of idle buffers per size class */
+	private final int[] maxIdle;
+
+	/** The acquisition count */
+	private final AtomicLong acquires = new AtomicLong(0);
+	/** The pool hit count */
+	private final AtomicLong hits = new AtomicLong(0);
+	/** The release count */
+	private final AtomicLong releases = new AtomicLong(0);
+	/** The discard count */
+	private final AtomicLong discards = new AtomicLong(0);
+
+	/**
+	 * Acquires the BufferPool singleton instance
+	 * @return the BufferPool singleton instance
+	 */
+	public static BufferPool getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new BufferPool();
+					try { JMXHelper.registerMBean(instance, OBJECT_NAME); } catch (Exception x) {/* No Op */}
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new BufferPool, independent of the singleton and not registered with JMX.
+	 * Use {@link #getInstance()} to share buffers across the process.
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool() {
+		final int classes = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+		idle = new ConcurrentLinkedQueue[classes];
+		idleCounts = new AtomicInteger[classes];
+		maxIdle = new int[classes];
+		for(int i = 0; i < classes; i++) {
+			idle[i] = new ConcurrentLinkedQueue<byte[]>();
+			idleCounts[i] = new AtomicInteger(0);
+			maxIdle[i] = Math.max(2, MAX_RETAINED_BYTES_PER_CLASS >> (MIN_CLASS_SHIFT + i));
+		}
+	}
+
+	/**
+	 * Returns the index of the smallest size class that fits the passed capacity
+	 * @param capacity The required capacity
+	 * @return the size class index or -1 if the capacity is larger than the largest class
+	 */
+	static int classIndex(final int capacity) {
+		if(capacity > MAX_CLASS_SIZE) return -1;
+		if(capacity <= MIN_CLASS_SIZE) return 0;
+		return (32 - Integer.numberOfLeadingZeros(capacity - 1)) - MIN_CLASS_SHIFT;
+	}
+
+	/**
+	 * Acquires an array of at least the passed capacity
+	 * @param minCapacity The minimum capacity
+	 * @return the array
+	 */
+	public byte[] acquire(final int minCapacity) {
+		acquires.incrementAndGet();
+		final int index = classIndex(minCapacity);
+		if(index==-1) return new byte[minCapacity];
+		final byte[] buf = idle[index].poll();
+		if(buf!=null) {
+			idleCounts[index].decrementAndGet();
+			hits.incrementAndGet();
+			return buf;
+		}
+		return new byte[MIN_CLASS_SIZE << index];
+	}
+
+	/**
+	 * Returns an array to the pool. Arrays that do not match a size class exactly are dropped.
+	 * @param buf The array to release
+	 */
+	public void release(final byte[] buf) {
+		if(buf==null) return;
+		releases.incrementAndGet();
+		final int index = classIndex(buf.length);
+		if(index==-1 || buf.length!=(MIN_CLASS_SIZE << index)) {
+			discards.incrementAndGet();
+			return;
+		}
+		if(idleCounts[index].incrementAndGet() > maxIdle[index]) {
+			idleCounts[index].decrementAndGet();
+			discards.incrementAndGet();
+			return;
+		}
+		idle[index].offer(buf);
+	}
+
+	/**
+	 * Creates a new growable buffer backed by this pool
+	 * @param initialCapacity The initial capacity
+	 * @return the new buffer
+	 */
+	public PooledBuffer buffer(final int initialCapacity) {
+		return new PooledBuffer(this, initialCapacity);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getAcquireCount()
+	 */
+	@Override
+	public long getAcquireCount() {
+		return acquires.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getHitCount()
+	 */
+	@Override
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getMissCount()
+	 */
+	@Override
+	public long getMissCount() {
+		return acquires.get() - hits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getHitRate()
+	 */
+	@Override
+	public double getHitRate() {
+		final long a = acquires.get();
+		return a==0 ? 0D : hits.get() * 100D / a;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getReleaseCount()
+	 */
+	@Override
+	public long getReleaseCount() {
+		return releases.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getDiscardCount()
+	 */
+	@Override
+	public long getDiscardCount() {
+		return discards.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getRetainedCount()
+	 */
+	@Override
+	public int getRetainedCount() {
+		int count = 0;
+		for(AtomicInteger ai: idleCounts) {
+			count += ai.get();
+		}
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		long bytes = 0;
+		for(int i = 0; i < idleCounts.length; i++) {
+			bytes += (long)idleCounts[i].get() * (MIN_CLASS_SIZE << i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.BufferPoolMBean#getSizeClasses()
+	 */
+	@Override
+	public int[] getSizeClasses() {
+		final int[] sizes = new int[idle.length];
+		for(int i = 0; i < sizes.length; i++) {
+			sizes[i] = MIN_CLASS_SIZE << i;
+		}
+		return sizes;
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.buffer;
+
+/**
+ * <p>Title: BufferPoolMBean</p>
+ * <p>Description: JMX MBean interface for {@link BufferPool}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.buffer.BufferPoolMBean</code></p>
+ */
+
+public interface BufferPoolMBean {
+	/**
+	 * Returns the number of buffer acquisitions
+	 * @return the acquisition count
+	 */
+	public long getAcquireCount();
+
+	/**
+	 * Returns the number of acquisitions served from the pool
+	 * @return the hit count
+	 */
+	public long getHitCount();
+
+	/**
+	 * Returns the number of acquisitions that allocated a new buffer
+	 * @return the miss count
+	 */
+	public long getMissCount();
+
+	/**
+	 * Returns the percentage of acquisitions served from the pool
+	 * @return the hit rate percentage
+	 */
+	public double getHitRate();
+
+	/**
+	 * Returns the number of buffers returned to the pool
+	 * @return the release count
+	 */
+	public long getReleaseCount();
+
+	/**
+	 * Returns the number of released buffers dropped because their size class was full or they fit no size class
+	 * @return the discard count
+	 */
+	public long getDiscardCount();
+
+	/**
+	 * Returns the number of buffers currently held by the pool
+	 * @return the retained buffer count
+	 */
+	public int getRetainedCount();
+
+	/**
+	 * Returns the total size of the buffers currently held by the pool
+	 * @return the retained bytes
+	 */
+	public long getRetainedBytes();
+
+	/**
+	 * Returns the buffer sizes the pool retains
+	 * @return the size classes in bytes
+	 */
+	public int[] getSizeClasses();
+}
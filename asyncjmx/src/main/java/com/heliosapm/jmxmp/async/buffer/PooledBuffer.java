@@ -0,0 +1,160 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>Title: PooledBuffer</p>
+ * <p>Description: A growable byte buffer whose backing array comes from, and goes back to, a {@link BufferPool}.
+ * Growing swaps in a larger pooled array and releases the old one. The filled bytes can be read in place through
+ * {@link #array()} and {@link #size()}, or ownership of the array can be handed off with {@link #detach()}.
+ * Not thread safe.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.buffer.PooledBuffer</code></p>
+ */
+
+public class PooledBuffer extends OutputStream {
+	/** The pool the backing array comes from */
+	protected final BufferPool pool;
+	/** The backing array, null once released or detached */
+	protected byte[] buf;
+	/** The number of filled bytes */
+	protected int count = 0;
+
+	/**
+	 * Creates a new PooledBuffer
+	 * @param pool The pool the backing array comes from
+	 * @param initialCapacity The initial capacity
+	 */
+	PooledBuffer(final BufferPool pool, final int initialCapacity) {
+		this.pool = pool;
+		buf = pool.acquire(initialCapacity);
+	}
+
+	/**
+	 * Ensures the buffer has room for the passed number of bytes past the filled bytes
+	 * @param bytes The number of bytes to make room for
+	 */
+	public void ensureFree(final int bytes) {
+		final byte[] current = array();
+		final int required = count + bytes;
+		if(required > current.length) {
+			final byte[] grown = pool.acquire(Math.max(required, current.length << 1));
+			System.arraycopy(current, 0, grown, 0, count);
+			pool.release(current);
+			buf = grown;
+		}
+	}
+
+	/**
+	 * Marks the passed number of bytes, written directly into {@link #array()} after the filled bytes, as filled
+	 * @param bytes The number of bytes written
+	 */
+	public void advance(final int bytes) {
+		if(bytes < 0 || count + bytes > array().length) throw new IllegalArgumentException("Invalid advance [" + bytes + "]");
+		count += bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(final int b) {
+		ensureFree(1);
+		buf[count++] = (byte)b;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		ensureFree(len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * Returns the backing array. Only the first {@link #size()} bytes are filled.
+	 * @return the backing array
+	 */
+	public byte[] array() {
+		if(buf==null) throw new IllegalStateException("The buffer has been released");
+		return buf;
+	}
+
+	/**
+	 * Returns the number of filled bytes
+	 * @return the number of filled bytes
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns an input stream over the filled bytes, reading them in place
+	 * @return an input stream over the filled bytes
+	 */
+	public ByteArrayInputStream toInputStream() {
+		return new ByteArrayInputStream(array(), 0, count);
+	}
+
+	/**
+	 * Empties the buffer, keeping the backing array
+	 */
+	public void reset() {
+		count = 0;
+	}
+
+	/**
+	 * Hands ownership of the backing array to the caller, who becomes responsible for releasing it to the pool
+	 * @return the backing array
+	 */
+	public byte[] detach() {
+		final byte[] b = array();
+		buf = null;
+		return b;
+	}
+
+	/**
+	 * Returns the backing array to the pool. No Op if already released or detached.
+	 */
+	public void release() {
+		if(buf!=null) {
+			pool.release(buf);
+			buf = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Closing does not release the buffer, so streams layered over it can be closed while the bytes are still in use.</p>
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() {
+		/* No Op */
+	}
+
+}
@@ -0,0 +1,231 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.buffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.management.ObjectName;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: ZipPool</p>
+ * <p>Description: Thread safe pool of {@link Deflater}s, keyed by level and wrapping, and {@link Inflater}s, keyed by
+ * wrapping, so the native zlib state is reused rather than allocated and ended per payload.
+ * Released instances are reset. Instances over the per key retention limit are ended.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.buffer.ZipPool</code></p>
+ */
+
+public class ZipPool implements ZipPoolMBean {
+	/** The singleton instance */
+	private static volatile ZipPool instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+
+	/** The ZipPool JMX ObjectName */
+	public static final ObjectName OBJECT_NAME = JMXHelper.objectName("com.heliosapm.jmx:service=ZipPool");
+	/** The maximum number of idle instances retained per key */
+	public static final int MAX_IDLE = 16;
+
+	/** The idle deflaters keyed by level and wrapping */
+	private final ConcurrentLinkedQueue<Deflater>[] deflaters;
+	/** The idle deflater counts keyed by level and wrapping */
+	private final AtomicInteger[] deflaterCounts;
+	/** The idle inflaters keyed by wrapping */
+	private final ConcurrentLinkedQueue<Inflater>[] inflaters;
+	/** The idle inflater counts keyed by wrapping */
+	private final AtomicInteger[] inflaterCounts;
+
+	/** The deflater acquisition count */
+	private final AtomicLong deflaterAcquires = new AtomicLong(0);
+	/** The deflater hit count */
+	private final AtomicLong deflaterHits = new AtomicLong(0);
+	/** The inflater acquisition count */
+	private final AtomicLong inflaterAcquires = new AtomicLong(0);
+	/** The inflater hit count */
+	private final AtomicLong inflaterHits = new AtomicLong(0);
+
+	/**
+	 * Acquires the ZipPool singleton instance
+	 * @return the ZipPool singleton instance
+	 */
+	public static ZipPool getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new ZipPool();
+					try { JMXHelper.registerMBean(instance, OBJECT_NAME); } catch (Exception x) {/* No Op */}
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new ZipPool
+	 */
+	@SuppressWarnings("unchecked")
+	ZipPool() {
+		// levels -1 (default) through 9, each with and without zlib wrapping
+		deflaters = new ConcurrentLinkedQueue[22];
+		deflaterCounts = new AtomicInteger[22];
+		for(int i = 0; i < deflaters.length; i++) {
+			deflaters[i] = new ConcurrentLinkedQueue<Deflater>();
+			deflaterCounts[i] = new AtomicInteger(0);
+		}
+		inflaters = new ConcurrentLinkedQueue[2];
+		inflaterCounts = new AtomicInteger[2];
+		for(int i = 0; i < inflaters.length; i++) {
+			inflaters[i] = new ConcurrentLinkedQueue<Inflater>();
+			inflaterCounts[i] = new AtomicInteger(0);
+		}
+	}
+
+	private static int deflaterKey(final int level, final boolean nowrap) {
+		if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("Invalid deflater level [" + level + "]");
+		return ((level + 1) << 1) | (nowrap ? 1 : 0);
+	}
+
+	/**
+	 * Acquires a deflater
+	 * @param level The compression level
+	 * @param nowrap true for raw deflate, false for zlib wrapping
+	 * @return the deflater
+	 */
+	public Deflater acquireDeflater(final int level, final boolean nowrap) {
+		deflaterAcquires.incrementAndGet();
+		final int key = deflaterKey(level, nowrap);
+		final Deflater deflater = deflaters[key].poll();
+		if(deflater!=null) {
+			deflaterCounts[key].decrementAndGet();
+			deflaterHits.incrementAndGet();
+			return deflater;
+		}
+		return new Deflater(level, nowrap);
+	}
+
+	/**
+	 * Returns a deflater to the pool
+	 * @param deflater The deflater
+	 * @param level The compression level it was acquired with
+	 * @param nowrap The wrapping it was acquired with
+	 */
+	public void releaseDeflater(final Deflater deflater, final int level, final boolean nowrap) {
+		if(deflater==null) return;
+		final int key = deflaterKey(level, nowrap);
+		if(deflaterCounts[key].incrementAndGet() > MAX_IDLE) {
+			deflaterCounts[key].decrementAndGet();
+			deflater.end();
+			return;
+		}
+		deflater.reset();
+		deflaters[key].offer(deflater);
+	}
+
+	/**
+	 * Acquires an inflater
+	 * @param nowrap true for raw deflate, false for zlib wrapping
+	 * @return the inflater
+	 */
+	public Inflater acquireInflater(final boolean nowrap) {
+		inflaterAcquires.incrementAndGet();
+		final int key = nowrap ? 1 : 0;
+		final Inflater inflater = inflaters[key].poll();
+		if(inflater!=null) {
+			inflaterCounts[key].decrementAndGet();
+			inflaterHits.incrementAndGet();
+			return inflater;
+		}
+		return new Inflater(nowrap);
+	}
+
+	/**
+	 * Returns an inflater to the pool
+	 * @param inflater The inflater
+	 * @param nowrap The wrapping it was acquired with
+	 */
+	public void releaseInflater(final Inflater inflater, final boolean nowrap) {
+		if(inflater==null) return;
+		final int key = nowrap ? 1 : 0;
+		if(inflaterCounts[key].incrementAndGet() > MAX_IDLE) {
+			inflaterCounts[key].decrementAndGet();
+			inflater.end();
+			return;
+		}
+		inflater.reset();
+		inflaters[key].offer(inflater);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.ZipPoolMBean#getDeflaterAcquireCount()
+	 */
+	@Override
+	public long getDeflaterAcquireCount() {
+		return deflaterAcquires.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.ZipPoolMBean#getDeflaterHitRate()
+	 */
+	@Override
+	public double getDeflaterHitRate() {
+		final long a = deflaterAcquires.get();
+		return a==0 ? 0D : deflaterHits.get() * 100D / a;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.ZipPoolMBean#getInflaterAcquireCount()
+	 */
+	@Override
+	public long getInflaterAcquireCount() {
+		return inflaterAcquires.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.ZipPoolMBean#getInflaterHitRate()
+	 */
+	@Override
+	public double getInflaterHitRate() {
+		final long a = inflaterAcquires.get();
+		return a==0 ? 0D : inflaterHits.get() * 100D / a;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.buffer.ZipPoolMBean#getRetainedCount()
+	 */
+	@Override
+	public int getRetainedCount() {
+		int count = 0;
+		for(AtomicInteger ai: deflaterCounts) count += ai.get();
+		for(AtomicInteger ai: inflaterCounts) count += ai.get();
+		return count;
+	}
+
+}
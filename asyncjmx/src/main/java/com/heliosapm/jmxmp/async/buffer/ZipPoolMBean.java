@@ -0,0 +1,59 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.buffer;
+
+/**
+ * <p>Title: ZipPoolMBean</p>
+ * <p>Description: JMX MBean interface for {@link ZipPool}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.buffer.ZipPoolMBean</code></p>
+ */
+
+public interface ZipPoolMBean {
+	/**
+	 * Returns the number of deflater acquisitions
+	 * @return the deflater acquisition count
+	 */
+	public long getDeflaterAcquireCount();
+
+	/**
+	 * Returns the percentage of deflater acquisitions served from the pool
+	 * @return the deflater hit rate percentage
+	 */
+	public double getDeflaterHitRate();
+
+	/**
+	 * Returns the number of inflater acquisitions
+	 * @return the inflater acquisition count
+	 */
+	public long getInflaterAcquireCount();
+
+	/**
+	 * Returns the percentage of inflater acquisitions served from the pool
+	 * @return the inflater hit rate percentage
+	 */
+	public double getInflaterHitRate();
+
+	/**
+	 * Returns the number of idle deflaters and inflaters held by the pool
+	 * @return the retained count
+	 */
+	public int getRetainedCount();
+}
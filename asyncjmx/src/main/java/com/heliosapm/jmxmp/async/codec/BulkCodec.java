@@ -0,0 +1,65 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>Title: BulkCodec</p>
+ * <p>Description: Defines a codec used to write and read the op arguments and results
+ * carried in bulk invocation and bulk response payloads. Codecs are identified on the wire
+ * by a single byte id which is negotiated between the client and the bulk service.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.BulkCodec</code></p>
+ */
+
+public interface BulkCodec {
+	/**
+	 * Returns the wire id of this codec
+	 * @return the wire id of this codec
+	 */
+	public byte getId();
+
+	/**
+	 * Returns the descriptive name of this codec
+	 * @return the descriptive name of this codec
+	 */
+	public String getName();
+
+	/**
+	 * Creates a new encoder writing to the passed output stream
+	 * @param os The output stream to write to
+	 * @param handles The session's ObjectName handles, or null if there is no session. Codecs may ignore handles.
+	 * @return the new encoder
+	 * @throws IOException thrown on any IO error initializing the encoder
+	 */
+	public BulkEncoder newEncoder(final OutputStream os, final ObjectNameHandles handles) throws IOException;
+
+	/**
+	 * Creates a new decoder reading from the passed input stream
+	 * @param is The input stream to read from
+	 * @param handles The session's ObjectName handles, or null if there is no session. Codecs may ignore handles.
+	 * @return the new decoder
+	 * @throws IOException thrown on any IO error initializing the decoder
+	 */
+	public BulkDecoder newDecoder(final InputStream is, final ObjectNameHandles handles) throws IOException;
+}
@@ -0,0 +1,105 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
+
+/**
+ * <p>Title: BulkCodecs</p>
+ * <p>Description: Registry of the available {@link BulkCodec}s and the client side codec negotiation</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.BulkCodecs</code></p>
+ */
+
+public class BulkCodecs {
+	/** The legacy java serialization codec */
+	public static final BulkCodec JAVA = new JavaSerializationCodec();
+	/** The tagged binary codec */
+	public static final BulkCodec TAGGED = new TaggedBinaryCodec();
+
+	/** The registered codecs indexed by id */
+	private static final BulkCodec[] codecs = new BulkCodec[128];
+	/** The ids of the codecs in client preference order */
+	private static volatile byte[] preferred = new byte[0];
+
+	static {
+		register(TAGGED);
+		register(JAVA);
+	}
+
+	/**
+	 * Registers a codec. Codecs registered later are less preferred during negotiation.
+	 * @param codec The codec to register
+	 */
+	public static synchronized void register(final BulkCodec codec) {
+		if(codec==null) throw new IllegalArgumentException("The passed codec was null");
+		final byte id = codec.getId();
+		if(id < 0) throw new IllegalArgumentException("Invalid codec id [" + id + "] for [" + codec + "]");
+		if(codecs[id]!=null) throw new IllegalStateException("Codec id [" + id + "] is already registered to [" + codecs[id] + "]");
+		codecs[id] = codec;
+		final byte[] newPreferred = new byte[preferred.length + 1];
+		System.arraycopy(preferred, 0, newPreferred, 0, preferred.length);
+		newPreferred[preferred.length] = id;
+		preferred = newPreferred;
+	}
+
+	/**
+	 * Returns the codec for the passed id
+	 * @param id The codec id
+	 * @return the codec
+	 */
+	public static BulkCodec get(final byte id) {
+		final BulkCodec codec = id < 0 ? null : codecs[id];
+		if(codec==null) throw new IllegalArgumentException("No codec registered for id [" + id + "]");
+		return codec;
+	}
+
+	/**
+	 * Returns the ids of the supported codecs in preference order
+	 * @return the ids of the supported codecs
+	 */
+	public static byte[] getSupportedIds() {
+		return preferred.clone();
+	}
+
+	/**
+	 * Negotiates the most preferred codec supported by both this client and the passed bulk service.
+	 * Services that predate codec negotiation get the legacy {@link #JAVA} codec.
+	 * @param bulkService The bulk service proxy
+	 * @return the negotiated codec
+	 */
+	public static BulkCodec negotiate(final JMXBulkServiceMBean bulkService) {
+		final byte[] serverIds;
+		try {
+			serverIds = bulkService.getSupportedCodecs();
+		} catch (Exception ex) {
+			return JAVA;
+		}
+		if(serverIds==null) return JAVA;
+		for(byte id: preferred) {
+			for(byte sid: serverIds) {
+				if(id==sid) return codecs[id];
+			}
+		}
+		return JAVA;
+	}
+
+	private BulkCodecs() {}
+}
@@ -0,0 +1,68 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>Title: BulkDecoder</p>
+ * <p>Description: Reads the framing primitives and values of a bulk payload written by the matching {@link BulkEncoder}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.BulkDecoder</code></p>
+ */
+
+public interface BulkDecoder extends Closeable {
+	/**
+	 * Reads a single byte
+	 * @return the read byte
+	 * @throws IOException thrown on any IO error
+	 */
+	public byte readByte() throws IOException;
+
+	/**
+	 * Reads an int
+	 * @return the read int
+	 * @throws IOException thrown on any IO error
+	 */
+	public int readInt() throws IOException;
+
+	/**
+	 * Reads a raw 8 byte long
+	 * @return the read long
+	 * @throws IOException thrown on any IO error
+	 */
+	public long readLong() throws IOException;
+
+	/**
+	 * Reads a raw 8 byte double
+	 * @return the read double
+	 * @throws IOException thrown on any IO error
+	 */
+	public double readDouble() throws IOException;
+
+	/**
+	 * Reads a value, which may be null
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if a serialized value's class cannot be resolved
+	 */
+	public Object readValue() throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,80 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * <p>Title: BulkEncoder</p>
+ * <p>Description: Writes the framing primitives and values of a bulk payload</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.BulkEncoder</code></p>
+ */
+
+public interface BulkEncoder extends Flushable, Closeable {
+	/**
+	 * Writes a single byte
+	 * @param b The byte to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeByte(final int b) throws IOException;
+
+	/**
+	 * Writes an int
+	 * @param i The int to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeInt(final int i) throws IOException;
+
+	/**
+	 * Writes a raw 8 byte long
+	 * @param l The long to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeLong(final long l) throws IOException;
+
+	/**
+	 * Writes a raw 8 byte double
+	 * @param d The double to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeDouble(final double d) throws IOException;
+
+	/**
+	 * Writes a value, which may be null
+	 * @param value The value to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeValue(final Object value) throws IOException;
+
+	/**
+	 * Returns the number of bytes written so far. Only accurate after a {@link #flush()}.
+	 * @return the number of bytes written
+	 */
+	public int getBytesWritten();
+
+	/**
+	 * Returns the number of bytes saved by writing dictionary references instead of repeated values
+	 * @return the number of bytes saved
+	 */
+	public int getDictionarySavings();
+}
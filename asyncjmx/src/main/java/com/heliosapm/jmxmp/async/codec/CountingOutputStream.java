@@ -0,0 +1,72 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Title: CountingOutputStream</p>
+ * <p>Description: Output stream wrapper that counts the bytes written through it</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.CountingOutputStream</code></p>
+ */
+
+public class CountingOutputStream extends FilterOutputStream {
+	/** The number of bytes written */
+	protected int count = 0;
+
+	/**
+	 * Creates a new CountingOutputStream
+	 * @param os The output stream to count writes to
+	 */
+	public CountingOutputStream(final OutputStream os) {
+		super(os);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.FilterOutputStream#write(int)
+	 */
+	@Override
+	public void write(final int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.FilterOutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+
+	/**
+	 * Returns the number of bytes written
+	 * @return the number of bytes written
+	 */
+	public int getCount() {
+		return count;
+	}
+}
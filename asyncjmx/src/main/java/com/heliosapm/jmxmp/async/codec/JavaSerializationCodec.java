@@ -0,0 +1,157 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>Title: JavaSerializationCodec</p>
+ * <p>Description: The original bulk codec which pushes every value through standard java serialization.
+ * The payload layout is identical to the pre-codec payloads so it is used to talk to services and clients
+ * that do not support codec negotiation.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.JavaSerializationCodec</code></p>
+ */
+
+public class JavaSerializationCodec implements BulkCodec {
+	/** The wire id of this codec */
+	public static final byte ID = 0;
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#getName()
+	 */
+	@Override
+	public String getName() {
+		return "java";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#newEncoder(java.io.OutputStream, com.heliosapm.jmxmp.async.codec.ObjectNameHandles)
+	 */
+	@Override
+	public BulkEncoder newEncoder(final OutputStream os, final ObjectNameHandles handles) throws IOException {
+		final CountingOutputStream cos = new CountingOutputStream(os);
+		final ObjectOutputStream oos = new ObjectOutputStream(cos);
+		return new BulkEncoder() {
+			@Override
+			public void writeByte(final int b) throws IOException {
+				oos.writeByte(b);
+			}
+			@Override
+			public void writeInt(final int i) throws IOException {
+				oos.writeInt(i);
+			}
+			@Override
+			public void writeLong(final long l) throws IOException {
+				oos.writeLong(l);
+			}
+			@Override
+			public void writeDouble(final double d) throws IOException {
+				oos.writeDouble(d);
+			}
+			@Override
+			public void writeValue(final Object value) throws IOException {
+				if(value==null) {
+					oos.writeByte(0);
+				} else {
+					oos.writeByte(1);
+					oos.writeObject(value);
+				}
+			}
+			@Override
+			public int getBytesWritten() {
+				return cos.getCount();
+			}
+			@Override
+			public int getDictionarySavings() {
+				return 0;
+			}
+			@Override
+			public void flush() throws IOException {
+				oos.flush();
+			}
+			@Override
+			public void close() throws IOException {
+				oos.close();
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#newDecoder(java.io.InputStream, com.heliosapm.jmxmp.async.codec.ObjectNameHandles)
+	 */
+	@Override
+	public BulkDecoder newDecoder(final InputStream is, final ObjectNameHandles handles) throws IOException {
+		final ObjectInputStream ois = new ObjectInputStream(is);
+		return new BulkDecoder() {
+			@Override
+			public byte readByte() throws IOException {
+				return ois.readByte();
+			}
+			@Override
+			public int readInt() throws IOException {
+				return ois.readInt();
+			}
+			@Override
+			public long readLong() throws IOException {
+				return ois.readLong();
+			}
+			@Override
+			public double readDouble() throws IOException {
+				return ois.readDouble();
+			}
+			@Override
+			public Object readValue() throws IOException, ClassNotFoundException {
+				if(ois.readByte()==0) return null;
+				return ois.readObject();
+			}
+			@Override
+			public void close() throws IOException {
+				ois.close();
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCodec [" + getName() + ":" + ID + "]";
+	}
+
+}
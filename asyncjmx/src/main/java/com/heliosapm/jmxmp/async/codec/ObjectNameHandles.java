@@ -0,0 +1,57 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.IOException;
+
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: ObjectNameHandles</p>
+ * <p>Description: A session scoped table of integer handles for ObjectNames. Handles are assigned by the
+ * bulk service, are never reused within a session and always resolve to the ObjectName they were assigned for.
+ * The client side only looks handles up when encoding. The service side resolves handles and registers
+ * ObjectNames read in full when decoding.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.ObjectNameHandles</code></p>
+ */
+
+public interface ObjectNameHandles {
+	/**
+	 * Returns the handle for the passed ObjectName
+	 * @param on The ObjectName to get the handle for
+	 * @return the handle or -1 if the ObjectName has no handle
+	 */
+	public int handleOf(final ObjectName on);
+
+	/**
+	 * Resolves the passed handle to its ObjectName
+	 * @param handle The handle to resolve
+	 * @return the ObjectName
+	 * @throws IOException thrown if the handle cannot be resolved
+	 */
+	public ObjectName resolve(final int handle) throws IOException;
+
+	/**
+	 * Callback when an ObjectName is read in full, giving the table an opportunity to assign it a handle
+	 * @param on The ObjectName that was read
+	 */
+	public void register(final ObjectName on);
+}
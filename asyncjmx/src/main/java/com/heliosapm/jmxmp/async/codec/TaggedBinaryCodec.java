@@ -0,0 +1,142 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <p>Title: TaggedBinaryCodec</p>
+ * <p>Description: Bulk codec writing each value as a one byte type tag followed by a compact binary encoding
+ * for the types {@link com.heliosapm.jmxmp.async.MBeanOp}s actually use (ObjectNames, Strings, String arrays,
+ * Attributes, AttributeLists, primitives and ObjectName sets). Any other value falls back to a length prefixed
+ * java serialized blob. Each payload carries an implicit dictionary: the first occurrence of a string or ObjectName
+ * is written in full and every later occurrence is written as a varint index into the dictionary. ObjectName arguments
+ * which have a session handle are written as the 4 byte handle. {@link com.heliosapm.jmxmp.async.AttributeTable}s are written
+ * column by column: long columns as zig-zag varint deltas, int columns as zig-zag varints, double columns as raw 8 byte values,
+ * boolean columns as packed bits and string columns as dictionary strings. Delta session refs are written as the varint slot,
+ * followed by the value when it has changed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.TaggedBinaryCodec</code></p>
+ */
+
+public class TaggedBinaryCodec implements BulkCodec {
+	/** The wire id of this codec */
+	public static final byte ID = 1;
+	/** The charset used to encode strings */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Tag for a null value */
+	public static final byte TAG_NULL = 0;
+	/** Tag for a boolean true */
+	public static final byte TAG_TRUE = 1;
+	/** Tag for a boolean false */
+	public static final byte TAG_FALSE = 2;
+	/** Tag for a byte */
+	public static final byte TAG_BYTE = 3;
+	/** Tag for a short */
+	public static final byte TAG_SHORT = 4;
+	/** Tag for a zig-zag varint encoded int */
+	public static final byte TAG_INT = 5;
+	/** Tag for an 8 byte long */
+	public static final byte TAG_LONG = 6;
+	/** Tag for a float */
+	public static final byte TAG_FLOAT = 7;
+	/** Tag for a double */
+	public static final byte TAG_DOUBLE = 8;
+	/** Tag for a char */
+	public static final byte TAG_CHAR = 9;
+	/** Tag for a UTF-8 string */
+	public static final byte TAG_STRING = 10;
+	/** Tag for a string array */
+	public static final byte TAG_STRING_ARRAY = 11;
+	/** Tag for an ObjectName */
+	public static final byte TAG_OBJECTNAME = 12;
+	/** Tag for a JMX Attribute */
+	public static final byte TAG_ATTRIBUTE = 13;
+	/** Tag for a JMX AttributeList */
+	public static final byte TAG_ATTRIBUTE_LIST = 14;
+	/** Tag for an object array */
+	public static final byte TAG_OBJECT_ARRAY = 15;
+	/** Tag for a set of ObjectNames */
+	public static final byte TAG_OBJECTNAME_SET = 16;
+	/** Tag for a dictionary reference to a previously written string */
+	public static final byte TAG_STRING_REF = 17;
+	/** Tag for a dictionary reference to a previously written ObjectName */
+	public static final byte TAG_OBJECTNAME_REF = 18;
+	/** Tag for a 4 byte session ObjectName handle */
+	public static final byte TAG_OBJECTNAME_HANDLE = 19;
+	/** Tag for a columnar {@link com.heliosapm.jmxmp.async.AttributeTable} */
+	public static final byte TAG_ATTRIBUTE_TABLE = 20;
+	/** Tag for a {@link com.heliosapm.jmxmp.async.DeltaRef} carrying a changed value */
+	public static final byte TAG_DELTA_VALUE = 21;
+	/** Tag for an unchanged {@link com.heliosapm.jmxmp.async.DeltaRef} */
+	public static final byte TAG_DELTA_UNCHANGED = 22;
+	/** Tag for a java serialized value */
+	public static final byte TAG_SERIALIZED = 127;
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#getName()
+	 */
+	@Override
+	public String getName() {
+		return "tagged";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#newEncoder(java.io.OutputStream, com.heliosapm.jmxmp.async.codec.ObjectNameHandles)
+	 */
+	@Override
+	public BulkEncoder newEncoder(final OutputStream os, final ObjectNameHandles handles) throws IOException {
+		return new TaggedBinaryEncoder(os, handles);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkCodec#newDecoder(java.io.InputStream, com.heliosapm.jmxmp.async.codec.ObjectNameHandles)
+	 */
+	@Override
+	public BulkDecoder newDecoder(final InputStream is, final ObjectNameHandles handles) throws IOException {
+		return new TaggedBinaryDecoder(is, handles);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCodec [" + getName() + ":" + ID + "]";
+	}
+
+}
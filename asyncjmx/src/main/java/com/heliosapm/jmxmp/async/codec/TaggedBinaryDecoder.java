@@ -0,0 +1,436 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import static com.heliosapm.jmxmp.async.codec.TaggedBinaryCodec.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.DeltaRef;
+
+/**
+ * <p>Title: TaggedBinaryDecoder</p>
+ * <p>Description: The {@link BulkDecoder} for the {@link TaggedBinaryCodec}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.TaggedBinaryDecoder</code></p>
+ */
+
+public class TaggedBinaryDecoder implements BulkDecoder {
+	/** The data input stream to read from */
+	protected final DataInputStream in;
+	/** The string dictionary in the order the strings were first read */
+	protected final List<String> stringDictionary = new ArrayList<String>();
+	/** The ObjectName dictionary in the order the ObjectNames were first read */
+	protected final List<ObjectName> objectNameDictionary = new ArrayList<ObjectName>();
+	/** The session ObjectName handles, null if there is no session */
+	protected final ObjectNameHandles handles;
+
+	/**
+	 * Creates a new TaggedBinaryDecoder
+	 * @param is The input stream to read from
+	 * @param handles The session ObjectName handles, or null if there is no session
+	 */
+	public TaggedBinaryDecoder(final InputStream is, final ObjectNameHandles handles) {
+		in = new DataInputStream(is);
+		this.handles = handles;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkDecoder#readByte()
+	 */
+	@Override
+	public byte readByte() throws IOException {
+		return in.readByte();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkDecoder#readInt()
+	 */
+	@Override
+	public int readInt() throws IOException {
+		return in.readInt();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkDecoder#readLong()
+	 */
+	@Override
+	public long readLong() throws IOException {
+		return in.readLong();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkDecoder#readDouble()
+	 */
+	@Override
+	public double readDouble() throws IOException {
+		return in.readDouble();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkDecoder#readValue()
+	 */
+	@Override
+	public Object readValue() throws IOException, ClassNotFoundException {
+		return readValue(in.readByte());
+	}
+
+	/**
+	 * Reads the value for the passed, already consumed, tag
+	 * @param tag The value's tag
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if a serialized value's class cannot be resolved
+	 */
+	protected Object readValue(final byte tag) throws IOException, ClassNotFoundException {
+		switch(tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_BYTE:
+				return in.readByte();
+			case TAG_SHORT:
+				return in.readShort();
+			case TAG_INT:
+				return unZigZag(readVarInt());
+			case TAG_LONG:
+				return in.readLong();
+			case TAG_FLOAT:
+				return in.readFloat();
+			case TAG_DOUBLE:
+				return in.readDouble();
+			case TAG_CHAR:
+				return in.readChar();
+			case TAG_STRING:
+				final String str = readString();
+				stringDictionary.add(str);
+				return str;
+			case TAG_STRING_REF:
+				return stringDictionary.get(readVarInt());
+			case TAG_STRING_ARRAY:
+				final String[] strs = new String[readVarInt()];
+				for(int i = 0; i < strs.length; i++) {
+					strs[i] = (String)readValue();
+				}
+				return strs;
+			case TAG_OBJECTNAME:
+				final ObjectName on = readObjectNameBody();
+				objectNameDictionary.add(on);
+				if(handles!=null) handles.register(on);
+				return on;
+			case TAG_OBJECTNAME_REF:
+				return objectNameDictionary.get(readVarInt());
+			case TAG_OBJECTNAME_HANDLE:
+				final int handle = in.readInt();
+				if(handles==null) throw new StreamCorruptedException("Read ObjectName handle [" + handle + "] with no session");
+				return handles.resolve(handle);
+			case TAG_ATTRIBUTE:
+				return readAttributeBody();
+			case TAG_ATTRIBUTE_LIST:
+				final int attrCount = readVarInt();
+				final AttributeList list = new AttributeList(attrCount);
+				for(int i = 0; i < attrCount; i++) {
+					list.add(readAttributeBody());
+				}
+				return list;
+			case TAG_OBJECT_ARRAY:
+				final Object[] objs = new Object[readVarInt()];
+				for(int i = 0; i < objs.length; i++) {
+					objs[i] = readValue();
+				}
+				return objs;
+			case TAG_OBJECTNAME_SET:
+				final int nameCount = readVarInt();
+				final Set<ObjectName> names = new HashSet<ObjectName>(nameCount * 4 / 3 + 1);
+				for(int i = 0; i < nameCount; i++) {
+					names.add(readDictionaryObjectName());
+				}
+				return names;
+			case TAG_ATTRIBUTE_TABLE:
+				return readAttributeTableBody();
+			case TAG_DELTA_VALUE:
+				final int slot = readVarInt();
+				return new DeltaRef(slot, readValue());
+			case TAG_DELTA_UNCHANGED:
+				return new DeltaRef(readVarInt(), null);
+			case TAG_SERIALIZED:
+				return readSerialized();
+			default:
+				throw new StreamCorruptedException("Unrecognized value tag [" + tag + "]");
+		}
+	}
+
+	/**
+	 * Reads an untagged ObjectName
+	 * @return the read ObjectName
+	 * @throws IOException thrown on any IO error or if the read name is malformed
+	 */
+	protected ObjectName readObjectNameBody() throws IOException {
+		return toObjectName(readString());
+	}
+
+	/**
+	 * Reads an untagged dictionary string written by {@link TaggedBinaryEncoder#writeDictionaryString(String)}
+	 * @return the read string
+	 * @throws IOException thrown on any IO error
+	 */
+	protected String readDictionaryString() throws IOException {
+		final int ref = readVarInt();
+		if(ref!=0) return stringDictionary.get(ref - 1);
+		final String s = readString();
+		stringDictionary.add(s);
+		return s;
+	}
+
+	/**
+	 * Reads an untagged dictionary ObjectName written by {@link TaggedBinaryEncoder#writeDictionaryObjectName(ObjectName)}
+	 * @return the read ObjectName
+	 * @throws IOException thrown on any IO error
+	 */
+	protected ObjectName readDictionaryObjectName() throws IOException {
+		final int ref = readVarInt();
+		if(ref!=0) return objectNameDictionary.get(ref - 1);
+		final ObjectName on = readObjectNameBody();
+		objectNameDictionary.add(on);
+		return on;
+	}
+
+	/**
+	 * Reads an untagged attribute name and value
+	 * @return the read attribute
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if a serialized value's class cannot be resolved
+	 */
+	protected Attribute readAttributeBody() throws IOException, ClassNotFoundException {
+		final String name = readDictionaryString();
+		return new Attribute(name, readValue());
+	}
+
+	/**
+	 * Reads an untagged attribute table written by {@link TaggedBinaryEncoder#writeAttributeTableBody(AttributeTable)},
+	 * decoding the packed values straight into primitive columns
+	 * @return the read table
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if a serialized value's class cannot be resolved
+	 */
+	protected AttributeTable readAttributeTableBody() throws IOException, ClassNotFoundException {
+		final int rows = readVarInt();
+		final int columns = readVarInt();
+		final ObjectName[] objectNames = new ObjectName[rows];
+		if(in.readBoolean()) {
+			for(int r = 0; r < rows; r++) {
+				objectNames[r] = (ObjectName)readValue();
+			}
+		}
+		final String[] attributeNames = new String[columns];
+		final byte[] types = new byte[columns];
+		final Object[] values = new Object[columns];
+		final BitSet[] absents = new BitSet[columns];
+		for(int c = 0; c < columns; c++) {
+			attributeNames[c] = readDictionaryString();
+			types[c] = in.readByte();
+			final BitSet absent = readBits();
+			absents[c] = absent;
+			switch(types[c]) {
+				case AttributeTable.TYPE_LONG:
+					final long[] longs = new long[rows];
+					long prev = 0;
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						prev += unZigZag(readVarLong());
+						longs[r] = prev;
+					}
+					values[c] = longs;
+					break;
+				case AttributeTable.TYPE_INT:
+					final int[] ints = new int[rows];
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						ints[r] = unZigZag(readVarInt());
+					}
+					values[c] = ints;
+					break;
+				case AttributeTable.TYPE_DOUBLE:
+					final double[] doubles = new double[rows];
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						doubles[r] = in.readDouble();
+					}
+					values[c] = doubles;
+					break;
+				case AttributeTable.TYPE_BOOLEAN:
+					final boolean[] booleans = new boolean[rows];
+					final BitSet trues = readBits();
+					for(int r = trues.nextSetBit(0); r >= 0 && r < rows; r = trues.nextSetBit(r + 1)) {
+						booleans[r] = true;
+					}
+					values[c] = booleans;
+					break;
+				case AttributeTable.TYPE_OBJECT:
+					final Object[] objects = new Object[rows];
+					final boolean strings = in.readBoolean();
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						objects[r] = strings ? readDictionaryString() : readValue();
+					}
+					values[c] = objects;
+					break;
+				default:
+					throw new StreamCorruptedException("Unrecognized column type [" + types[c] + "]");
+			}
+		}
+		return new AttributeTable(objectNames, attributeNames, types, values, absents);
+	}
+
+	/**
+	 * Reads a bit set written by {@link TaggedBinaryEncoder#writeBits(BitSet)}
+	 * @return the read bit set
+	 * @throws IOException thrown on any IO error
+	 */
+	protected BitSet readBits() throws IOException {
+		final byte[] bytes = new byte[readVarInt()];
+		in.readFully(bytes);
+		return BitSet.valueOf(bytes);
+	}
+
+	/**
+	 * Reads an untagged, length prefixed UTF-8 string
+	 * @return the read string
+	 * @throws IOException thrown on any IO error
+	 */
+	protected String readString() throws IOException {
+		final byte[] bytes = new byte[readVarInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Reads a java serialized value
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if the value's class cannot be resolved
+	 */
+	protected Object readSerialized() throws IOException, ClassNotFoundException {
+		final byte[] bytes = new byte[readVarInt()];
+		in.readFully(bytes);
+		final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return ois.readObject();
+		} finally {
+			try { ois.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		int shift = 0;
+		while(shift < 32) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+			shift += 7;
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	/**
+	 * Reads an unsigned varlong
+	 * @return the read value
+	 * @throws IOException thrown on any IO error
+	 */
+	public long readVarLong() throws IOException {
+		long value = 0;
+		int shift = 0;
+		while(shift < 64) {
+			final int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+			shift += 7;
+		}
+		throw new StreamCorruptedException("Malformed varlong");
+	}
+
+	/**
+	 * Decodes a zig-zag encoded long
+	 * @param value The encoded value
+	 * @return the decoded value
+	 */
+	public static long unZigZag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Decodes a zig-zag encoded int
+	 * @param value The encoded value
+	 * @return the decoded value
+	 */
+	public static int unZigZag(final int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Converts the passed string to an ObjectName, rethrowing a malformed name as an IOException
+	 * @param name The ObjectName string
+	 * @return the ObjectName
+	 * @throws IOException thrown if the name is malformed
+	 */
+	protected static ObjectName toObjectName(final String name) throws IOException {
+		try {
+			return ObjectName.getInstance(name);
+		} catch (MalformedObjectNameException mex) {
+			throw new StreamCorruptedException("Malformed ObjectName [" + name + "]");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
@@ -0,0 +1,519 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.codec;
+
+import static com.heliosapm.jmxmp.async.codec.TaggedBinaryCodec.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.DeltaRef;
+
+/**
+ * <p>Title: TaggedBinaryEncoder</p>
+ * <p>Description: The {@link BulkEncoder} for the {@link TaggedBinaryCodec}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.codec.TaggedBinaryEncoder</code></p>
+ */
+
+public class TaggedBinaryEncoder implements BulkEncoder {
+	/** The data output stream to write to */
+	protected final DataOutputStream out;
+	/** The string dictionary entries (dictionary index and full encoded size) keyed by string */
+	protected final Map<String, int[]> stringDictionary = new HashMap<String, int[]>();
+	/** The ObjectName dictionary entries (dictionary index and full encoded size) keyed by ObjectName */
+	protected final Map<ObjectName, int[]> objectNameDictionary = new HashMap<ObjectName, int[]>();
+	/** The number of bytes saved by writing dictionary references */
+	protected int dictionarySavings = 0;
+	/** The session ObjectName handles, null if there is no session */
+	protected final ObjectNameHandles handles;
+
+	/**
+	 * Creates a new TaggedBinaryEncoder
+	 * @param os The output stream to write to
+	 * @param handles The session ObjectName handles, or null if there is no session
+	 */
+	public TaggedBinaryEncoder(final OutputStream os, final ObjectNameHandles handles) {
+		out = new DataOutputStream(os);
+		this.handles = handles;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#writeByte(int)
+	 */
+	@Override
+	public void writeByte(final int b) throws IOException {
+		out.writeByte(b);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#writeInt(int)
+	 */
+	@Override
+	public void writeInt(final int i) throws IOException {
+		out.writeInt(i);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#writeLong(long)
+	 */
+	@Override
+	public void writeLong(final long l) throws IOException {
+		out.writeLong(l);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#writeDouble(double)
+	 */
+	@Override
+	public void writeDouble(final double d) throws IOException {
+		out.writeDouble(d);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#writeValue(java.lang.Object)
+	 */
+	@Override
+	public void writeValue(final Object value) throws IOException {
+		if(value==null) {
+			out.writeByte(TAG_NULL);
+		} else if(value instanceof ObjectName) {
+			writeObjectName((ObjectName)value);
+		} else if(value instanceof String) {
+			writeTaggedString((String)value);
+		} else if(value instanceof String[]) {
+			final String[] arr = (String[])value;
+			out.writeByte(TAG_STRING_ARRAY);
+			writeVarInt(arr.length);
+			for(int i = 0; i < arr.length; i++) {
+				writeNullableString(arr[i]);
+			}
+		} else if(value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeLong((Long)value);
+		} else if(value instanceof Integer) {
+			out.writeByte(TAG_INT);
+			writeVarInt(zigZag((Integer)value));
+		} else if(value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble((Double)value);
+		} else if(value instanceof Boolean) {
+			out.writeByte(((Boolean)value) ? TAG_TRUE : TAG_FALSE);
+		} else if(value instanceof Float) {
+			out.writeByte(TAG_FLOAT);
+			out.writeFloat((Float)value);
+		} else if(value instanceof Short) {
+			out.writeByte(TAG_SHORT);
+			out.writeShort((Short)value);
+		} else if(value instanceof Byte) {
+			out.writeByte(TAG_BYTE);
+			out.writeByte((Byte)value);
+		} else if(value instanceof Character) {
+			out.writeByte(TAG_CHAR);
+			out.writeChar((Character)value);
+		} else if(value instanceof AttributeList && isPlainAttributeList((AttributeList)value)) {
+			final AttributeList list = (AttributeList)value;
+			out.writeByte(TAG_ATTRIBUTE_LIST);
+			writeVarInt(list.size());
+			for(Object o: list) {
+				writeAttributeBody((Attribute)o);
+			}
+		} else if(value.getClass()==Attribute.class) {
+			out.writeByte(TAG_ATTRIBUTE);
+			writeAttributeBody((Attribute)value);
+		} else if(value.getClass()==Object[].class) {
+			final Object[] arr = (Object[])value;
+			out.writeByte(TAG_OBJECT_ARRAY);
+			writeVarInt(arr.length);
+			for(int i = 0; i < arr.length; i++) {
+				writeValue(arr[i]);
+			}
+		} else if(value.getClass()==DeltaRef.class) {
+			final DeltaRef ref = (DeltaRef)value;
+			out.writeByte(ref.isUnchanged() ? TAG_DELTA_UNCHANGED : TAG_DELTA_VALUE);
+			writeVarInt(ref.getSlot());
+			if(!ref.isUnchanged()) writeValue(ref.getValue());
+		} else if(value.getClass()==AttributeTable.class) {
+			out.writeByte(TAG_ATTRIBUTE_TABLE);
+			writeAttributeTableBody((AttributeTable)value);
+		} else if(value instanceof Set && isObjectNameSet((Set<?>)value)) {
+			final Set<?> set = (Set<?>)value;
+			out.writeByte(TAG_OBJECTNAME_SET);
+			writeVarInt(set.size());
+			for(Object o: set) {
+				writeDictionaryObjectName((ObjectName)o);
+			}
+		} else {
+			writeSerialized(value);
+		}
+	}
+
+	/**
+	 * Writes a tagged ObjectName, its session handle, or a reference to it if it has already been written
+	 * @param on The ObjectName to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeObjectName(final ObjectName on) throws IOException {
+		if(handles!=null) {
+			final int handle = handles.handleOf(on);
+			if(handle!=-1) {
+				out.writeByte(TAG_OBJECTNAME_HANDLE);
+				out.writeInt(handle);
+				return;
+			}
+		}
+		final int start = out.size();
+		final int[] entry = objectNameDictionary.get(on);
+		if(entry!=null) {
+			out.writeByte(TAG_OBJECTNAME_REF);
+			writeVarInt(entry[0]);
+			dictionarySavings += entry[1] - (out.size() - start);
+		} else {
+			out.writeByte(TAG_OBJECTNAME);
+			writeObjectNameBody(on);
+			objectNameDictionary.put(on, new int[]{objectNameDictionary.size(), out.size() - start});
+		}
+	}
+
+	/**
+	 * Writes a tagged string, or a reference to it if it has already been written
+	 * @param s The string to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeTaggedString(final String s) throws IOException {
+		final int start = out.size();
+		final int[] entry = stringDictionary.get(s);
+		if(entry!=null) {
+			out.writeByte(TAG_STRING_REF);
+			writeVarInt(entry[0]);
+			dictionarySavings += entry[1] - (out.size() - start);
+		} else {
+			out.writeByte(TAG_STRING);
+			writeString(s);
+			stringDictionary.put(s, new int[]{stringDictionary.size(), out.size() - start});
+		}
+	}
+
+	/**
+	 * Writes an untagged dictionary string: a varint of zero followed by the string the first time
+	 * it is written and a varint of the dictionary index plus one after that
+	 * @param s The string to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeDictionaryString(final String s) throws IOException {
+		final int start = out.size();
+		final int[] entry = stringDictionary.get(s);
+		if(entry!=null) {
+			writeVarInt(entry[0] + 1);
+			dictionarySavings += entry[1] - (out.size() - start);
+		} else {
+			writeVarInt(0);
+			writeString(s);
+			stringDictionary.put(s, new int[]{stringDictionary.size(), out.size() - start});
+		}
+	}
+
+	/**
+	 * Writes an untagged dictionary ObjectName, using the same scheme as {@link #writeDictionaryString(String)}
+	 * @param on The ObjectName to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeDictionaryObjectName(final ObjectName on) throws IOException {
+		final int start = out.size();
+		final int[] entry = objectNameDictionary.get(on);
+		if(entry!=null) {
+			writeVarInt(entry[0] + 1);
+			dictionarySavings += entry[1] - (out.size() - start);
+		} else {
+			writeVarInt(0);
+			writeObjectNameBody(on);
+			objectNameDictionary.put(on, new int[]{objectNameDictionary.size(), out.size() - start});
+		}
+	}
+
+	/**
+	 * Writes an untagged ObjectName
+	 * @param on The ObjectName to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeObjectNameBody(final ObjectName on) throws IOException {
+		// toString() is the same form standard ObjectName serialization writes
+		writeString(on.toString());
+	}
+
+	/**
+	 * Writes an untagged attribute name and value
+	 * @param attr The attribute to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeAttributeBody(final Attribute attr) throws IOException {
+		writeDictionaryString(attr.getName());
+		writeValue(attr.getValue());
+	}
+
+	/**
+	 * Writes an untagged attribute table: the row and column counts, the ObjectName column if the rows are named,
+	 * then for each value column its attribute name, type, absent rows and the packed present values
+	 * @param table The table to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeAttributeTableBody(final AttributeTable table) throws IOException {
+		final int rows = table.getRowCount();
+		final int columns = table.getColumnCount();
+		writeVarInt(rows);
+		writeVarInt(columns);
+		boolean named = true;
+		for(int r = 0; r < rows && named; r++) {
+			named = table.getObjectName(r)!=null;
+		}
+		out.writeBoolean(named);
+		if(named) {
+			for(int r = 0; r < rows; r++) {
+				writeObjectName(table.getObjectName(r));
+			}
+		}
+		for(int c = 0; c < columns; c++) {
+			writeDictionaryString(table.getAttributeName(c));
+			final byte type = table.getColumnType(c);
+			out.writeByte(type);
+			final BitSet absent = table.getAbsent(c);
+			writeBits(absent);
+			switch(type) {
+				case AttributeTable.TYPE_LONG:
+					final long[] longs = (long[])table.getColumn(c);
+					long prev = 0;
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						writeVarLong(zigZag(longs[r] - prev));
+						prev = longs[r];
+					}
+					break;
+				case AttributeTable.TYPE_INT:
+					final int[] ints = (int[])table.getColumn(c);
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						writeVarInt(zigZag(ints[r]));
+					}
+					break;
+				case AttributeTable.TYPE_DOUBLE:
+					final double[] doubles = (double[])table.getColumn(c);
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						out.writeDouble(doubles[r]);
+					}
+					break;
+				case AttributeTable.TYPE_BOOLEAN:
+					final boolean[] booleans = (boolean[])table.getColumn(c);
+					final BitSet trues = new BitSet(rows);
+					for(int r = 0; r < rows; r++) {
+						if(booleans[r]) trues.set(r);
+					}
+					writeBits(trues);
+					break;
+				default:
+					final Object[] objects = (Object[])table.getColumn(c);
+					boolean strings = true;
+					for(int r = absent.nextClearBit(0); r < rows && strings; r = absent.nextClearBit(r + 1)) {
+						strings = objects[r] instanceof String;
+					}
+					out.writeBoolean(strings);
+					for(int r = absent.nextClearBit(0); r < rows; r = absent.nextClearBit(r + 1)) {
+						if(strings) {
+							writeDictionaryString((String)objects[r]);
+						} else {
+							writeValue(objects[r]);
+						}
+					}
+			}
+		}
+	}
+
+	/**
+	 * Writes a bit set as a varint byte count followed by its little endian bytes
+	 * @param bits The bit set to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeBits(final BitSet bits) throws IOException {
+		final byte[] bytes = bits.toByteArray();
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes an untagged, length prefixed UTF-8 string
+	 * @param s The string to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeString(final String s) throws IOException {
+		final byte[] bytes = s.getBytes(UTF8);
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes a string which may be null
+	 * @param s The string to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeNullableString(final String s) throws IOException {
+		if(s==null) {
+			out.writeByte(TAG_NULL);
+		} else {
+			writeTaggedString(s);
+		}
+	}
+
+	/**
+	 * Writes a value using standard java serialization
+	 * @param value The value to write
+	 * @throws IOException thrown on any IO error
+	 */
+	protected void writeSerialized(final Object value) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(value);
+		oos.close();
+		out.writeByte(TAG_SERIALIZED);
+		writeVarInt(baos.size());
+		baos.writeTo(out);
+	}
+
+	/**
+	 * Writes an unsigned varint
+	 * @param value The value to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeVarInt(final int value) throws IOException {
+		int v = value;
+		while((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	/**
+	 * Writes an unsigned varlong
+	 * @param value The value to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public void writeVarLong(final long value) throws IOException {
+		long v = value;
+		while((v & ~0x7FL) != 0) {
+			out.writeByte((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+
+	/**
+	 * Zig-zag encodes a signed long so small negative values stay small as varlongs
+	 * @param value The value to encode
+	 * @return the encoded value
+	 */
+	public static long zigZag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Zig-zag encodes a signed int so small negative values stay small as varints
+	 * @param value The value to encode
+	 * @return the encoded value
+	 */
+	public static int zigZag(final int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Determines if the passed attribute list contains only plain {@link Attribute}s
+	 * @param list The list to test
+	 * @return true if all the list members are plain attributes, false otherwise
+	 */
+	protected static boolean isPlainAttributeList(final AttributeList list) {
+		if(list.getClass()!=AttributeList.class) return false;
+		for(Object o: list) {
+			if(o==null || o.getClass()!=Attribute.class) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if the passed set contains only ObjectNames
+	 * @param set The set to test
+	 * @return true if all the set members are ObjectNames, false otherwise
+	 */
+	protected static boolean isObjectNameSet(final Set<?> set) {
+		for(Object o: set) {
+			if(!(o instanceof ObjectName)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#getBytesWritten()
+	 */
+	@Override
+	public int getBytesWritten() {
+		return out.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.BulkEncoder#getDictionarySavings()
+	 */
+	@Override
+	public int getDictionarySavings() {
+		return dictionarySavings;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Flushable#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
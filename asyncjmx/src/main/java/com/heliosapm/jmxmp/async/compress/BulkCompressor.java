@@ -0,0 +1,66 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+
+/**
+ * <p>Title: BulkCompressor</p>
+ * <p>Description: Defines a block compressor for bulk invocation and bulk response payloads.
+ * Compressors are identified on the wire by a single byte id carried in the payload header.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.BulkCompressor</code></p>
+ */
+
+public interface BulkCompressor {
+	/**
+	 * Returns the wire id of this compressor
+	 * @return the wire id of this compressor
+	 */
+	public byte getId();
+
+	/**
+	 * Returns the descriptive name of this compressor
+	 * @return the descriptive name of this compressor
+	 */
+	public String getName();
+
+	/**
+	 * Compresses the passed bytes, appending the compressed bytes to the passed buffer
+	 * @param src The bytes to compress
+	 * @param off The offset of the first byte to compress
+	 * @param len The number of bytes to compress
+	 * @param out The buffer to append the compressed bytes to
+	 * @throws IOException thrown on any compression error
+	 */
+	public void compress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException;
+
+	/**
+	 * Decompresses the passed bytes, appending the decompressed bytes to the passed buffer
+	 * @param src The bytes to decompress
+	 * @param off The offset of the first byte to decompress
+	 * @param len The number of bytes to decompress
+	 * @param out The buffer to append the decompressed bytes to
+	 * @throws IOException thrown if the bytes are corrupt
+	 */
+	public void decompress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException;
+}
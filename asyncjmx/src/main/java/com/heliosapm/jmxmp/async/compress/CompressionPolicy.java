@@ -0,0 +1,228 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.utils.tuples.NVP;
+
+/**
+ * <p>Title: CompressionPolicy</p>
+ * <p>Description: Adaptive compression decisions for a stream of payloads. Payloads under the size threshold are
+ * sent uncompressed, as are payloads while the decaying average compression ratio is worse than the maximum ratio.
+ * While compression is being skipped for its ratio, every {@link #PROBE_INTERVAL}th payload is still compressed so
+ * the ratio is re-measured when the payloads change.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.CompressionPolicy</code></p>
+ */
+
+public class CompressionPolicy {
+	/** The default size below which payloads are not compressed */
+	public static final int DEFAULT_MIN_SIZE = 256;
+	/** The default compressed to uncompressed size ratio above which compression is skipped */
+	public static final double DEFAULT_MAX_RATIO = 0.9;
+	/** While skipping compression for its ratio, every nth payload is compressed anyway to re-measure */
+	public static final int PROBE_INTERVAL = 32;
+	/** The weight of the latest ratio in the decaying average */
+	private static final double RATIO_WEIGHT = 0.2;
+
+	/** The policy that never compresses */
+	public static final CompressionPolicy NONE = new CompressionPolicy(Compressors.NONE);
+
+	/** The compressor applied to payloads worth compressing */
+	protected final BulkCompressor compressor;
+	/** The size below which payloads are not compressed */
+	protected volatile int minSize = DEFAULT_MIN_SIZE;
+	/** The compression ratio above which compression is skipped */
+	protected volatile double maxRatio = DEFAULT_MAX_RATIO;
+	/** The decaying average compressed to uncompressed ratio, zero until the first measurement */
+	protected volatile double averageRatio = 0D;
+	/** The number of payloads skipped for their ratio since the last probe */
+	protected final AtomicInteger ratioSkips = new AtomicInteger(0);
+	/** The number of compressed payloads */
+	protected final AtomicLong compressed = new AtomicLong(0);
+	/** The number of payloads sent uncompressed */
+	protected final AtomicLong uncompressed = new AtomicLong(0);
+
+	/**
+	 * Creates a new CompressionPolicy with the default thresholds
+	 * @param compressor The compressor applied to payloads worth compressing
+	 */
+	public CompressionPolicy(final BulkCompressor compressor) {
+		this(compressor, DEFAULT_MIN_SIZE, DEFAULT_MAX_RATIO);
+	}
+
+	/**
+	 * Creates a new CompressionPolicy
+	 * @param compressor The compressor applied to payloads worth compressing
+	 * @param minSize The size below which payloads are not compressed
+	 * @param maxRatio The compression ratio above which compression is skipped
+	 */
+	public CompressionPolicy(final BulkCompressor compressor, final int minSize, final double maxRatio) {
+		if(compressor==null) throw new IllegalArgumentException("The passed compressor was null");
+		this.compressor = compressor;
+		setMinSize(minSize);
+		setMaxRatio(maxRatio);
+	}
+
+	/**
+	 * Selects the compressor for a payload of the passed size
+	 * @param size The uncompressed payload size
+	 * @return the compressor to apply, {@link Compressors#NONE} if the payload should not be compressed
+	 */
+	public BulkCompressor select(final int size) {
+		if(compressor.getId()==NoCompressor.ID || size < minSize) return Compressors.NONE;
+		if(averageRatio > maxRatio && ratioSkips.incrementAndGet() % PROBE_INTERVAL != 0) return Compressors.NONE;
+		return compressor;
+	}
+
+	/**
+	 * Records the outcome of compressing a payload with the compressor returned by {@link #select(int)}
+	 * @param applied The compressor that was applied
+	 * @param uncompressedSize The uncompressed payload size
+	 * @param compressedSize The compressed payload size
+	 * @return true if the compressed payload should be sent, false if it is no smaller and the uncompressed payload should be sent
+	 */
+	public boolean record(final BulkCompressor applied, final int uncompressedSize, final int compressedSize) {
+		if(applied.getId()==NoCompressor.ID || uncompressedSize < 1) {
+			uncompressed.incrementAndGet();
+			return false;
+		}
+		final double ratio = (double)compressedSize / uncompressedSize;
+		final double avg = averageRatio;
+		averageRatio = avg==0D ? ratio : (avg * (1D - RATIO_WEIGHT)) + (ratio * RATIO_WEIGHT);
+		if(compressedSize < uncompressedSize) {
+			compressed.incrementAndGet();
+			return true;
+		}
+		uncompressed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Selects, applies and records compression for the passed encoded payload.
+	 * Whichever of the encoded and compressed buffers is not returned is released to the {@link BufferPool}.
+	 * @param encoded The encoded payload
+	 * @return the compressor that was applied and the buffer holding the payload to send
+	 * @throws IOException thrown if the compressor fails
+	 */
+	public NVP<BulkCompressor, PooledBuffer> compress(final PooledBuffer encoded) throws IOException {
+		final int size = encoded.size();
+		final BulkCompressor selected = select(size);
+		if(selected.getId()==NoCompressor.ID) {
+			record(selected, size, size);
+			return new NVP<BulkCompressor, PooledBuffer>(Compressors.NONE, encoded);
+		}
+		final PooledBuffer out = BufferPool.getInstance().buffer(size / 2 + 64);
+		try {
+			selected.compress(encoded.array(), 0, size, out);
+		} catch (IOException iex) {
+			out.release();
+			throw iex;
+		}
+		if(record(selected, size, out.size())) {
+			encoded.release();
+			return new NVP<BulkCompressor, PooledBuffer>(selected, out);
+		}
+		out.release();
+		return new NVP<BulkCompressor, PooledBuffer>(Compressors.NONE, encoded);
+	}
+
+	/**
+	 * Returns the compressor applied to payloads worth compressing
+	 * @return the compressor
+	 */
+	public BulkCompressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * Returns the size below which payloads are not compressed
+	 * @return the minimum size
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Sets the size below which payloads are not compressed
+	 * @param minSize the minimum size
+	 */
+	public void setMinSize(final int minSize) {
+		if(minSize < 0) throw new IllegalArgumentException("Invalid minimum size [" + minSize + "]");
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Returns the compression ratio above which compression is skipped
+	 * @return the maximum ratio
+	 */
+	public double getMaxRatio() {
+		return maxRatio;
+	}
+
+	/**
+	 * Sets the compression ratio above which compression is skipped
+	 * @param maxRatio the maximum ratio
+	 */
+	public void setMaxRatio(final double maxRatio) {
+		if(maxRatio <= 0D) throw new IllegalArgumentException("Invalid maximum ratio [" + maxRatio + "]");
+		this.maxRatio = maxRatio;
+	}
+
+	/**
+	 * Returns the decaying average compressed to uncompressed ratio
+	 * @return the average ratio, zero if nothing has been compressed yet
+	 */
+	public double getAverageRatio() {
+		return averageRatio;
+	}
+
+	/**
+	 * Returns the number of compressed payloads
+	 * @return the compressed payload count
+	 */
+	public long getCompressedCount() {
+		return compressed.get();
+	}
+
+	/**
+	 * Returns the number of payloads sent uncompressed
+	 * @return the uncompressed payload count
+	 */
+	public long getUncompressedCount() {
+		return uncompressed.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CompressionPolicy [compressor=" + compressor.getName() + ", minSize=" + minSize + ", maxRatio=" + maxRatio 
+				+ ", avgRatio=" + averageRatio + "]";
+	}
+
+}
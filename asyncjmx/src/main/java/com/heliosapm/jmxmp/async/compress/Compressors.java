@@ -0,0 +1,136 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.util.zip.Deflater;
+
+import com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean;
+
+/**
+ * <p>Title: Compressors</p>
+ * <p>Description: Registry of the available {@link BulkCompressor}s and the client side compressor negotiation.
+ * The registered instance for an id is used to decompress, so compression only options such as the deflater level
+ * can be varied per sender through {@link #deflate(int)} and {@link #dictionaryDeflate(int)}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.Compressors</code></p>
+ */
+
+public class Compressors {
+	/** No compression */
+	public static final BulkCompressor NONE = new NoCompressor();
+	/** The legacy gzip compressor */
+	public static final BulkCompressor GZIP = new GzipCompressor();
+	/** Deflate at the default level */
+	public static final BulkCompressor DEFLATE = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION);
+	/** Deflate primed with the JMX preset dictionary at the default level */
+	public static final BulkCompressor DEFLATE_DICTIONARY = new DictionaryDeflateCompressor(Deflater.DEFAULT_COMPRESSION);
+	/** The pure java LZ compressor */
+	public static final BulkCompressor LZ = new LZCompressor();
+
+	/** The registered compressors indexed by id */
+	private static final BulkCompressor[] compressors = new BulkCompressor[128];
+	/** The ids of the compressors in client preference order */
+	private static volatile byte[] preferred = new byte[0];
+
+	static {
+		register(DEFLATE_DICTIONARY);
+		register(LZ);
+		register(DEFLATE);
+		register(GZIP);
+		register(NONE);
+	}
+
+	/**
+	 * Registers a compressor. Compressors registered later are less preferred during negotiation.
+	 * @param compressor The compressor to register
+	 */
+	public static synchronized void register(final BulkCompressor compressor) {
+		if(compressor==null) throw new IllegalArgumentException("The passed compressor was null");
+		final byte id = compressor.getId();
+		if(id < 0) throw new IllegalArgumentException("Invalid compressor id [" + id + "] for [" + compressor + "]");
+		if(compressors[id]!=null) throw new IllegalStateException("Compressor id [" + id + "] is already registered to [" + compressors[id] + "]");
+		compressors[id] = compressor;
+		final byte[] newPreferred = new byte[preferred.length + 1];
+		System.arraycopy(preferred, 0, newPreferred, 0, preferred.length);
+		newPreferred[preferred.length] = id;
+		preferred = newPreferred;
+	}
+
+	/**
+	 * Returns the compressor for the passed id
+	 * @param id The compressor id
+	 * @return the compressor
+	 */
+	public static BulkCompressor get(final byte id) {
+		final BulkCompressor compressor = id < 0 ? null : compressors[id];
+		if(compressor==null) throw new IllegalArgumentException("No compressor registered for id [" + id + "]");
+		return compressor;
+	}
+
+	/**
+	 * Returns the ids of the supported compressors in preference order
+	 * @return the ids of the supported compressors
+	 */
+	public static byte[] getSupportedIds() {
+		return preferred.clone();
+	}
+
+	/**
+	 * Creates a deflate compressor at the passed level
+	 * @param level The deflater compression level, 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return the compressor
+	 */
+	public static BulkCompressor deflate(final int level) {
+		return new DeflateCompressor(level);
+	}
+
+	/**
+	 * Creates a preset dictionary deflate compressor at the passed level
+	 * @param level The deflater compression level, 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return the compressor
+	 */
+	public static BulkCompressor dictionaryDeflate(final int level) {
+		return new DictionaryDeflateCompressor(level);
+	}
+
+	/**
+	 * Negotiates the most preferred compressor supported by both this client and the passed bulk service.
+	 * Services that predate compressor negotiation get the legacy {@link #GZIP} compressor.
+	 * @param bulkService The bulk service proxy
+	 * @return the negotiated compressor
+	 */
+	public static BulkCompressor negotiate(final JMXBulkServiceMBean bulkService) {
+		final byte[] serverIds;
+		try {
+			serverIds = bulkService.getSupportedCompressors();
+		} catch (Exception ex) {
+			return GZIP;
+		}
+		if(serverIds==null) return GZIP;
+		for(byte id: preferred) {
+			for(byte sid: serverIds) {
+				if(id==sid) return compressors[id];
+			}
+		}
+		return GZIP;
+	}
+
+	private Compressors() {}
+}
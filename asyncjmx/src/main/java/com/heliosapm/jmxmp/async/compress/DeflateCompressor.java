@@ -0,0 +1,222 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.buffer.ZipPool;
+
+/**
+ * <p>Title: DeflateCompressor</p>
+ * <p>Description: Raw {@link Deflater} compression at a configurable level. The compressed block is prefixed with
+ * the 4 byte uncompressed length so decompression sizes the output exactly once. Deflaters and inflaters come from the {@link ZipPool}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.DeflateCompressor</code></p>
+ */
+
+public class DeflateCompressor implements BulkCompressor {
+	/** The wire id of this compressor */
+	public static final byte ID = 2;
+
+	/** The deflater compression level */
+	protected final int level;
+
+	/**
+	 * Creates a new DeflateCompressor
+	 * @param level The deflater compression level, 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public DeflateCompressor(final int level) {
+		if(level!=Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid deflater level [" + level + "]");
+		}
+		this.level = level;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getName()
+	 */
+	@Override
+	public String getName() {
+		return "deflate";
+	}
+
+	/**
+	 * Returns the preset dictionary to prime the deflater and inflater with
+	 * @return the preset dictionary or null if there is none
+	 */
+	protected byte[] getDictionary() {
+		return null;
+	}
+
+	/**
+	 * Returns the deflater compression level
+	 * @return the compression level
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#compress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void compress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		out.ensureFree(4);
+		writeLength(out.array(), out.size(), len);
+		out.advance(4);
+		final ZipPool zipPool = ZipPool.getInstance();
+		final Deflater deflater = zipPool.acquireDeflater(level, false);
+		try {
+			final byte[] dictionary = getDictionary();
+			if(dictionary!=null) deflater.setDictionary(dictionary);
+			deflate(deflater, src, off, len, out);
+		} finally {
+			zipPool.releaseDeflater(deflater, level, false);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#decompress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void decompress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		if(len < 4) throw new StreamCorruptedException("Truncated deflate block");
+		final int size = readLength(src, off);
+		final ZipPool zipPool = ZipPool.getInstance();
+		final Inflater inflater = zipPool.acquireInflater(false);
+		try {
+			inflate(inflater, src, off + 4, len - 4, size, getDictionary(), out);
+		} finally {
+			zipPool.releaseInflater(inflater, false);
+		}
+	}
+
+	/**
+	 * Deflates the passed bytes into the passed buffer
+	 * @param deflater The deflater
+	 * @param src The bytes to deflate
+	 * @param off The offset of the first byte to deflate
+	 * @param len The number of bytes to deflate
+	 * @param out The buffer to append the deflated bytes to
+	 */
+	static void deflate(final Deflater deflater, final byte[] src, final int off, final int len, final PooledBuffer out) {
+		deflater.setInput(src, off, len);
+		deflater.finish();
+		out.ensureFree(len / 2 + 64);
+		while(!deflater.finished()) {
+			final byte[] arr = out.array();
+			final int free = arr.length - out.size();
+			if(free==0) {
+				out.ensureFree(arr.length);
+				continue;
+			}
+			out.advance(deflater.deflate(arr, out.size(), free));
+		}
+	}
+
+	/**
+	 * Inflates the passed bytes into the passed buffer
+	 * @param inflater The inflater
+	 * @param src The bytes to inflate
+	 * @param off The offset of the first byte to inflate
+	 * @param len The number of bytes to inflate
+	 * @param size The expected inflated size
+	 * @param dictionary The preset dictionary, or null if there is none
+	 * @param out The buffer to append the inflated bytes to
+	 * @throws IOException thrown if the bytes are corrupt
+	 */
+	static void inflate(final Inflater inflater, final byte[] src, final int off, final int len, final int size, final byte[] dictionary, final PooledBuffer out) throws IOException {
+		out.ensureFree(size);
+		final byte[] arr = out.array();
+		final int start = out.size();
+		inflater.setInput(src, off, len);
+		int filled = 0;
+		try {
+			while(filled < size) {
+				final int inflated = inflater.inflate(arr, start + filled, size - filled);
+				if(inflated==0) {
+					if(inflater.needsDictionary()) {
+						if(dictionary==null) throw new StreamCorruptedException("Deflate block requires an unknown preset dictionary");
+						inflater.setDictionary(dictionary);
+					} else if(inflater.finished() || inflater.needsInput()) {
+						throw new StreamCorruptedException("Truncated deflate block");
+					}
+				}
+				filled += inflated;
+			}
+		} catch (DataFormatException dex) {
+			throw new StreamCorruptedException("Corrupt deflate block: " + dex.getMessage());
+		}
+		out.advance(size);
+	}
+
+	/**
+	 * Writes the 4 byte uncompressed length at the passed offset
+	 * @param block The compressed block
+	 * @param off The offset of the length
+	 * @param length The uncompressed length
+	 */
+	static void writeLength(final byte[] block, final int off, final int length) {
+		block[off] = (byte)(length >>> 24);
+		block[off + 1] = (byte)(length >>> 16);
+		block[off + 2] = (byte)(length >>> 8);
+		block[off + 3] = (byte)length;
+	}
+
+	/**
+	 * Reads the 4 byte uncompressed length at the passed offset
+	 * @param block The compressed block
+	 * @param off The offset of the length
+	 * @return the uncompressed length
+	 * @throws IOException thrown if the length is negative
+	 */
+	static int readLength(final byte[] block, final int off) throws IOException {
+		final int length = ((block[off] & 0xFF) << 24) | ((block[off + 1] & 0xFF) << 16) | ((block[off + 2] & 0xFF) << 8) | (block[off + 3] & 0xFF);
+		if(length < 0) throw new StreamCorruptedException("Negative uncompressed length [" + length + "]");
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCompressor [" + getName() + ":" + getId() + ", level=" + level + "]";
+	}
+
+}
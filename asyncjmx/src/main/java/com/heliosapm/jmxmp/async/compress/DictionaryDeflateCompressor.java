@@ -0,0 +1,94 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>Title: DictionaryDeflateCompressor</p>
+ * <p>Description: {@link DeflateCompressor} primed with a preset dictionary of the domains, keys, attribute names and
+ * class names that dominate typical JMX payloads. Small payloads, which deflate poorly on their own, gain the most.
+ * The dictionary is part of the wire format and must never be changed under this compressor's id.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.DictionaryDeflateCompressor</code></p>
+ */
+
+public class DictionaryDeflateCompressor extends DeflateCompressor {
+	/** The wire id of this compressor */
+	public static final byte ID = 3;
+
+	/** The preset dictionary. Deflate favours matches near the end of the dictionary, so the most common tokens go last. */
+	private static final byte[] DICTIONARY = (
+		"javax.management.openmbean.CompositeDataSupport javax.management.openmbean.TabularDataSupport "
+		+ "javax.management.openmbean.CompositeType javax.management.openmbean.SimpleType java.lang.management.MemoryUsage "
+		+ "java.nio:type=BufferPool,name=direct java.nio:type=BufferPool,name=mapped java.util.logging:type=Logging "
+		+ "JMImplementation:type=MBeanServerDelegate com.sun.management:type=HotSpotDiagnostic "
+		+ "java.lang:type=ClassLoading LoadedClassCount TotalLoadedClassCount UnloadedClassCount "
+		+ "java.lang:type=Compilation TotalCompilationTime java.lang:type=Runtime Uptime StartTime "
+		+ "java.lang:type=Threading ThreadCount PeakThreadCount DaemonThreadCount TotalStartedThreadCount "
+		+ "java.lang:type=OperatingSystem ProcessCpuLoad SystemCpuLoad ProcessCpuTime SystemLoadAverage "
+		+ "AvailableProcessors OpenFileDescriptorCount MaxFileDescriptorCount FreePhysicalMemorySize "
+		+ "java.lang:type=MemoryPool,name=Metaspace java.lang:type=MemoryPool,name=Code Cache "
+		+ "java.lang:type=MemoryPool,name=PS Eden Space java.lang:type=MemoryPool,name=PS Survivor Space "
+		+ "java.lang:type=MemoryPool,name=PS Old Gen java.lang:type=MemoryPool,name=G1 Eden Space "
+		+ "java.lang:type=MemoryPool,name=G1 Old Gen PeakUsage CollectionUsage UsageThreshold Valid "
+		+ "java.lang:type=GarbageCollector,name=PS MarkSweep java.lang:type=GarbageCollector,name=PS Scavenge "
+		+ "java.lang:type=GarbageCollector,name=G1 Young Generation java.lang:type=GarbageCollector,name=G1 Old Generation "
+		+ "LastGcInfo CollectionCount CollectionTime "
+		+ "java.lang:type=Memory HeapMemoryUsage NonHeapMemoryUsage ObjectPendingFinalizationCount "
+		+ "committed init max used Usage Count Name Value type=name="
+	).getBytes(Charset.forName("UTF-8"));
+
+	/**
+	 * Creates a new DictionaryDeflateCompressor
+	 * @param level The deflater compression level, 0 to 9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+	 */
+	public DictionaryDeflateCompressor(final int level) {
+		super(level);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.DeflateCompressor#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.DeflateCompressor#getName()
+	 */
+	@Override
+	public String getName() {
+		return "deflate-dictionary";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.DeflateCompressor#getDictionary()
+	 */
+	@Override
+	protected byte[] getDictionary() {
+		return DICTIONARY;
+	}
+
+}
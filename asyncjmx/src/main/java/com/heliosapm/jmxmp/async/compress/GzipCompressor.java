@@ -0,0 +1,150 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.buffer.ZipPool;
+
+/**
+ * <p>Title: GzipCompressor</p>
+ * <p>Description: The original GZIP payload compression. Legacy payloads flagged as gzipped are read with this compressor.
+ * The GZIP framing is written and parsed here around a raw deflate stream so the deflaters and inflaters can come
+ * from the {@link ZipPool}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.GzipCompressor</code></p>
+ */
+
+public class GzipCompressor implements BulkCompressor {
+	/** The wire id of this compressor */
+	public static final byte ID = 1;
+
+	/** The GZIP header as written by {@link java.util.zip.GZIPOutputStream} */
+	private static final byte[] HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	/** Header flag for an extra field */
+	private static final int FEXTRA = 4;
+	/** Header flag for a file name */
+	private static final int FNAME = 8;
+	/** Header flag for a comment */
+	private static final int FCOMMENT = 16;
+	/** Header flag for a header CRC */
+	private static final int FHCRC = 2;
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getName()
+	 */
+	@Override
+	public String getName() {
+		return "gzip";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#compress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void compress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		out.write(HEADER, 0, HEADER.length);
+		final ZipPool zipPool = ZipPool.getInstance();
+		final Deflater deflater = zipPool.acquireDeflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			DeflateCompressor.deflate(deflater, src, off, len, out);
+		} finally {
+			zipPool.releaseDeflater(deflater, Deflater.DEFAULT_COMPRESSION, true);
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(src, off, len);
+		writeIntLE(out, (int)crc.getValue());
+		writeIntLE(out, len);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#decompress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void decompress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		final int end = off + len;
+		if(len < 18 || src[off]!=HEADER[0] || src[off + 1]!=HEADER[1] || src[off + 2]!=Deflater.DEFLATED) {
+			throw new StreamCorruptedException("Not a gzip block");
+		}
+		final int flags = src[off + 3] & 0xFF;
+		int pos = off + 10;
+		try {
+			if((flags & FEXTRA)!=0) pos += 2 + ((src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8));
+			if((flags & FNAME)!=0) while(src[pos++]!=0) {/* skip */}
+			if((flags & FCOMMENT)!=0) while(src[pos++]!=0) {/* skip */}
+			if((flags & FHCRC)!=0) pos += 2;
+		} catch (ArrayIndexOutOfBoundsException aex) {
+			throw new StreamCorruptedException("Truncated gzip header");
+		}
+		if(pos > end - 8) throw new StreamCorruptedException("Truncated gzip block");
+		final int expectedCrc = readIntLE(src, end - 8);
+		final int size = readIntLE(src, end - 4);
+		if(size < 0) throw new StreamCorruptedException("Unsupported gzip block size");
+		final int start = out.size();
+		final ZipPool zipPool = ZipPool.getInstance();
+		final Inflater inflater = zipPool.acquireInflater(true);
+		try {
+			DeflateCompressor.inflate(inflater, src, pos, end - pos, size, null, out);
+		} finally {
+			zipPool.releaseInflater(inflater, true);
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(out.array(), start, size);
+		if((int)crc.getValue()!=expectedCrc) throw new StreamCorruptedException("Gzip CRC mismatch");
+	}
+
+	private static void writeIntLE(final PooledBuffer out, final int v) {
+		out.write(v);
+		out.write(v >>> 8);
+		out.write(v >>> 16);
+		out.write(v >>> 24);
+	}
+
+	private static int readIntLE(final byte[] b, final int i) {
+		return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCompressor [" + getName() + ":" + ID + "]";
+	}
+
+}
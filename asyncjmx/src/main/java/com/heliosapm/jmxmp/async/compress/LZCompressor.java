@@ -0,0 +1,200 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+
+/**
+ * <p>Title: LZCompressor</p>
+ * <p>Description: A fast, pure java LZ77 block compressor in the style of LZ4. It trades compression ratio for speed
+ * and never touches native zlib. A block is the 4 byte uncompressed length followed by sequences of a token byte
+ * (literal length in the high nibble, match length - 4 in the low nibble, 15 meaning extended by 255-run bytes),
+ * the literals, and a 2 byte match offset. The final sequence carries literals only.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.LZCompressor</code></p>
+ */
+
+public class LZCompressor implements BulkCompressor {
+	/** The wire id of this compressor */
+	public static final byte ID = 4;
+
+	/** The minimum match length */
+	private static final int MIN_MATCH = 4;
+	/** The maximum match offset */
+	private static final int MAX_OFFSET = 0xFFFF;
+	/** The number of bits in the match hash */
+	private static final int HASH_BITS = 12;
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getName()
+	 */
+	@Override
+	public String getName() {
+		return "lz";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#compress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void compress(final byte[] src, final int off, final int len, final PooledBuffer buffer) throws IOException {
+		// worst case is all literals: one token plus a 255-run byte per 255 literals
+		buffer.ensureFree(4 + len + len / 255 + 16);
+		final byte[] out = buffer.array();
+		final int start = buffer.size();
+		DeflateCompressor.writeLength(out, start, len);
+		int op = start + 4;
+		final int end = off + len;
+		final int[] table = new int[1 << HASH_BITS];
+		Arrays.fill(table, -1);
+		int anchor = off;
+		int ip = off;
+		while(ip + MIN_MATCH <= end) {
+			final int seq = readInt(src, ip);
+			final int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+			final int ref = table[h];
+			table[h] = ip;
+			if(ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref)!=seq) {
+				ip++;
+				continue;
+			}
+			int matchLen = MIN_MATCH;
+			while(ip + matchLen < end && src[ref + matchLen]==src[ip + matchLen]) matchLen++;
+			op = writeSequence(out, op, src, anchor, ip - anchor, ip - ref, matchLen);
+			ip += matchLen;
+			anchor = ip;
+		}
+		op = writeSequence(out, op, src, anchor, end - anchor, 0, 0);
+		buffer.advance(op - start);
+	}
+
+	/**
+	 * Writes one sequence
+	 * @param out The output block
+	 * @param op The output position
+	 * @param src The source bytes
+	 * @param litOff The offset of the literals
+	 * @param litLen The number of literals
+	 * @param offset The match offset, ignored for the final literals only sequence
+	 * @param matchLen The match length, zero for the final literals only sequence
+	 * @return the new output position
+	 */
+	private static int writeSequence(final byte[] out, int op, final byte[] src, final int litOff, final int litLen, final int offset, final int matchLen) {
+		final int tokenPos = op++;
+		final int matchCode = matchLen==0 ? 0 : matchLen - MIN_MATCH;
+		out[tokenPos] = (byte)((Math.min(litLen, 15) << 4) | Math.min(matchCode, 15));
+		if(litLen >= 15) op = writeExtendedLength(out, op, litLen - 15);
+		System.arraycopy(src, litOff, out, op, litLen);
+		op += litLen;
+		if(matchLen!=0) {
+			out[op++] = (byte)(offset >>> 8);
+			out[op++] = (byte)offset;
+			if(matchCode >= 15) op = writeExtendedLength(out, op, matchCode - 15);
+		}
+		return op;
+	}
+
+	private static int writeExtendedLength(final byte[] out, int op, int remaining) {
+		while(remaining >= 255) {
+			out[op++] = (byte)255;
+			remaining -= 255;
+		}
+		out[op++] = (byte)remaining;
+		return op;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#decompress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void decompress(final byte[] src, final int off, final int len, final PooledBuffer buffer) throws IOException {
+		if(len < 5) throw new StreamCorruptedException("Truncated lz block");
+		final int size = DeflateCompressor.readLength(src, off);
+		buffer.ensureFree(size);
+		final byte[] out = buffer.array();
+		final int start = buffer.size();
+		final int limit = start + size;
+		final int end = off + len;
+		int ip = off + 4;
+		int op = start;
+		try {
+			while(true) {
+				final int token = src[ip++] & 0xFF;
+				int litLen = token >>> 4;
+				if(litLen==15) {
+					int b;
+					do { b = src[ip++] & 0xFF; litLen += b; } while(b==255);
+				}
+				if(ip + litLen > end || op + litLen > limit) throw new StreamCorruptedException("Corrupt lz block literals");
+				System.arraycopy(src, ip, out, op, litLen);
+				ip += litLen;
+				op += litLen;
+				if(op==limit) break;
+				final int offset = ((src[ip] & 0xFF) << 8) | (src[ip + 1] & 0xFF);
+				ip += 2;
+				int matchLen = token & 0x0F;
+				if(matchLen==15) {
+					int b;
+					do { b = src[ip++] & 0xFF; matchLen += b; } while(b==255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = op - offset;
+				if(offset==0 || ref < start || op + matchLen > limit) throw new StreamCorruptedException("Corrupt lz block match");
+				// byte by byte since a match may overlap its own output
+				for(int i = 0; i < matchLen; i++) {
+					out[op++] = out[ref++];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException aex) {
+			throw new StreamCorruptedException("Truncated lz block");
+		}
+		buffer.advance(size);
+	}
+
+	private static int readInt(final byte[] b, final int i) {
+		return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCompressor [" + getName() + ":" + ID + "]";
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.compress;
+
+import java.io.IOException;
+
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+
+/**
+ * <p>Title: NoCompressor</p>
+ * <p>Description: The identity compressor, used for payloads that are not worth compressing.
+ * Payload readers and writers skip it rather than copy through it.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.compress.NoCompressor</code></p>
+ */
+
+public class NoCompressor implements BulkCompressor {
+	/** The wire id of this compressor */
+	public static final byte ID = 0;
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getId()
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#getName()
+	 */
+	@Override
+	public String getName() {
+		return "none";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#compress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void compress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		out.write(src, off, len);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.compress.BulkCompressor#decompress(byte[], int, int, com.heliosapm.jmxmp.async.buffer.PooledBuffer)
+	 */
+	@Override
+	public void decompress(final byte[] src, final int off, final int len, final PooledBuffer out) throws IOException {
+		out.write(src, off, len);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkCompressor [" + getName() + ":" + ID + "]";
+	}
+
+}
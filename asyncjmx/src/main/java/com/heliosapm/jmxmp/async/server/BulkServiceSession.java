@@ -0,0 +1,285 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import com.heliosapm.jmxmp.async.BulkResponse;
+import com.heliosapm.jmxmp.async.QueryCursorSession;
+import com.heliosapm.jmxmp.async.QueryPage;
+import com.heliosapm.jmxmp.async.codec.ObjectNameHandles;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: BulkServiceSession</p>
+ * <p>Description: The service side of a bulk client session. Assigns integer handles to the ObjectNames a client
+ * sends in full so later invocations can send the handle instead. Handles are never reused within a session and are
+ * evicted when the MBean they name is unregistered. An evicted or unknown handle resolves to a name in the
+ * never registered {@link #STALE_DOMAIN} domain, so the op fails with an InstanceNotFoundException rather than
+ * reaching a different MBean registered later under the same name. The session also owns the query cursors its
+ * ops open.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.BulkServiceSession</code></p>
+ */
+
+public class BulkServiceSession implements ObjectNameHandles, QueryCursorSession {
+	/** The domain stale handles resolve to. Nothing should ever be registered here. */
+	public static final String STALE_DOMAIN = "com.heliosapm.jmx.stale";
+	/** The maximum number of live handles per session */
+	public static final int MAX_HANDLES = 65536;
+	
+	/** The session id */
+	protected final long sessionId;
+	/** The MBeanServer the session's ops are invoked against */
+	protected final MBeanServer server;
+	/** The query cursors the session's cursors are held in */
+	protected final QueryCursors queryCursors;
+	/** The live handles keyed by ObjectName */
+	protected final ConcurrentHashMap<ObjectName, Integer> handlesByName = new ConcurrentHashMap<ObjectName, Integer>();
+	/** The live ObjectNames keyed by handle */
+	protected final ConcurrentHashMap<Integer, ObjectName> namesByHandle = new ConcurrentHashMap<Integer, ObjectName>();
+	/** The handle serial */
+	protected final AtomicInteger handleSerial = new AtomicInteger(0);
+	/** Handles assigned but not yet sent to the client */
+	protected final ConcurrentLinkedQueue<Integer> pendingAssignments = new ConcurrentLinkedQueue<Integer>();
+	/** Handles evicted but not yet sent to the client */
+	protected final ConcurrentLinkedQueue<Integer> pendingEvictions = new ConcurrentLinkedQueue<Integer>();
+	/** The last time the session was used */
+	protected volatile long lastAccess = System.currentTimeMillis();
+	/** The remembered values of the session's delta invocations, null until the first one */
+	protected volatile DeltaTable deltas = null;
+	
+	/**
+	 * Creates a new BulkServiceSession
+	 * @param sessionId The session id
+	 * @param server The MBeanServer the session's ops are invoked against
+	 */
+	public BulkServiceSession(final long sessionId, final MBeanServer server) {
+		this(sessionId, server, new QueryCursors());
+	}
+	
+	/**
+	 * Creates a new BulkServiceSession
+	 * @param sessionId The session id
+	 * @param server The MBeanServer the session's ops are invoked against
+	 * @param queryCursors The query cursors the session's cursors are held in, shared by the sessions of one bulk service
+	 */
+	public BulkServiceSession(final long sessionId, final MBeanServer server, final QueryCursors queryCursors) {
+		this.sessionId = sessionId;
+		this.server = server;
+		this.queryCursors = queryCursors;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#handleOf(javax.management.ObjectName)
+	 */
+	@Override
+	public int handleOf(final ObjectName on) {
+		final Integer handle = handlesByName.get(on);
+		return handle==null ? -1 : handle;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#resolve(int)
+	 */
+	@Override
+	public ObjectName resolve(final int handle) {
+		final ObjectName on = namesByHandle.get(handle);
+		return on!=null ? on : staleName(handle);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Assigns a handle to the names of registered MBeans only. Patterns and the names of unregistered MBeans
+	 * would never see an unregistration to evict them, so they are always sent in full.</p>
+	 * @see com.heliosapm.jmxmp.async.codec.ObjectNameHandles#register(javax.management.ObjectName)
+	 */
+	@Override
+	public void register(final ObjectName on) {
+		if(on.isPattern() || handlesByName.containsKey(on) || namesByHandle.size() >= MAX_HANDLES) return;
+		if(!server.isRegistered(on)) return;
+		final Integer handle = handleSerial.incrementAndGet();
+		if(handlesByName.putIfAbsent(on, handle)!=null) return;
+		namesByHandle.put(handle, on);
+		pendingAssignments.add(handle);
+		// close the window where the MBean was unregistered before the handle was in place
+		if(!server.isRegistered(on)) evict(on);
+	}
+	
+	/**
+	 * Evicts the handle for the passed ObjectName
+	 * @param on The ObjectName of the unregistered MBean
+	 */
+	public void evict(final ObjectName on) {
+		final Integer handle = handlesByName.remove(on);
+		if(handle!=null) {
+			namesByHandle.remove(handle);
+			pendingEvictions.add(handle);
+		}
+	}
+	
+	/**
+	 * Drains the pending handle assignments and evictions into the passed response
+	 * @param response The response to carry the updates back to the client
+	 */
+	public void writeUpdates(final BulkResponse response) {
+		if(pendingAssignments.isEmpty() && pendingEvictions.isEmpty()) return;
+		final List<Integer> handles = new ArrayList<Integer>();
+		final List<String> names = new ArrayList<String>();
+		final List<Integer> unsent = new ArrayList<Integer>();
+		Integer handle = null;
+		while((handle = pendingAssignments.poll())!=null) {
+			final ObjectName on = namesByHandle.get(handle);
+			if(on==null) {
+				// already evicted, so the client never needs to hear of the handle
+				unsent.add(handle);
+				continue;
+			}
+			handles.add(handle);
+			names.add(on.getCanonicalName());
+		}
+		final List<Integer> evicted = new ArrayList<Integer>();
+		while((handle = pendingEvictions.poll())!=null) {
+			if(!unsent.remove(handle)) evicted.add(handle);
+		}
+		response.setHandleUpdates(toArray(handles), names.toArray(new String[names.size()]), toArray(evicted));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.QueryCursorSession#openQueryCursor(javax.management.ObjectName, javax.management.QueryExp, int, boolean)
+	 */
+	@Override
+	public QueryPage openQueryCursor(final ObjectName name, final QueryExp query, final int pageSize, final boolean instances) {
+		return queryCursors.open(server, sessionId, name, query, pageSize, instances);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.QueryCursorSession#fetchQueryCursor(long, int)
+	 */
+	@Override
+	public QueryPage fetchQueryCursor(final long cursorId, final int pageSize) {
+		return queryCursors.fetch(server, sessionId, cursorId, pageSize);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.QueryCursorSession#closeQueryCursor(long)
+	 */
+	@Override
+	public boolean closeQueryCursor(final long cursorId) {
+		return queryCursors.close(sessionId, cursorId);
+	}
+	
+	/**
+	 * Closes the session's open query cursors, for when the session is closed or expired
+	 */
+	public void close() {
+		queryCursors.closeAll(sessionId);
+	}
+	
+	/**
+	 * Returns the session's delta table, creating it on first use
+	 * @param capacity The maximum number of remembered values if the table is created
+	 * @return the delta table
+	 */
+	public DeltaTable getDeltas(final int capacity) {
+		DeltaTable table = deltas;
+		if(table==null) {
+			synchronized(this) {
+				table = deltas;
+				if(table==null) {
+					table = new DeltaTable(capacity);
+					deltas = table;
+				}
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * Marks the session as used
+	 */
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns the last time the session was used
+	 * @return the last access time in ms
+	 */
+	public long getLastAccess() {
+		return lastAccess;
+	}
+	
+	/**
+	 * Returns the session id
+	 * @return the session id
+	 */
+	public long getSessionId() {
+		return sessionId;
+	}
+	
+	/**
+	 * Returns the number of live handles
+	 * @return the number of live handles
+	 */
+	public int getHandleCount() {
+		return namesByHandle.size();
+	}
+	
+	/**
+	 * Returns the ObjectName a stale handle resolves to
+	 * @param handle The stale handle
+	 * @return the stale ObjectName
+	 */
+	protected static ObjectName staleName(final int handle) {
+		return JMXHelper.objectName(STALE_DOMAIN + ":handle=" + handle);
+	}
+	
+	private static int[] toArray(final List<Integer> list) {
+		final int[] arr = new int[list.size()];
+		for(int i = 0; i < arr.length; i++) {
+			arr[i] = list.get(i);
+		}
+		return arr;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "BulkServiceSession [id=" + sessionId + ", handles=" + namesByHandle.size() + (deltas==null ? "" : ", deltas=" + deltas.size()) + "]";
+	}
+
+}
@@ -0,0 +1,283 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+
+import com.heliosapm.jmxmp.async.DeltaMirror;
+import com.heliosapm.jmxmp.async.DeltaRef;
+import com.heliosapm.jmxmp.async.MBeanOp;
+
+/**
+ * <p>Title: DeltaTable</p>
+ * <p>Description: The service side of a delta session. Remembers the last value sent for each (ObjectName, attribute)
+ * in a numbered slot and replaces equal values in getAttribute and getAttributes results with an unchanged {@link DeltaRef}.
+ * Only immutable values with a meaningful equals are remembered. The table holds no more than its capacity of values,
+ * evicting the least recently polled and handing its slot to the new value.</p>
+ * <p>An invocation is filtered between {@link #begin(long, int)} and {@link #end()}, which hold the table's lock, so the
+ * invocations of one session are filtered one at a time and in the order the client resolves them.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.DeltaTable</code></p>
+ */
+
+public class DeltaTable {
+	/** The remembered values in least recently polled order */
+	protected final LinkedHashMap<DeltaKey, Slot> values = new LinkedHashMap<DeltaKey, Slot>(256, 0.75f, true);
+	/** Serializes the invocations of the session */
+	protected final ReentrantLock lock = new ReentrantLock();
+	/** The maximum number of remembered values */
+	protected int capacity;
+	/** The serial of the last response filtered */
+	protected long serial = 0L;
+	/** The number of unchanged values in the current invocation */
+	protected int unchanged = 0;
+	/** The number of values evicted */
+	protected long evictionCount = 0L;
+	
+	/** The default maximum number of remembered values per session */
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	/** The classes of the values remembered */
+	private static final Set<Class<?>> TRACKED = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+		Boolean.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, Character.class,
+		String.class, ObjectName.class, CompositeDataSupport.class
+	));
+	
+	/**
+	 * Creates a new DeltaTable
+	 * @param capacity The maximum number of remembered values
+	 */
+	public DeltaTable(final int capacity) {
+		this.capacity = checkCapacity(capacity);
+	}
+	
+	/**
+	 * Validates a capacity
+	 * @param capacity The capacity to validate
+	 * @return the capacity
+	 */
+	public static int checkCapacity(final int capacity) {
+		if(capacity < 1 || capacity > DeltaMirror.MAX_SLOTS) throw new IllegalArgumentException("Invalid delta capacity [" + capacity + "]");
+		return capacity;
+	}
+	
+	/**
+	 * Locks the table for an invocation. If the client's acknowledged serial is not the serial of the last response
+	 * filtered, the client missed a response, so every remembered value is discarded and the response must tell the client to reset.
+	 * Must be followed by {@link #end()}.
+	 * @param ack The serial of the last response the client resolved
+	 * @param capacity The capacity the table takes on if it is reset
+	 * @return true if the table was reset, false otherwise
+	 */
+	public boolean begin(final long ack, final int capacity) {
+		lock.lock();
+		unchanged = 0;
+		final boolean reset = ack!=serial;
+		if(reset) {
+			values.clear();
+			this.capacity = checkCapacity(capacity);
+		}
+		serial++;
+		return reset;
+	}
+	
+	/**
+	 * Unlocks the table at the end of an invocation
+	 */
+	public void end() {
+		lock.unlock();
+	}
+	
+	/**
+	 * Returns the serial of the response being filtered
+	 * @return the serial
+	 */
+	public long getSerial() {
+		return serial;
+	}
+	
+	/**
+	 * Replaces the remembered values in the passed op result with delta refs
+	 * @param op The op
+	 * @param args The op arguments
+	 * @param result The op result
+	 * @return the filtered result
+	 */
+	public Object filter(final MBeanOp op, final Object[] args, final Object result) {
+		if(result==null || !(args[0] instanceof ObjectName)) return result;
+		final ObjectName on = (ObjectName)args[0];
+		if(op==MBeanOp.GETATTRIBUTE) {
+			return track(on, (String)args[1], result);
+		} else if(op==MBeanOp.GETATTRIBUTES && result.getClass()==AttributeList.class) {
+			final AttributeList list = (AttributeList)result;
+			final AttributeList filtered = new AttributeList(list.size());
+			for(final Object o: list) {
+				if(o instanceof Attribute) {
+					final Attribute attr = (Attribute)o;
+					final Object value = track(on, attr.getName(), attr.getValue());
+					filtered.add(value==attr.getValue() ? attr : new Attribute(attr.getName(), value));
+				} else {
+					filtered.add(o);
+				}
+			}
+			return filtered;
+		}
+		return result;
+	}
+	
+	/**
+	 * Remembers the passed value
+	 * @param on The ObjectName of the MBean
+	 * @param attribute The attribute name
+	 * @param value The attribute value
+	 * @return an unchanged ref if the value is the one last sent, a ref carrying the value if it is remembered, otherwise the value
+	 */
+	protected Object track(final ObjectName on, final String attribute, final Object value) {
+		if(value==null || attribute==null || !TRACKED.contains(value.getClass())) return value;
+		final DeltaKey key = new DeltaKey(on, attribute);
+		Slot slot = values.get(key);
+		if(slot!=null) {
+			if(slot.value.equals(value)) {
+				unchanged++;
+				return new DeltaRef(slot.slot, null);
+			}
+			slot.value = value;
+			return new DeltaRef(slot.slot, value);
+		}
+		final int id;
+		if(values.size() < capacity) {
+			id = values.size();
+		} else {
+			final Iterator<Slot> eldest = values.values().iterator();
+			id = eldest.next().slot;
+			eldest.remove();
+			evictionCount++;
+		}
+		values.put(key, new Slot(id, value));
+		return new DeltaRef(id, value);
+	}
+	
+	/**
+	 * Returns the number of unchanged values in the current invocation
+	 * @return the unchanged count
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+	
+	/**
+	 * Returns the number of remembered values
+	 * @return the remembered value count
+	 */
+	public int size() {
+		return values.size();
+	}
+	
+	/**
+	 * Returns the maximum number of remembered values
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the number of values evicted to make room for others
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DeltaTable [serial=" + serial + ", values=" + values.size() + ", capacity=" + capacity + "]";
+	}
+	
+	/**
+	 * <p>Title: DeltaKey</p>
+	 * <p>Description: The (ObjectName, attribute) key of a remembered value</p> 
+	 */
+	protected static class DeltaKey {
+		/** The ObjectName of the MBean */
+		final ObjectName on;
+		/** The attribute name */
+		final String attribute;
+		
+		/**
+		 * Creates a new DeltaKey
+		 * @param on The ObjectName of the MBean
+		 * @param attribute The attribute name
+		 */
+		DeltaKey(final ObjectName on, final String attribute) {
+			this.on = on;
+			this.attribute = attribute;
+		}
+
+		@Override
+		public int hashCode() {
+			return on.hashCode() * 31 + attribute.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof DeltaKey)) return false;
+			final DeltaKey other = (DeltaKey)obj;
+			return on.equals(other.on) && attribute.equals(other.attribute);
+		}
+	}
+	
+	/**
+	 * <p>Title: Slot</p>
+	 * <p>Description: A remembered value and its slot</p> 
+	 */
+	protected static class Slot {
+		/** The slot id */
+		final int slot;
+		/** The last value sent */
+		Object value;
+		
+		/**
+		 * Creates a new Slot
+		 * @param slot The slot id
+		 * @param value The last value sent
+		 */
+		Slot(final int slot, final Object value) {
+			this.slot = slot;
+			this.value = value;
+		}
+	}
+
+}
@@ -18,17 +18,46 @@ under the License.
  */
 package com.heliosapm.jmxmp.async.server;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
 
 import com.heliosapm.jmxmp.async.BulkInvocation;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
 import com.heliosapm.jmxmp.async.BulkResponse;
 import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.InvocationCallback;
 import com.heliosapm.jmxmp.async.MBeanOp;
-import com.heliosapm.utils.tuples.NVP;
+import com.heliosapm.jmxmp.async.Response;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
+import com.heliosapm.jmxmp.async.compress.Compressors;
 
 import co.paralleluniverse.fibers.Fiber;
 
@@ -40,8 +69,125 @@ import co.paralleluniverse.fibers.Fiber;
  * <p><code>com.heliosapm.jmxmp.async.server.JMXBulkService</code></p>
  */
 
-public class JMXBulkService implements JMXBulkServiceMBean, MBeanRegistration {
+public class JMXBulkService implements JMXBulkServiceMBean, MBeanRegistration, NotificationEmitter {
 	protected MBeanServer server = null;
+	/** The ObjectName the service is registered under, the source of its notifications */
+	protected ObjectName objectName = BulkInvocationBuilder.BULK;
+	/** The open sessions keyed by session id */
+	protected final ConcurrentHashMap<Long, BulkServiceSession> sessions = new ConcurrentHashMap<Long, BulkServiceSession>();
+	/** The session id serial, randomly seeded so ids are not repeated across service restarts */
+	protected final AtomicLong sessionSerial = new AtomicLong(new Random().nextInt() & Integer.MAX_VALUE);
+	/** The response compression policies keyed by compressor id */
+	protected final ConcurrentHashMap<Byte, CompressionPolicy> responseCompression = new ConcurrentHashMap<Byte, CompressionPolicy>();
+	/** The size below which responses are not compressed */
+	protected volatile int responseCompressionThreshold = CompressionPolicy.DEFAULT_MIN_SIZE;
+	/** The compression ratio above which response compression is skipped */
+	protected volatile double responseCompressionMaxRatio = CompressionPolicy.DEFAULT_MAX_RATIO;
+	/** The idle time after which an unused session is expired */
+	protected volatile long sessionIdleTimeout = TimeUnit.MINUTES.toMillis(30);
+	/** The time of the last sweep of idle sessions */
+	protected final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+	/** The periodic sweep of idle sessions, scheduled while the service is registered */
+	protected volatile ScheduledFuture<?> sweep = null;
+	/** The number of ops of an invocation executed concurrently, 1 to execute ops one after another on the calling thread */
+	protected volatile int parallelism = 1;
+	/** The pool read only ops are executed in, null when executing serially */
+	protected volatile ForkJoinPool opPool = null;
+	/** The number of ops executed in the op pool */
+	protected final AtomicLong parallelOpCount = new AtomicLong(0);
+	/** The number of mutating ops that waited for in flight ops to complete */
+	protected final AtomicLong barrierCount = new AtomicLong(0);
+	/** The maximum number of attribute values remembered per delta session */
+	protected volatile int deltaCapacity = DeltaTable.DEFAULT_CAPACITY;
+	/** The number of attribute values sent as unchanged markers */
+	protected final AtomicLong unchangedValueCount = new AtomicLong(0);
+	/** The number of delta session resets */
+	protected final AtomicLong deltaResetCount = new AtomicLong(0);
+	/** The cache of expensive read only op results */
+	protected final OpResultCache resultCache = new OpResultCache();
+	/** Sends the results of streamed invocations */
+	protected final NotificationBroadcasterSupport broadcaster = new NotificationBroadcasterSupport(NOTIFICATION_INFO);
+	/** The number of ops that missed their deadline */
+	protected final AtomicLong timeoutCount = new AtomicLong(0);
+	/** The number of ops that missed their deadline by the ObjectName they targeted */
+	protected final ConcurrentHashMap<ObjectName, AtomicLong> timeoutCounts = new ConcurrentHashMap<ObjectName, AtomicLong>();
+	/** The number of ops of the invocations in progress */
+	protected final AtomicInteger pendingOps = new AtomicInteger(0);
+	/** The number of in progress ops at which background ops are shed */
+	protected volatile int shedThreshold = DEFAULT_SHED_THRESHOLD;
+	/** The number of background ops shed */
+	protected final AtomicLong shedCount = new AtomicLong(0);
+	/** The number of critical ops executed on the calling thread */
+	protected final AtomicLong criticalOpCount = new AtomicLong(0);
+	/** Tracks MBean read latencies and isolates the slow MBeans */
+	protected final MBeanQuarantine quarantine = new MBeanQuarantine();
+	/** The open paged query cursors */
+	protected final QueryCursors queryCursors = new QueryCursors();
+	/** The pool streamed and timed ops are executed in when there is no op pool */
+	protected ForkJoinPool streamPool = null;
+	/** The streamed invocation id serial */
+	protected final AtomicLong streamSerial = new AtomicLong(0);
+	/** The notification sequence number serial */
+	protected final AtomicLong notificationSerial = new AtomicLong(0);
+	/** The number of streamed invocations */
+	protected final AtomicLong streamCount = new AtomicLong(0);
+	/** The number of op results streamed back */
+	protected final AtomicLong streamedResultCount = new AtomicLong(0);
+	/** The op pool worker thread serial */
+	protected final AtomicInteger workerSerial = new AtomicInteger(0);
+	/** Creates daemon op pool worker threads */
+	protected final ForkJoinPool.ForkJoinWorkerThreadFactory workerFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+		@Override
+		public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+			final ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {};
+			t.setName("JMXBulkServiceWorker#" + workerSerial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	/** The maximum time between sweeps of idle sessions in ms */
+	public static final long SESSION_SWEEP_PERIOD = TimeUnit.MINUTES.toMillis(1);
+	/** The shared timer idle sessions are swept on, so sessions are expired when no invocations arrive */
+	private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "JMXBulkServiceSessionSweeper");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** The default number of in progress ops at which background ops are shed */
+	public static final int DEFAULT_SHED_THRESHOLD = 1024;
+	/** The maximum number of ObjectNames timeouts are counted for */
+	public static final int MAX_TIMEOUT_NAMES = 1024;
+	/** The number of in flight ops per unit of parallelism */
+	public static final int WINDOW_PER_THREAD = 4;
+	/** The parallelism of the stream pool */
+	public static final int STREAM_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+	/** The notification type prefix of streamed results, followed by the session id and the result or completion suffix */
+	public static final String STREAM_TYPE = "jmx.bulk.stream.";
+	/** The notification type suffix of a streamed op result, whose user data is a {@link Response} */
+	public static final String RESULT_SUFFIX = "result";
+	/** The notification type suffix of a stream completion, whose user data is a <code>long[]</code> of the stream id and the number of results sent */
+	public static final String COMPLETE_SUFFIX = "complete";
+	/** The notifications emitted by the service */
+	private static final MBeanNotificationInfo[] NOTIFICATION_INFO = {
+		new MBeanNotificationInfo(new String[]{STREAM_TYPE + "<session>." + RESULT_SUFFIX, STREAM_TYPE + "<session>." + COMPLETE_SUFFIX}, Notification.class.getName(), "Streamed bulk invocation results")
+	};
+	
+	/** Evicts the session handles of unregistered MBeans */
+	protected final NotificationListener unregistrationListener = new NotificationListener() {
+		@Override
+		public void handleNotification(final Notification notification, final Object handback) {
+			final ObjectName on = ((MBeanServerNotification)notification).getMBeanName();
+			for(final BulkServiceSession session: sessions.values()) {
+				session.evict(on);
+			}
+			quarantine.evict(on);
+		}
+	};
+	
 	/**
 	 * Creates a new JMXBulkService
 	 */
@@ -49,6 +195,14 @@ public class JMXBulkService implements JMXBulkServiceMBean, MBeanRegistration {
 
 	}
 	
+	/**
+	 * Creates a new JMXBulkService
+	 * @param parallelism The number of ops of an invocation executed concurrently, 1 to execute ops one after another
+	 */
+	public JMXBulkService(final int parallelism) {
+		setParallelism(parallelism);
+	}
+	
 	public static void log(final Object fmt, final Object...args) {
 		final Fiber f = Fiber.currentFiber();
 		if(f!=null) {
@@ -62,44 +216,753 @@ public class JMXBulkService implements JMXBulkServiceMBean, MBeanRegistration {
 	public BulkResponse invoke(final BulkInvocation invocation) {
 		if(server == null) throw new IllegalStateException("The JMXService is not registered and has a null MBeanServer reference");
 		log("Invoking BulkInvocation....");
-		final BulkResponseBuilder responseBuilder = new BulkResponseBuilder(true, 8192);
-		int key = 0;
-		final List<NVP<MBeanOp, Object[]>> ops = invocation.getInvocations();
-		log("Processing %s MBeanOps", ops.size());
-		for(final NVP<MBeanOp, Object[]> inv : invocation.getInvocations()) {
-			Object returnValue = null;
+		final BulkServiceSession session = getSession(invocation.getSessionId());
+		final DeltaTable deltas = session!=null && invocation.isDelta() ? session.getDeltas(deltaCapacity) : null;
+		final BulkResponseBuilder responseBuilder = new BulkResponseBuilder(getResponseCompression(invocation.getResponseCompressorId()), 8192, invocation.getCodec());
+		final int opCount = invocation.getOpCount();
+		log("Processing %s MBeanOps", opCount);
+		final OpDeadlines deadlines = invocation.isTimed() ? new OpDeadlines(this, invocation) : null;
+		final OpPriorities priorities = invocation.isPrioritized() ? new OpPriorities(this, invocation) : null;
+		final ForkJoinPool pool = opPool;
+		final boolean deltaReset = deltas!=null && deltas.begin(invocation.getDeltaAck(), deltaCapacity);
+		final BulkResponse response;
+		pendingOps.addAndGet(opCount);
+		try {
 			try {
-				returnValue = inv.getKey().invoke(server, inv.getValue());
-			} catch (Throwable t) {
-				returnValue = t;
+				if(pool==null && deadlines==null && priorities==null && !quarantine.isActive()) {
+					// each op is executed and its response written before the next op is decoded
+					invocation.forEachInvocation(session, new InvocationCallback() {
+						@Override
+						public void onInvocation(final int reqId, final MBeanOp op, final Object[] args) {
+							final Object returnValue = op.isStateful() ? OrderedOpExecutor.invoke(server, session, op, args) : quarantine.invoke(server, op, args, resultCache);
+							responseBuilder.op(op, reqId, deltas==null ? returnValue : deltas.filter(op, args, returnValue));
+						}
+					});
+				} else {
+					// timed and quarantined ops are executed off the calling thread, one at a time when the service is serial,
+					// and critical reads are executed before the rest
+					final OrderedOpExecutor.Options options = new OrderedOpExecutor.Options()
+						.deltas(deltas).cache(resultCache).deadlines(deadlines).quarantine(quarantine).priorities(priorities).session(session);
+					final OrderedOpExecutor executor = pool!=null
+						? new OrderedOpExecutor(server, pool, pool.getParallelism() * WINDOW_PER_THREAD, responseBuilder, options)
+						: new OrderedOpExecutor(server, getStreamPool(), 1, responseBuilder, options);
+					invocation.forEachInvocation(session, executor);
+					executor.finish();
+					parallelOpCount.addAndGet(executor.getParallelCount());
+					barrierCount.addAndGet(executor.getBarrierCount());
+					criticalOpCount.addAndGet(executor.getCriticalCount());
+				}
+			} finally {
+				// the decoded ops hold no references into the payload, so it goes back to the pool as soon as they have run
+				invocation.release();
+			}
+			log("Processed %s MBeanOps", opCount);
+			response = responseBuilder.build();
+			if(deltas!=null) {
+				response.setDelta(deltas.getSerial(), deltaReset);
+				unchangedValueCount.addAndGet(deltas.getUnchanged());
+				if(deltaReset) deltaResetCount.incrementAndGet();
 			}
-			responseBuilder.op(inv.getKey(), key, returnValue);			
-			log("Writing response [op:%s, result:%s", inv.getKey(), returnValue);
-			key++;
+		} finally {
+			pendingOps.addAndGet(-opCount);
+			if(deltas!=null) deltas.end();
+		}
+		if(session!=null) session.writeUpdates(response);
+		return response;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#invokeStreaming(com.heliosapm.jmxmp.async.BulkInvocation)
+	 */
+	@Override
+	public long invokeStreaming(final BulkInvocation invocation) {
+		if(server == null) throw new IllegalStateException("The JMXService is not registered and has a null MBeanServer reference");
+		final BulkServiceSession session = getSession(invocation.getSessionId());
+		if(session==null) throw new IllegalStateException("Streamed invocations require a session");
+		final long streamId = streamSerial.incrementAndGet();
+		final ForkJoinPool pool = getStreamPool();
+		final StreamingInvocation stream = new StreamingInvocation(streamId, streamType(session.getSessionId()), this, server, pool, resultCache, 
+			invocation.isTimed() ? new OpDeadlines(this, invocation) : null, quarantine, invocation.isPrioritized() ? new OpPriorities(this, invocation) : null, session);
+		try {
+			invocation.forEachInvocation(session, stream);
+		} finally {
+			invocation.release();
+		}
+		pendingOps.addAndGet(stream.getOpCount());
+		streamCount.incrementAndGet();
+		try {
+			pool.execute(stream);
+		} catch (RejectedExecutionException rex) {
+			completed(stream.getOpCount());
+			throw new IllegalStateException("The bulk service is shutting down", rex);
+		}
+		return streamId;
+	}
+	
+	/**
+	 * Returns the pool streamed and timed ops are executed in, which is the op pool if there is one
+	 * @return the stream pool
+	 */
+	protected ForkJoinPool getStreamPool() {
+		final ForkJoinPool pool = opPool;
+		if(pool!=null) return pool;
+		synchronized(this) {
+			if(streamPool==null) streamPool = new ForkJoinPool(STREAM_PARALLELISM, workerFactory, null, false);
+			return streamPool;
+		}
+	}
+	
+	/**
+	 * Returns the quarantine which tracks MBean read latencies and isolates the slow MBeans
+	 * @return the quarantine
+	 */
+	public MBeanQuarantine getQuarantine() {
+		return quarantine;
+	}
+	
+	/**
+	 * Indicates if the service is under load, with the ops of the invocations in progress at the shed threshold
+	 * @return true if background ops are to be shed
+	 */
+	boolean isOverloaded() {
+		return pendingOps.get() >= shedThreshold;
+	}
+	
+	/**
+	 * Counts a shed background op
+	 */
+	void countShed() {
+		shedCount.incrementAndGet();
+	}
+	
+	/**
+	 * Removes the ops of a completed stream from the ops in progress
+	 * @param opCount The number of ops of the stream
+	 */
+	void completed(final int opCount) {
+		pendingOps.addAndGet(-opCount);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getPendingOpCount()
+	 */
+	@Override
+	public int getPendingOpCount() {
+		return pendingOps.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getShedThreshold()
+	 */
+	@Override
+	public int getShedThreshold() {
+		return shedThreshold;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setShedThreshold(int)
+	 */
+	@Override
+	public void setShedThreshold(final int threshold) {
+		if(threshold < 1) throw new IllegalArgumentException("Invalid shed threshold [" + threshold + "]");
+		shedThreshold = threshold;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getShedCount()
+	 */
+	@Override
+	public long getShedCount() {
+		return shedCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getCriticalOpCount()
+	 */
+	@Override
+	public long getCriticalOpCount() {
+		return criticalOpCount.get();
+	}
+	
+	/**
+	 * Counts an op that missed its deadline
+	 * @param on The ObjectName the op targeted, or null if it did not target one
+	 */
+	void countTimeout(final ObjectName on) {
+		timeoutCount.incrementAndGet();
+		if(on==null) return;
+		AtomicLong count = timeoutCounts.get(on);
+		if(count==null) {
+			// bounded so a client timing out ops on ever changing names cannot grow the map without limit
+			if(timeoutCounts.size() >= MAX_TIMEOUT_NAMES) return;
+			count = new AtomicLong(0);
+			final AtomicLong prior = timeoutCounts.putIfAbsent(on, count);
+			if(prior!=null) count = prior;
+		}
+		count.incrementAndGet();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getTimeoutCount()
+	 */
+	@Override
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getTimeoutCounts()
+	 */
+	@Override
+	public Map<String, Long> getTimeoutCounts() {
+		final Map<String, Long> counts = new HashMap<String, Long>(timeoutCounts.size());
+		for(final Map.Entry<ObjectName, AtomicLong> entry: timeoutCounts.entrySet()) {
+			counts.put(entry.getKey().toString(), entry.getValue().get());
 		}
-		log("Processed %s MBeanOps", ops.size());
-		return responseBuilder.build();
+		return counts;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#resetTimeoutCounts()
+	 */
+	@Override
+	public void resetTimeoutCounts() {
+		timeoutCounts.clear();
+		timeoutCount.set(0);
+	}
+	
+	/**
+	 * Returns the notification type prefix for the passed session
+	 * @param sessionId The session id
+	 * @return the type prefix, which is followed by the result or completion suffix
+	 */
+	public static String streamType(final long sessionId) {
+		return STREAM_TYPE + sessionId + ".";
+	}
+	
+	/**
+	 * Sends a streamed op result
+	 * @param type The notification type prefix of the session
+	 * @param response The op result
+	 */
+	void emitResult(final String type, final Response response) {
+		final Notification n = new Notification(type + RESULT_SUFFIX, objectName, notificationSerial.incrementAndGet(), System.currentTimeMillis());
+		n.setUserData(response);
+		streamedResultCount.incrementAndGet();
+		broadcaster.sendNotification(n);
+	}
+	
+	/**
+	 * Sends the completion of a stream
+	 * @param type The notification type prefix of the session
+	 * @param streamId The id of the stream
+	 * @param resultCount The number of results sent
+	 */
+	void emitComplete(final String type, final long streamId, final int resultCount) {
+		final Notification n = new Notification(type + COMPLETE_SUFFIX, objectName, notificationSerial.incrementAndGet(), System.currentTimeMillis());
+		n.setUserData(new long[]{streamId, resultCount});
+		broadcaster.sendNotification(n);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationBroadcaster#addNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		broadcaster.addNotificationListener(listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationBroadcaster#removeNotificationListener(javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeNotificationListener(final NotificationListener listener) throws ListenerNotFoundException {
+		broadcaster.removeNotificationListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationEmitter#removeNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) throws ListenerNotFoundException {
+		broadcaster.removeNotificationListener(listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationBroadcaster#getNotificationInfo()
+	 */
+	@Override
+	public MBeanNotificationInfo[] getNotificationInfo() {
+		return NOTIFICATION_INFO.clone();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getStreamCount()
+	 */
+	@Override
+	public long getStreamCount() {
+		return streamCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getStreamedResultCount()
+	 */
+	@Override
+	public long getStreamedResultCount() {
+		return streamedResultCount.get();
+	}
+	
+	/**
+	 * Returns the response compression policy for the passed compressor id
+	 * @param compressorId The id of the compressor requested by the client
+	 * @return the compression policy
+	 */
+	protected CompressionPolicy getResponseCompression(final byte compressorId) {
+		CompressionPolicy policy = responseCompression.get(compressorId);
+		if(policy==null) {
+			policy = new CompressionPolicy(Compressors.get(compressorId), responseCompressionThreshold, responseCompressionMaxRatio);
+			final CompressionPolicy prior = responseCompression.putIfAbsent(compressorId, policy);
+			if(prior!=null) policy = prior;
+		}
+		return policy;
+	}
+	
+	/**
+	 * Returns the session for the passed id
+	 * @param sessionId The session id
+	 * @return the session or null if the id is zero
+	 */
+	protected BulkServiceSession getSession(final long sessionId) {
+		sweepSessions();
+		if(sessionId==0L) return null;
+		final BulkServiceSession session = sessions.get(sessionId);
+		if(session==null) throw new IllegalStateException("Unknown or expired bulk session [" + sessionId + "]");
+		session.touch();
+		return session;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#openSession()
+	 */
+	@Override
+	public long openSession() {
+		if(server == null) throw new IllegalStateException("The JMXService is not registered and has a null MBeanServer reference");
+		expireSessions();
+		final long sessionId = sessionSerial.incrementAndGet();
+		sessions.put(sessionId, new BulkServiceSession(sessionId, server, queryCursors));
+		return sessionId;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#closeSession(long)
+	 */
+	@Override
+	public void closeSession(final long sessionId) {
+		final BulkServiceSession session = sessions.remove(sessionId);
+		if(session!=null) session.close();
+	}
+	
+	/**
+	 * Removes idle sessions unless they have been swept within the session idle timeout or the sweep period, whichever is shorter
+	 */
+	protected void sweepSessions() {
+		final long now = System.currentTimeMillis();
+		final long last = lastSweep.get();
+		if(now - last >= Math.min(sessionIdleTimeout, SESSION_SWEEP_PERIOD) && lastSweep.compareAndSet(last, now)) expireSessions();
+	}
+	
+	/**
+	 * Removes sessions that have been idle for longer than the session idle timeout
+	 */
+	protected void expireSessions() {
+		final long cutoff = System.currentTimeMillis() - sessionIdleTimeout;
+		for(final Iterator<BulkServiceSession> iter = sessions.values().iterator(); iter.hasNext();) {
+			final BulkServiceSession session = iter.next();
+			if(session.getLastAccess() < cutoff) {
+				iter.remove();
+				session.close();
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getQueryCursorCount()
+	 */
+	@Override
+	public int getQueryCursorCount() {
+		return queryCursors.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getExpiredQueryCursorCount()
+	 */
+	@Override
+	public long getExpiredQueryCursorCount() {
+		return queryCursors.getExpiredCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getQueryCursorIdleTimeout()
+	 */
+	@Override
+	public long getQueryCursorIdleTimeout() {
+		return queryCursors.getIdleTimeout();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setQueryCursorIdleTimeout(long)
+	 */
+	@Override
+	public void setQueryCursorIdleTimeout(final long timeout) {
+		queryCursors.setIdleTimeout(timeout);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getSupportedCompressors()
+	 */
+	@Override
+	public byte[] getSupportedCompressors() {
+		return Compressors.getSupportedIds();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResponseCompressionThreshold()
+	 */
+	@Override
+	public int getResponseCompressionThreshold() {
+		return responseCompressionThreshold;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setResponseCompressionThreshold(int)
+	 */
+	@Override
+	public void setResponseCompressionThreshold(final int threshold) {
+		for(final CompressionPolicy policy: responseCompression.values()) {
+			policy.setMinSize(threshold);
+		}
+		responseCompressionThreshold = threshold;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResponseCompressionMaxRatio()
+	 */
+	@Override
+	public double getResponseCompressionMaxRatio() {
+		return responseCompressionMaxRatio;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setResponseCompressionMaxRatio(double)
+	 */
+	@Override
+	public void setResponseCompressionMaxRatio(final double maxRatio) {
+		for(final CompressionPolicy policy: responseCompression.values()) {
+			policy.setMaxRatio(maxRatio);
+		}
+		responseCompressionMaxRatio = maxRatio;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getCompressedResponseCount()
+	 */
+	@Override
+	public long getCompressedResponseCount() {
+		long count = 0;
+		for(final CompressionPolicy policy: responseCompression.values()) {
+			count += policy.getCompressedCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getUncompressedResponseCount()
+	 */
+	@Override
+	public long getUncompressedResponseCount() {
+		long count = 0;
+		for(final CompressionPolicy policy: responseCompression.values()) {
+			count += policy.getUncompressedCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getSessionCount()
+	 */
+	@Override
+	public int getSessionCount() {
+		return sessions.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getSessionIdleTimeout()
+	 */
+	@Override
+	public long getSessionIdleTimeout() {
+		return sessionIdleTimeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setSessionIdleTimeout(long)
+	 */
+	@Override
+	public void setSessionIdleTimeout(final long timeout) {
+		if(timeout < 1) throw new IllegalArgumentException("Invalid session idle timeout [" + timeout + "]");
+		sessionIdleTimeout = timeout;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getParallelism()
+	 */
+	@Override
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setParallelism(int)
+	 */
+	@Override
+	public synchronized void setParallelism(final int parallelism) {
+		if(parallelism < 1) throw new IllegalArgumentException("Invalid parallelism [" + parallelism + "]");
+		if(parallelism==this.parallelism) return;
+		final ForkJoinPool old = opPool;
+		opPool = parallelism==1 ? null : new ForkJoinPool(parallelism, workerFactory, null, false);
+		this.parallelism = parallelism;
+		// invocations in progress run their remaining ops on the calling thread once the old pool rejects them
+		if(old!=null) old.shutdown();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getParallelOpCount()
+	 */
+	@Override
+	public long getParallelOpCount() {
+		return parallelOpCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getBarrierCount()
+	 */
+	@Override
+	public long getBarrierCount() {
+		return barrierCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getDeltaCapacity()
+	 */
+	@Override
+	public int getDeltaCapacity() {
+		return deltaCapacity;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setDeltaCapacity(int)
+	 */
+	@Override
+	public void setDeltaCapacity(final int capacity) {
+		deltaCapacity = DeltaTable.checkCapacity(capacity);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getUnchangedValueCount()
+	 */
+	@Override
+	public long getUnchangedValueCount() {
+		return unchangedValueCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getDeltaResetCount()
+	 */
+	@Override
+	public long getDeltaResetCount() {
+		return deltaResetCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResultCacheTtl(java.lang.String)
+	 */
+	@Override
+	public long getResultCacheTtl(final String op) {
+		return resultCache.getTtl(MBeanOp.valueOf(op.trim().toUpperCase()));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#setResultCacheTtl(java.lang.String, long)
+	 */
+	@Override
+	public void setResultCacheTtl(final String op, final long ttl) {
+		resultCache.setTtl(MBeanOp.valueOf(op.trim().toUpperCase()), ttl);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#clearResultCache()
+	 */
+	@Override
+	public void clearResultCache() {
+		resultCache.clear();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResultCacheSize()
+	 */
+	@Override
+	public int getResultCacheSize() {
+		return resultCache.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResultCacheHitCount()
+	 */
+	@Override
+	public long getResultCacheHitCount() {
+		return resultCache.getHitCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResultCacheMissCount()
+	 */
+	@Override
+	public long getResultCacheMissCount() {
+		return resultCache.getMissCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getResultCacheInvalidationCount()
+	 */
+	@Override
+	public long getResultCacheInvalidationCount() {
+		return resultCache.getInvalidationCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getSupportedCodecs()
+	 */
+	@Override
+	public byte[] getSupportedCodecs() {
+		return BulkCodecs.getSupportedIds();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.JMXBulkServiceMBean#getSupportedFeatures()
+	 */
+	@Override
+	public int getSupportedFeatures() {
+		return BulkInvocation.SUPPORTED_FEATURES;
 	}
 
 	@Override
 	public void postDeregister() {
-		
+		if(sweep!=null) sweep.cancel(false);
+		sweep = null;
+		sessions.clear();
+		queryCursors.clear();
+		final ForkJoinPool pool = opPool;
+		if(pool!=null) pool.shutdown();
+		synchronized(this) {
+			if(streamPool!=null) streamPool.shutdown();
+			streamPool = null;
+		}
+		quarantine.shutdown();
 	}
 
 	@Override
 	public void postRegister(final Boolean registered) {
-		
+		if(registered!=null && registered) {
+			final MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+			filter.disableAllTypes();
+			filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+			filter.enableAllObjectNames();
+			try {
+				server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, unregistrationListener, filter, null);
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to register MBean unregistration listener", ex);
+			}
+			final MBeanServerNotificationFilter cacheFilter = new MBeanServerNotificationFilter();
+			cacheFilter.enableAllObjectNames();
+			try {
+				server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, resultCache, cacheFilter, null);
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to register result cache invalidation listener", ex);
+			}
+			try {
+				server.registerMBean(quarantine, MBeanQuarantine.objectName(objectName));
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to register MBean quarantine", ex);
+			}
+			sweep = SWEEPER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sweepSessions();
+				}
+			}, SESSION_SWEEP_PERIOD, SESSION_SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	@Override
 	public void preDeregister() throws Exception {
-		
+		try { server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, unregistrationListener); } catch (Exception x) {/* No Op */}
+		try { server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, resultCache); } catch (Exception x) {/* No Op */}
+		try { server.unregisterMBean(MBeanQuarantine.objectName(objectName)); } catch (Exception x) {/* No Op */}
+		resultCache.clear();
 	}
 
 	@Override
 	public ObjectName preRegister(final MBeanServer server, final ObjectName name) throws Exception {
 		this.server = server;
-		return name;
+		if(name!=null) objectName = name;
+		return objectName;
 	}
 
 }
@@ -18,6 +18,8 @@ under the License.
  */
 package com.heliosapm.jmxmp.async.server;
 
+import java.util.Map;
+
 import com.heliosapm.jmxmp.async.BulkInvocation;
 import com.heliosapm.jmxmp.async.BulkResponse;
 
@@ -31,4 +33,275 @@ import com.heliosapm.jmxmp.async.BulkResponse;
 
 public interface JMXBulkServiceMBean {
 	public BulkResponse invoke(final BulkInvocation invocation);
+	
+	/**
+	 * Starts a streamed invocation. The ops are decoded before this returns and then executed concurrently, each
+	 * result being sent back as a notification of the {@link JMXBulkService#streamType(long) session's type} as soon
+	 * as its op completes. A completion notification follows the last result.
+	 * @param invocation The invocation, which must be in a session
+	 * @return the id of the stream, which the result notifications carry
+	 */
+	public long invokeStreaming(final BulkInvocation invocation);
+	
+	/**
+	 * Returns the number of streamed invocations
+	 * @return the stream count
+	 */
+	public long getStreamCount();
+	
+	/**
+	 * Returns the number of op results streamed back
+	 * @return the streamed result count
+	 */
+	public long getStreamedResultCount();
+	
+	/**
+	 * Returns the number of ops that missed their deadline
+	 * @return the timeout count
+	 */
+	public long getTimeoutCount();
+	
+	/**
+	 * Returns the number of ops that missed their deadline by the ObjectName they targeted,
+	 * for up to {@link JMXBulkService#MAX_TIMEOUT_NAMES} ObjectNames
+	 * @return the timeout counts keyed by ObjectName
+	 */
+	public Map<String, Long> getTimeoutCounts();
+	
+	/**
+	 * Resets the timeout counts
+	 */
+	public void resetTimeoutCounts();
+	
+	/**
+	 * Returns the number of ops of the invocations in progress
+	 * @return the pending op count
+	 */
+	public int getPendingOpCount();
+	
+	/**
+	 * Returns the number of in progress ops at which the background ops of arriving invocations are shed
+	 * @return the shed threshold
+	 */
+	public int getShedThreshold();
+	
+	/**
+	 * Sets the number of in progress ops at which the background ops of arriving invocations are shed
+	 * @param threshold the shed threshold
+	 */
+	public void setShedThreshold(int threshold);
+	
+	/**
+	 * Returns the number of background ops shed
+	 * @return the shed op count
+	 */
+	public long getShedCount();
+	
+	/**
+	 * Returns the number of critical ops executed on the calling thread ahead of the ops queued in the op pool
+	 * @return the critical op count
+	 */
+	public long getCriticalOpCount();
+	
+	/**
+	 * Returns the ids of the bulk payload codecs this service supports
+	 * @return the supported codec ids
+	 */
+	public byte[] getSupportedCodecs();
+	
+	/**
+	 * Returns the flags of the invocation header features this service supports
+	 * @return the supported feature flags
+	 * @see com.heliosapm.jmxmp.async.BulkInvocation#SUPPORTED_FEATURES
+	 */
+	public int getSupportedFeatures();
+	
+	/**
+	 * Returns the ids of the bulk payload compressors this service supports
+	 * @return the supported compressor ids
+	 */
+	public byte[] getSupportedCompressors();
+	
+	/**
+	 * Returns the size below which responses are not compressed
+	 * @return the response compression threshold in bytes
+	 */
+	public int getResponseCompressionThreshold();
+	
+	/**
+	 * Sets the size below which responses are not compressed
+	 * @param threshold the response compression threshold in bytes
+	 */
+	public void setResponseCompressionThreshold(final int threshold);
+	
+	/**
+	 * Returns the compressed to uncompressed size ratio above which response compression is skipped
+	 * @return the maximum response compression ratio
+	 */
+	public double getResponseCompressionMaxRatio();
+	
+	/**
+	 * Sets the compressed to uncompressed size ratio above which response compression is skipped
+	 * @param maxRatio the maximum response compression ratio
+	 */
+	public void setResponseCompressionMaxRatio(final double maxRatio);
+	
+	/**
+	 * Returns the number of compressed responses
+	 * @return the compressed response count
+	 */
+	public long getCompressedResponseCount();
+	
+	/**
+	 * Returns the number of responses sent uncompressed
+	 * @return the uncompressed response count
+	 */
+	public long getUncompressedResponseCount();
+	
+	/**
+	 * Opens a new session in which ObjectNames are exchanged as handles
+	 * @return the new session id
+	 */
+	public long openSession();
+	
+	/**
+	 * Closes the session with the passed id
+	 * @param sessionId The id of the session to close
+	 */
+	public void closeSession(final long sessionId);
+	
+	/**
+	 * Returns the number of open sessions
+	 * @return the number of open sessions
+	 */
+	public int getSessionCount();
+	
+	/**
+	 * Returns the idle time after which an unused session is expired
+	 * @return the session idle timeout in ms
+	 */
+	public long getSessionIdleTimeout();
+	
+	/**
+	 * Sets the idle time after which an unused session is expired
+	 * @param timeout the session idle timeout in ms
+	 */
+	public void setSessionIdleTimeout(final long timeout);
+	
+	/**
+	 * Returns the number of ops of an invocation executed concurrently.
+	 * Read only ops are fanned out to a pool of this many threads and mutating ops act as ordering barriers.
+	 * @return the parallelism, 1 if ops are executed one after another
+	 */
+	public int getParallelism();
+	
+	/**
+	 * Sets the number of ops of an invocation executed concurrently
+	 * @param parallelism the parallelism, 1 to execute ops one after another
+	 */
+	public void setParallelism(final int parallelism);
+	
+	/**
+	 * Returns the number of ops executed in parallel
+	 * @return the parallel op count
+	 */
+	public long getParallelOpCount();
+	
+	/**
+	 * Returns the number of mutating ops that waited for in flight ops to complete
+	 * @return the barrier count
+	 */
+	public long getBarrierCount();
+	
+	/**
+	 * Returns the maximum number of attribute values remembered per delta session
+	 * @return the delta capacity
+	 */
+	public int getDeltaCapacity();
+	
+	/**
+	 * Sets the maximum number of attribute values remembered per delta session.
+	 * Sessions take on a new capacity when their deltas are next reset.
+	 * @param capacity the delta capacity
+	 */
+	public void setDeltaCapacity(final int capacity);
+	
+	/**
+	 * Returns the number of attribute values sent as unchanged markers
+	 * @return the unchanged value count
+	 */
+	public long getUnchangedValueCount();
+	
+	/**
+	 * Returns the number of times a delta session was reset because the client missed a response
+	 * @return the delta reset count
+	 */
+	public long getDeltaResetCount();
+	
+	/**
+	 * Returns the time to live of the cached results of the named op
+	 * @param op The op name, one of QUERYNAMES, QUERYMBEANS, GETMBEANINFO, GETDOMAINS or GETMBEANCOUNT
+	 * @return the time to live in ms, zero if the op is not cached
+	 */
+	public long getResultCacheTtl(final String op);
+	
+	/**
+	 * Sets the time to live of the cached results of the named op
+	 * @param op The op name, one of QUERYNAMES, QUERYMBEANS, GETMBEANINFO, GETDOMAINS or GETMBEANCOUNT
+	 * @param ttl The time to live in ms, zero to stop caching the op
+	 */
+	public void setResultCacheTtl(final String op, final long ttl);
+	
+	/**
+	 * Discards every cached op result
+	 */
+	public void clearResultCache();
+	
+	/**
+	 * Returns the number of cached op results
+	 * @return the result cache size
+	 */
+	public int getResultCacheSize();
+	
+	/**
+	 * Returns the number of ops answered from the result cache
+	 * @return the result cache hit count
+	 */
+	public long getResultCacheHitCount();
+	
+	/**
+	 * Returns the number of cacheable ops which were invoked
+	 * @return the result cache miss count
+	 */
+	public long getResultCacheMissCount();
+	
+	/**
+	 * Returns the number of cached results invalidated by MBean registrations and unregistrations
+	 * @return the result cache invalidation count
+	 */
+	public long getResultCacheInvalidationCount();
+	
+	/**
+	 * Returns the number of open query cursors
+	 * @return the open query cursor count
+	 */
+	public int getQueryCursorCount();
+	
+	/**
+	 * Returns the number of query cursors expired while idle
+	 * @return the expired query cursor count
+	 */
+	public long getExpiredQueryCursorCount();
+	
+	/**
+	 * Returns the idle time after which an unused query cursor is expired
+	 * @return the query cursor idle timeout in ms
+	 */
+	public long getQueryCursorIdleTimeout();
+	
+	/**
+	 * Sets the idle time after which an unused query cursor is expired
+	 * @param timeout the query cursor idle timeout in ms
+	 */
+	public void setQueryCursorIdleTimeout(final long timeout);
 }
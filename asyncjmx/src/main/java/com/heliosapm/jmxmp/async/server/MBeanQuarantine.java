@@ -0,0 +1,477 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: MBeanQuarantine</p>
+ * <p>Description: Tracks the read latency of each MBean as a decaying average and quarantines MBeans whose average
+ * crosses a threshold. Read ops on quarantined MBeans are executed in a separate lane of a few threads, so slow MBeans
+ * cannot tie up the op pool the rest of the reads run in. The lane is bounded: once the capacity of ops is queued or
+ * executing in it, further quarantined ops are rejected rather than queued. A quarantined MBean is measured in the lane
+ * and released once its average falls below half the threshold, unless it was pinned.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.MBeanQuarantine</code></p>
+ */
+
+public class MBeanQuarantine implements MBeanQuarantineMBean {
+	/** The latency stats of the tracked MBeans */
+	protected final ConcurrentHashMap<ObjectName, Stats> stats = new ConcurrentHashMap<ObjectName, Stats>();
+	/** The number of quarantined MBeans */
+	protected final AtomicInteger quarantinedCount = new AtomicInteger(0);
+	/** The number of ops queued or executing in the lane */
+	protected final AtomicInteger laneDepth = new AtomicInteger(0);
+	/** The number of ops executed in the lane */
+	protected final AtomicLong isolatedCount = new AtomicLong(0);
+	/** The number of ops rejected because the lane was full */
+	protected final AtomicLong rejectedCount = new AtomicLong(0);
+	/** The number of times an MBean was quarantined */
+	protected final AtomicLong quarantineCount = new AtomicLong(0);
+	/** The number of threads in the lane */
+	protected final int laneParallelism;
+	/** The average read latency in nanos above which an MBean is quarantined */
+	protected volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD);
+	/** The maximum number of ops queued or executing in the lane */
+	protected volatile int laneCapacity = DEFAULT_LANE_CAPACITY;
+	/** The lane quarantined ops are executed in, created on first use */
+	protected ForkJoinPool lane = null;
+	/** The lane worker thread serial */
+	protected final AtomicInteger workerSerial = new AtomicInteger(0);
+	
+	/** The default average read latency in ms above which an MBean is quarantined */
+	public static final long DEFAULT_THRESHOLD = 100;
+	/** The default number of threads in the lane */
+	public static final int DEFAULT_LANE_PARALLELISM = 2;
+	/** The default maximum number of ops queued or executing in the lane */
+	public static final int DEFAULT_LANE_CAPACITY = 64;
+	/** The weight of each new latency sample in the decaying average */
+	public static final double DECAY = 0.25;
+	/** The maximum number of MBeans tracked */
+	public static final int MAX_TRACKED = 4096;
+	/** The ObjectName key property added to the bulk service's ObjectName to register the quarantine under */
+	public static final String TYPE_KEY = "type";
+	
+	/**
+	 * Creates a new MBeanQuarantine with the default lane parallelism
+	 */
+	public MBeanQuarantine() {
+		this(DEFAULT_LANE_PARALLELISM);
+	}
+	
+	/**
+	 * Creates a new MBeanQuarantine
+	 * @param laneParallelism The number of threads in the lane
+	 */
+	public MBeanQuarantine(final int laneParallelism) {
+		if(laneParallelism < 1) throw new IllegalArgumentException("Invalid lane parallelism [" + laneParallelism + "]");
+		this.laneParallelism = laneParallelism;
+	}
+	
+	/**
+	 * Returns the ObjectName the quarantine of the bulk service registered under the passed name is registered under
+	 * @param serviceName The ObjectName of the bulk service
+	 * @return the quarantine ObjectName
+	 */
+	public static ObjectName objectName(final ObjectName serviceName) {
+		return JMXHelper.objectName(serviceName.toString() + "," + TYPE_KEY + "=Quarantine");
+	}
+	
+	/**
+	 * Invokes an op, recording its latency if it is a read of an MBean
+	 * @param server The MBeanServer to invoke against
+	 * @param op The op
+	 * @param args The op arguments
+	 * @param cache The cache cacheable ops are answered from, or null to invoke the op
+	 * @return the op result or the thrown exception
+	 */
+	public Object invoke(final MBeanServerConnection server, final MBeanOp op, final Object[] args, final OpResultCache cache) {
+		final long start = System.nanoTime();
+		try {
+			return cache==null ? OrderedOpExecutor.invoke(server, op, args) : cache.invoke(server, op, args);
+		} finally {
+			record(op, args, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Returns the MBean an op reads from
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the ObjectName, or null if the op is mutating or stateful or does not target an MBean
+	 */
+	protected static ObjectName target(final MBeanOp op, final Object[] args) {
+		if(op.isMutating() || op.isStateful() || args==null || args.length==0 || !(args[0] instanceof ObjectName)) return null;
+		final ObjectName on = (ObjectName)args[0];
+		return on.isPattern() ? null : on;
+	}
+	
+	/**
+	 * Records the latency of an op, quarantining or releasing its MBean if its average crosses the threshold
+	 * @param op The op
+	 * @param args The op arguments
+	 * @param nanos The latency in nanos
+	 */
+	protected void record(final MBeanOp op, final Object[] args, final long nanos) {
+		final ObjectName on = target(op, args);
+		if(on==null) return;
+		Stats s = stats.get(on);
+		if(s==null) {
+			// bounded so reads of ever changing names cannot grow the map without limit
+			if(stats.size() >= MAX_TRACKED) return;
+			s = new Stats();
+			final Stats prior = stats.putIfAbsent(on, s);
+			if(prior!=null) s = prior;
+		}
+		synchronized(s) {
+			s.average = s.samples==0 ? nanos : s.average + DECAY * (nanos - s.average);
+			s.samples++;
+			if(!s.quarantined && s.average >= thresholdNanos) {
+				quarantine(s);
+			} else if(s.quarantined && !s.pinned && s.average < thresholdNanos / 2) {
+				release(s);
+			}
+		}
+	}
+	
+	/**
+	 * Quarantines the MBean of the passed stats. Must be called holding the stats' lock.
+	 * @param s The stats
+	 */
+	protected void quarantine(final Stats s) {
+		if(s.quarantined) return;
+		s.quarantined = true;
+		quarantinedCount.incrementAndGet();
+		quarantineCount.incrementAndGet();
+	}
+	
+	/**
+	 * Releases the MBean of the passed stats. Must be called holding the stats' lock.
+	 * @param s The stats
+	 */
+	protected void release(final Stats s) {
+		if(!s.quarantined) return;
+		s.quarantined = false;
+		quarantinedCount.decrementAndGet();
+	}
+	
+	/**
+	 * Indicates if an op is a read of a quarantined MBean
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return true if the op should be executed in the lane
+	 */
+	public boolean isQuarantined(final MBeanOp op, final Object[] args) {
+		if(quarantinedCount.get()==0) return false;
+		final ObjectName on = target(op, args);
+		if(on==null) return false;
+		final Stats s = stats.get(on);
+		return s!=null && s.quarantined;
+	}
+	
+	/**
+	 * Indicates if any MBean is quarantined
+	 * @return true if any MBean is quarantined
+	 */
+	public boolean isActive() {
+		return quarantinedCount.get() > 0;
+	}
+	
+	/**
+	 * Executes a quarantined op in the lane
+	 * @param callable The op
+	 * @return the executing task, or null if the lane is full
+	 */
+	public ForkJoinTask<Object> execute(final Callable<Object> callable) {
+		if(laneDepth.incrementAndGet() > laneCapacity) {
+			laneDepth.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			return null;
+		}
+		final ForkJoinTask<Object> task = ForkJoinTask.adapt(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				try {
+					return callable.call();
+				} finally {
+					laneDepth.decrementAndGet();
+				}
+			}
+		});
+		isolatedCount.incrementAndGet();
+		try {
+			getLane().execute(task);
+		} catch (RejectedExecutionException rex) {
+			// the lane was shut down under us, so run the op here
+			task.invoke();
+		}
+		return task;
+	}
+	
+	/**
+	 * Creates the result of a quarantined op rejected because the lane was full
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the rejection
+	 */
+	public RejectedExecutionException rejection(final MBeanOp op, final Object[] args) {
+		return new RejectedExecutionException("Op [" + op + "] on quarantined [" + args[0] + "] rejected, the quarantine lane is full");
+	}
+	
+	/**
+	 * Returns the lane, creating it if this is the first quarantined op
+	 * @return the lane
+	 */
+	protected synchronized ForkJoinPool getLane() {
+		if(lane==null) {
+			lane = new ForkJoinPool(laneParallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+					final ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {};
+					t.setName("JMXBulkServiceQuarantine#" + workerSerial.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			}, null, false);
+		}
+		return lane;
+	}
+	
+	/**
+	 * Forgets an MBean, for when it is unregistered
+	 * @param on The ObjectName of the MBean
+	 */
+	public void evict(final ObjectName on) {
+		final Stats s = stats.remove(on);
+		if(s!=null) {
+			synchronized(s) {
+				release(s);
+			}
+		}
+	}
+	
+	/**
+	 * Shuts down the lane and forgets every MBean
+	 */
+	public synchronized void shutdown() {
+		if(lane!=null) lane.shutdown();
+		lane = null;
+		for(final ObjectName on: stats.keySet()) {
+			evict(on);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getQuarantined()
+	 */
+	@Override
+	public String[] getQuarantined() {
+		final List<String> names = new ArrayList<String>();
+		for(final Map.Entry<ObjectName, Stats> entry: stats.entrySet()) {
+			if(entry.getValue().quarantined) names.add(entry.getKey().toString());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getPinned()
+	 */
+	@Override
+	public String[] getPinned() {
+		final List<String> names = new ArrayList<String>();
+		for(final Map.Entry<ObjectName, Stats> entry: stats.entrySet()) {
+			if(entry.getValue().pinned) names.add(entry.getKey().toString());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getLatencies()
+	 */
+	@Override
+	public Map<String, Double> getLatencies() {
+		final Map<String, Double> latencies = new HashMap<String, Double>(stats.size());
+		for(final Map.Entry<ObjectName, Stats> entry: stats.entrySet()) {
+			if(entry.getValue().samples > 0) latencies.put(entry.getKey().toString(), entry.getValue().average / 1000000D);
+		}
+		return latencies;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getLatency(java.lang.String)
+	 */
+	@Override
+	public double getLatency(final String objectName) {
+		final Stats s = stats.get(JMXHelper.objectName(objectName));
+		return s==null || s.samples==0 ? -1D : s.average / 1000000D;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#pin(java.lang.String)
+	 */
+	@Override
+	public void pin(final String objectName) {
+		final ObjectName on = JMXHelper.objectName(objectName);
+		Stats s = new Stats();
+		final Stats prior = stats.putIfAbsent(on, s);
+		if(prior!=null) s = prior;
+		synchronized(s) {
+			s.pinned = true;
+			quarantine(s);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#unpin(java.lang.String)
+	 */
+	@Override
+	public void unpin(final String objectName) {
+		final Stats s = stats.get(JMXHelper.objectName(objectName));
+		if(s==null) return;
+		synchronized(s) {
+			s.pinned = false;
+			s.samples = 0;
+			s.average = 0D;
+			release(s);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getThreshold()
+	 */
+	@Override
+	public long getThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#setThreshold(long)
+	 */
+	@Override
+	public void setThreshold(final long threshold) {
+		if(threshold < 1) throw new IllegalArgumentException("Invalid threshold [" + threshold + "]");
+		thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getLaneParallelism()
+	 */
+	@Override
+	public int getLaneParallelism() {
+		return laneParallelism;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getLaneCapacity()
+	 */
+	@Override
+	public int getLaneCapacity() {
+		return laneCapacity;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#setLaneCapacity(int)
+	 */
+	@Override
+	public void setLaneCapacity(final int capacity) {
+		if(capacity < 1) throw new IllegalArgumentException("Invalid lane capacity [" + capacity + "]");
+		laneCapacity = capacity;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getLaneDepth()
+	 */
+	@Override
+	public int getLaneDepth() {
+		return laneDepth.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getIsolatedCount()
+	 */
+	@Override
+	public long getIsolatedCount() {
+		return isolatedCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getRejectedCount()
+	 */
+	@Override
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean#getQuarantineCount()
+	 */
+	@Override
+	public long getQuarantineCount() {
+		return quarantineCount.get();
+	}
+	
+	/**
+	 * <p>Title: Stats</p>
+	 * <p>Description: The read latency and quarantine state of an MBean, updated under its own lock</p> 
+	 */
+	protected static class Stats {
+		/** The decaying average latency in nanos */
+		volatile double average = 0D;
+		/** The number of latency samples */
+		volatile long samples = 0;
+		/** Indicates if the MBean is quarantined */
+		volatile boolean quarantined = false;
+		/** Indicates if the MBean is pinned in quarantine */
+		volatile boolean pinned = false;
+	}
+}
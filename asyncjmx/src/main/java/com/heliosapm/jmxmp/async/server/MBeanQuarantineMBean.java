@@ -0,0 +1,123 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.Map;
+
+/**
+ * <p>Title: MBeanQuarantineMBean</p>
+ * <p>Description: JMX MBean interface for {@link MBeanQuarantine}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.MBeanQuarantineMBean</code></p>
+ */
+
+public interface MBeanQuarantineMBean {
+	/**
+	 * Returns the ObjectNames of the quarantined MBeans
+	 * @return the quarantined ObjectNames
+	 */
+	public String[] getQuarantined();
+	
+	/**
+	 * Returns the ObjectNames of the MBeans pinned in quarantine
+	 * @return the pinned ObjectNames
+	 */
+	public String[] getPinned();
+	
+	/**
+	 * Returns the decaying average read latency of each tracked MBean
+	 * @return the average read latencies in ms keyed by ObjectName
+	 */
+	public Map<String, Double> getLatencies();
+	
+	/**
+	 * Returns the decaying average read latency of an MBean
+	 * @param objectName The ObjectName of the MBean
+	 * @return the average read latency in ms, or -1 if the MBean is not tracked
+	 */
+	public double getLatency(String objectName);
+	
+	/**
+	 * Quarantines an MBean until it is unpinned, regardless of its latency
+	 * @param objectName The ObjectName of the MBean
+	 */
+	public void pin(String objectName);
+	
+	/**
+	 * Releases an MBean from quarantine and forgets its latency, so it is measured afresh
+	 * @param objectName The ObjectName of the MBean
+	 */
+	public void unpin(String objectName);
+	
+	/**
+	 * Returns the average read latency above which an MBean is quarantined
+	 * @return the threshold in ms
+	 */
+	public long getThreshold();
+	
+	/**
+	 * Sets the average read latency above which an MBean is quarantined.
+	 * A quarantined MBean is released once its average falls below half the threshold.
+	 * @param threshold the threshold in ms
+	 */
+	public void setThreshold(long threshold);
+	
+	/**
+	 * Returns the number of threads executing quarantined ops
+	 * @return the lane parallelism
+	 */
+	public int getLaneParallelism();
+	
+	/**
+	 * Returns the maximum number of quarantined ops queued or executing, beyond which they are rejected
+	 * @return the lane capacity
+	 */
+	public int getLaneCapacity();
+	
+	/**
+	 * Sets the maximum number of quarantined ops queued or executing, beyond which they are rejected
+	 * @param capacity the lane capacity
+	 */
+	public void setLaneCapacity(int capacity);
+	
+	/**
+	 * Returns the number of quarantined ops queued or executing
+	 * @return the lane depth
+	 */
+	public int getLaneDepth();
+	
+	/**
+	 * Returns the number of ops executed in the quarantine lane
+	 * @return the isolated op count
+	 */
+	public long getIsolatedCount();
+	
+	/**
+	 * Returns the number of quarantined ops rejected because the lane was full
+	 * @return the rejected op count
+	 */
+	public long getRejectedCount();
+	
+	/**
+	 * Returns the number of times an MBean was quarantined
+	 * @return the quarantine count
+	 */
+	public long getQuarantineCount();
+}
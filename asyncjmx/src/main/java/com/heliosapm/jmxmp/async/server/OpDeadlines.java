@@ -0,0 +1,106 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.BulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+
+/**
+ * <p>Title: OpDeadlines</p>
+ * <p>Description: The deadlines of the ops of a timed bulk invocation. Op and invocation timeouts are relative to
+ * when the service received the invocation, so they are unaffected by clock differences between client and server.
+ * An op which misses its deadline is answered with a {@link TimeoutException}, counted against the MBean it targeted.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.OpDeadlines</code></p>
+ */
+
+public class OpDeadlines {
+	/** The bulk service the timeouts are counted in */
+	protected final JMXBulkService service;
+	/** The timed invocation */
+	protected final BulkInvocation invocation;
+	/** The nano time the invocation was received */
+	protected final long received;
+	
+	/** The deadline of an op with no timeout */
+	public static final long NONE = Long.MAX_VALUE;
+
+	/**
+	 * Creates a new OpDeadlines starting now
+	 * @param service The bulk service the timeouts are counted in
+	 * @param invocation The timed invocation
+	 */
+	public OpDeadlines(final JMXBulkService service, final BulkInvocation invocation) {
+		this.service = service;
+		this.invocation = invocation;
+		received = System.nanoTime();
+	}
+	
+	/**
+	 * Returns the deadline of an op
+	 * @param reqId The request id of the op
+	 * @return the nano time deadline of the op, or {@link #NONE} if it has no timeout
+	 */
+	public long deadline(final int reqId) {
+		final long timeout = invocation.getOpTimeout(reqId);
+		return timeout <= 0L ? NONE : received + TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+	
+	/**
+	 * Returns the time left before the passed deadline
+	 * @param deadline The nano time deadline
+	 * @return the remaining nanos, zero or less if the deadline has passed
+	 */
+	public static long remaining(final long deadline) {
+		return deadline==NONE ? NONE : deadline - System.nanoTime();
+	}
+	
+	/**
+	 * Creates the result of an op which missed its deadline and counts the timeout
+	 * @param op The op
+	 * @param reqId The request id of the op
+	 * @param args The op arguments
+	 * @return the timeout exception
+	 */
+	public TimeoutException timeout(final MBeanOp op, final int reqId, final Object[] args) {
+		final ObjectName on = args!=null && args.length > 0 && args[0] instanceof ObjectName ? (ObjectName)args[0] : null;
+		service.countTimeout(on);
+		return new TimeoutException("Op [" + op + "] #" + reqId + (on==null ? "" : " on [" + on + "]") + " timed out after [" + invocation.getOpTimeout(reqId) + "] ms");
+	}
+	
+	/**
+	 * Creates the result of a mutating op which completed after its deadline and counts the timeout. Mutating ops are
+	 * ordering barriers, so they are waited for rather than abandoned, and the result only records that the op was late.
+	 * @param op The op
+	 * @param reqId The request id of the op
+	 * @param args The op arguments
+	 * @return the timeout exception
+	 */
+	public TimeoutException late(final MBeanOp op, final int reqId, final Object[] args) {
+		final ObjectName on = args!=null && args.length > 0 && args[0] instanceof ObjectName ? (ObjectName)args[0] : null;
+		service.countTimeout(on);
+		return new TimeoutException("Op [" + op + "] #" + reqId + (on==null ? "" : " on [" + on + "]") + " completed after its [" + invocation.getOpTimeout(reqId) + "] ms deadline");
+	}
+}
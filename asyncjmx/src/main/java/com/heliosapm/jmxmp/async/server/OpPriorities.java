@@ -0,0 +1,108 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import com.heliosapm.jmxmp.async.BulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.OpPriority;
+
+/**
+ * <p>Title: OpPriorities</p>
+ * <p>Description: The priorities of the ops of a prioritized bulk invocation. Whether the service is under load is
+ * decided once, when the invocation arrives: if the ops of the invocations already in progress reach the service's
+ * shed threshold, the invocation's background reads are shed, answered with a {@link RejectedExecutionException}
+ * without being executed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.OpPriorities</code></p>
+ */
+
+public class OpPriorities {
+	/** The bulk service the shed ops are counted in */
+	protected final JMXBulkService service;
+	/** The prioritized invocation */
+	protected final BulkInvocation invocation;
+	/** Indicates if the service was under load when the invocation arrived */
+	protected final boolean shedding;
+	/** The request id of the last critical op, or -1 if there is none */
+	protected final int lastCritical;
+
+	/**
+	 * Creates a new OpPriorities, which must be created before the invocation's ops are counted as in progress
+	 * @param service The bulk service the shed ops are counted in
+	 * @param invocation The prioritized invocation
+	 */
+	public OpPriorities(final JMXBulkService service, final BulkInvocation invocation) {
+		this.service = service;
+		this.invocation = invocation;
+		shedding = service.isOverloaded();
+		lastCritical = invocation.getLastRequestId(OpPriority.CRITICAL);
+	}
+	
+	/**
+	 * Returns the priority of an op
+	 * @param reqId The request id of the op
+	 * @return the op priority
+	 */
+	public OpPriority priority(final int reqId) {
+		return invocation.getPriority(reqId);
+	}
+	
+	/**
+	 * Indicates if an op is to be shed
+	 * @param op The op
+	 * @param reqId The request id of the op
+	 * @return true if the op is a background read and the service is under load
+	 */
+	public boolean isShed(final MBeanOp op, final int reqId) {
+		return shedding && !op.isMutating() && !op.isStateful() && invocation.getPriority(reqId)==OpPriority.BACKGROUND;
+	}
+	
+	/**
+	 * Indicates if an op is a critical read, to be executed ahead of the rest
+	 * @param op The op
+	 * @param reqId The request id of the op
+	 * @return true if the op is a critical read, which excludes stateful ops since they must keep their request order
+	 */
+	public boolean isCritical(final MBeanOp op, final int reqId) {
+		return !op.isMutating() && !op.isStateful() && invocation.getPriority(reqId)==OpPriority.CRITICAL;
+	}
+	
+	/**
+	 * Indicates if a critical op follows the passed op in the invocation
+	 * @param reqId The request id of the op
+	 * @return true if an op with a higher request id is critical
+	 */
+	public boolean isCriticalAhead(final int reqId) {
+		return reqId < lastCritical;
+	}
+	
+	/**
+	 * Creates the result of a shed op and counts it
+	 * @param op The op
+	 * @param reqId The request id of the op
+	 * @return the rejection
+	 */
+	public RejectedExecutionException shed(final MBeanOp op, final int reqId) {
+		service.countShed();
+		return new RejectedExecutionException("Background op [" + op + "] #" + reqId + " shed, the bulk service is under load");
+	}
+}
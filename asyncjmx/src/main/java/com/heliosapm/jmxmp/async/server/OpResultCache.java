@@ -0,0 +1,329 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import com.heliosapm.jmxmp.async.MBeanOp;
+
+/**
+ * <p>Title: OpResultCache</p>
+ * <p>Description: Caches the results of the expensive read only ops many clients repeat on every poll:
+ * queryNames, queryMBeans, getMBeanInfo, getDomains and getMBeanCount. Each op has its own time to live, zero disabling
+ * caching of the op. Entries are invalidated as MBeans are registered and unregistered, but only the entries the
+ * registration can change: the MBeanInfo of that MBean, the queries whose pattern matches its name, the MBean count
+ * and the domains when the registration can add or remove one. Queries with a QueryExp are not cached.</p>
+ * <p>A result computed while a registration notification arrives is not cached, since it may predate the registration.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.OpResultCache</code></p>
+ */
+
+public class OpResultCache implements NotificationListener {
+	/** The time to live in ms of each op's results, indexed by op ordinal. Zero if the op is not cached. */
+	protected final AtomicLongArray ttls = new AtomicLongArray(MBeanOp.values().length);
+	/** The cached results */
+	protected final ConcurrentHashMap<CacheKey, CacheEntry> entries = new ConcurrentHashMap<CacheKey, CacheEntry>();
+	/** Incremented on every registration notification */
+	protected final AtomicLong generation = new AtomicLong(0);
+	/** The number of ops answered from the cache */
+	protected final AtomicLong hitCount = new AtomicLong(0);
+	/** The number of cacheable ops which were invoked */
+	protected final AtomicLong missCount = new AtomicLong(0);
+	/** The number of entries invalidated by registration notifications */
+	protected final AtomicLong invalidationCount = new AtomicLong(0);
+	
+	/** The maximum number of cached results */
+	public static final int MAX_ENTRIES = 4096;
+	/** The default time to live of query, domain and count results in ms */
+	public static final long DEFAULT_QUERY_TTL = TimeUnit.SECONDS.toMillis(5);
+	/** The default time to live of MBeanInfo results in ms */
+	public static final long DEFAULT_INFO_TTL = TimeUnit.SECONDS.toMillis(60);
+	
+	/**
+	 * Creates a new OpResultCache with the default times to live
+	 */
+	public OpResultCache() {
+		ttls.set(MBeanOp.QUERYNAMES.ordinal(), DEFAULT_QUERY_TTL);
+		ttls.set(MBeanOp.QUERYMBEANS.ordinal(), DEFAULT_QUERY_TTL);
+		ttls.set(MBeanOp.GETDOMAINS.ordinal(), DEFAULT_QUERY_TTL);
+		ttls.set(MBeanOp.GETMBEANCOUNT.ordinal(), DEFAULT_QUERY_TTL);
+		ttls.set(MBeanOp.GETMBEANINFO.ordinal(), DEFAULT_INFO_TTL);
+	}
+	
+	/**
+	 * Indicates if the results of the passed op can be cached
+	 * @param op The op
+	 * @return true if the op is cacheable, false otherwise
+	 */
+	public static boolean isCacheable(final MBeanOp op) {
+		switch(op) {
+			case QUERYNAMES:
+			case QUERYMBEANS:
+			case GETDOMAINS:
+			case GETMBEANCOUNT:
+			case GETMBEANINFO:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Invokes the passed op, answering from the cache when possible. Any thrown exception is returned as the result and not cached.
+	 * @param server The MBeanServer to invoke against
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the op result or the thrown exception
+	 */
+	public Object invoke(final MBeanServerConnection server, final MBeanOp op, final Object[] args) {
+		final long ttl = ttls.get(op.ordinal());
+		final CacheKey key = ttl > 0 ? key(op, args) : null;
+		if(key==null) return OrderedOpExecutor.invoke(server, op, args);
+		final long now = System.currentTimeMillis();
+		final CacheEntry entry = entries.get(key);
+		if(entry!=null && entry.expires > now) {
+			hitCount.incrementAndGet();
+			return entry.result;
+		}
+		missCount.incrementAndGet();
+		final long gen = generation.get();
+		final Object result = OrderedOpExecutor.invoke(server, op, args);
+		if(!(result instanceof Throwable) && (entries.size() < MAX_ENTRIES || purge(now))) {
+			final CacheEntry added = new CacheEntry(result, now + ttl);
+			entries.put(key, added);
+			// a registration raced the invocation, so the result may already be stale
+			if(generation.get()!=gen) entries.remove(key, added);
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates the cache key for the passed op
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the key or null if the op invocation cannot be cached
+	 */
+	protected static CacheKey key(final MBeanOp op, final Object[] args) {
+		switch(op) {
+			case GETDOMAINS:
+			case GETMBEANCOUNT:
+				return new CacheKey(op, null);
+			case GETMBEANINFO:
+				return args[0] instanceof ObjectName ? new CacheKey(op, (ObjectName)args[0]) : null;
+			default:
+				return args[1]==null ? new CacheKey(op, (ObjectName)args[0]) : null;
+		}
+	}
+	
+	/**
+	 * Removes the expired entries
+	 * @param now The current time
+	 * @return true if there is room for another entry
+	 */
+	protected boolean purge(final long now) {
+		for(final Iterator<CacheEntry> iter = entries.values().iterator(); iter.hasNext();) {
+			if(iter.next().expires <= now) iter.remove();
+		}
+		return entries.size() < MAX_ENTRIES;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Invalidates the entries the registration or unregistration of the notification's MBean can change.</p>
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		if(!(notification instanceof MBeanServerNotification)) return;
+		final ObjectName on = ((MBeanServerNotification)notification).getMBeanName();
+		final boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType());
+		generation.incrementAndGet();
+		for(final Iterator<Map.Entry<CacheKey, CacheEntry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+			final Map.Entry<CacheKey, CacheEntry> e = iter.next();
+			if(e.getKey().isChangedBy(on, registered, e.getValue().result)) {
+				iter.remove();
+				invalidationCount.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the time to live of the passed op's results
+	 * @param op The op
+	 * @return the time to live in ms, zero if the op is not cached
+	 */
+	public long getTtl(final MBeanOp op) {
+		return ttls.get(op.ordinal());
+	}
+	
+	/**
+	 * Sets the time to live of the passed op's results
+	 * @param op The op
+	 * @param ttl The time to live in ms, zero to stop caching the op
+	 */
+	public void setTtl(final MBeanOp op, final long ttl) {
+		if(!isCacheable(op)) throw new IllegalArgumentException("The op [" + op + "] is not cacheable");
+		if(ttl < 0) throw new IllegalArgumentException("Invalid time to live [" + ttl + "]");
+		ttls.set(op.ordinal(), ttl);
+		if(ttl==0) {
+			for(final Iterator<CacheKey> iter = entries.keySet().iterator(); iter.hasNext();) {
+				if(iter.next().op==op) iter.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Discards every cached result
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+	
+	/**
+	 * Returns the number of ops answered from the cache
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	/**
+	 * Returns the number of cacheable ops which were invoked
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	/**
+	 * Returns the number of entries invalidated by registration notifications
+	 * @return the invalidation count
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+	
+	/**
+	 * Returns the number of cached results
+	 * @return the cache size
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "OpResultCache [size=" + entries.size() + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + "]";
+	}
+	
+	/**
+	 * <p>Title: CacheKey</p>
+	 * <p>Description: The key of a cached result, the op and its ObjectName argument</p> 
+	 */
+	protected static class CacheKey {
+		/** The op */
+		final MBeanOp op;
+		/** The MBean name or query pattern, null for ops without one */
+		final ObjectName on;
+		
+		/**
+		 * Creates a new CacheKey
+		 * @param op The op
+		 * @param on The MBean name or query pattern, null for ops without one
+		 */
+		CacheKey(final MBeanOp op, final ObjectName on) {
+			this.op = op;
+			this.on = on;
+		}
+		
+		/**
+		 * Indicates if the cached result can be changed by the registration or unregistration of the passed MBean
+		 * @param name The ObjectName of the MBean
+		 * @param registered true for a registration, false for an unregistration
+		 * @param result The cached result
+		 * @return true if the entry must be invalidated
+		 */
+		boolean isChangedBy(final ObjectName name, final boolean registered, final Object result) {
+			switch(op) {
+				case GETMBEANINFO:
+					return on.equals(name);
+				case GETDOMAINS:
+					// a registration only adds a domain that was not there, an unregistration may remove the last of one
+					return !registered || !Arrays.asList((String[])result).contains(name.getDomain());
+				case GETMBEANCOUNT:
+					return true;
+				default:
+					return on==null || on.apply(name);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return op.hashCode() * 31 + (on==null ? 0 : on.hashCode());
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof CacheKey)) return false;
+			final CacheKey other = (CacheKey)obj;
+			return op==other.op && (on==null ? other.on==null : on.equals(other.on));
+		}
+	}
+	
+	/**
+	 * <p>Title: CacheEntry</p>
+	 * <p>Description: A cached result and its expiry</p> 
+	 */
+	protected static class CacheEntry {
+		/** The cached result */
+		final Object result;
+		/** The time the entry expires */
+		final long expires;
+		
+		/**
+		 * Creates a new CacheEntry
+		 * @param result The cached result
+		 * @param expires The time the entry expires
+		 */
+		CacheEntry(final Object result, final long expires) {
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+
+}
@@ -0,0 +1,487 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServerConnection;
+
+import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.InvocationCallback;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.QueryCursorSession;
+
+/**
+ * <p>Title: OrderedOpExecutor</p>
+ * <p>Description: Executes the ops of a bulk invocation, fanning read only ops out to a fork join pool while
+ * writing their responses in request order. A {@link MBeanOp#isMutating() mutating} op is an ordering barrier:
+ * every op before it completes before it runs, on the calling thread, and no op after it starts until it has completed.
+ * No more than the window size of ops are in flight, so a long invocation does not queue all its ops at once.
+ * When the invocation has {@link OpDeadlines deadlines}, an op is waited for no longer than its deadline: an op which
+ * misses it is answered with a timeout and is cancelled if it has not started. Timed mutating ops are still barriers: they
+ * run on the calling thread and are waited for, and one which completes late is answered with a timeout. {@link MBeanOp#isStateful() Stateful} ops are executed on the calling thread in request order,
+ * without waiting for the ops in flight, and are not subject to deadlines. Reads of MBeans in {@link MBeanQuarantine quarantine} are executed in its lane rather than the pool.
+ * When the invocation has {@link OpPriorities priorities}, untimed critical reads are executed on the calling thread ahead of
+ * the ops queued in the pool: the reads before them are held until the last critical op, known from the invocation header, has been
+ * decoded, or a mutating op is reached, so the payload is still decoded once. Background reads are shed if the service is under load.
+ * Not thread safe: ops must be passed in, and {@link #finish()} called, from a single thread.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.OrderedOpExecutor</code></p>
+ */
+
+public class OrderedOpExecutor implements InvocationCallback {
+	/** The MBeanServer the ops are invoked against */
+	protected final MBeanServerConnection server;
+	/** The pool read only ops are executed in */
+	protected final ForkJoinPool pool;
+	/** The maximum number of ops in flight */
+	protected final int window;
+	/** The builder the responses are written to */
+	protected final BulkResponseBuilder responseBuilder;
+	/** The session's delta table, or null if the invocation does not use deltas */
+	protected final DeltaTable deltas;
+	/** The cache cacheable ops are answered from, or null to invoke every op */
+	protected final OpResultCache cache;
+	/** The deadlines of the invocation's ops, or null if it has none */
+	protected final OpDeadlines deadlines;
+	/** The quarantine op latencies are recorded in and slow MBeans are isolated by, or null to execute every op in the pool */
+	protected final MBeanQuarantine quarantine;
+	/** The priorities of the invocation's ops, or null if it has none */
+	protected final OpPriorities priorities;
+	/** The session stateful ops are executed in, or null if the invocation has none */
+	protected final QueryCursorSession session;
+	/** The in flight ops in request order */
+	protected final ArrayDeque<PendingOp> pending;
+	/** The result of a held op, which has not been executed yet */
+	protected static final Object HELD = new Object();
+	/** The number of pending ops held back until the critical ops after them have been executed */
+	protected int held = 0;
+	/** The number of ops executed in the pool */
+	protected int parallelCount = 0;
+	/** The number of barriers */
+	protected int barrierCount = 0;
+	/** The number of ops that missed their deadline */
+	protected int timeoutCount = 0;
+	/** The number of critical ops executed on the calling thread */
+	protected int criticalCount = 0;
+
+	/**
+	 * Creates a new OrderedOpExecutor
+	 * @param server The MBeanServer the ops are invoked against
+	 * @param pool The pool read only ops are executed in
+	 * @param window The maximum number of ops in flight
+	 * @param responseBuilder The builder the responses are written to
+	 * @param options The optional collaborators of the executor, or null for none
+	 */
+	public OrderedOpExecutor(final MBeanServerConnection server, final ForkJoinPool pool, final int window, final BulkResponseBuilder responseBuilder, final Options options) {
+		if(window < 1) throw new IllegalArgumentException("Invalid window [" + window + "]");
+		final Options o = options==null ? new Options() : options;
+		this.server = server;
+		this.pool = pool;
+		this.window = window;
+		this.responseBuilder = responseBuilder;
+		deltas = o.deltas;
+		cache = o.cache;
+		deadlines = o.deadlines;
+		quarantine = o.quarantine;
+		priorities = o.priorities;
+		session = o.session;
+		pending = new ArrayDeque<PendingOp>(window);
+	}
+
+	/**
+	 * Invokes the passed op, returning any thrown exception as the result
+	 * @param server The MBeanServer to invoke against
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the op result or the thrown exception
+	 */
+	public static Object invoke(final MBeanServerConnection server, final MBeanOp op, final Object[] args) {
+		return invoke(server, null, op, args);
+	}
+
+	/**
+	 * Invokes the passed op in a session, returning any thrown exception as the result
+	 * @param server The MBeanServer to invoke against
+	 * @param session The session the op is executed in, null if there is none
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the op result or the thrown exception
+	 */
+	public static Object invoke(final MBeanServerConnection server, final QueryCursorSession session, final MBeanOp op, final Object[] args) {
+		try {
+			return op.invoke(server, session, args);
+		} catch (Throwable t) {
+			return t;
+		}
+	}
+
+	/**
+	 * Invokes the passed op, answering cacheable ops from the cache if there is one
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the op result or the thrown exception
+	 */
+	protected Object execute(final MBeanOp op, final Object[] args) {
+		// stateful ops are never cached or quarantined, and keep their state in the session
+		if(op.isStateful()) return invoke(server, session, op, args);
+		if(quarantine!=null) return quarantine.invoke(server, op, args, cache);
+		return cache==null ? invoke(server, op, args) : cache.invoke(server, op, args);
+	}
+
+	/**
+	 * Indicates if an op is a critical read to be executed on the calling thread
+	 * @param op The op
+	 * @param reqId The request id
+	 * @param args The op arguments
+	 * @return true for an untimed critical read of an MBean not in quarantine
+	 */
+	protected boolean isCritical(final MBeanOp op, final int reqId, final Object[] args) {
+		return priorities.isCritical(op, reqId) && (deadlines==null || deadlines.deadline(reqId)==OpDeadlines.NONE)
+			&& (quarantine==null || !quarantine.isQuarantined(op, args));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.jmxmp.async.InvocationCallback#onInvocation(int, com.heliosapm.jmxmp.async.MBeanOp, java.lang.Object[])
+	 */
+	@Override
+	public void onInvocation(final int reqId, final MBeanOp op, final Object[] args) {
+		final long deadline = deadlines==null ? OpDeadlines.NONE : deadlines.deadline(reqId);
+		if(op.isMutating()) {
+			if(!pending.isEmpty()) barrierCount++;
+			release();
+			drain(0);
+			write(op, reqId, args, deadline==OpDeadlines.NONE ? execute(op, args) : executeBarrier(op, reqId, args, deadline));
+			return;
+		}
+		if(op.isStateful()) {
+			// stateful ops run here so they keep their request order, without waiting for the reads in flight
+			pending.addLast(new PendingOp(op, reqId, args, null, deadline, execute(op, args)));
+			return;
+		}
+		if(priorities!=null) {
+			// shed and critical ops take no place in the window, so they never wait for the ops queued in the pool
+			if(priorities.isShed(op, reqId)) {
+				pending.addLast(new PendingOp(op, reqId, args, null, deadline, priorities.shed(op, reqId)));
+				return;
+			}
+			if(isCritical(op, reqId, args)) {
+				criticalCount++;
+				pending.addLast(new PendingOp(op, reqId, args, null, deadline, execute(op, args)));
+				if(!priorities.isCriticalAhead(reqId)) release();
+				return;
+			}
+			if(priorities.isCriticalAhead(reqId)) {
+				// the critical ops are known from the header, so the reads ahead of them wait to be executed until they are decoded
+				held++;
+				pending.addLast(new PendingOp(op, reqId, args, null, deadline, HELD));
+				return;
+			}
+		}
+		release();
+		drain(window - 1);
+		pending.addLast(submit(op, reqId, args, deadline));
+	}
+	
+	/**
+	 * Executes a timed mutating op on the calling thread, unless it has already missed its deadline. The op is waited for
+	 * even if it runs past its deadline, so no op after it starts before it has completed.
+	 * @param op The op
+	 * @param reqId The request id
+	 * @param args The op arguments
+	 * @param deadline The nano time deadline of the op
+	 * @return the op result, or the timeout if the op missed its deadline
+	 */
+	protected Object executeBarrier(final MBeanOp op, final int reqId, final Object[] args, final long deadline) {
+		if(OpDeadlines.remaining(deadline) <= 0L) {
+			timeoutCount++;
+			return deadlines.timeout(op, reqId, args);
+		}
+		final Object result = execute(op, args);
+		if(OpDeadlines.remaining(deadline) > 0L) return result;
+		timeoutCount++;
+		return deadlines.late(op, reqId, args);
+	}
+	
+	/**
+	 * Executes the held ops, in request order and no more than the window in flight
+	 */
+	protected void release() {
+		if(held==0) return;
+		held = 0;
+		final PendingOp[] ops = pending.toArray(new PendingOp[pending.size()]);
+		pending.clear();
+		for(final PendingOp p: ops) {
+			if(p.result==HELD) {
+				drain(window - 1);
+				pending.addLast(submit(p.op, p.reqId, p.args, p.deadline));
+			} else {
+				pending.addLast(p);
+			}
+		}
+	}
+	
+	/**
+	 * Executes an op in the pool, or the quarantine lane if it reads a quarantined MBean, unless it has already missed its deadline
+	 * @param op The op
+	 * @param reqId The request id
+	 * @param args The op arguments
+	 * @param deadline The nano time deadline of the op
+	 * @return the in flight op
+	 */
+	protected PendingOp submit(final MBeanOp op, final int reqId, final Object[] args, final long deadline) {
+		if(OpDeadlines.remaining(deadline) <= 0L) {
+			timeoutCount++;
+			return new PendingOp(op, reqId, args, null, deadline, deadlines.timeout(op, reqId, args));
+		}
+		final Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() {
+				return execute(op, args);
+			}
+		};
+		if(quarantine!=null && quarantine.isQuarantined(op, args)) {
+			final ForkJoinTask<Object> task = quarantine.execute(callable);
+			return task==null
+				? new PendingOp(op, reqId, args, null, deadline, quarantine.rejection(op, args))
+				: new PendingOp(op, reqId, args, task, deadline, null);
+		}
+		final ForkJoinTask<Object> task = ForkJoinTask.adapt(callable);
+		try {
+			pool.execute(task);
+			parallelCount++;
+		} catch (RejectedExecutionException rex) {
+			// the pool was replaced or shut down under us, so run the op here
+			task.invoke();
+		}
+		return new PendingOp(op, reqId, args, task, deadline, null);
+	}
+
+	/**
+	 * Waits for every in flight op to complete and writes their responses
+	 */
+	public void finish() {
+		release();
+		drain(0);
+	}
+
+	/**
+	 * Writes the responses of the oldest in flight ops, waiting for each to complete, until no more than the passed number are in flight
+	 * @param maxPending The maximum number of ops left in flight
+	 */
+	protected void drain(final int maxPending) {
+		while(pending.size() > maxPending) {
+			final PendingOp p = pending.removeFirst();
+			write(p.op, p.reqId, p.args, await(p));
+		}
+	}
+	
+	/**
+	 * Waits for an in flight op to complete, for no longer than its deadline
+	 * @param p The in flight op
+	 * @return the op result, or the timeout if the op missed its deadline
+	 */
+	protected Object await(final PendingOp p) {
+		if(p.task==null) return p.result;
+		if(p.deadline==OpDeadlines.NONE) return p.task.join();
+		try {
+			return p.task.get(Math.max(0L, OpDeadlines.remaining(p.deadline)), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException tex) {
+			// only stops the op if it has not started, a running op cannot be interrupted and finishes unseen
+			p.task.cancel(false);
+		} catch (ExecutionException eex) {
+			return eex.getCause();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			return iex;
+		}
+		timeoutCount++;
+		return deadlines.timeout(p.op, p.reqId, p.args);
+	}
+
+	/**
+	 * Writes a response. Results are filtered through the delta table here, in request order, rather than as ops
+	 * complete, so the client's mirror sees the remembered values change in the same order they did.
+	 * @param op The op
+	 * @param reqId The request id
+	 * @param args The op arguments
+	 * @param result The op result
+	 */
+	protected void write(final MBeanOp op, final int reqId, final Object[] args, final Object result) {
+		responseBuilder.op(op, reqId, deltas==null ? result : deltas.filter(op, args, result));
+	}
+
+	/**
+	 * Returns the number of ops executed in the pool
+	 * @return the parallel op count
+	 */
+	public int getParallelCount() {
+		return parallelCount;
+	}
+
+	/**
+	 * Returns the number of mutating ops that waited for in flight ops to complete
+	 * @return the barrier count
+	 */
+	public int getBarrierCount() {
+		return barrierCount;
+	}
+
+	/**
+	 * Returns the number of ops that missed their deadline
+	 * @return the timeout count
+	 */
+	public int getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	/**
+	 * Returns the number of critical ops executed on the calling thread
+	 * @return the critical op count
+	 */
+	public int getCriticalCount() {
+		return criticalCount;
+	}
+
+	/**
+	 * <p>Title: Options</p>
+	 * <p>Description: The optional collaborators of an {@link OrderedOpExecutor}, each null unless set</p> 
+	 */
+	public static class Options {
+		/** The session's delta table results are filtered through as they are written */
+		DeltaTable deltas;
+		/** The cache cacheable ops are answered from */
+		OpResultCache cache;
+		/** The deadlines of the invocation's ops */
+		OpDeadlines deadlines;
+		/** The quarantine op latencies are recorded in and slow MBeans are isolated by */
+		MBeanQuarantine quarantine;
+		/** The priorities of the invocation's ops */
+		OpPriorities priorities;
+		/** The session stateful ops are executed in */
+		QueryCursorSession session;
+
+		/**
+		 * Sets the session's delta table results are filtered through as they are written
+		 * @param deltas The delta table, or null if the invocation does not use deltas
+		 * @return these options
+		 */
+		public Options deltas(final DeltaTable deltas) {
+			this.deltas = deltas;
+			return this;
+		}
+
+		/**
+		 * Sets the cache cacheable ops are answered from
+		 * @param cache The result cache, or null to invoke every op
+		 * @return these options
+		 */
+		public Options cache(final OpResultCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Sets the deadlines of the invocation's ops
+		 * @param deadlines The deadlines, or null if the invocation has none
+		 * @return these options
+		 */
+		public Options deadlines(final OpDeadlines deadlines) {
+			this.deadlines = deadlines;
+			return this;
+		}
+
+		/**
+		 * Sets the quarantine op latencies are recorded in and slow MBeans are isolated by
+		 * @param quarantine The quarantine, or null to execute every op in the pool
+		 * @return these options
+		 */
+		public Options quarantine(final MBeanQuarantine quarantine) {
+			this.quarantine = quarantine;
+			return this;
+		}
+
+		/**
+		 * Sets the priorities of the invocation's ops
+		 * @param priorities The priorities, or null if the invocation has none
+		 * @return these options
+		 */
+		public Options priorities(final OpPriorities priorities) {
+			this.priorities = priorities;
+			return this;
+		}
+
+		/**
+		 * Sets the session stateful ops are executed in
+		 * @param session The session, or null if the invocation has none
+		 * @return these options
+		 */
+		public Options session(final QueryCursorSession session) {
+			this.session = session;
+			return this;
+		}
+	}
+
+	/**
+	 * <p>Title: PendingOp</p>
+	 * <p>Description: An in flight op</p> 
+	 */
+	protected static class PendingOp {
+		/** The op */
+		final MBeanOp op;
+		/** The request id */
+		final int reqId;
+		/** The op arguments */
+		final Object[] args;
+		/** The executing task, or null if the op was answered without being executed */
+		final ForkJoinTask<Object> task;
+		/** The nano time deadline of the op */
+		final long deadline;
+		/** The result of an op answered without being executed */
+		final Object result;
+
+		/**
+		 * Creates a new PendingOp
+		 * @param op The op
+		 * @param reqId The request id
+		 * @param args The op arguments
+		 * @param task The executing task, or null if the op was answered without being executed
+		 * @param deadline The nano time deadline of the op
+		 * @param result The result of an op answered without being executed
+		 */
+		PendingOp(final MBeanOp op, final int reqId, final Object[] args, final ForkJoinTask<Object> task, final long deadline, final Object result) {
+			this.op = op;
+			this.reqId = reqId;
+			this.args = args;
+			this.task = task;
+			this.deadline = deadline;
+			this.result = result;
+		}
+	}
+
+}
@@ -0,0 +1,254 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import com.heliosapm.jmxmp.async.QueryPage;
+
+/**
+ * <p>Title: QueryCursors</p>
+ * <p>Description: The open paged query cursors of a {@link JMXBulkService}. A cursor takes a sorted snapshot of the
+ * matching ObjectNames when it is opened and hands them out a page at a time, so a client walking a large MBeanServer
+ * never has the whole name set in one response. ObjectInstances are resolved per page, skipping MBeans unregistered
+ * since the cursor was opened. A cursor closes itself once its last page is fetched and is expired when it is idle
+ * for longer than the idle timeout. Each cursor belongs to the bulk session that opened it, and is unknown to every
+ * other session.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.QueryCursors</code></p>
+ */
+
+public class QueryCursors {
+	/** The maximum number of open cursors */
+	public static final int MAX_CURSORS = 256;
+	/** The maximum number of items in a page */
+	public static final int MAX_PAGE_SIZE = 8192;
+	/** The default idle time after which a cursor is expired in ms */
+	public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+	
+	/** The open cursors keyed by id */
+	protected final ConcurrentHashMap<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+	/** The cursor id serial */
+	protected final AtomicLong cursorSerial = new AtomicLong(new Random().nextInt() & Integer.MAX_VALUE);
+	/** The number of cursors expired while idle */
+	protected final AtomicLong expiredCount = new AtomicLong(0);
+	/** The idle time after which a cursor is expired in ms */
+	protected volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	
+	/**
+	 * Opens a new cursor and fetches its first page
+	 * @param server The MBeanServer to query
+	 * @param owner The id of the bulk session opening the cursor
+	 * @param name The ObjectName pattern, null for all names
+	 * @param query The query expression, null for none
+	 * @param pageSize The maximum number of items in a page
+	 * @param instances true to page ObjectInstances, false to page ObjectNames
+	 * @return the first page, which is the last if every match fits in it
+	 */
+	public QueryPage open(final MBeanServer server, final long owner, final ObjectName name, final QueryExp query, final int pageSize, final boolean instances) {
+		expire();
+		if(cursors.size() >= MAX_CURSORS) throw new IllegalStateException("Too many open query cursors [" + cursors.size() + "]");
+		final Set<ObjectName> matched = server.queryNames(name, query);
+		final ObjectName[] names = matched.toArray(new ObjectName[matched.size()]);
+		Arrays.sort(names);
+		final Cursor cursor = new Cursor(cursorSerial.incrementAndGet(), owner, names, instances);
+		final QueryPage page = cursor.page(server, pageSize);
+		if(!page.isLast()) cursors.put(cursor.cursorId, cursor);
+		return page;
+	}
+	
+	/**
+	 * Fetches the next page of a cursor
+	 * @param server The MBeanServer to resolve ObjectInstances from
+	 * @param owner The id of the bulk session fetching the page
+	 * @param cursorId The cursor id
+	 * @param pageSize The maximum number of items in the page
+	 * @return the next page
+	 */
+	public QueryPage fetch(final MBeanServer server, final long owner, final long cursorId, final int pageSize) {
+		Cursor cursor = cursors.get(cursorId);
+		// another session's cursor is reported the same as one that does not exist
+		if(cursor!=null && cursor.owner!=owner) cursor = null;
+		if(cursor==null || isExpired(cursor, System.currentTimeMillis())) {
+			if(cursor!=null && cursors.remove(cursorId, cursor)) expiredCount.incrementAndGet();
+			throw new IllegalStateException("Unknown or expired query cursor [" + cursorId + "]");
+		}
+		final QueryPage page = cursor.page(server, pageSize);
+		if(page.isLast()) cursors.remove(cursorId, cursor);
+		return page;
+	}
+	
+	/**
+	 * Closes a cursor
+	 * @param owner The id of the bulk session closing the cursor
+	 * @param cursorId The cursor id
+	 * @return true if the cursor was open, false if it was unknown, owned by another session, exhausted or expired
+	 */
+	public boolean close(final long owner, final long cursorId) {
+		final Cursor cursor = cursors.get(cursorId);
+		return cursor!=null && cursor.owner==owner && cursors.remove(cursorId, cursor);
+	}
+	
+	/**
+	 * Closes every cursor of a bulk session, for when the session is closed or expired
+	 * @param owner The id of the bulk session
+	 */
+	public void closeAll(final long owner) {
+		for(final Iterator<Cursor> iter = cursors.values().iterator(); iter.hasNext();) {
+			if(iter.next().owner==owner) iter.remove();
+		}
+	}
+	
+	/**
+	 * Removes cursors that have been idle for longer than the idle timeout
+	 */
+	public void expire() {
+		final long now = System.currentTimeMillis();
+		for(final Iterator<Cursor> iter = cursors.values().iterator(); iter.hasNext();) {
+			if(isExpired(iter.next(), now)) {
+				iter.remove();
+				expiredCount.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Indicates if the passed cursor has been idle for longer than the idle timeout
+	 * @param cursor The cursor
+	 * @param now The current time in ms
+	 * @return true if the cursor has expired
+	 */
+	protected boolean isExpired(final Cursor cursor, final long now) {
+		return now - cursor.lastAccess > idleTimeout;
+	}
+	
+	/**
+	 * Closes every cursor
+	 */
+	public void clear() {
+		cursors.clear();
+	}
+	
+	/**
+	 * Returns the number of open cursors
+	 * @return the open cursor count
+	 */
+	public int size() {
+		return cursors.size();
+	}
+	
+	/**
+	 * Returns the number of cursors expired while idle
+	 * @return the expired cursor count
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+	
+	/**
+	 * Returns the idle time after which a cursor is expired
+	 * @return the idle timeout in ms
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	/**
+	 * Sets the idle time after which a cursor is expired
+	 * @param timeout the idle timeout in ms
+	 */
+	public void setIdleTimeout(final long timeout) {
+		if(timeout < 1) throw new IllegalArgumentException("Invalid query cursor idle timeout [" + timeout + "]");
+		idleTimeout = timeout;
+	}
+	
+	/**
+	 * <p>Title: Cursor</p>
+	 * <p>Description: An open cursor over a sorted ObjectName snapshot</p> 
+	 */
+	protected static class Cursor {
+		/** The cursor id */
+		final long cursorId;
+		/** The id of the bulk session that opened the cursor */
+		final long owner;
+		/** The sorted matching ObjectNames */
+		final ObjectName[] names;
+		/** true to page ObjectInstances, false to page ObjectNames */
+		final boolean instances;
+		/** The index of the first name of the next page */
+		int position = 0;
+		/** The last time the cursor was used */
+		volatile long lastAccess = System.currentTimeMillis();
+		
+		/**
+		 * Creates a new Cursor
+		 * @param cursorId The cursor id
+		 * @param owner The id of the bulk session that opened the cursor
+		 * @param names The sorted matching ObjectNames
+		 * @param instances true to page ObjectInstances, false to page ObjectNames
+		 */
+		Cursor(final long cursorId, final long owner, final ObjectName[] names, final boolean instances) {
+			this.cursorId = cursorId;
+			this.owner = owner;
+			this.names = names;
+			this.instances = instances;
+		}
+		
+		/**
+		 * Returns the next page of the cursor
+		 * @param server The MBeanServer to resolve ObjectInstances from
+		 * @param pageSize The maximum number of items in the page
+		 * @return the next page
+		 */
+		synchronized QueryPage page(final MBeanServer server, final int pageSize) {
+			if(pageSize < 1) throw new IllegalArgumentException("Invalid query cursor page size [" + pageSize + "]");
+			lastAccess = System.currentTimeMillis();
+			final int end = Math.min(names.length, position + Math.min(pageSize, MAX_PAGE_SIZE));
+			Object[] items = new Object[end - position];
+			int size = 0;
+			for(int i = position; i < end; i++) {
+				if(!instances) {
+					items[size++] = names[i];
+				} else {
+					try {
+						items[size++] = server.getObjectInstance(names[i]);
+					} catch (InstanceNotFoundException ex) {
+						size--;
+					}
+				}
+			}
+			position = end;
+			if(size < items.length) items = Arrays.copyOf(items, size);
+			final boolean last = position >= names.length;
+			return new QueryPage(last ? 0L : cursorId, last, items);
+		}
+	}
+}
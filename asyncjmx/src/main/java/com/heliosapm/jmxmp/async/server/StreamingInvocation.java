@@ -0,0 +1,310 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.jmxmp.async.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServerConnection;
+
+import com.heliosapm.jmxmp.async.InvocationCallback;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.OpPriority;
+import com.heliosapm.jmxmp.async.QueryCursorSession;
+import com.heliosapm.jmxmp.async.Response;
+
+/**
+ * <p>Title: StreamingInvocation</p>
+ * <p>Description: Executes the decoded ops of a streamed bulk invocation, sending each result back through the
+ * bulk service's notifications the moment its op completes rather than in request order. Read only ops all run
+ * concurrently in the pool. A {@link MBeanOp#isMutating() mutating} op is an ordering barrier: it runs once every op
+ * before it has completed and no op after it starts until it has completed. A completion notification carrying the
+ * number of results sent follows the last result. When the invocation has {@link OpDeadlines deadlines}, an op which
+ * misses its deadline is sent a timeout in place of its result, and a mutating op which completes late is still waited
+ * for. Reads of MBeans in {@link MBeanQuarantine quarantine} are executed in its lane rather than the pool. When the invocation has {@link OpPriorities priorities}, the reads between
+ * barriers are queued highest priority first and background reads are shed if the service is under load.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.jmxmp.async.server.StreamingInvocation</code></p>
+ */
+
+public class StreamingInvocation implements InvocationCallback, Runnable {
+	/** The id of the stream */
+	protected final long streamId;
+	/** The notification type prefix of the session the stream is sent to */
+	protected final String type;
+	/** The bulk service the results are sent through */
+	protected final JMXBulkService service;
+	/** The MBeanServer the ops are invoked against */
+	protected final MBeanServerConnection server;
+	/** The pool the ops are executed in */
+	protected final ForkJoinPool pool;
+	/** The cache cacheable ops are answered from */
+	protected final OpResultCache cache;
+	/** The deadlines of the invocation's ops, or null if it has none */
+	protected final OpDeadlines deadlines;
+	/** The quarantine op latencies are recorded in and slow MBeans are isolated by, or null to execute every op in the pool */
+	protected final MBeanQuarantine quarantine;
+	/** The priorities of the invocation's ops, or null if it has none */
+	protected final OpPriorities priorities;
+	/** The session stateful ops are executed in */
+	protected final QueryCursorSession session;
+	/** The decoded ops in request order */
+	protected final List<StreamedOp> ops = new ArrayList<StreamedOp>();
+	
+	/** Orders ops highest priority first */
+	protected static final Comparator<StreamedOp> BY_PRIORITY = new Comparator<StreamedOp>() {
+		@Override
+		public int compare(final StreamedOp o1, final StreamedOp o2) {
+			return o1.priority.compareTo(o2.priority);
+		}
+	};
+	
+	/**
+	 * Creates a new StreamingInvocation
+	 * @param streamId The id of the stream
+	 * @param type The notification type prefix of the session the stream is sent to
+	 * @param service The bulk service the results are sent through
+	 * @param server The MBeanServer the ops are invoked against
+	 * @param pool The pool the ops are executed in
+	 * @param cache The cache cacheable ops are answered from
+	 * @param deadlines The deadlines of the invocation's ops, or null if it has none
+	 * @param quarantine The quarantine op latencies are recorded in and slow MBeans are isolated by, or null to execute every op in the pool
+	 * @param priorities The priorities of the invocation's ops, or null if it has none
+	 * @param session The session stateful ops are executed in
+	 */
+	public StreamingInvocation(final long streamId, final String type, final JMXBulkService service, final MBeanServerConnection server, final ForkJoinPool pool, final OpResultCache cache, final OpDeadlines deadlines, final MBeanQuarantine quarantine, final OpPriorities priorities, final QueryCursorSession session) {
+		this.streamId = streamId;
+		this.type = type;
+		this.service = service;
+		this.server = server;
+		this.pool = pool;
+		this.cache = cache;
+		this.deadlines = deadlines;
+		this.quarantine = quarantine;
+		this.priorities = priorities;
+		this.session = session;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Collects the decoded op, which is not executed until the stream is run.</p>
+	 * @see com.heliosapm.jmxmp.async.InvocationCallback#onInvocation(int, com.heliosapm.jmxmp.async.MBeanOp, java.lang.Object[])
+	 */
+	@Override
+	public void onInvocation(final int reqId, final MBeanOp op, final Object[] args) {
+		ops.add(new StreamedOp(op, reqId, args, deadlines==null ? OpDeadlines.NONE : deadlines.deadline(reqId), priorities==null ? OpPriority.NORMAL : priorities.priority(reqId)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final List<StreamedOp> inFlight = new ArrayList<StreamedOp>(ops.size());
+			final List<StreamedOp> reads = new ArrayList<StreamedOp>();
+			for(final StreamedOp op: ops) {
+				// stateful ops are ordered like mutating ops, since the stream runs reads in any order
+				if(!op.op.isMutating() && !op.op.isStateful()) {
+					reads.add(op);
+					continue;
+				}
+				start(reads, inFlight);
+				join(inFlight);
+				// barriers are waited for even past their deadline, so no op after them starts before they have completed
+				op.run();
+			}
+			start(reads, inFlight);
+			join(inFlight);
+			service.emitComplete(type, streamId, ops.size());
+		} finally {
+			service.completed(ops.size());
+		}
+	}
+	
+	/**
+	 * Starts the passed reads, highest priority first, and clears the list
+	 * @param reads The reads to start
+	 * @param inFlight The list the started reads are added to
+	 */
+	protected void start(final List<StreamedOp> reads, final List<StreamedOp> inFlight) {
+		// reads between barriers may run in any order, so the higher priorities are queued first
+		if(priorities!=null) Collections.sort(reads, BY_PRIORITY);
+		for(final StreamedOp op: reads) {
+			if(start(op)) inFlight.add(op);
+		}
+		reads.clear();
+	}
+	
+	/**
+	 * Starts an op in the pool, or the quarantine lane if it reads a quarantined MBean, unless it is shed or rejected
+	 * @param op The op
+	 * @return true if the op was started, false if it was answered without being executed
+	 */
+	protected boolean start(final StreamedOp op) {
+		if(priorities!=null && priorities.isShed(op.op, op.reqId)) {
+			op.emit(priorities.shed(op.op, op.reqId));
+			return false;
+		}
+		if(quarantine!=null && quarantine.isQuarantined(op.op, op.args)) {
+			op.task = quarantine.execute(Executors.callable(op));
+			if(op.task==null) {
+				op.emit(quarantine.rejection(op.op, op.args));
+				return false;
+			}
+			return true;
+		}
+		op.task = ForkJoinTask.adapt(op);
+		try {
+			pool.execute(op.task);
+		} catch (RejectedExecutionException rex) {
+			// the pool was shut down under us, so run the op here
+			op.task.invoke();
+		}
+		return true;
+	}
+	
+	/**
+	 * Waits for the passed ops to complete, each for no longer than its deadline, and clears the list
+	 * @param inFlight The ops to wait for
+	 */
+	protected void join(final List<StreamedOp> inFlight) {
+		for(final StreamedOp op: inFlight) {
+			if(op.deadline==OpDeadlines.NONE) {
+				op.task.join();
+				continue;
+			}
+			try {
+				op.task.get(Math.max(0L, OpDeadlines.remaining(op.deadline)), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException tex) {
+				op.task.cancel(false);
+				op.expire();
+			} catch (ExecutionException eex) {
+				op.emit(eex.getCause());
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				op.emit(iex);
+			}
+		}
+		inFlight.clear();
+	}
+	
+	/**
+	 * Returns the id of the stream
+	 * @return the stream id
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+	
+	/**
+	 * Returns the number of decoded ops
+	 * @return the op count
+	 */
+	public int getOpCount() {
+		return ops.size();
+	}
+	
+	/**
+	 * <p>Title: StreamedOp</p>
+	 * <p>Description: A decoded op which sends its result, or its timeout, exactly once</p> 
+	 */
+	protected class StreamedOp implements Runnable {
+		/** The op */
+		final MBeanOp op;
+		/** The request id */
+		final int reqId;
+		/** The op arguments */
+		final Object[] args;
+		/** The nano time deadline of the op */
+		final long deadline;
+		/** The priority of the op */
+		final OpPriority priority;
+		/** Indicates if the result or timeout has been sent */
+		final AtomicBoolean sent = new AtomicBoolean(false);
+		/** The executing task, or null if the op is run on the stream's thread */
+		ForkJoinTask<?> task = null;
+
+		/**
+		 * Creates a new StreamedOp
+		 * @param op The op
+		 * @param reqId The request id
+		 * @param args The op arguments
+		 * @param deadline The nano time deadline of the op
+		 * @param priority The priority of the op
+		 */
+		StreamedOp(final MBeanOp op, final int reqId, final Object[] args, final long deadline, final OpPriority priority) {
+			this.op = op;
+			this.reqId = reqId;
+			this.args = args;
+			this.deadline = deadline;
+			this.priority = priority;
+		}
+		
+		/**
+		 * Sends the op's result unless it has already been sent
+		 * @param result The result
+		 */
+		void emit(final Object result) {
+			if(sent.compareAndSet(false, true)) service.emitResult(type, new Response(streamId, op, reqId, result));
+		}
+		
+		/**
+		 * Sends the op's timeout, and counts it, unless its result has already been sent
+		 */
+		void expire() {
+			if(sent.compareAndSet(false, true)) service.emitResult(type, new Response(streamId, op, reqId, deadlines.timeout(op, reqId, args)));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			if(sent.get()) return;
+			if(OpDeadlines.remaining(deadline) <= 0L) {
+				expire();
+				return;
+			}
+			final Object result;
+			if(op.isStateful()) {
+				result = OrderedOpExecutor.invoke(server, session, op, args);
+			} else if(quarantine!=null) {
+				result = quarantine.invoke(server, op, args, cache);
+			} else {
+				result = cache==null ? OrderedOpExecutor.invoke(server, op, args) : cache.invoke(server, op, args);
+			}
+			// a mutating op is never abandoned, so one which ran past its deadline is marked late here
+			emit(op.isMutating() && OpDeadlines.remaining(deadline) <= 0L ? deadlines.late(op, reqId, args) : result);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.buffer.ZipPool;
+
+/**
+ * <p>Title: BufferPoolTest</p>
+ * <p>Description: Tests for the payload buffer pool and the deflater/inflater pool</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.BufferPoolTest</code></p>
+ */
+
+public class BufferPoolTest {
+
+	/**
+	 * Tests that arrays are rounded up to size classes and reused once released.
+	 * Runs against its own pool so buffers other tests left in the shared pool are not handed out instead.
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSizeClassReuse() throws Exception {
+		final BufferPool pool = new BufferPool();
+		final byte[] buf = pool.acquire(3000);
+		Assert.assertEquals(4096, buf.length);
+		pool.release(buf);
+		final long hits = pool.getHitCount();
+		Assert.assertSame(buf, pool.acquire(2049));
+		Assert.assertEquals(hits + 1, pool.getHitCount());
+		pool.release(buf);
+		final long discards = pool.getDiscardCount();
+		pool.release(new byte[3000]);
+		Assert.assertEquals(discards + 1, pool.getDiscardCount());
+		Assert.assertEquals(BufferPool.MAX_CLASS_SIZE + 1, pool.acquire(BufferPool.MAX_CLASS_SIZE + 1).length);
+	}
+
+	/**
+	 * Tests buffer growth, detaching and idempotent release
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPooledBuffer() throws Exception {
+		final PooledBuffer buffer = BufferPool.getInstance().buffer(10);
+		for(int i = 0; i < 5000; i++) {
+			buffer.write(i);
+		}
+		Assert.assertEquals(5000, buffer.size());
+		Assert.assertEquals(8192, buffer.array().length);
+		Assert.assertEquals((byte)4999, buffer.array()[4999]);
+		final byte[] detached = buffer.detach();
+		Assert.assertEquals(8192, detached.length);
+		buffer.release();
+		try {
+			buffer.array();
+			Assert.fail("Detached buffer should not expose its array");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+		BufferPool.getInstance().release(detached);
+	}
+
+	/**
+	 * Tests that released deflaters are reset and reused
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testZipPoolReuse() throws Exception {
+		final ZipPool pool = ZipPool.getInstance();
+		final Deflater deflater = pool.acquireDeflater(Deflater.BEST_SPEED, true);
+		deflater.setInput(new byte[100]);
+		deflater.finish();
+		deflater.deflate(new byte[100]);
+		pool.releaseDeflater(deflater, Deflater.BEST_SPEED, true);
+		final Deflater reused = pool.acquireDeflater(Deflater.BEST_SPEED, true);
+		Assert.assertSame(deflater, reused);
+		Assert.assertFalse(reused.finished());
+		Assert.assertNotSame(reused, pool.acquireDeflater(Deflater.BEST_SPEED, false));
+		pool.releaseDeflater(reused, Deflater.BEST_SPEED, true);
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkBatcher;
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.PipelinedDispatcher;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: BulkBatcherTest</p>
+ * <p>Description: Tests for the auto flushing invocation batcher</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.BulkBatcherTest</code></p>
+ */
+
+public class BulkBatcherTest {
+
+	/**
+	 * Creates a builder in a new session against an in process bulk service
+	 * @return the builder
+	 * @throws Exception thrown on any error
+	 */
+	protected static BulkInvocationBuilder builder() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		return new BulkInvocationBuilder(false, 1024, new BulkClientSession(server));
+	}
+
+	/**
+	 * Tests that full batches are flushed on the op count and the remainder on request
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOpCountFlush() throws Exception {
+		final BulkBatcher batcher = new BulkBatcher(builder(), 10, Integer.MAX_VALUE, 1, TimeUnit.MINUTES, null);
+		final CountDownLatch latch = new CountDownLatch(25);
+		final AtomicInteger failures = new AtomicInteger();
+		try {
+			for(int i = 0; i < 25; i++) {
+				batcher.op(MBeanOp.ISREGISTERED, Handlers.counting("onBoolean", latch, failures), MBeanServerDelegate.DELEGATE_NAME);
+			}
+			Assert.assertEquals(2, batcher.getOpFlushes());
+			Assert.assertEquals(5, batcher.getPendingOps());
+			Assert.assertTrue(batcher.flush());
+			Assert.assertFalse(batcher.flush());
+			Assert.assertTrue("Ops were not sent", latch.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, failures.get());
+			Assert.assertEquals(1, batcher.getManualFlushes());
+			Assert.assertEquals(0, batcher.getLingerFlushes());
+			Assert.assertEquals(25, batcher.getFlushedOps());
+			Assert.assertEquals(22, batcher.getCoalescedOps());
+		} finally {
+			batcher.close();
+		}
+	}
+
+	/**
+	 * Tests that a partial batch is flushed once its first op has lingered
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testLingerFlush() throws Exception {
+		final BulkBatcher batcher = new BulkBatcher(builder(), Integer.MAX_VALUE, Integer.MAX_VALUE, 2, TimeUnit.MILLISECONDS, null);
+		final CountDownLatch latch = new CountDownLatch(3);
+		final AtomicInteger failures = new AtomicInteger();
+		try {
+			for(int i = 0; i < 3; i++) {
+				batcher.op(MBeanOp.ISREGISTERED, Handlers.counting("onBoolean", latch, failures), MBeanServerDelegate.DELEGATE_NAME);
+			}
+			Assert.assertTrue("Ops were not sent", latch.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, failures.get());
+			Assert.assertTrue(batcher.getLingerFlushes() > 0);
+			Assert.assertEquals(0, batcher.getManualFlushes());
+			Assert.assertEquals(0, batcher.getPendingOps());
+		} finally {
+			batcher.close();
+		}
+	}
+
+	/**
+	 * Tests that a batcher whose linger flush is held back by its full pipeline does not hold back the linger flushes of other batchers
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testLingerNotHeldBack() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final int slowOps = 5;
+		for(int i = 0; i < slowOps; i++) {
+			server.registerMBean(new ParallelExecutionTest.Slow(i), JMXHelper.objectName("test.batch:type=Slow,id=" + i));
+		}
+		final PipelinedDispatcher dispatcher = new PipelinedDispatcher(1);
+		final BulkBatcher blocked = new BulkBatcher(new BulkInvocationBuilder(false, 1024, new BulkClientSession(server)), Integer.MAX_VALUE, Integer.MAX_VALUE, 1, TimeUnit.MILLISECONDS, dispatcher);
+		final BulkBatcher other = new BulkBatcher(builder(), Integer.MAX_VALUE, Integer.MAX_VALUE, 1, TimeUnit.MILLISECONDS, null);
+		final CountDownLatch slow = new CountDownLatch(slowOps + 1);
+		final CountDownLatch fast = new CountDownLatch(1);
+		final AtomicInteger failures = new AtomicInteger();
+		try {
+			for(int i = 0; i < slowOps; i++) {
+				blocked.op(MBeanOp.GETATTRIBUTE, Handlers.counting("onObject", slow, failures), JMXHelper.objectName("test.batch:type=Slow,id=" + i), "Value");
+			}
+			Thread.sleep(50);
+			// the linger flush of this batch waits for the slow batch to free the pipeline
+			blocked.op(MBeanOp.ISREGISTERED, Handlers.counting("onBoolean", slow, failures), MBeanServerDelegate.DELEGATE_NAME);
+			Thread.sleep(50);
+			final long start = System.currentTimeMillis();
+			other.op(MBeanOp.ISREGISTERED, Handlers.counting("onBoolean", fast, failures), MBeanServerDelegate.DELEGATE_NAME);
+			Assert.assertTrue("Linger flush was held back", fast.await(ParallelExecutionTest.DELAY * 2, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(System.currentTimeMillis() - start < ParallelExecutionTest.DELAY * 2);
+			Assert.assertTrue("Slow ops were not sent", slow.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, failures.get());
+		} finally {
+			other.close();
+			blocked.close();
+			dispatcher.close();
+		}
+	}
+
+	/**
+	 * Tests that the encoded size triggers a flush and that concurrent callers lose no ops.
+	 * Each op checks a distinct ObjectName so none are coalesced.
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentCallers() throws Exception {
+		final BulkBatcher batcher = new BulkBatcher(builder(), Integer.MAX_VALUE, 512, 1, TimeUnit.SECONDS, null);
+		final int threads = 4, ops = 200;
+		final CountDownLatch latch = new CountDownLatch(threads * ops);
+		final AtomicInteger failures = new AtomicInteger();
+		final Thread[] callers = new Thread[threads];
+		try {
+			for(int t = 0; t < threads; t++) {
+				final int thread = t;
+				callers[t] = new Thread() {
+					@Override
+					public void run() {
+						for(int i = 0; i < ops; i++) {
+							batcher.op(MBeanOp.ISREGISTERED, Handlers.counting("onBoolean", latch, failures), JMXHelper.objectName("test.batch:thread=" + thread + ",id=" + i));
+						}
+					}
+				};
+				callers[t].start();
+			}
+			for(final Thread t: callers) t.join();
+			batcher.flush();
+			Assert.assertTrue("Ops were lost", latch.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, failures.get());
+			Assert.assertTrue(batcher.getByteFlushes() > 1);
+			Assert.assertEquals(threads * ops, batcher.getFlushedOps());
+			Assert.assertEquals(0, batcher.getCoalescedOps());
+		} finally {
+			batcher.close();
+		}
+	}
+}
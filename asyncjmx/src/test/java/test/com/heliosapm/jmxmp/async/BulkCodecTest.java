@@ -0,0 +1,157 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkDecoder;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+
+/**
+ * <p>Title: BulkCodecTest</p>
+ * <p>Description: Round trip tests for the bulk payload codecs</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.BulkCodecTest</code></p>
+ */
+
+public class BulkCodecTest {
+
+	/**
+	 * Builds a sample of the values bulk ops pass as arguments and results
+	 * @return the sample values
+	 * @throws Exception thrown on any error
+	 */
+	protected static Object[] sampleValues() throws Exception {
+		final AttributeList attrs = new AttributeList();
+		attrs.add(new Attribute("Count", 5L));
+		attrs.add(new Attribute("Name", "PS Scavenge"));
+		final Set<ObjectName> names = new HashSet<ObjectName>();
+		names.add(new ObjectName("java.lang:type=Memory"));
+		names.add(new ObjectName("java.lang:type=GarbageCollector,name=PS Scavenge"));
+		return new Object[] {
+			null, true, false, (byte)3, (short)-4, -77, Integer.MIN_VALUE, 123456789012L, 1.5f, 2.5d, 'c',
+			"HeapMemoryUsage", new String[]{"a", null, "b"}, new ObjectName("java.lang:type=GarbageCollector,*"),
+			new Attribute("Verbose", true), attrs, new Object[]{1, "z"}, names, new Date(0)
+		};
+	}
+
+	/**
+	 * Writes then reads the sample values through the passed codec
+	 * @param codec The codec to test
+	 * @return the size of the encoded payload
+	 * @throws Exception thrown on any error
+	 */
+	protected static int roundTrip(final BulkCodec codec) throws Exception {
+		final Object[] values = sampleValues();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final BulkEncoder encoder = codec.newEncoder(baos, null);
+		encoder.writeByte(7);
+		encoder.writeInt(values.length);
+		for(Object value: values) {
+			encoder.writeValue(value);
+		}
+		encoder.flush();
+		final BulkDecoder decoder = codec.newDecoder(new ByteArrayInputStream(baos.toByteArray()), null);
+		Assert.assertEquals(7, decoder.readByte());
+		Assert.assertEquals(values.length, decoder.readInt());
+		for(Object value: values) {
+			final Object read = decoder.readValue();
+			if(value instanceof Object[]) {
+				Assert.assertTrue(Arrays.deepEquals((Object[])value, (Object[])read));
+			} else if(value instanceof Attribute) {
+				Assert.assertEquals(((Attribute)value).getName(), ((Attribute)read).getName());
+				Assert.assertEquals(((Attribute)value).getValue(), ((Attribute)read).getValue());
+			} else {
+				Assert.assertEquals(String.valueOf(value), String.valueOf(read));
+			}
+		}
+		return baos.size();
+	}
+
+	/**
+	 * Tests a tagged binary codec round trip
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTaggedRoundTrip() throws Exception {
+		roundTrip(BulkCodecs.TAGGED);
+	}
+
+	/**
+	 * Tests a java serialization codec round trip
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testJavaRoundTrip() throws Exception {
+		roundTrip(BulkCodecs.JAVA);
+	}
+
+	/**
+	 * Tests that repeated strings and ObjectNames are written as dictionary references
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDictionaryReferences() throws Exception {
+		final ObjectName on = new ObjectName("java.lang:type=GarbageCollector,name=PS MarkSweep");
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final BulkEncoder encoder = BulkCodecs.TAGGED.newEncoder(baos, null);
+		for(int i = 0; i < 100; i++) {
+			final AttributeList attrs = new AttributeList();
+			attrs.add(new Attribute("CollectionCount", (long)i));
+			encoder.writeValue(on);
+			encoder.writeValue("CollectionTime");
+			encoder.writeValue(attrs);
+		}
+		encoder.flush();
+		Assert.assertEquals(baos.size(), encoder.getBytesWritten());
+		Assert.assertTrue(encoder.getDictionarySavings() > encoder.getBytesWritten());
+		final BulkDecoder decoder = BulkCodecs.TAGGED.newDecoder(new ByteArrayInputStream(baos.toByteArray()), null);
+		for(int i = 0; i < 100; i++) {
+			Assert.assertEquals(on, decoder.readValue());
+			Assert.assertEquals("CollectionTime", decoder.readValue());
+			final Attribute attr = (Attribute)((AttributeList)decoder.readValue()).get(0);
+			Assert.assertEquals("CollectionCount", attr.getName());
+			Assert.assertEquals((long)i, attr.getValue());
+		}
+	}
+
+	/**
+	 * Tests that the tagged codec is more compact than java serialization
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTaggedIsSmaller() throws Exception {
+		Assert.assertTrue(roundTrip(BulkCodecs.TAGGED) < roundTrip(BulkCodecs.JAVA));
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkInvocation;
+import com.heliosapm.jmxmp.async.buffer.BufferPool;
+import com.heliosapm.jmxmp.async.buffer.PooledBuffer;
+import com.heliosapm.jmxmp.async.compress.BulkCompressor;
+import com.heliosapm.jmxmp.async.compress.CompressionPolicy;
+import com.heliosapm.jmxmp.async.compress.Compressors;
+
+/**
+ * <p>Title: BulkCompressionTest</p>
+ * <p>Description: Tests for the bulk payload compressors and the adaptive compression policy</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.BulkCompressionTest</code></p>
+ */
+
+public class BulkCompressionTest {
+
+	/**
+	 * Builds sample payloads: empty, tiny, repetitive JMX text, long runs and random bytes
+	 * @return the sample payloads
+	 */
+	protected static byte[][] samplePayloads() {
+		final StringBuilder b = new StringBuilder();
+		for(int i = 0; i < 200; i++) {
+			b.append("java.lang:type=GarbageCollector,name=PS Scavenge CollectionCount ").append(i).append(" CollectionTime ").append(i * 7);
+		}
+		final byte[] random = new byte[5000];
+		new Random(42).nextBytes(random);
+		final byte[] run = new byte[70000];
+		Arrays.fill(run, (byte)7);
+		return new byte[][] {new byte[0], new byte[]{1, 2, 3}, b.toString().getBytes(Charset.forName("UTF-8")), random, run};
+	}
+
+	/**
+	 * Compresses the passed bytes into a copied array
+	 * @param compressor The compressor
+	 * @param src The bytes to compress
+	 * @return the compressed bytes
+	 * @throws Exception thrown on any error
+	 */
+	protected static byte[] compress(final BulkCompressor compressor, final byte[] src) throws Exception {
+		final PooledBuffer out = BufferPool.getInstance().buffer(64);
+		try {
+			compressor.compress(src, 0, src.length, out);
+			return Arrays.copyOf(out.array(), out.size());
+		} finally {
+			out.release();
+		}
+	}
+
+	/**
+	 * Decompresses the passed bytes into a copied array
+	 * @param compressor The compressor
+	 * @param src The bytes to decompress
+	 * @return the decompressed bytes
+	 * @throws Exception thrown on any error
+	 */
+	protected static byte[] decompress(final BulkCompressor compressor, final byte[] src) throws Exception {
+		final PooledBuffer out = BufferPool.getInstance().buffer(64);
+		try {
+			compressor.decompress(src, 0, src.length, out);
+			return Arrays.copyOf(out.array(), out.size());
+		} finally {
+			out.release();
+		}
+	}
+
+	/**
+	 * Tests that every registered compressor round trips the sample payloads
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRoundTrips() throws Exception {
+		for(byte id: Compressors.getSupportedIds()) {
+			final BulkCompressor compressor = Compressors.get(id);
+			for(byte[] payload: samplePayloads()) {
+				final byte[] compressed = compress(compressor, payload);
+				Assert.assertArrayEquals(compressor.getName(), payload, decompress(compressor, compressed));
+			}
+		}
+		final byte[] text = samplePayloads()[2];
+		for(int level = 0; level < 10; level++) {
+			final byte[] compressed = compress(Compressors.dictionaryDeflate(level), text);
+			Assert.assertArrayEquals(text, decompress(Compressors.DEFLATE_DICTIONARY, compressed));
+		}
+	}
+
+	/**
+	 * Tests that compressors append to, and decompress into, buffers that already hold bytes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAppendToBuffer() throws Exception {
+		final byte[] text = samplePayloads()[2];
+		for(byte id: Compressors.getSupportedIds()) {
+			final BulkCompressor compressor = Compressors.get(id);
+			final PooledBuffer out = BufferPool.getInstance().buffer(16);
+			final PooledBuffer in = BufferPool.getInstance().buffer(16);
+			try {
+				out.write(new byte[]{9, 9, 9});
+				compressor.compress(text, 0, text.length, out);
+				in.write(new byte[]{8, 8});
+				compressor.decompress(out.array(), 3, out.size() - 3, in);
+				Assert.assertEquals(compressor.getName(), text.length + 2, in.size());
+				Assert.assertEquals(8, in.array()[1]);
+				Assert.assertArrayEquals(compressor.getName(), text, Arrays.copyOfRange(in.array(), 2, in.size()));
+			} finally {
+				out.release();
+				in.release();
+			}
+		}
+	}
+
+	/**
+	 * Tests that the preset dictionary helps small JMX payloads
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDictionaryHelpsSmallPayloads() throws Exception {
+		final byte[] small = "java.lang:type=Memory HeapMemoryUsage committed init max used".getBytes(Charset.forName("UTF-8"));
+		Assert.assertTrue(compress(Compressors.DEFLATE_DICTIONARY, small).length < compress(Compressors.DEFLATE, small).length);
+	}
+
+	/**
+	 * Tests the adaptive size threshold and ratio cut off
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAdaptivePolicy() throws Exception {
+		final CompressionPolicy policy = new CompressionPolicy(Compressors.LZ, 100, 0.9);
+		Assert.assertSame(Compressors.NONE, policy.select(10));
+		Assert.assertSame(Compressors.LZ, policy.select(1000));
+		final byte[] random = samplePayloads()[3];
+		final byte[] compressed = compress(Compressors.LZ, random);
+		Assert.assertFalse(policy.record(Compressors.LZ, random.length, compressed.length));
+		int probes = 0;
+		for(int i = 0; i < CompressionPolicy.PROBE_INTERVAL; i++) {
+			if(policy.select(random.length)==Compressors.LZ) probes++;
+		}
+		Assert.assertEquals(1, probes);
+	}
+
+	/**
+	 * Tests that the compressor id survives externalization
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHeaderRoundTrip() throws Exception {
+		final byte[] payload = compress(Compressors.LZ, new byte[]{1, 1, 1, 1, 1, 1, 1, 1});
+		final BulkInvocation bi = new BulkInvocation(0, payload, Compressors.LZ.getId(), (byte)1, 5L, Compressors.DEFLATE.getId());
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(bi);
+		oos.close();
+		final BulkInvocation read = (BulkInvocation)new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+		Assert.assertSame(Compressors.LZ, read.getCompressor());
+		Assert.assertEquals(Compressors.DEFLATE.getId(), read.getResponseCompressorId());
+		Assert.assertEquals(5L, read.getSessionId());
+	}
+
+}
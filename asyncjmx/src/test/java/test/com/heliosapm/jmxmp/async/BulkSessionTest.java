@@ -0,0 +1,231 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.BulkResponse;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkDecoder;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+import com.heliosapm.jmxmp.async.codec.ObjectNameHandles;
+import com.heliosapm.jmxmp.async.server.BulkServiceSession;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: BulkSessionTest</p>
+ * <p>Description: Tests for the session scoped ObjectName handles</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.BulkSessionTest</code></p>
+ */
+
+public class BulkSessionTest {
+
+	/**
+	 * Writes the passed ObjectName with the client handles and reads it back with the service session
+	 * @param on The ObjectName to write
+	 * @param client The client side handles
+	 * @param session The service side session
+	 * @return the ObjectName read by the service
+	 * @throws Exception thrown on any error
+	 */
+	protected static ObjectName roundTrip(final ObjectName on, final ObjectNameHandles client, final BulkServiceSession session) throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final BulkEncoder encoder = BulkCodecs.TAGGED.newEncoder(baos, client);
+		encoder.writeValue(on);
+		encoder.flush();
+		final BulkDecoder decoder = BulkCodecs.TAGGED.newDecoder(new ByteArrayInputStream(baos.toByteArray()), session);
+		return (ObjectName)decoder.readValue();
+	}
+
+	/**
+	 * Tests that a handle is assigned, used, and evicted on unregistration
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHandleLifecycle() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName on = new ObjectName("test.bulk:type=Handle");
+		server.registerMBean(new Sample(), on);
+		final BulkServiceSession session = new BulkServiceSession(1L, server);
+		final int[] clientHandle = {-1};
+		final ObjectNameHandles client = new ObjectNameHandles() {
+			@Override
+			public int handleOf(final ObjectName name) {
+				return on.equals(name) ? clientHandle[0] : -1;
+			}
+			@Override
+			public ObjectName resolve(final int handle) {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public void register(final ObjectName name) {
+				/* No Op */
+			}
+		};
+		try {
+			Assert.assertEquals(on, roundTrip(on, client, session));
+			final BulkResponse response = new BulkResponse(0, new byte[0], false);
+			session.writeUpdates(response);
+			Assert.assertEquals(1, response.getAssignedHandles().length);
+			Assert.assertEquals(on.getCanonicalName(), response.getAssignedNames()[0]);
+			clientHandle[0] = response.getAssignedHandles()[0];
+			Assert.assertEquals(on, roundTrip(on, client, session));
+			server.unregisterMBean(on);
+			session.evict(on);
+			final ObjectName stale = roundTrip(on, client, session);
+			Assert.assertEquals(BulkServiceSession.STALE_DOMAIN, stale.getDomain());
+			try {
+				server.getAttribute(stale, "Value");
+				Assert.fail("Stale handle reached an MBean");
+			} catch (InstanceNotFoundException iex) {
+				/* expected */
+			}
+			session.writeUpdates(response);
+			Assert.assertEquals(clientHandle[0], response.getEvictedHandles()[0]);
+		} finally {
+			if(server.isRegistered(on)) server.unregisterMBean(on);
+		}
+	}
+
+	/**
+	 * Tests that an eviction applied before the assignment of its handle, as pipelined responses can be, leaves the handle unknown
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOutOfOrderUpdates() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession client = new BulkClientSession(server);
+		final ObjectName on = new ObjectName("test.bulk:type=Reordered");
+		final BulkResponse assigned = new BulkResponse(0, new byte[0], false).setHandleUpdates(new int[]{7, 8}, new String[]{on.getCanonicalName(), "test.bulk:type=Other"}, new int[0]);
+		final BulkResponse evicted = new BulkResponse(0, new byte[0], false).setHandleUpdates(new int[0], new String[0], new int[]{7});
+		try {
+			client.apply(evicted);
+			client.apply(assigned);
+			Assert.assertEquals(-1, client.handleOf(on));
+			Assert.assertEquals(8, client.handleOf(new ObjectName("test.bulk:type=Other")));
+			Assert.assertEquals(1, client.getHandleCount());
+			// in order, the eviction still removes the handle
+			client.apply(new BulkResponse(0, new byte[0], false).setHandleUpdates(new int[0], new String[0], new int[]{8}));
+			Assert.assertEquals(-1, client.handleOf(new ObjectName("test.bulk:type=Other")));
+			Assert.assertEquals(0, client.getHandleCount());
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Tests that an assignment evicted before it was sent is dropped along with its eviction
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testUnsentAssignment() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName on = new ObjectName("test.bulk:type=Unsent");
+		server.registerMBean(new Sample(), on);
+		final BulkServiceSession session = new BulkServiceSession(3L, server);
+		try {
+			session.register(on);
+			Assert.assertTrue(session.handleOf(on) > 0);
+			session.evict(on);
+			final BulkResponse response = new BulkResponse(0, new byte[0], false);
+			session.writeUpdates(response);
+			Assert.assertEquals(0, response.getAssignedHandles().length);
+			Assert.assertEquals(0, response.getEvictedHandles().length);
+		} finally {
+			server.unregisterMBean(on);
+		}
+	}
+
+	/**
+	 * Tests that patterns are never assigned a handle, since no unregistration would ever evict it
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPatternsNotHandled() throws Exception {
+		final BulkServiceSession session = new BulkServiceSession(2L, ManagementFactory.getPlatformMBeanServer());
+		final ObjectName pattern = new ObjectName("java.lang:*");
+		session.register(pattern);
+		session.register(new ObjectName("test.bulk:type=Unregistered"));
+		Assert.assertEquals(-1, session.handleOf(pattern));
+		Assert.assertEquals(0, session.getHandleCount());
+		final BulkResponse response = new BulkResponse(0, new byte[0], false);
+		session.writeUpdates(response);
+		Assert.assertEquals(0, response.getAssignedHandles().length);
+	}
+
+	/**
+	 * Tests that idle sessions are expired when invocations arrive, without waiting for a new session to be opened
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testIdleSessionsSweptOnInvoke() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		service.setSessionIdleTimeout(300);
+		final BulkClientSession idle = new BulkClientSession(server);
+		Thread.sleep(200);
+		final BulkClientSession active = new BulkClientSession(server);
+		Assert.assertEquals(2, service.getSessionCount());
+		Thread.sleep(200);
+		final List<String> calls = new ArrayList<String>();
+		final BulkInvocationBuilder builder = active.newBuilder(false, 1024);
+		builder.op(MBeanOp.ISREGISTERED, Handlers.values(calls), BulkInvocationBuilder.BULK);
+		builder.build().send();
+		Assert.assertEquals("[onBoolean=true]", calls.toString());
+		Assert.assertEquals(1, service.getSessionCount());
+		idle.close();
+		active.close();
+	}
+
+	/** Sample MBean interface */
+	public static interface SampleMBean {
+		/**
+		 * Returns a value
+		 * @return a value
+		 */
+		public int getValue();
+	}
+
+	/** Sample MBean */
+	public static class Sample implements SampleMBean {
+		@Override
+		public int getValue() {
+			return 1;
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.FanOutResponseHandler;
+import com.heliosapm.jmxmp.async.HomeBulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: CoalescingTest</p>
+ * <p>Description: Tests for the deduping and merging of read ops in the invocation builder</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.CoalescingTest</code></p>
+ */
+
+public class CoalescingTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Tests that identical reads are deduped and getAttribute ops on one MBean are merged, but not across a write
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCoalescing() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final ObjectName a = new ObjectName("test.coalesce:id=a");
+		final ObjectName b = new ObjectName("test.coalesce:id=b");
+		server.registerMBean(new Gauge("a", 1), a);
+		server.registerMBean(new Gauge("b", 2), b);
+		final BulkInvocationBuilder builder = new BulkInvocationBuilder(false, 1024, new BulkClientSession(server));
+		final List<String> ax1 = new ArrayList<String>(), ax2 = new ArrayList<String>(), ay = new ArrayList<String>(), bx = new ArrayList<String>();
+		final List<String> missing = new ArrayList<String>(), reg1 = new ArrayList<String>(), reg2 = new ArrayList<String>();
+		final List<String> set = new ArrayList<String>(), after = new ArrayList<String>();
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(ax1), a, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(ay), a, "Name");
+		builder.op(MBeanOp.ISREGISTERED, Handlers.values(reg1), a);
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(ax2), a, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(bx), b, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(missing), a, "Nope");
+		builder.op(MBeanOp.ISREGISTERED, Handlers.values(reg2), new ObjectName("test.coalesce:id=a"));
+		builder.op(MBeanOp.SETATTRIBUTE, Handlers.values(set), a, new Attribute("Value", 5));
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(after), a, "Value");
+		Assert.assertEquals(9, builder.getOpCount());
+		Assert.assertEquals(4, builder.getCoalescedOps());
+		final HomeBulkInvocation hbi = builder.build();
+		// isRegistered, getAttributes(a), getAttribute(b), setAttribute, getAttribute(a)
+		Assert.assertEquals(5, hbi.getOpCount());
+		Assert.assertEquals(4, hbi.getCoalescedOps());
+		hbi.send();
+		Assert.assertEquals("[onObject=1]", ax1.toString());
+		Assert.assertEquals("[onObject=1]", ax2.toString());
+		Assert.assertEquals("[onObject=a]", ay.toString());
+		Assert.assertEquals("[onObject=2]", bx.toString());
+		Assert.assertEquals("[onFail=" + AttributeNotFoundException.class.getSimpleName() + "]", missing.toString());
+		Assert.assertEquals("[onBoolean=true]", reg1.toString());
+		Assert.assertEquals("[onBoolean=true]", reg2.toString());
+		Assert.assertEquals("[onComplete=]", set.toString());
+		Assert.assertEquals("[onObject=5]", after.toString());
+	}
+
+	/**
+	 * Tests that reads are deduped past the initial capacity of the read table, and that a fan out handler passed
+	 * in for a merged getAttribute op is called back but not added to
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testManyReads() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final ObjectName a = new ObjectName("test.coalesce:id=a");
+		server.registerMBean(new Gauge("a", 1), a);
+		final int reads = 40;
+		final List<String> calls = new ArrayList<String>();
+		final FanOutResponseHandler mine = new FanOutResponseHandler(Handlers.named("mine", calls));
+		final BulkInvocationBuilder builder = new BulkInvocationBuilder(false, 1024, new BulkClientSession(server));
+		builder.op(MBeanOp.GETATTRIBUTE, mine, a, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("other", calls), a, "Value");
+		for(int i = 0; i < reads * 2; i++) {
+			builder.op(MBeanOp.ISREGISTERED, Handlers.named("r" + i, calls), new ObjectName("test.coalesce:id=" + (i % reads)));
+		}
+		final HomeBulkInvocation hbi = builder.build();
+		Assert.assertEquals(reads + 1, hbi.getOpCount());
+		Assert.assertEquals(reads + 1, hbi.getCoalescedOps());
+		hbi.send();
+		Assert.assertEquals(1, mine.size());
+		Assert.assertEquals(reads * 2 + 2, calls.size());
+		Assert.assertTrue(calls.containsAll(Arrays.asList("mine:onObject:Integer", "other:onObject:Integer")));
+		for(int i = 0; i < reads * 2; i++) {
+			Assert.assertTrue(calls.contains("r" + i + ":onBoolean:Boolean"));
+		}
+	}
+
+	/** Gauge MBean interface */
+	public static interface GaugeMBean {
+		/**
+		 * Returns the gauge name
+		 * @return the name
+		 */
+		public String getName();
+		/**
+		 * Returns the gauge value
+		 * @return the value
+		 */
+		public int getValue();
+		/**
+		 * Sets the gauge value
+		 * @param value the value
+		 */
+		public void setValue(int value);
+	}
+
+	/** Gauge MBean */
+	public static class Gauge implements GaugeMBean {
+		/** The gauge name */
+		final String name;
+		/** The gauge value */
+		int value;
+
+		/**
+		 * Creates a new Gauge
+		 * @param name The gauge name
+		 * @param value The initial value
+		 */
+		public Gauge(final String name, final int value) {
+			this.name = name;
+			this.value = value;
+		}
+		@Override
+		public String getName() {
+			return name;
+		}
+		@Override
+		public int getValue() {
+			return value;
+		}
+		@Override
+		public void setValue(final int value) {
+			this.value = value;
+		}
+	}
+}
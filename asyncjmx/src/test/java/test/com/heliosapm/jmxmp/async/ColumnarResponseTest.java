@@ -0,0 +1,164 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.ColumnarResponseHandler;
+import com.heliosapm.jmxmp.async.HandlerTable;
+import com.heliosapm.jmxmp.async.HomeBulkResponse;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+import com.heliosapm.utils.tuples.NVP;
+
+/**
+ * <p>Title: ColumnarResponseTest</p>
+ * <p>Description: Tests for the columnar encoding of homogeneous getAttributes responses</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.ColumnarResponseTest</code></p>
+ */
+
+public class ColumnarResponseTest {
+	/** The number of homogeneous responses */
+	static final int ROWS = 500;
+
+	/**
+	 * Builds a thread pool style getAttributes result
+	 * @param i The pool index
+	 * @return the attribute list
+	 */
+	protected static AttributeList poolAttributes(final int i) {
+		final AttributeList list = new AttributeList();
+		list.add(new Attribute("CompletedTaskCount", 100000L + i));
+		list.add(new Attribute("ActiveCount", i % 7));
+		list.add(new Attribute("Load", i / 3D));
+		list.add(new Attribute("State", i % 2 == 0 ? "RUNNING" : "IDLE"));
+		list.add(new Attribute("Shutdown", false));
+		return list;
+	}
+
+	/**
+	 * Tests that a homogeneous run is written as columns, decodes in order and is smaller than the row encoding
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testColumnarRun() throws Exception {
+		final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, BulkCodecs.TAGGED);
+		final ByteArrayOutputStream rowEncoded = new ByteArrayOutputStream();
+		final BulkEncoder rowEncoder = BulkCodecs.TAGGED.newEncoder(rowEncoded, null);
+		builder.op(MBeanOp.GETMBEANCOUNT, 0, 12);
+		for(int i = 0; i < ROWS; i++) {
+			builder.op(MBeanOp.GETATTRIBUTES, i + 1, poolAttributes(i));
+			rowEncoder.writeByte(MBeanOp.GETATTRIBUTES.byteOrdinal);
+			rowEncoder.writeValue(poolAttributes(i));
+		}
+		rowEncoder.flush();
+		final AttributeList other = new AttributeList();
+		other.add(new Attribute("Uptime", 5L));
+		builder.op(MBeanOp.GETATTRIBUTES, ROWS + 1, other);
+		builder.op(MBeanOp.GETATTRIBUTE, ROWS + 2, "x");
+		final HomeBulkResponse response = builder.build();
+		Assert.assertEquals(1, builder.getColumnarRuns());
+		Assert.assertTrue(response.getEncodedSize() + " vs " + rowEncoded.size(), response.getEncodedSize() * 2 < rowEncoded.size());
+		final List<NVP<MBeanOp, Object>> results = response.getResponses();
+		final List<AttributeTable.Row> rows = new ArrayList<AttributeTable.Row>();
+		final HandlerTable handlers = new HandlerTable();
+		for(int i = 0; i < ROWS; i++) {
+			handlers.put(i + 1, rowHandler(rows));
+		}
+		response.dispatch(handlers);
+		response.release();
+		Assert.assertEquals(ROWS + 3, results.size());
+		Assert.assertEquals(12, results.get(0).getValue());
+		Assert.assertEquals(ROWS, rows.size());
+		for(int i = 0; i < ROWS; i++) {
+			// the list contract holds whether or not the result was sent in a run
+			Assert.assertSame(MBeanOp.GETATTRIBUTES, results.get(i + 1).getKey());
+			Assert.assertEquals(AttributeList.class, results.get(i + 1).getValue().getClass());
+			Assert.assertEquals(poolAttributes(i).toString(), results.get(i + 1).getValue().toString());
+			final AttributeTable.Row row = rows.get(i);
+			Assert.assertEquals(100000L + i, row.getLong("CompletedTaskCount"));
+			Assert.assertEquals(i / 3D, row.getDouble("Load"), 0D);
+			Assert.assertEquals(i % 7, row.getLong("ActiveCount"));
+		}
+		Assert.assertEquals(other.toString(), results.get(ROWS + 1).getValue().toString());
+		Assert.assertEquals("x", results.get(ROWS + 2).getValue());
+	}
+
+	/**
+	 * Creates a columnar handler collecting the rows it is called back with
+	 * @param rows The list to collect rows in
+	 * @return the handler
+	 */
+	protected static AsyncJMXResponseHandler rowHandler(final List<AttributeTable.Row> rows) {
+		return Handlers.proxy(ColumnarResponseHandler.class, new Handlers.Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				if("onAttributeRow".equals(method.getName())) rows.add((AttributeTable.Row)args[0]);
+				else Assert.fail("Unexpected callback [" + method.getName() + "]");
+			}
+		});
+	}
+
+	/**
+	 * Tests that short runs are not written as columns
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testShortRun() throws Exception {
+		final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, BulkCodecs.TAGGED);
+		for(int i = 0; i < BulkResponseBuilder.MIN_COLUMNAR_RUN - 1; i++) {
+			builder.op(MBeanOp.GETATTRIBUTES, i, poolAttributes(i));
+		}
+		final HomeBulkResponse response = builder.build();
+		Assert.assertEquals(0, builder.getColumnarRuns());
+		final List<NVP<MBeanOp, Object>> results = response.getResponses();
+		response.release();
+		Assert.assertTrue(results.get(0).getValue() instanceof AttributeList);
+	}
+
+	/**
+	 * Tests that rows go to the zero boxing callback of columnar handlers and as attribute lists to other handlers
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHandlerDispatch() throws Exception {
+		final AttributeTable.Builder tb = AttributeTable.builder("CompletedTaskCount", "ActiveCount", "Load", "State", "Shutdown");
+		tb.row(null, poolAttributes(3));
+		final AttributeTable.Row row = tb.build().row(0);
+		final List<String> calls = new ArrayList<String>();
+		MBeanOp.GETATTRIBUTES.handleResponse(row, Handlers.methods(AsyncJMXResponseHandler.class, calls));
+		MBeanOp.GETATTRIBUTES.handleResponse(row, Handlers.methods(ColumnarResponseHandler.class, calls));
+		Assert.assertEquals("[onAttributeList, onAttributeRow]", calls.toString());
+	}
+
+}
@@ -0,0 +1,100 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.HomeBulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: ConcurrentRecordingTest</p>
+ * <p>Description: Tests for ops added to one builder by many threads at once</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.ConcurrentRecordingTest</code></p>
+ */
+
+public class ConcurrentRecordingTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+	/** The number of threads adding ops */
+	static final int THREADS = 8;
+	/** The number of ops each thread adds */
+	static final int OPS = 100;
+
+	/**
+	 * Tests that every op added concurrently is encoded once, and that each thread's ops keep their order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentOps() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < OPS; i++) {
+							builder.op(MBeanOp.ISREGISTERED, Handlers.named(thread + ":" + i, calls), new ObjectName("test.recording:thread=" + thread + ",op=" + i));
+						}
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			});
+		}
+		for(final Thread t: threads) t.start();
+		start.countDown();
+		for(final Thread t: threads) t.join();
+		Assert.assertEquals(THREADS * OPS, builder.getOpCount());
+		final HomeBulkInvocation hbi = builder.build();
+		Assert.assertEquals(THREADS * OPS, hbi.getOpCount());
+		Assert.assertEquals(-1, builder.tryOp(MBeanOp.GETDEFAULTDOMAIN, null));
+		hbi.send();
+		Assert.assertEquals(THREADS * OPS, calls.size());
+		final int[] next = new int[THREADS];
+		for(final String call: calls) {
+			final String[] parts = call.split(":");
+			Assert.assertEquals("onBoolean", parts[2]);
+			final int thread = Integer.parseInt(parts[0]);
+			Assert.assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+		}
+		session.close();
+	}
+}
@@ -0,0 +1,252 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocation;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.HomeBulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.OpPriority;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: DeadlineTest</p>
+ * <p>Description: Tests for per op and per invocation deadlines</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.DeadlineTest</code></p>
+ */
+
+public class DeadlineTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Tests that an op which misses its own deadline fails with a timeout while the rest of the invocation returns
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOpDeadline() throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final ObjectName slow = new ObjectName("test.deadline:id=slow");
+		final ObjectName fast = new ObjectName("test.deadline:id=fast");
+		server.registerMBean(new ParallelExecutionTest.Slow(1), slow);
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.timedOp(50, MBeanOp.GETATTRIBUTE, Handlers.named("slow", calls), slow, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("fast", calls), fast, "Value");
+		final long start = System.nanoTime();
+		builder.build().send();
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("Waited [" + elapsed + "] ms for the slow op", elapsed < ParallelExecutionTest.DELAY);
+		Assert.assertEquals("[slow:onFail:" + TimeoutException.class.getSimpleName() + ", fast:onObject:Integer]", calls.toString());
+		Assert.assertEquals(1, service.getTimeoutCount());
+		Assert.assertEquals(Long.valueOf(1), service.getTimeoutCounts().get(slow.toString()));
+		service.resetTimeoutCounts();
+		Assert.assertTrue(service.getTimeoutCounts().isEmpty());
+		session.close();
+	}
+
+	/**
+	 * Tests that the service stops waiting for ops at the invocation deadline
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testInvocationDeadline() throws Exception {
+		final JMXBulkService service = new JMXBulkService(2);
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final ObjectName slow = new ObjectName("test.deadline:id=slow");
+		final ObjectName fast = new ObjectName("test.deadline:id=fast");
+		server.registerMBean(new ParallelExecutionTest.Slow(1), slow);
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024).setTimeout(50);
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("fast", calls), fast, "Value");
+		builder.op(MBeanOp.GETATTRIBUTES, Handlers.named("slow1", calls), slow, new String[]{"Value"});
+		builder.op(MBeanOp.ISREGISTERED, Handlers.named("slow2", calls), slow);
+		builder.op(MBeanOp.GETOBJECTINSTANCE, Handlers.named("slow3", calls), slow);
+		final long start = System.nanoTime();
+		builder.build().send();
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("Waited [" + elapsed + "] ms for the slow op", elapsed < ParallelExecutionTest.DELAY);
+		Assert.assertEquals(4, calls.size());
+		Assert.assertTrue(calls.toString(), calls.contains("fast:onObject:Integer"));
+		Assert.assertTrue(calls.toString(), calls.contains("slow1:onFail:" + TimeoutException.class.getSimpleName()));
+		Assert.assertTrue(calls.toString(), calls.contains("slow2:onBoolean:Boolean"));
+		Assert.assertTrue(calls.toString(), calls.contains("slow3:onObjectInstance:ObjectInstance"));
+		Assert.assertEquals(1, service.getTimeoutCount());
+		session.close();
+	}
+	
+	/**
+	 * Tests that a timed mutating op which runs past its deadline is still an ordering barrier
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMutatingDeadline() throws Exception {
+		final JMXBulkService service = new JMXBulkService(2);
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final ObjectName on = new ObjectName("test.deadline:id=write");
+		server.registerMBean(new SlowWrite(), on);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.timedOp(50, MBeanOp.SETATTRIBUTE, Handlers.values(calls), on, new Attribute("Value", 5));
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.values(calls), on, "Value");
+		builder.build().send();
+		Assert.assertEquals("[onFail=" + TimeoutException.class.getSimpleName() + ", onObject=5]", calls.toString());
+		Assert.assertEquals(1, service.getTimeoutCount());
+		session.close();
+	}
+	
+	/**
+	 * The slow writer MBean interface
+	 */
+	public static interface SlowWriteMBean {
+		/**
+		 * Returns the value
+		 * @return the value
+		 */
+		public int getValue();
+		/**
+		 * Sets the value after a delay
+		 * @param value The value
+		 */
+		public void setValue(int value);
+	}
+	
+	/**
+	 * An MBean whose writes take longer than their deadline
+	 */
+	public static class SlowWrite implements SlowWriteMBean {
+		/** The value */
+		volatile int value = 0;
+
+		@Override
+		public int getValue() {
+			return value;
+		}
+
+		@Override
+		public void setValue(final int value) {
+			try {
+				Thread.sleep(ParallelExecutionTest.DELAY);
+			} catch (InterruptedException iex) {
+				throw new RuntimeException(iex);
+			}
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * A bulk service which predates the versioned header
+	 */
+	public static class LegacyService extends JMXBulkService {
+		@Override
+		public int getSupportedFeatures() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * Serializes and reads back an invocation as the bulk service would receive it
+	 * @param hbi The invocation to send
+	 * @return the invocation read back
+	 * @throws Exception thrown on any error
+	 */
+	protected static BulkInvocation roundTrip(final HomeBulkInvocation hbi) throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(hbi);
+		oos.close();
+		return (BulkInvocation)new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+	}
+
+	/**
+	 * Tests that deadlines and priorities travel in the versioned header when the service supports them
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testVersionedHeader() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession session = new BulkClientSession(server);
+		Assert.assertTrue(session.supports(BulkInvocation.SUPPORTED_FEATURES));
+		final List<String> calls = new ArrayList<String>();
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024).setTimeout(500);
+		builder.timedOp(50, MBeanOp.GETDEFAULTDOMAIN, Handlers.named("timed", calls));
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETMBEANCOUNT, Handlers.named("critical", calls));
+		final BulkInvocation read = roundTrip(builder.build());
+		Assert.assertEquals(BulkInvocation.SUPPORTED_FEATURES, read.getFeatures());
+		Assert.assertEquals(500L, read.getTimeout());
+		Assert.assertEquals(50L, read.getOpTimeout(0));
+		Assert.assertEquals(OpPriority.CRITICAL, read.getPriority(1));
+		read.release();
+		session.close();
+	}
+
+	/**
+	 * Tests that deadlines are refused and priorities dropped for a service which predates the versioned header
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testLegacyServiceNegotiation() throws Exception {
+		server.registerMBean(new LegacyService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession session = new BulkClientSession(server);
+		Assert.assertFalse(session.supports(BulkInvocation.FEATURE_DEADLINES));
+		Assert.assertFalse(session.supports(BulkInvocation.FEATURE_PRIORITIES));
+		final List<String> calls = new ArrayList<String>();
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		try {
+			builder.timedOp(50, MBeanOp.GETDEFAULTDOMAIN, Handlers.named("timed", calls));
+			Assert.fail("Deadlines were accepted");
+		} catch (UnsupportedOperationException expected) {/* No Op */}
+		try {
+			builder.setTimeout(50);
+			Assert.fail("Deadlines were accepted");
+		} catch (UnsupportedOperationException expected) {/* No Op */}
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETMBEANCOUNT, Handlers.named("critical", calls));
+		final HomeBulkInvocation hbi = builder.build();
+		Assert.assertEquals(0, hbi.getFeatures());
+		hbi.send();
+		Assert.assertEquals("[critical:onInteger:Integer]", calls.toString());
+		session.close();
+	}
+}
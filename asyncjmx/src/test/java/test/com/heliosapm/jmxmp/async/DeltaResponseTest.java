@@ -0,0 +1,193 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkResponse;
+import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.DeltaMirror;
+import com.heliosapm.jmxmp.async.HomeBulkResponse;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.server.DeltaTable;
+import com.heliosapm.utils.tuples.NVP;
+
+/**
+ * <p>Title: DeltaResponseTest</p>
+ * <p>Description: Tests for delta session responses resolved against the client mirror</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.DeltaResponseTest</code></p>
+ */
+
+public class DeltaResponseTest {
+	/** The number of polled MBeans */
+	static final int MBEANS = 20;
+	/** The service side delta table */
+	final DeltaTable table = new DeltaTable(DeltaTable.DEFAULT_CAPACITY);
+	/** The client side mirror */
+	final DeltaMirror mirror = new DeltaMirror();
+
+	/**
+	 * Builds a pool's getAttributes result with mostly static values
+	 * @param i The pool index
+	 * @param poll The poll number
+	 * @return the attribute list
+	 */
+	protected static AttributeList poolAttributes(final int i, final int poll) {
+		final AttributeList list = new AttributeList();
+		list.add(new Attribute("MaximumPoolSize", 100 + i));
+		list.add(new Attribute("Name", "pool-" + i));
+		list.add(new Attribute("Daemon", true));
+		list.add(new Attribute("CompletedTaskCount", (long)poll * (i + 1)));
+		return list;
+	}
+
+	/**
+	 * Polls the pools through the delta table and resolves the response against the mirror
+	 * @param poll The poll number
+	 * @param ack The serial the client acknowledges
+	 * @param resolve true to resolve the response, false to lose it
+	 * @return the encoded response size
+	 * @throws Exception thrown on any error
+	 */
+	protected int poll(final int poll, final long ack, final boolean resolve) throws Exception {
+		final boolean reset = table.begin(ack, DeltaTable.DEFAULT_CAPACITY);
+		final HomeBulkResponse response;
+		try {
+			final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, BulkCodecs.TAGGED);
+			for(int i = 0; i < MBEANS; i++) {
+				final Object[] args = {pool(i), new String[]{"MaximumPoolSize", "Name", "Daemon", "CompletedTaskCount"}};
+				builder.op(MBeanOp.GETATTRIBUTES, i, table.filter(MBeanOp.GETATTRIBUTES, args, poolAttributes(i, poll)));
+			}
+			response = builder.build();
+			response.setDelta(table.getSerial(), reset);
+		} finally {
+			table.end();
+		}
+		final int size = response.getEncodedSize();
+		final BulkResponse read = reread(response);
+		if(!resolve) {
+			read.release();
+			return size;
+		}
+		mirror.begin(read.isDeltaReset());
+		final List<NVP<MBeanOp, Object>> results = read.getResponses(mirror);
+		mirror.commit(read.getDeltaSerial());
+		read.release();
+		Assert.assertEquals(MBEANS, results.size());
+		for(int i = 0; i < MBEANS; i++) {
+			Assert.assertEquals(poolAttributes(i, poll).toString(), results.get(i).getValue().toString());
+		}
+		return size;
+	}
+
+	/**
+	 * Writes and reads back a response through java serialization
+	 * @param response The response to write
+	 * @return the read response
+	 * @throws Exception thrown on any error
+	 */
+	protected static BulkResponse reread(final BulkResponse response) throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(response);
+		oos.close();
+		return (BulkResponse)new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+	}
+
+	/**
+	 * Returns the ObjectName of a pool
+	 * @param i The pool index
+	 * @return the ObjectName
+	 * @throws Exception thrown on any error
+	 */
+	protected static ObjectName pool(final int i) throws Exception {
+		return new ObjectName("test.delta:type=Pool,id=" + i);
+	}
+
+	/**
+	 * Tests that unchanged values are sent as markers and resolved to the full results
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testUnchangedValues() throws Exception {
+		final int full = poll(1, mirror.getSerial(), true);
+		Assert.assertEquals(0, table.getUnchanged());
+		final int delta = poll(2, mirror.getSerial(), true);
+		Assert.assertEquals(MBEANS * 3, table.getUnchanged());
+		Assert.assertTrue(delta + " vs " + full, delta * 4 < full * 3);
+		poll(3, mirror.getSerial(), true);
+		Assert.assertEquals(MBEANS * 4, mirror.size());
+	}
+
+	/**
+	 * Tests that a lost response resets the session's deltas
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testLostResponse() throws Exception {
+		poll(1, mirror.getSerial(), true);
+		final long ack = mirror.getSerial();
+		poll(2, ack, false);
+		poll(3, ack, true);
+		Assert.assertEquals(0, table.getUnchanged());
+		poll(4, mirror.getSerial(), true);
+		Assert.assertEquals(MBEANS * 3, table.getUnchanged());
+	}
+
+	/**
+	 * Tests that the remembered values are bounded, evicting the least recently polled
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCapacity() throws Exception {
+		final DeltaTable small = new DeltaTable(2);
+		final DeltaMirror client = new DeltaMirror();
+		final List<Object> expected = new ArrayList<Object>();
+		final List<Object> resolved = new ArrayList<Object>();
+		for(int round = 0; round < 3; round++) {
+			small.begin(client.getSerial(), 2);
+			client.begin(false);
+			for(int i = 0; i < 3; i++) {
+				expected.add("v" + i);
+				resolved.add(client.resolve(small.filter(MBeanOp.GETATTRIBUTE, new Object[]{pool(i), "Value"}, "v" + i)));
+			}
+			client.commit(small.getSerial());
+			small.end();
+		}
+		Assert.assertEquals(expected, resolved);
+		Assert.assertEquals(2, small.size());
+		Assert.assertEquals(7, small.getEvictionCount());
+		Assert.assertEquals(2, client.size());
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.HandlerTable;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: HandlerTableTest</p>
+ * <p>Description: Tests for the array backed table responses are dispatched to their handlers through</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.HandlerTableTest</code></p>
+ */
+
+public class HandlerTableTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+	/** The number of ops sent */
+	static final int OPS = 50;
+
+	/**
+	 * Tests that handlers are taken once, that the table grows past its capacity, and that failing it reaches only the handlers not yet taken
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTakeAndFail() throws Exception {
+		final List<String> calls = new ArrayList<String>();
+		final HandlerTable table = new HandlerTable(2);
+		for(int i = 0; i < 5; i++) {
+			table.put(i * 3, Handlers.named("h" + i, calls));
+		}
+		Assert.assertEquals(5, table.size());
+		Assert.assertNull(table.get(1));
+		Assert.assertEquals(3, table.next(1));
+		Assert.assertNotNull(table.take(3));
+		Assert.assertNull(table.take(3));
+		Assert.assertNull(table.take(100));
+		table.dispatch(6, MBeanOp.ISREGISTERED, Boolean.TRUE);
+		table.dispatch(6, MBeanOp.ISREGISTERED, Boolean.TRUE);
+		Assert.assertEquals(3, table.size());
+		table.failAll(new Exception());
+		Assert.assertTrue(table.isEmpty());
+		Assert.assertEquals(-1, table.next(0));
+		Assert.assertEquals("[h2:onBoolean:Boolean, h0:onFail:Exception, h3:onFail:Exception, h4:onFail:Exception]", calls.toString());
+	}
+
+	/**
+	 * Tests that one handler instance registered for every op of an invocation is called back with each result in op order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testReusedHandler() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<Object> values = new ArrayList<Object>();
+		final AsyncJMXResponseHandler handler = Handlers.proxy(AsyncJMXResponseHandler.class, new Handlers.Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				values.add(args==null ? null : args[0]);
+			}
+		});
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		for(int i = 0; i < OPS; i++) {
+			final ObjectName on = new ObjectName("test.handlers:op=" + i);
+			if(i % 2==0) server.registerMBean(new CoalescingTest.Gauge("g" + i, i), on);
+			builder.op(MBeanOp.ISREGISTERED, handler, on);
+		}
+		builder.build().send();
+		Assert.assertEquals(OPS, values.size());
+		for(int i = 0; i < OPS; i++) {
+			Assert.assertEquals(i % 2==0, values.get(i));
+		}
+		session.close();
+	}
+}
@@ -0,0 +1,153 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+
+/**
+ * <p>Title: Handlers</p>
+ * <p>Description: Call recording response handler proxies shared by the async tests</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.Handlers</code></p>
+ */
+
+public class Handlers {
+
+	/**
+	 * <p>Title: Callback</p>
+	 * <p>Description: Receives each handler callback made on a proxy created by {@link Handlers#proxy(Class, Callback)}</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.com.heliosapm.jmxmp.async.Handlers.Callback</code></p>
+	 */
+	public interface Callback {
+		/**
+		 * Called on each handler callback
+		 * @param method The called handler method
+		 * @param args The callback arguments, or null if there were none
+		 */
+		public void call(Method method, Object[] args);
+	}
+
+	/**
+	 * Creates a handler proxy of the passed type which passes each callback to the passed callback.
+	 * {@link Object} methods are answered with proxy identity semantics.
+	 * @param type The handler interface
+	 * @param callback The callback to pass handler callbacks to
+	 * @return the handler
+	 */
+	public static <T extends AsyncJMXResponseHandler> T proxy(final Class<T> type, final Callback callback) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				if(method.getDeclaringClass()==Object.class) {
+					if("equals".equals(method.getName())) return proxy==args[0];
+					if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+					return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+				}
+				callback.call(method, args);
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Creates a handler which records its name, callback and the type of the callback value as <code>name:callback:Type</code>
+	 * @param name The name recorded
+	 * @param calls The list to record the callbacks in
+	 * @return the handler
+	 */
+	public static AsyncJMXResponseHandler named(final String name, final List<String> calls) {
+		return named(AsyncJMXResponseHandler.class, name, calls);
+	}
+
+	/**
+	 * Creates a handler of the passed type which records its name, callback and the type of the callback value as <code>name:callback:Type</code>
+	 * @param type The handler interface
+	 * @param name The name recorded
+	 * @param calls The list to record the callbacks in
+	 * @return the handler
+	 */
+	public static <T extends AsyncJMXResponseHandler> T named(final Class<T> type, final String name, final List<String> calls) {
+		return proxy(type, new Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				calls.add(name + ":" + method.getName() + ":" + (args==null || args[0]==null ? null : args[0].getClass().getSimpleName()));
+			}
+		});
+	}
+
+	/**
+	 * Creates a handler of the passed type which records the name of each callback
+	 * @param type The handler interface
+	 * @param calls The list to record the callbacks in
+	 * @return the handler
+	 */
+	public static <T extends AsyncJMXResponseHandler> T methods(final Class<T> type, final List<String> calls) {
+		return proxy(type, new Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				calls.add(method.getName());
+			}
+		});
+	}
+
+	/**
+	 * Creates a handler which records each callback as <code>callback=value</code>, and failures as <code>onFail=ExceptionType</code>
+	 * @param calls The list to record the callbacks in
+	 * @return the handler
+	 */
+	public static AsyncJMXResponseHandler values(final List<String> calls) {
+		return proxy(AsyncJMXResponseHandler.class, new Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				if("onFail".equals(method.getName())) {
+					calls.add("onFail=" + args[0].getClass().getSimpleName());
+				} else {
+					calls.add(method.getName() + "=" + (args==null ? "" : String.valueOf(args[0])));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Creates a handler which counts down the passed latch on each call of the named callback
+	 * @param name The name of the counted callback
+	 * @param latch The latch to count down
+	 * @param failures Incremented on each failure
+	 * @return the handler
+	 */
+	public static AsyncJMXResponseHandler counting(final String name, final CountDownLatch latch, final AtomicInteger failures) {
+		return proxy(AsyncJMXResponseHandler.class, new Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				if(name.equals(method.getName())) latch.countDown();
+				else if("onFail".equals(method.getName())) failures.incrementAndGet();
+			}
+		});
+	}
+
+	private Handlers() {}
+}
@@ -0,0 +1,129 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.MBeanInfoCache;
+
+/**
+ * <p>Title: MBeanInfoCacheTest</p>
+ * <p>Description: Tests for the client side MBeanInfo cache</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.MBeanInfoCacheTest</code></p>
+ */
+
+public class MBeanInfoCacheTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Caches the MBeanInfo of the passed MBean as a getMBeanInfo op would
+	 * @param cache The cache
+	 * @param on The ObjectName of the MBean
+	 * @return the MBeanInfo
+	 * @throws Exception thrown on any error
+	 */
+	protected MBeanInfo fetch(final MBeanInfoCache cache, final ObjectName on) throws Exception {
+		final MBeanInfo cached = cache.get(on);
+		if(cached!=null) return cached;
+		final long generation = cache.generation();
+		final MBeanInfo info = server.getMBeanInfo(on);
+		cache.put(on, info, generation);
+		return info;
+	}
+
+	/**
+	 * Tests that MBeanInfos are cached and dropped when their MBean is unregistered
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRegistrationInvalidation() throws Exception {
+		final MBeanInfoCache cache = new MBeanInfoCache(server, 16);
+		final ObjectName a = new ObjectName("test.info:id=a");
+		final ObjectName b = new ObjectName("test.info:id=b");
+		server.registerMBean(new OpResultCacheTest.Counter(), a);
+		server.registerMBean(new OpResultCacheTest.Counter(), b);
+		final MBeanInfo info = fetch(cache, a);
+		fetch(cache, b);
+		Assert.assertSame(info, fetch(cache, new ObjectName("test.info:id=a")));
+		Assert.assertEquals(1, cache.getHitCount());
+		server.unregisterMBean(a);
+		Assert.assertNull(cache.get(a));
+		Assert.assertNotNull(cache.get(b));
+		Assert.assertEquals(1, cache.size());
+		cache.close();
+		Assert.assertNull(cache.get(b));
+	}
+
+	/**
+	 * Tests that an MBeanInfo requested before a registration notification is not cached
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testStaleFetch() throws Exception {
+		final MBeanInfoCache cache = new MBeanInfoCache(server, 16);
+		final ObjectName a = new ObjectName("test.info:id=stale");
+		server.registerMBean(new OpResultCacheTest.Counter(), a);
+		Assert.assertNull(cache.get(a));
+		final long generation = cache.generation();
+		final MBeanInfo info = server.getMBeanInfo(a);
+		server.unregisterMBean(a);
+		server.registerMBean(new OpResultCacheTest.Counter(), a);
+		cache.put(a, info, generation);
+		Assert.assertNull(cache.get(a));
+	}
+
+	/**
+	 * Tests that the cache is bounded and that entries go when their ObjectName is collected
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBounded() throws Exception {
+		final MBeanInfoCache cache = new MBeanInfoCache(server, 4);
+		final ObjectName[] names = new ObjectName[8];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = new ObjectName("test.info:type=Bounded,id=" + i);
+			server.registerMBean(new OpResultCacheTest.Counter(), names[i]);
+			fetch(cache, names[i]);
+		}
+		Assert.assertEquals(4, cache.size());
+		Assert.assertNull(cache.get(names[0]));
+		Assert.assertNotNull(cache.get(names[7]));
+		for(int i = 0; i < names.length; i++) {
+			server.unregisterMBean(names[i]);
+			server.registerMBean(new OpResultCacheTest.Counter(), new ObjectName(names[i].toString()));
+		}
+		for(int i = 4; i < names.length; i++) {
+			fetch(cache, new ObjectName(names[i].toString()));
+		}
+		for(int i = 0; i < 10 && cache.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(0, cache.size());
+	}
+
+}
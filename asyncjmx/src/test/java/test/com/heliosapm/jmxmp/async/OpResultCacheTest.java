@@ -0,0 +1,139 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.Query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.OpResultCache;
+
+/**
+ * <p>Title: OpResultCacheTest</p>
+ * <p>Description: Tests for the bulk service's op result cache and its registration driven invalidation</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.OpResultCacheTest</code></p>
+ */
+
+public class OpResultCacheTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+	/** The cache under test */
+	final OpResultCache cache = new OpResultCache();
+
+	/**
+	 * Creates a new OpResultCacheTest, registering the cache for registration notifications
+	 * @throws Exception thrown on any error
+	 */
+	public OpResultCacheTest() throws Exception {
+		server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, cache, null, null);
+	}
+
+	/**
+	 * Tests that repeated queries are answered from the cache and only matching registrations invalidate them
+	 * @throws Exception thrown on any error
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testQueryInvalidation() throws Exception {
+		final ObjectName pattern = new ObjectName("test.a:*");
+		server.registerMBean(new Counter(), new ObjectName("test.a:id=1"));
+		final Object first = cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{pattern, null});
+		Assert.assertSame(first, cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{pattern, null}));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		server.registerMBean(new Counter(), new ObjectName("test.b:id=1"));
+		Assert.assertSame(first, cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{pattern, null}));
+		server.registerMBean(new Counter(), new ObjectName("test.a:id=2"));
+		final Set<ObjectName> names = (Set<ObjectName>)cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{pattern, null});
+		Assert.assertEquals(2, names.size());
+		server.unregisterMBean(new ObjectName("test.a:id=1"));
+		Assert.assertEquals(1, ((Set<ObjectName>)cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{pattern, null})).size());
+		Assert.assertEquals(2, cache.getInvalidationCount());
+	}
+
+	/**
+	 * Tests the invalidation of MBeanInfo, MBean count and domains results
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testInfoCountAndDomains() throws Exception {
+		final ObjectName on = new ObjectName("test.c:id=1");
+		server.registerMBean(new Counter(), on);
+		final Object info = cache.invoke(server, MBeanOp.GETMBEANINFO, new Object[]{on});
+		final Object count = cache.invoke(server, MBeanOp.GETMBEANCOUNT, new Object[0]);
+		final Object domains = cache.invoke(server, MBeanOp.GETDOMAINS, new Object[0]);
+		server.registerMBean(new Counter(), new ObjectName("test.c:id=2"));
+		Assert.assertSame(info, cache.invoke(server, MBeanOp.GETMBEANINFO, new Object[]{on}));
+		Assert.assertSame(domains, cache.invoke(server, MBeanOp.GETDOMAINS, new Object[0]));
+		Assert.assertEquals((Integer)count + 1, cache.invoke(server, MBeanOp.GETMBEANCOUNT, new Object[0]));
+		server.unregisterMBean(on);
+		Assert.assertTrue(cache.invoke(server, MBeanOp.GETMBEANINFO, new Object[]{on}) instanceof Exception);
+	}
+
+	/**
+	 * Tests that entries expire, that a zero time to live disables caching and that filtered queries are not cached
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTtlAndBypass() throws Exception {
+		cache.setTtl(MBeanOp.GETMBEANCOUNT, 20);
+		cache.invoke(server, MBeanOp.GETMBEANCOUNT, new Object[0]);
+		Thread.sleep(40);
+		cache.invoke(server, MBeanOp.GETMBEANCOUNT, new Object[0]);
+		Assert.assertEquals(0, cache.getHitCount());
+		cache.setTtl(MBeanOp.GETDOMAINS, 0);
+		cache.invoke(server, MBeanOp.GETDOMAINS, new Object[0]);
+		cache.invoke(server, MBeanOp.QUERYNAMES, new Object[]{null, Query.eq(Query.attr("Count"), Query.value(0))});
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(2, cache.getMissCount());
+	}
+
+	/**
+	 * <p>Title: CounterMBean</p>
+	 * <p>Description: A trivial test MBean</p>
+	 */
+	public static interface CounterMBean {
+		/**
+		 * Returns the count
+		 * @return the count
+		 */
+		public int getCount();
+	}
+
+	/**
+	 * <p>Title: Counter</p>
+	 * <p>Description: A trivial test MBean</p>
+	 */
+	public static class Counter implements CounterMBean {
+		@Override
+		public int getCount() {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkResponse;
+import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.server.OrderedOpExecutor;
+import com.heliosapm.utils.tuples.NVP;
+
+/**
+ * <p>Title: ParallelExecutionTest</p>
+ * <p>Description: Tests for parallel op execution with in order responses and mutating op barriers</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.ParallelExecutionTest</code></p>
+ */
+
+public class ParallelExecutionTest {
+	/** The getter delay of the slow MBeans in ms */
+	static final long DELAY = 200;
+
+	/**
+	 * Tests that slow reads overlap, responses stay in request order and a set attribute is a barrier
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOrderedParallelReads() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final ObjectName[] names = new ObjectName[4];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = new ObjectName("test.bulk:type=Slow,id=" + i);
+			server.registerMBean(new Slow(i), names[i]);
+		}
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, BulkCodecs.TAGGED);
+			final OrderedOpExecutor executor = new OrderedOpExecutor(server, pool, 8, builder, null);
+			final long start = System.currentTimeMillis();
+			int reqId = 0;
+			for(ObjectName on: names) {
+				executor.onInvocation(reqId++, MBeanOp.GETATTRIBUTE, new Object[]{on, "Value"});
+			}
+			executor.onInvocation(reqId++, MBeanOp.SETATTRIBUTE, new Object[]{names[0], new Attribute("Value", 100)});
+			executor.onInvocation(reqId++, MBeanOp.GETATTRIBUTE, new Object[]{names[0], "Value"});
+			executor.onInvocation(reqId++, MBeanOp.GETATTRIBUTE, new Object[]{new ObjectName("test.bulk:type=Missing"), "Value"});
+			executor.finish();
+			final long elapsed = System.currentTimeMillis() - start;
+			Assert.assertTrue("Reads did not overlap: " + elapsed, elapsed < DELAY * 5);
+			Assert.assertEquals(6, executor.getParallelCount());
+			Assert.assertEquals(1, executor.getBarrierCount());
+			final BulkResponse response = builder.build();
+			final List<NVP<MBeanOp, Object>> results = response.getResponses();
+			response.release();
+			Assert.assertEquals(7, results.size());
+			for(int i = 0; i < names.length; i++) {
+				Assert.assertEquals(i, results.get(i).getValue());
+			}
+			Assert.assertSame(MBeanOp.SETATTRIBUTE, results.get(4).getKey());
+			Assert.assertEquals(100, results.get(5).getValue());
+			Assert.assertTrue(results.get(6).getValue() instanceof Exception);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that no more than the window of ops are in flight
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWindow() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final ObjectName on = new ObjectName("test.bulk:type=Slow");
+		final Slow slow = new Slow(1);
+		server.registerMBean(slow, on);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, BulkCodecs.TAGGED);
+			final OrderedOpExecutor executor = new OrderedOpExecutor(server, pool, 2, builder, null);
+			for(int i = 0; i < 6; i++) {
+				executor.onInvocation(i, MBeanOp.GETATTRIBUTE, new Object[]{on, "Value"});
+			}
+			executor.finish();
+			Assert.assertTrue("Window exceeded: " + slow.maxConcurrent, slow.maxConcurrent <= 2);
+			builder.build().release();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Slow MBean interface */
+	public static interface SlowMBean {
+		/**
+		 * Returns the value after a delay
+		 * @return the value
+		 */
+		public int getValue();
+
+		/**
+		 * Sets the value
+		 * @param value the value
+		 */
+		public void setValue(int value);
+	}
+
+	/** Slow MBean */
+	public static class Slow implements SlowMBean {
+		/** The value */
+		volatile int value;
+		/** The number of getters in progress */
+		int concurrent = 0;
+		/** The maximum number of concurrent getters */
+		volatile int maxConcurrent = 0;
+
+		/**
+		 * Creates a new Slow
+		 * @param value The initial value
+		 */
+		Slow(final int value) {
+			this.value = value;
+		}
+
+		@Override
+		public int getValue() {
+			synchronized(this) {
+				concurrent++;
+				maxConcurrent = Math.max(maxConcurrent, concurrent);
+			}
+			try {
+				Thread.sleep(DELAY);
+			} catch (InterruptedException iex) {
+				throw new RuntimeException(iex);
+			} finally {
+				synchronized(this) {
+					concurrent--;
+				}
+			}
+			return value;
+		}
+
+		@Override
+		public void setValue(final int value) {
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.HomeBulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.PipelinedDispatcher;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: PipelinedDispatcherTest</p>
+ * <p>Description: Tests for keeping several bulk invocations in flight on a high latency connection</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.PipelinedDispatcherTest</code></p>
+ */
+
+public class PipelinedDispatcherTest {
+	/** The simulated round trip latency of a bulk invocation in ms */
+	static final long LATENCY = 50;
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Creates a session on a connection to the test MBeanServer which delays each bulk invocation by {@link #LATENCY}
+	 * @return the session
+	 * @throws Exception thrown on any error
+	 */
+	protected BulkClientSession session() throws Exception {
+		server.registerMBean(new JMXBulkService(), BulkInvocationBuilder.BULK);
+		final MBeanServerConnection conn = (MBeanServerConnection)Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				if("invoke".equals(method.getName()) && BulkInvocationBuilder.BULK.equals(args[0]) && "invoke".equals(args[1])) {
+					Thread.sleep(LATENCY);
+				}
+				try {
+					return method.invoke(server, args);
+				} catch (InvocationTargetException ex) {
+					throw ex.getCause();
+				}
+			}
+		});
+		return new BulkClientSession(conn);
+	}
+
+	/**
+	 * Builds an invocation of one op
+	 * @param session The session to build in
+	 * @param calls The list to record the callback in
+	 * @param op The op
+	 * @param args The op arguments
+	 * @return the invocation
+	 */
+	protected static HomeBulkInvocation invocation(final BulkClientSession session, final List<String> calls, final MBeanOp op, final Object...args) {
+		return new BulkInvocationBuilder(false, 1024, session).op(op, Handlers.values(calls), args).build();
+	}
+
+	/**
+	 * Tests that pipelined invocations overlap their latency and that the depth is never exceeded
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPipelining() throws Exception {
+		final BulkClientSession session = session();
+		final int count = 8;
+		final List<String> calls = new ArrayList<String>();
+		long start = System.nanoTime();
+		for(int i = 0; i < count; i++) {
+			invocation(session, calls, MBeanOp.ISREGISTERED, MBeanServerDelegate.DELEGATE_NAME).send();
+		}
+		final long serial = System.nanoTime() - start;
+		Assert.assertEquals(count, calls.size());
+		final List<String> pipelinedCalls = Collections.synchronizedList(new ArrayList<String>());
+		final PipelinedDispatcher dispatcher = new PipelinedDispatcher(4);
+		try {
+			start = System.nanoTime();
+			long lastId = 0;
+			for(int i = 0; i < count; i++) {
+				final long id = dispatcher.dispatch(invocation(session, pipelinedCalls, MBeanOp.ISREGISTERED, MBeanServerDelegate.DELEGATE_NAME));
+				Assert.assertTrue(id > lastId);
+				lastId = id;
+			}
+			Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+			final long pipelined = System.nanoTime() - start;
+			Assert.assertEquals(count, pipelinedCalls.size());
+			Assert.assertEquals(count, dispatcher.getCompleted());
+			Assert.assertEquals(0, dispatcher.getFailed());
+			Assert.assertEquals(4, dispatcher.getPeakInFlight());
+			Assert.assertTrue(dispatcher.getBackpressureWaits() > 0);
+			Assert.assertTrue("Pipelined [" + pipelined + "] vs serial [" + serial + "]", pipelined * 2 < serial);
+		} finally {
+			dispatcher.close();
+		}
+	}
+
+	/**
+	 * Tests that an invocation holding a write is not reordered against the invocations around it
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMutatingBarrier() throws Exception {
+		final BulkClientSession session = session();
+		final ObjectName on = new ObjectName("test.pipeline:id=gauge");
+		server.registerMBean(new CoalescingTest.Gauge("gauge", 1), on);
+		final List<String> before = new ArrayList<String>(), set = new ArrayList<String>(), after = new ArrayList<String>();
+		final PipelinedDispatcher dispatcher = new PipelinedDispatcher(4);
+		try {
+			dispatcher.dispatch(invocation(session, before, MBeanOp.GETATTRIBUTE, on, "Value"));
+			dispatcher.dispatch(invocation(session, set, MBeanOp.SETATTRIBUTE, on, new Attribute("Value", 2)));
+			dispatcher.dispatch(invocation(session, after, MBeanOp.GETATTRIBUTE, on, "Value"));
+			Assert.assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+			Assert.assertEquals("[onObject=1]", before.toString());
+			Assert.assertEquals("[onComplete=]", set.toString());
+			Assert.assertEquals("[onObject=2]", after.toString());
+			Assert.assertEquals(1, dispatcher.getBarriers());
+			Assert.assertEquals(1, dispatcher.getPeakInFlight());
+		} finally {
+			dispatcher.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.AttributeSplitHandler;
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.BulkResponseBuilder;
+import com.heliosapm.jmxmp.async.FanOutResponseHandler;
+import com.heliosapm.jmxmp.async.HandlerTable;
+import com.heliosapm.jmxmp.async.HomeBulkResponse;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.NumericResponseHandler;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.utils.tuples.NVP;
+
+/**
+ * <p>Title: PrimitiveResultTest</p>
+ * <p>Description: Tests for long and double results sent as raw values and called back on the numeric callbacks</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.PrimitiveResultTest</code></p>
+ */
+
+public class PrimitiveResultTest {
+
+	/**
+	 * Builds a response holding numeric and non numeric results
+	 * @param codec The codec to write the response with
+	 * @return the response
+	 */
+	protected static HomeBulkResponse response(final BulkCodec codec) {
+		final BulkResponseBuilder builder = new BulkResponseBuilder(false, 1024, codec);
+		builder.op(MBeanOp.GETATTRIBUTE, 0, 42L);
+		builder.op(MBeanOp.INVOKE, 1, 2.5D);
+		builder.op(MBeanOp.GETATTRIBUTE, 2, "x");
+		builder.op(MBeanOp.GETATTRIBUTE, 3, 7);
+		builder.op(MBeanOp.GETMBEANCOUNT, 4, 12);
+		return builder.build();
+	}
+
+	/**
+	 * Tests that numeric results reach the numeric callbacks of numeric handlers whichever codec wrote them, and still read back as values
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testNumericCallbacks() throws Exception {
+		for(final BulkCodec codec: new BulkCodec[]{BulkCodecs.TAGGED, BulkCodecs.JAVA}) {
+			final List<String> calls = new ArrayList<String>();
+			final HandlerTable handlers = new HandlerTable();
+			for(int i = 0; i < 5; i++) {
+				handlers.put(i, Handlers.named(NumericResponseHandler.class, "h" + i, calls));
+			}
+			final HomeBulkResponse response = response(codec);
+			response.dispatch(handlers);
+			Assert.assertEquals(codec.getName(), "[h0:onLong:Long, h1:onDouble:Double, h2:onObject:String, h3:onObject:Integer, h4:onInteger:Integer]", calls.toString());
+			Assert.assertTrue(handlers.isEmpty());
+			final List<NVP<MBeanOp, Object>> results = response.getResponses();
+			response.release();
+			Assert.assertEquals(42L, results.get(0).getValue());
+			Assert.assertEquals(2.5D, results.get(1).getValue());
+			Assert.assertSame(MBeanOp.INVOKE, results.get(1).getKey());
+			Assert.assertEquals("x", results.get(2).getValue());
+		}
+	}
+
+	/**
+	 * Tests that handlers which do not take numeric callbacks get numeric results on the object callback whichever codec wrote them
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPlainHandlers() throws Exception {
+		for(final BulkCodec codec: new BulkCodec[]{BulkCodecs.TAGGED, BulkCodecs.JAVA}) {
+			final List<String> calls = new ArrayList<String>();
+			final HandlerTable handlers = new HandlerTable();
+			for(int i = 0; i < 5; i++) {
+				handlers.put(i, Handlers.named("h" + i, calls));
+			}
+			final HomeBulkResponse response = response(codec);
+			response.dispatch(handlers);
+			response.release();
+			Assert.assertEquals(codec.getName(), "[h0:onObject:Long, h1:onObject:Double, h2:onObject:String, h3:onObject:Integer, h4:onInteger:Integer]", calls.toString());
+		}
+	}
+
+	/**
+	 * Tests that merged getAttribute ops read from a columnar row are split onto the numeric callbacks
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSplitRow() throws Exception {
+		final AttributeTable.Builder tb = AttributeTable.builder("CompletedTaskCount", "ActiveCount", "Load", "State", "Shutdown");
+		tb.row(null, ColumnarResponseTest.poolAttributes(3));
+		final AttributeTable.Row row = tb.build().row(0);
+		final List<String> calls = new ArrayList<String>();
+		final LinkedHashMap<String, FanOutResponseHandler> targets = new LinkedHashMap<String, FanOutResponseHandler>();
+		for(final String attr: new String[]{"CompletedTaskCount", "Load", "State", "Missing"}) {
+			targets.put(attr, new FanOutResponseHandler(Handlers.named(NumericResponseHandler.class, attr, calls)).add(Handlers.named("plain" + attr, calls)));
+		}
+		MBeanOp.GETATTRIBUTES.handleResponse(row, new AttributeSplitHandler(new ObjectName("test.primitive:type=Pool"), targets));
+		Assert.assertEquals("[CompletedTaskCount:onLong:Long, plainCompletedTaskCount:onObject:Long, Load:onDouble:Double, plainLoad:onObject:Double, "
+			+ "State:onObject:String, plainState:onObject:String, Missing:onFail:AttributeNotFoundException, plainMissing:onFail:AttributeNotFoundException]", calls.toString());
+	}
+}
@@ -0,0 +1,205 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.BulkMBeanServerConnection;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.OpPriority;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: PriorityTest</p>
+ * <p>Description: Tests for critical, normal and background op priorities</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.PriorityTest</code></p>
+ */
+
+public class PriorityTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Tests that background ops are shed while the service is under load and run once it is not
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBackgroundShedding() throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		service.setShedThreshold(1);
+		final ObjectName slow = new ObjectName("test.priority:id=slow");
+		final ObjectName fast = new ObjectName("test.priority:id=fast");
+		server.registerMBean(new ParallelExecutionTest.Slow(1), slow);
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession loadSession = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final Thread load = new Thread() {
+			@Override
+			public void run() {
+				final BulkInvocationBuilder builder = loadSession.newBuilder(false, 1024);
+				builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("load", calls), slow, "Value");
+				builder.build().send();
+			}
+		};
+		load.start();
+		for(int i = 0; i < 100 && service.getPendingOpCount()==0; i++) Thread.sleep(5);
+		Assert.assertEquals(1, service.getPendingOpCount());
+
+		final BulkClientSession session = new BulkClientSession(server);
+		BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		BulkMBeanServerConnection conn = new BulkMBeanServerConnection(builder);
+		conn.withPriority(OpPriority.BACKGROUND).getAttribute(fast, "Value", Handlers.named("background", calls));
+		conn.withPriority(OpPriority.CRITICAL).getAttribute(fast, "Name", Handlers.named("critical", calls));
+		conn.getObjectInstance(fast, Handlers.named("normal", calls));
+		builder.build().send();
+		Assert.assertEquals("[background:onFail:" + RejectedExecutionException.class.getSimpleName() + ", critical:onObject:String, normal:onObjectInstance:ObjectInstance]", calls.toString());
+		Assert.assertEquals(1, service.getShedCount());
+		load.join();
+		Assert.assertEquals(0, service.getPendingOpCount());
+
+		calls.clear();
+		builder = session.newBuilder(false, 1024);
+		conn = new BulkMBeanServerConnection(builder).withPriority(OpPriority.BACKGROUND);
+		Assert.assertEquals(OpPriority.BACKGROUND, conn.getPriority());
+		conn.getAttribute(fast, "Value", Handlers.named("background", calls));
+		builder.build().send();
+		Assert.assertEquals("[background:onObject:Integer]", calls.toString());
+		Assert.assertEquals(1, service.getShedCount());
+		loadSession.close();
+		session.close();
+	}
+
+	/**
+	 * Tests that critical reads run on the calling thread, and that mutating background ops are never shed
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCriticalOps() throws Exception {
+		final JMXBulkService service = new JMXBulkService(2);
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		service.setShedThreshold(1);
+		final ObjectName fast = new ObjectName("test.priority:id=fast");
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETOBJECTINSTANCE, Handlers.named("normal", calls), fast);
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETATTRIBUTE, Handlers.named("critical", calls), fast, "Value");
+		builder.op(OpPriority.BACKGROUND, MBeanOp.SETATTRIBUTE, Handlers.named("set", calls), fast, new Attribute("Value", 3));
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETATTRIBUTE, Handlers.named("critical2", calls), fast, "Value");
+		builder.build().send();
+		Assert.assertEquals("[normal:onObjectInstance:ObjectInstance, critical:onObject:Integer, set:onComplete:null, critical2:onObject:Integer]", calls.toString());
+		Assert.assertEquals(2, service.getCriticalOpCount());
+		Assert.assertEquals(0, service.getShedCount());
+		session.close();
+	}
+
+	/**
+	 * Tests that a serial service executes critical reads ahead of the ops decoded before them, but not ahead of a mutating op
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSerialCriticalOps() throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final ObjectName on = new ObjectName("test.priority:id=reads");
+		server.registerMBean(new Reads(order), on);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		for(int i = 0; i < 3; i++) {
+			// distinct MBeans so the reads are not coalesced
+			final ObjectName normal = new ObjectName("test.priority:id=reads" + i);
+			server.registerMBean(new Reads(order), normal);
+			builder.op(MBeanOp.GETATTRIBUTES, Handlers.named("normal", calls), normal, new String[]{"Normal"});
+		}
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETATTRIBUTE, Handlers.named("critical", calls), on, "Critical");
+		builder.op(MBeanOp.SETATTRIBUTE, Handlers.named("set", calls), on, new Attribute("Value", 3));
+		builder.op(OpPriority.CRITICAL, MBeanOp.GETATTRIBUTE, Handlers.named("critical2", calls), on, "Critical");
+		builder.build().send();
+		Assert.assertEquals("[Critical, Normal, Normal, Normal, Value, Critical]", order.toString());
+		Assert.assertEquals("[normal:onAttributeList:AttributeList, normal:onAttributeList:AttributeList, normal:onAttributeList:AttributeList, critical:onObject:Integer, set:onComplete:null, critical2:onObject:Integer]", calls.toString());
+		Assert.assertEquals(2, service.getCriticalOpCount());
+		session.close();
+	}
+
+	/** Reads MBean interface */
+	public static interface ReadsMBean {
+		/**
+		 * Returns a normal value
+		 * @return the value
+		 */
+		public int getNormal();
+		/**
+		 * Returns a critical value
+		 * @return the value
+		 */
+		public int getCritical();
+		/**
+		 * Sets a value
+		 * @param value the value
+		 */
+		public void setValue(int value);
+	}
+
+	/** MBean which records the order its attributes are accessed in */
+	public static class Reads implements ReadsMBean {
+		/** The names of the accessed attributes */
+		final List<String> order;
+
+		/**
+		 * Creates a new Reads
+		 * @param order The list to record the names of the accessed attributes in
+		 */
+		public Reads(final List<String> order) {
+			this.order = order;
+		}
+
+		@Override
+		public int getNormal() {
+			order.add("Normal");
+			return 1;
+		}
+		@Override
+		public int getCritical() {
+			order.add("Critical");
+			return 2;
+		}
+		@Override
+		public void setValue(final int value) {
+			order.add("Value");
+		}
+	}
+}
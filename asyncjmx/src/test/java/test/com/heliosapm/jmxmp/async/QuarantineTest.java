@@ -0,0 +1,129 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+import com.heliosapm.jmxmp.async.server.MBeanQuarantine;
+
+/**
+ * <p>Title: QuarantineTest</p>
+ * <p>Description: Tests for isolating slow MBeans in the quarantine lane</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.QuarantineTest</code></p>
+ */
+
+public class QuarantineTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Tests that a slow MBean is quarantined and its reads are then executed in the lane, up to the lane capacity
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testQuarantine() throws Exception {
+		final JMXBulkService service = new JMXBulkService(2);
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final MBeanQuarantine quarantine = service.getQuarantine();
+		quarantine.setThreshold(50);
+		final ObjectName slow = new ObjectName("test.quarantine:id=slow");
+		final ObjectName fast = new ObjectName("test.quarantine:id=fast");
+		server.registerMBean(new ParallelExecutionTest.Slow(1), slow);
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("slow", calls), slow, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("fast", calls), fast, "Value");
+		builder.build().send();
+		Assert.assertEquals("[slow:onObject:Integer, fast:onObject:Integer]", calls.toString());
+		Assert.assertEquals(Arrays.asList(slow.toString()), Arrays.asList(quarantine.getQuarantined()));
+		Assert.assertEquals(0, quarantine.getIsolatedCount());
+		Assert.assertTrue(quarantine.getLatency(slow.toString()) >= 50);
+		Assert.assertTrue(quarantine.getLatency(fast.toString()) < 50);
+
+		calls.clear();
+		builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("slow", calls), slow, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("fast", calls), fast, "Value");
+		builder.build().send();
+		Assert.assertEquals("[slow:onObject:Integer, fast:onObject:Integer]", calls.toString());
+		Assert.assertEquals(1, quarantine.getIsolatedCount());
+		Assert.assertEquals(1, quarantine.getQuarantineCount());
+
+		calls.clear();
+		quarantine.setLaneCapacity(1);
+		builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETATTRIBUTES, Handlers.named("slow1", calls), slow, new String[]{"Value"});
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("slow2", calls), slow, "Value");
+		builder.build().send();
+		Assert.assertEquals("[slow1:onAttributeList:AttributeList, slow2:onFail:" + RejectedExecutionException.class.getSimpleName() + "]", calls.toString());
+		Assert.assertEquals(1, quarantine.getRejectedCount());
+		Assert.assertEquals(0, quarantine.getLaneDepth());
+		session.close();
+	}
+
+	/**
+	 * Tests pinning and unpinning MBeans through the quarantine MBean
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPinning() throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final ObjectName quarantineName = MBeanQuarantine.objectName(BulkInvocationBuilder.BULK);
+		Assert.assertTrue(server.isRegistered(quarantineName));
+		final ObjectName fast = new ObjectName("test.quarantine:id=fast");
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		server.invoke(quarantineName, "pin", new Object[]{fast.toString()}, new String[]{String.class.getName()});
+		Assert.assertArrayEquals(new String[]{fast.toString()}, (String[])server.getAttribute(quarantineName, "Quarantined"));
+		Assert.assertArrayEquals(new String[]{fast.toString()}, (String[])server.getAttribute(quarantineName, "Pinned"));
+		final BulkClientSession session = new BulkClientSession(server);
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETATTRIBUTE, Handlers.named("fast", calls), fast, "Value");
+		builder.build().send();
+		Assert.assertEquals("[fast:onObject:Integer]", calls.toString());
+		// a pinned MBean stays quarantined however fast it is
+		Assert.assertEquals(1L, server.getAttribute(quarantineName, "IsolatedCount"));
+		Assert.assertArrayEquals(new String[]{fast.toString()}, (String[])server.getAttribute(quarantineName, "Quarantined"));
+		server.invoke(quarantineName, "unpin", new Object[]{fast.toString()}, new String[]{String.class.getName()});
+		Assert.assertEquals(0, ((String[])server.getAttribute(quarantineName, "Quarantined")).length);
+		Assert.assertEquals(0, ((String[])server.getAttribute(quarantineName, "Pinned")).length);
+		server.unregisterMBean(BulkInvocationBuilder.BULK);
+		Assert.assertFalse(server.isRegistered(quarantineName));
+		session.close();
+	}
+}
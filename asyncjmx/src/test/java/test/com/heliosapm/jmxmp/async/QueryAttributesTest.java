@@ -0,0 +1,185 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+import com.heliosapm.jmxmp.async.AttributeTable;
+import com.heliosapm.jmxmp.async.AttributeTableResponseHandler;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.codec.BulkCodec;
+import com.heliosapm.jmxmp.async.codec.BulkCodecs;
+import com.heliosapm.jmxmp.async.codec.BulkEncoder;
+
+/**
+ * <p>Title: QueryAttributesTest</p>
+ * <p>Description: Tests for the query-and-fetch op and its columnar result</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.QueryAttributesTest</code></p>
+ */
+
+public class QueryAttributesTest {
+
+	/**
+	 * Registers sample MBeans in a new MBeanServer and queries them
+	 * @return the query result
+	 * @throws Exception thrown on any error
+	 */
+	protected static AttributeTable query() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		for(int i = 0; i < 3; i++) {
+			server.registerMBean(new Counter(i), new ObjectName("test.bulk:type=Counter,id=" + i));
+		}
+		server.registerMBean(new Counter(9), new ObjectName("test.other:type=Counter"));
+		return (AttributeTable)MBeanOp.QUERYATTRIBUTES.invoke(server, new ObjectName("test.bulk:type=Counter,*"), null, 
+				new String[]{"Count", "Rate", "Name", "Active", "Missing"});
+	}
+
+	/**
+	 * Tests that only handlers implementing the table callback are called back on it, and other handlers get the table as an object
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTableCallback() throws Exception {
+		final AttributeTable table = query();
+		final List<String> calls = new ArrayList<String>();
+		MBeanOp.QUERYATTRIBUTES.handleResponse(table, Handlers.methods(AttributeTableResponseHandler.class, calls));
+		MBeanOp.QUERYATTRIBUTES.handleResponse(table, Handlers.methods(AsyncJMXResponseHandler.class, calls));
+		Assert.assertEquals("[onAttributeTable, onObject]", calls.toString());
+	}
+
+	/**
+	 * Tests that matching MBeans are read into typed columns in name order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTypedColumns() throws Exception {
+		final AttributeTable table = query();
+		Assert.assertEquals(3, table.getRowCount());
+		Assert.assertEquals(5, table.getColumnCount());
+		Assert.assertEquals(new ObjectName("test.bulk:type=Counter,id=2"), table.getObjectName(2));
+		Assert.assertEquals(AttributeTable.TYPE_LONG, table.getColumnType(0));
+		Assert.assertEquals(AttributeTable.TYPE_DOUBLE, table.getColumnType(1));
+		Assert.assertEquals(AttributeTable.TYPE_OBJECT, table.getColumnType(2));
+		Assert.assertEquals(AttributeTable.TYPE_BOOLEAN, table.getColumnType(3));
+		Assert.assertEquals(2000L, table.getLong(2, table.getColumnIndex("Count")));
+		Assert.assertEquals(1.5D, table.getDouble(1, 1), 0D);
+		Assert.assertEquals("c1", table.getValue(1, 2));
+		Assert.assertTrue(table.getBoolean(0, 3));
+		Assert.assertFalse(table.isPresent(0, 4));
+		Assert.assertNull(table.getValue(0, 4));
+		Assert.assertEquals(4, table.getRow(0).size());
+	}
+
+	/**
+	 * Tests that the table survives both codecs
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCodecRoundTrip() throws Exception {
+		final AttributeTable table = query();
+		for(BulkCodec codec: new BulkCodec[]{BulkCodecs.JAVA, BulkCodecs.TAGGED}) {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final BulkEncoder encoder = codec.newEncoder(baos, null);
+			encoder.writeValue(table);
+			encoder.flush();
+			final AttributeTable read = (AttributeTable)codec.newDecoder(new ByteArrayInputStream(baos.toByteArray()), null).readValue();
+			Assert.assertEquals(table.getRowCount(), read.getRowCount());
+			for(int r = 0; r < table.getRowCount(); r++) {
+				Assert.assertEquals(table.getObjectName(r), read.getObjectName(r));
+				for(int c = 0; c < table.getColumnCount(); c++) {
+					Assert.assertEquals(table.getValue(r, c), read.getValue(r, c));
+				}
+			}
+		}
+	}
+
+	/** Counter MBean interface */
+	public static interface CounterMBean {
+		/**
+		 * Returns the count
+		 * @return the count
+		 */
+		public long getCount();
+
+		/**
+		 * Returns the rate
+		 * @return the rate
+		 */
+		public double getRate();
+
+		/**
+		 * Returns the name
+		 * @return the name
+		 */
+		public String getName();
+
+		/**
+		 * Indicates if the counter is active
+		 * @return true if active
+		 */
+		public boolean isActive();
+	}
+
+	/** Counter MBean */
+	public static class Counter implements CounterMBean {
+		/** The counter id */
+		final int id;
+
+		/**
+		 * Creates a new Counter
+		 * @param id The counter id
+		 */
+		Counter(final int id) {
+			this.id = id;
+		}
+
+		@Override
+		public long getCount() {
+			return id * 1000L;
+		}
+
+		@Override
+		public double getRate() {
+			return id * 1.5D;
+		}
+
+		@Override
+		public String getName() {
+			return "c" + id;
+		}
+
+		@Override
+		public boolean isActive() {
+			return id % 2 == 0;
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.BulkMBeanServerConnection;
+import com.heliosapm.jmxmp.async.HomeBulkInvocation;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.QueryCursor;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: QueryCursorTest</p>
+ * <p>Description: Tests for paged query cursors</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.QueryCursorTest</code></p>
+ */
+
+public class QueryCursorTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+	/** The pattern matching the test MBeans */
+	final ObjectName pattern = objectName("test.cursor:*");
+	
+	/**
+	 * Registers the bulk service and the passed number of test MBeans
+	 * @param count The number of test MBeans
+	 * @return the bulk service
+	 * @throws Exception thrown on any error
+	 */
+	protected JMXBulkService register(final int count) throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		for(int i = 0; i < count; i++) {
+			server.registerMBean(new CoalescingTest.Gauge("g" + i, i), new ObjectName(String.format("test.cursor:id=%03d", i)));
+		}
+		return service;
+	}
+
+	/**
+	 * Tests that a cursor hands out every matching name in order, a page at a time, and closes itself at the end
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPagedNames() throws Exception {
+		final JMXBulkService service = register(25);
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkMBeanServerConnection conn = new BulkMBeanServerConnection(session.newBuilder(false, 1024));
+		final QueryCursor<ObjectName> cursor = conn.queryNames(pattern, null, 10);
+		final List<ObjectName> names = new ArrayList<ObjectName>();
+		while(cursor.hasNext()) {
+			names.add(cursor.next());
+			if(names.size()==5) Assert.assertEquals(1, service.getQueryCursorCount());
+		}
+		Assert.assertEquals(25, names.size());
+		for(int i = 0; i < 25; i++) {
+			Assert.assertEquals(new ObjectName(String.format("test.cursor:id=%03d", i)), names.get(i));
+		}
+		Assert.assertEquals(3, cursor.getPageCount());
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		Assert.assertTrue(cursor.nextPage().isEmpty());
+		cursor.close();
+
+		final QueryCursor<ObjectInstance> instances = conn.queryMBeans(pattern, null, 100);
+		int count = 0;
+		while(instances.hasNext()) {
+			Assert.assertEquals(CoalescingTest.Gauge.class.getName(), instances.next().getClassName());
+			count++;
+		}
+		Assert.assertEquals(25, count);
+		Assert.assertEquals(1, instances.getPageCount());
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		session.close();
+	}
+
+	/**
+	 * Tests that abandoned cursors are closed by the client or expired by the service
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCloseAndExpiry() throws Exception {
+		final JMXBulkService service = register(12);
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkMBeanServerConnection conn = new BulkMBeanServerConnection(session.newBuilder(false, 1024));
+		QueryCursor<ObjectName> cursor = conn.queryNames(pattern, null, 5);
+		Assert.assertEquals(5, cursor.nextPage().size());
+		Assert.assertEquals(1, service.getQueryCursorCount());
+		cursor.close();
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		Assert.assertFalse(cursor.hasNext());
+
+		service.setQueryCursorIdleTimeout(1);
+		cursor = conn.queryNames(pattern, null, 5);
+		Assert.assertEquals(5, cursor.nextPage().size());
+		Thread.sleep(20);
+		try {
+			cursor.nextPage();
+			Assert.fail("Expected expired cursor");
+		} catch (RuntimeException ex) {
+			Assert.assertEquals(IllegalStateException.class, ex.getCause().getClass());
+		}
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		Assert.assertEquals(1, service.getExpiredQueryCursorCount());
+		session.close();
+	}
+	
+	/**
+	 * Creates an ObjectName
+	 * @param name The ObjectName string
+	 * @return the ObjectName
+	 */
+	static ObjectName objectName(final String name) {
+		try {
+			return new ObjectName(name);
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to create ObjectName [" + name + "]", ex);
+		}
+	}
+
+	/**
+	 * Tests that page fetches are neither coalesced nor treated as mutating barriers
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFetchesNotCoalesced() throws Exception {
+		final JMXBulkService service = register(12);
+		final BulkClientSession session = new BulkClientSession(server);
+		final BulkMBeanServerConnection conn = new BulkMBeanServerConnection(session.newBuilder(false, 1024));
+		final QueryCursor<ObjectName> cursor = conn.queryNames(pattern, null, 4);
+		Assert.assertEquals(4, cursor.nextPage().size());
+		Assert.assertTrue(MBeanOp.FETCHQUERYCURSOR.isStateful());
+		Assert.assertFalse(MBeanOp.FETCHQUERYCURSOR.isMutating());
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.FETCHQUERYCURSOR, Handlers.named("page2", calls), cursor.getCursorId(), 4);
+		builder.op(MBeanOp.FETCHQUERYCURSOR, Handlers.named("page3", calls), cursor.getCursorId(), 4);
+		final HomeBulkInvocation hbi = builder.build();
+		Assert.assertEquals(2, hbi.getOpCount());
+		Assert.assertEquals(0, hbi.getCoalescedOps());
+		Assert.assertFalse(hbi.isMutating());
+		hbi.send();
+		Assert.assertEquals("[page2:onObject:QueryPage, page3:onObject:QueryPage]", calls.toString());
+		// the second fetch reached the last page, so the cursor closed itself
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		session.close();
+	}
+
+	/**
+	 * Tests that a cursor can only be used by the session that opened it, is closed with that session,
+	 * and is not reachable through the bulk service MBean
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSessionOwnedCursors() throws Exception {
+		final JMXBulkService service = register(12);
+		for(final MBeanOperationInfo info: server.getMBeanInfo(BulkInvocationBuilder.BULK).getOperations()) {
+			Assert.assertFalse(info.getName(), info.getName().contains("QueryCursor"));
+		}
+		final BulkClientSession owner = new BulkClientSession(server);
+		final BulkClientSession other = new BulkClientSession(server);
+		final QueryCursor<ObjectName> cursor = new BulkMBeanServerConnection(owner.newBuilder(false, 1024)).queryNames(pattern, null, 4);
+		Assert.assertEquals(4, cursor.nextPage().size());
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final BulkInvocationBuilder builder = other.newBuilder(false, 1024);
+		builder.op(MBeanOp.FETCHQUERYCURSOR, Handlers.named("fetch", calls), cursor.getCursorId(), 4);
+		builder.op(MBeanOp.CLOSEQUERYCURSOR, Handlers.named("close", calls), cursor.getCursorId());
+		builder.build().send();
+		Assert.assertEquals("[fetch:onFail:IllegalStateException, close:onBoolean:Boolean]", calls.toString());
+		Assert.assertEquals(1, service.getQueryCursorCount());
+		Assert.assertEquals(4, cursor.nextPage().size());
+		owner.close();
+		Assert.assertEquals(0, service.getQueryCursorCount());
+		other.close();
+	}
+}
@@ -0,0 +1,111 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package test.com.heliosapm.jmxmp.async;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.heliosapm.jmxmp.async.AsyncJMXResponseHandler;
+import com.heliosapm.jmxmp.async.BulkClientSession;
+import com.heliosapm.jmxmp.async.BulkInvocationBuilder;
+import com.heliosapm.jmxmp.async.MBeanOp;
+import com.heliosapm.jmxmp.async.server.JMXBulkService;
+
+/**
+ * <p>Title: StreamingTest</p>
+ * <p>Description: Tests for streaming op results back as each op completes</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.com.heliosapm.jmxmp.async.StreamingTest</code></p>
+ */
+
+public class StreamingTest {
+	/** The MBeanServer under test */
+	final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	/**
+	 * Creates a handler which records its name, callback and the elapsed time in ms when called back
+	 * @param name The name recorded
+	 * @param start The start time in nanos
+	 * @param calls The list to record the callbacks in
+	 * @param latch Counted down on each callback
+	 * @return the handler
+	 */
+	protected static AsyncJMXResponseHandler timed(final String name, final long start, final List<String> calls, final CountDownLatch latch) {
+		return Handlers.proxy(AsyncJMXResponseHandler.class, new Handlers.Callback() {
+			@Override
+			public void call(final Method method, final Object[] args) {
+				calls.add(name + ":" + method.getName() + ":" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				latch.countDown();
+			}
+		});
+	}
+
+	/**
+	 * Tests that fast ops are called back without waiting for a slow op in the same invocation
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOutOfOrderResults() throws Exception {
+		final JMXBulkService service = new JMXBulkService();
+		server.registerMBean(service, BulkInvocationBuilder.BULK);
+		final ObjectName slow = new ObjectName("test.stream:id=slow");
+		final ObjectName fast = new ObjectName("test.stream:id=fast");
+		server.registerMBean(new ParallelExecutionTest.Slow(1), slow);
+		server.registerMBean(new CoalescingTest.Gauge("fast", 2), fast);
+		final BulkClientSession session = new BulkClientSession(server);
+		Assert.assertTrue(session.enableStreaming());
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(3);
+		final long start = System.nanoTime();
+		final BulkInvocationBuilder builder = session.newBuilder(false, 1024);
+		builder.op(MBeanOp.GETATTRIBUTE, timed("slow", start, calls, latch), slow, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, timed("fast", start, calls, latch), fast, "Value");
+		builder.op(MBeanOp.GETATTRIBUTE, timed("missing", start, calls, latch), new ObjectName("test.stream:id=none"), "Value");
+		final long streamId = builder.build().stream();
+		Assert.assertTrue(streamId > 0);
+		Assert.assertTrue("Results were not streamed", latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(3, calls.size());
+		Assert.assertTrue(calls.get(2), calls.get(2).startsWith("slow:onObject:"));
+		for(final String call: calls.subList(0, 2)) {
+			final long elapsed = Long.parseLong(call.substring(call.lastIndexOf(':') + 1));
+			Assert.assertTrue(call + " waited for the slow op", elapsed < ParallelExecutionTest.DELAY);
+		}
+		final String first = calls.get(0).substring(0, calls.get(0).lastIndexOf(':'));
+		final String second = calls.get(1).substring(0, calls.get(1).lastIndexOf(':'));
+		Assert.assertTrue(first + ", " + second, (first + second).equals("fast:onObjectmissing:onFail") || (first + second).equals("missing:onFailfast:onObject"));
+		Assert.assertEquals(1, service.getStreamCount());
+		Assert.assertEquals(3, service.getStreamedResultCount());
+		// the completion notification follows the last result
+		for(int i = 0; i < 100 && session.getStreams().size() > 0; i++) Thread.sleep(10);
+		Assert.assertEquals(0, session.getStreams().size());
+		Assert.assertEquals(0, session.getStreams().getLostCount());
+		session.close();
+	}
+}